@@ -8,7 +8,12 @@
  */
 package booksearch_es.controller;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.web.servlet.support.RequestContextUtils;
+
 import booksearch_es.service.BookSearchService;
+import booksearch_es.service.ElasticsearchUnavailableException;
 
 /**
  * <h4>
@@ -19,6 +24,11 @@ import booksearch_es.service.BookSearchService;
  * to be shared by all subclasses (which makes them all singleton classes).
  * </p>
  * <p>
+ * When Elasticsearch is overloaded or failing, the BookSearchService methods throw an ElasticsearchUnavailableException
+ * (see ConcurrencyLimitTransport). The subclasses return a "service unavailable" message to the view in the
+ * SERVICE_ERROR attribute.
+ * </p>
+ * <p>
  * May 22, 2018
  * </p>
  * 
@@ -27,6 +37,7 @@ import booksearch_es.service.BookSearchService;
 abstract class BookControllerBase {
     private static BookSearchService bookSearchService = null; 
     protected static final String BOOK_LIST = "bookList";
+    protected static final String SERVICE_ERROR = "service_error";
     
     public BookControllerBase() {
         if (bookSearchService == null) {
@@ -42,4 +53,27 @@ abstract class BookControllerBase {
         return bookSearchService;
     }
     
+    /**
+     * @return the message that is displayed when a request to Elasticsearch is rejected.
+     */
+    protected static String serviceErrorMessage(final ElasticsearchUnavailableException e) {
+        return "The book database is busy, please try again in a few seconds (" + e.getMessage() + ")";
+    }
+    
+    /**
+     * <p>
+     * Return the service error message in a flash attribute and redirect to a page. This is used by
+     * the ExceptionHandler methods, which do not have a RedirectAttributes argument.
+     * </p>
+     * 
+     * @param request the HTTP request that was rejected
+     * @param e the rejection exception
+     * @param redirectPage the page to redirect to (e.g., "/search")
+     * @return the redirect view name
+     */
+    protected static String redirectWithServiceError(final HttpServletRequest request, final ElasticsearchUnavailableException e,
+                                                     final String redirectPage) {
+        RequestContextUtils.getOutputFlashMap(request).put(SERVICE_ERROR, serviceErrorMessage(e));
+        return "redirect:" + redirectPage;
+    }
 }
@@ -10,13 +10,17 @@ package booksearch_es.controller;
 
 import java.util.List;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import booksearch_es.model.BookInfo;
+import booksearch_es.service.ElasticsearchUnavailableException;
 
 /**
  * <h4>
@@ -62,5 +66,12 @@ public class BookExploreController extends BookControllerBase {
         }
        return "redirect:/";
     }
-                                     
+    
+    /**
+     * A query that was rejected because Elasticsearch is busy or failing. Return to the index page with an error message.
+     */
+    @ExceptionHandler(ElasticsearchUnavailableException.class)
+    public String exploreUnavailable(ElasticsearchUnavailableException e, HttpServletRequest request) {
+        return redirectWithServiceError(request, e, "/");
+    }
 }
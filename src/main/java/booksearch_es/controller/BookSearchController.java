@@ -9,18 +9,28 @@
 package booksearch_es.controller;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import booksearch_es.model.BookInfo;
+import booksearch_es.model.CompactBookInfo;
+import booksearch_es.service.ElasticsearchUnavailableException;
+import booksearch_es.service.OperationClass;
 
 /**
  * <h4>
@@ -34,6 +44,10 @@ import booksearch_es.model.BookInfo;
  * to strings, as are attributes.  See https://stackoverflow.com/a/24302616
  * </p>
  * <p>
+ * If Elasticsearch is busy or failing, the search is rejected (without waiting) and the search page displays an
+ * error message.
+ * </p>
+ * <p>
  * For a reference on Spring controllers, see http://www.codejava.net/frameworks/spring/14-tips-for-writing-spring-mvc-controller
  * </p>
  * <p>
@@ -126,16 +140,56 @@ public class BookSearchController extends BookControllerBase {
      * <p>
      * Return all books in the database
      * </p>
+     * <p>
+     * Listing all of the books is the slowest search, so it is done asynchronously and the Tomcat thread is
+     * not held while Elasticsearch works. If the user abandons the request (the connection is closed) or the list
+     * is not ready within the search timeout (see OperationClass), the Elasticsearch searches are cancelled.
+     * </p>
      * 
      * @param redirect
-     * @return
+     * @return the redirect page, when the list is ready
      */
     @RequestMapping(value = "/list-all-books", method = RequestMethod.POST)
-    public String getAllBooks( RedirectAttributes redirect ) {
-        List<BookInfo> bookInfoList = getBookSearchService().getBooks();
-        if (bookInfoList != null && bookInfoList.size() > 0) {
-            redirect.addFlashAttribute(BOOK_LIST, bookInfoList);
-        }
-        return "redirect:/search";
+    public DeferredResult<String> getAllBooks( RedirectAttributes redirect ) {
+        final DeferredResult<String> redirectPage = new DeferredResult<String>( (long)OperationClass.SEARCH.timeoutMillis() );
+        final CompletableFuture<List<CompactBookInfo>> books = getBookSearchService().getCompactBooksAsync();
+        redirectPage.onTimeout(() -> {
+            logger.warn("list-all-books timed out");
+            books.cancel(true);
+            redirect.addFlashAttribute(SERVICE_ERROR, "Listing the books took too long, please try again later");
+            redirectPage.setResult("redirect:/search");
+        });
+        redirectPage.onError(t -> {
+            // the client closed the connection
+            logger.info("list-all-books abandoned: " + t.getLocalizedMessage());
+            books.cancel(true);
+        });
+        books.whenComplete((bookInfoList, ex) -> {
+            if (ex == null) {
+                if (bookInfoList != null && bookInfoList.size() > 0) {
+                    redirect.addFlashAttribute(BOOK_LIST, bookInfoList);
+                }
+            } else {
+                Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+                if (cause instanceof ElasticsearchUnavailableException) {
+                    redirect.addFlashAttribute(SERVICE_ERROR, serviceErrorMessage( (ElasticsearchUnavailableException)cause ));
+                } else if (! (cause instanceof CancellationException)) {
+                    logger.error("list-all-books failed: " + cause.getLocalizedMessage());
+                }
+            }
+            redirectPage.setResult("redirect:/search");
+        });
+        return redirectPage;
+    }
+    
+    /**
+     * <p>
+     * A search that was rejected because Elasticsearch is busy or failing. Return to the search page with an error message.
+     * </p>
+     */
+    @ExceptionHandler(ElasticsearchUnavailableException.class)
+    public String searchUnavailable(ElasticsearchUnavailableException e, HttpServletRequest request) {
+        logger.warn("Search rejected: " + e.getMessage());
+        return redirectWithServiceError(request, e, "/search");
     }
 }
@@ -8,15 +8,19 @@
  */
 package booksearch_es.controller;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.servlet.ModelAndView;
 
+import booksearch_es.json.Facet;
 import booksearch_es.json.JSONUtils;
 import booksearch_es.service.BookSearchService;
+import booksearch_es.service.ElasticsearchUnavailableException;
 
 /**
  * <h4>
@@ -31,6 +35,12 @@ import booksearch_es.service.BookSearchService;
  * the view via the model, instead of as a redirect flash attribute.
  * </p>
  * <p>
+ * Both aggregates are requested with one search (see BookSearchService.facetAggregation()).
+ * </p>
+ * <p>
+ * If Elasticsearch is busy or failing, the page is displayed without the aggregates, with an error message.
+ * </p>
+ * <p>
  * May 22, 2018
  * </p>
  * 
@@ -41,17 +51,26 @@ public class IndexController extends BookControllerBase {
     private BookSearchService mBookService = new BookSearchService();
     private final static String GENRE_AGG ="genreAgg";
     private final static String PUBLISHER_AGG = "publisherAgg";
+    private final static Facet GENRE_FACET = new Facet("GenreAgg", "genre", 10000, Facet.Order.KEY_ASC);
+    private final static Facet PUBLISHER_FACET = new Facet("PublisherAgg", "publisher.keyword", 10000, Facet.Order.KEY_ASC);
+    // The page facets are fetched with one Elasticsearch request
+    private final static List<Facet> INDEX_FACETS = Arrays.asList(GENRE_FACET, PUBLISHER_FACET);
 
     @GetMapping("/")
     public ModelAndView index(ModelMap model) {
-        List<JSONUtils.BucketAggregation> genreAgg = mBookService.bucketAggregation("GenreAgg", "genre");
-        if (genreAgg != null && genreAgg.size() > 0) {
-            // Pass the genreAgg to the view via the model map.
-            model.addAttribute(GENRE_AGG, genreAgg);
-        }
-        List<JSONUtils.BucketAggregation> publisherAgg = mBookService.bucketAggregation("PublisherAgg", "publisher.keyword");
-        if (publisherAgg != null && publisherAgg.size() > 0) {
-            model.addAttribute(PUBLISHER_AGG, publisherAgg);
+        try {
+            Map<String, List<JSONUtils.BucketAggregation>> facets = mBookService.facetAggregation(INDEX_FACETS);
+            List<JSONUtils.BucketAggregation> genreAgg = facets.get( GENRE_FACET.getName() );
+            if (genreAgg != null && genreAgg.size() > 0) {
+                // Pass the genreAgg to the view via the model map.
+                model.addAttribute(GENRE_AGG, genreAgg);
+            }
+            List<JSONUtils.BucketAggregation> publisherAgg = facets.get( PUBLISHER_FACET.getName() );
+            if (publisherAgg != null && publisherAgg.size() > 0) {
+                model.addAttribute(PUBLISHER_AGG, publisherAgg);
+            }
+        } catch (ElasticsearchUnavailableException e) {
+            model.addAttribute(SERVICE_ERROR, serviceErrorMessage(e));
         }
         return new ModelAndView("index", model);
     }
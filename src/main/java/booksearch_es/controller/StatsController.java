@@ -0,0 +1,115 @@
+/** \file
+ * 
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.pool.PoolStats;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import booksearch_es.model.BookIndex;
+import booksearch_es.service.AsyncHttpService;
+import booksearch_es.service.Bulkhead;
+import booksearch_es.service.CompressionStats;
+import booksearch_es.service.ElasticsearchService;
+import booksearch_es.service.ConcurrencyLimitTransport;
+import booksearch_es.service.HedgingTransport;
+import booksearch_es.service.Http2Service;
+import booksearch_es.service.HttpService;
+import booksearch_es.service.MultiSearchTransport;
+import booksearch_es.service.NodePool;
+import booksearch_es.service.PriorityTransport;
+import booksearch_es.service.RetryPolicy;
+import booksearch_es.service.SingleFlight;
+import booksearch_es.service.TaskCanceller;
+
+/**
+ * <h4>
+ * StatsController
+ * </h4>
+ * <p>
+ * Return statistics for the Elasticsearch client as JSON. These are used to size the HTTP connection pool.
+ * </p>
+ * <pre>
+ * GET /es-stats
+ * {"pool":{"leased":2,"pending":0,"available":6,"max":64},
+ *  "asyncPool":{"leased":0,"pending":0,"available":4,"max":64},
+ *  "http2":{"connections":1,"requests":5400,"streams":12},
+ *  "streaming":{"responses":120,"bytesNotCopied":4718592},
+ *  "bytes":{"_search":{"requestBytes":41230,"requestWireBytes":41230,"responseBytes":4718592,"responseWireBytes":693418}, ...},
+ *  "hedging":{"searches":1200,"hedgesSent":48,"hedgesWon":31,"hedgesOverBudget":2,"delayMillis":85},
+ *  "limiter":{"limit":24,"inFlight":3,"breakerState":0,"breakerOpened":0,"limitRejections":0,"breakerRejections":0,"failures":1},
+ *  "retries":{"retries":12,"retriesExhausted":0},
+ *  "singleFlight":{"leaders":950,"coalesced":310},
+ *  "timeouts":{"deadlinesExceeded":3,"abandoned":7,"tasksCancelled":9},
+ *  "bulkheads":{"search":{"threads":16,"active":2,"queued":0,"queueRemaining":64,"submitted":5400,"completed":5398,"rejected":0,"callerRuns":0}, ...},
+ *  "priority":{"batchRatePerMinute":600,"rateDecreases":2,"interactiveInFlight":1,"interactiveP95Millis":48,"batchRequests":120,"batchWaitMillis":5300,"yields":4},
+ *  "nodes":{"http://es1:9200":{"outstanding":1,"failures":0,"live":true}, ...}}
+ * </pre>
+ * <p>
+ * The shard request cache statistics of the book index are read from Elasticsearch, so they are returned by a
+ * separate end-point (the statistics above are kept by the client and do not send a request):
+ * </p>
+ * <pre>
+ * GET /es-stats/request-cache
+ * {"memory_size_in_bytes":4096,"evictions":0,"hit_count":120,"miss_count":8}
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ * 
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+@Controller
+public class StatsController {
+
+    @GetMapping( value="/es-stats" )
+    @ResponseBody
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        addPoolStats(stats, "pool", HttpService.getPoolStats());
+        addPoolStats(stats, "asyncPool", AsyncHttpService.getPoolStats());
+        stats.put("http2", Http2Service.snapshot());
+        Map<String, Long> streaming = new LinkedHashMap<String, Long>();
+        streaming.put("responses", HttpService.getStreamedResponseCount());
+        streaming.put("bytesNotCopied", HttpService.getStreamedResponseBytes());
+        stats.put("streaming", streaming);
+        stats.put("bytes", CompressionStats.snapshot());
+        stats.put("hedging", HedgingTransport.snapshot());
+        stats.put("msearch", MultiSearchTransport.snapshot());
+        stats.put("limiter", ConcurrencyLimitTransport.snapshot());
+        stats.put("retries", RetryPolicy.snapshot());
+        stats.put("singleFlight", SingleFlight.snapshot());
+        stats.put("timeouts", TaskCanceller.snapshot());
+        stats.put("bulkheads", Bulkhead.snapshotAll());
+        stats.put("priority", PriorityTransport.snapshot());
+        stats.put("nodes", NodePool.defaultPool().snapshot());
+        return stats;
+    }
+    
+    @GetMapping( value="/es-stats/request-cache" )
+    @ResponseBody
+    public Map<String, Long> requestCacheStats() {
+        return new ElasticsearchService().requestCacheStats( BookIndex.BOOK_INDEX_NAME );
+    }
+    
+    private void addPoolStats(Map<String, Object> stats, final String name, final PoolStats poolStats) {
+        if (poolStats != null) {
+            Map<String, Integer> pool = new LinkedHashMap<String, Integer>();
+            pool.put("leased", poolStats.getLeased());
+            pool.put("pending", poolStats.getPending());
+            pool.put("available", poolStats.getAvailable());
+            pool.put("max", poolStats.getMax());
+            stats.put(name, pool);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.json;
+
+/**
+ * <h4>
+ * Facet
+ * </h4>
+ * <p>
+ * A terms aggregation on a keyword field (for example, the genres or the publishers of the books): the aggregation
+ * name, the field, the maximum number of buckets and the bucket order. Several facets are requested with one
+ * search (see BookSearchService.facetAggregation()), as sibling aggregations:
+ * </p>
+ * <pre>
+ * {"size":0,
+ *  "aggs":{
+ *     "GenreAgg":{"terms":{"field":"genre","size":10000,"order":{"_key":"asc"}}},
+ *     "PublisherAgg":{"terms":{"field":"publisher.keyword","size":10000,"order":{"_key":"asc"}}}
+ *  }
+ * }
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class Facet {
+    /**
+     * The bucket order: by key (ascending) or by document count (descending)
+     */
+    public enum Order {
+        KEY_ASC("{\"_key\":\"asc\"}"),
+        COUNT_DESC("{\"_count\":\"desc\"}");
+
+        private final QueryTemplate termsTemplate;
+
+        private Order(final String order) {
+            termsTemplate = QueryTemplate.compile("{\"terms\":{\"field\":${field},\"size\":${size:int},\"order\":" + order + "}}");
+        }
+    }
+
+    private final String name;
+    private final String field;
+    private final int size;
+    private final Order order;
+    private final String aggregation;
+
+    /**
+     * @param name the aggregation name. The buckets are returned under this name.
+     * @param field a keyword field in the Elasticsearch mapping (e.g., publisher.keyword)
+     * @param size the maximum number of buckets
+     * @param order the bucket order
+     */
+    public Facet(final String name, final String field, final int size, final Order order) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The facet " + name + " must have at least one bucket");
+        }
+        this.name = name;
+        this.field = field;
+        this.size = size;
+        this.order = order;
+        this.aggregation = order.termsTemplate.renderString(field, size);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the JSON terms aggregation for the facet
+     */
+    public String aggregation() {
+        return aggregation;
+    }
+}
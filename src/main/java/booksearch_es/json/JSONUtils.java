@@ -10,14 +10,22 @@ package booksearch_es.json;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.BufferRecyclers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import booksearch_es.model.BookInfo;
@@ -73,6 +81,18 @@ public final class JSONUtils {
     }
 
     private static Logger logger = LoggerFactory.getLogger( JSONUtils.class.getCanonicalName());
+    // A configured ObjectMapper is thread safe, so a single mapper is shared by the JSON parser operations.
+    private static final ObjectMapper sharedMapper = new ObjectMapper();
+    // The reader binds a search hit _source directly to a BookInfo object. Like the mapper, it is immutable and thread safe.
+    private static final ObjectReader bookInfoReader = sharedMapper.readerFor(BookInfo.class);
+
+    /**
+     * Read the _source object of a search hit. The parser is positioned at the start of the _source object and is left
+     * at the end of the object.
+     */
+    private interface SourceReader {
+        void read(JsonParser parser) throws IOException;
+    }
     
     /**
      * Convert a JSON string to a Jackson JsonNode object. The JsonNode is a hierarchical object that
@@ -82,11 +102,28 @@ public final class JSONUtils {
      * @throws IOException 
      */
     public static JsonNode stringToJsonNode( final String jsonStr ) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode jsonNode = mapper.readTree(jsonStr);
+        JsonNode jsonNode = sharedMapper.readTree(jsonStr);
         return jsonNode;
     }
     
+    /**
+     * Escape a string for JSON. The encoder is the thread local (recycled) Jackson encoder.
+     * 
+     * @param value a string
+     * @return the escaped characters of the string, without the quotes
+     */
+    public static String escapeString( final String value ) {
+        return new String( BufferRecyclers.getJsonStringEncoder().quoteAsString(value) );
+    }
+    
+    /**
+     * @param value a string
+     * @return the string as a quoted JSON string
+     */
+    public static String quoteString( final String value ) {
+        return "\"" + escapeString(value) + "\"";
+    }
+    
     /**
      * <p>
      * A number of Elasticsearch operations return JSON containing:
@@ -115,8 +152,9 @@ public final class JSONUtils {
     
     /**
      * <p>
-     * Extract the BookInfo objects from the Elasticsearch query result. This is done
-     * by traversing the JSON tree.
+     * Extract the BookInfo objects from the Elasticsearch query result. The result is read with a streaming
+     * parser: hits.total is read, each hits.hits[*]._source object is bound directly to a BookInfo object and the
+     * rest of the result is skipped. No JSON tree is built for the result or for the hits.
      * </p>
      * <p>
      * Query result (note score):
@@ -219,29 +257,107 @@ public final class JSONUtils {
     public static int extractFromQueryResult( final String jsonQueryRslt, List<BookInfo> bookList ) {
         int total = 0;
         if (jsonQueryRslt != null && jsonQueryRslt.length() > 0 && bookList != null) {
-            try {
-                JsonNode node = JSONUtils.stringToJsonNode( jsonQueryRslt );
-                node = node.get("hits");
-                if (node != null) {
-                    JsonNode totalNode = node.get("total");
-                    if (totalNode != null) {
-                        total = totalNode.asInt();
-                    }
-                    JsonNode objArray = node.get("hits");  // fetch the array associated with the second instance of "hits"
-                    if (objArray.isArray()) {
-                        ObjectMapper mapper = new ObjectMapper();
-                        for (JsonNode bookInfoContainer : objArray) {
-                            JsonNode bookInfoJson = bookInfoContainer.get("_source");
-                            BookInfo info = mapper.convertValue(bookInfoJson, BookInfo.class);
-                            if (info != null) {
-                                bookList.add(info);
+            try (JsonParser parser = sharedMapper.getFactory().createParser( jsonQueryRslt )) {
+                total = extractFromQueryResult(parser, bookList);
+            } catch (IOException e) {
+                logger.error("Error processing JSON: " + e.getLocalizedMessage());
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * <p>
+     * Extract the BookInfo objects from an Elasticsearch query result that is read from a JSON parser (for example,
+     * a parser that is reading the HTTP response stream). See extractFromQueryResult(String, List).
+     * </p>
+     * 
+     * @param parser a JSON parser positioned at the start of the query result
+     * @param bookList the BookInfo objects are added to this list
+     * @return the total number of results available for the query
+     * @throws IOException if there is an error reading the JSON
+     */
+    public static int extractFromQueryResult( final JsonParser parser, final List<BookInfo> bookList ) throws IOException {
+        int total = 0;
+        if (bookList != null) {
+            total = readHits(parser, sourceParser -> {
+                BookInfo info = bookInfoReader.readValue( sourceParser );
+                if (info != null) {
+                    bookList.add(info);
+                }
+            });
+        }
+        return total;
+    }
+
+    /**
+     * <p>
+     * Read the hits of a search result in one pass. The value of hits.total is returned and the sourceReader is
+     * called for each hits.hits[*]._source object. The other parts of the result (and of each hit) are skipped.
+     * </p>
+     * <p>
+     * Elasticsearch 7 returns hits.total as an object ({"value":2,"relation":"eq"}). In this case the total is the
+     * value.
+     * </p>
+     *
+     * @param parser a JSON parser positioned at the start of the search result
+     * @param sourceReader reads a _source object
+     * @return the total number of results available for the query
+     */
+    private static int readHits( final JsonParser parser, final SourceReader sourceReader ) throws IOException {
+        int total = 0;
+        JsonToken token = (parser.currentToken() != null) ? parser.currentToken() : parser.nextToken();
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                token = parser.nextToken();
+                if (fieldName.equals("hits") && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String hitsField = parser.getCurrentName();
+                        token = parser.nextToken();
+                        if (hitsField.equals("total")) {
+                            total = readTotal(parser);
+                        } else if (hitsField.equals("hits") && token == JsonToken.START_ARRAY) { // the second instance of "hits"
+                            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                    final String hitField = parser.getCurrentName();
+                                    token = parser.nextToken();
+                                    if (hitField.equals("_source") && token == JsonToken.START_OBJECT) {
+                                        sourceReader.read(parser);
+                                    } else {
+                                        parser.skipChildren();
+                                    }
+                                }
                             }
+                        } else {
+                            parser.skipChildren();
                         }
                     }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Read hits.total. The parser is positioned at the value, which is a number or a {"value":n,"relation":...} object.
+     */
+    private static int readTotal( final JsonParser parser ) throws IOException {
+        int total = 0;
+        if (parser.currentToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (fieldName.equals("value")) {
+                    total = parser.getValueAsInt();
+                } else {
+                    parser.skipChildren();
                 }
-            } catch (IOException e) {
-                logger.error("Error processing JSON: " + e.getLocalizedMessage());
             }
+        } else {
+            total = parser.getValueAsInt();
         }
         return total;
     }
@@ -307,25 +423,12 @@ public final class JSONUtils {
      * @param jsonArrayNode
      * @return
      */
-    public static int extractJSONObjFromQueryResult(final String jsonQueryRslt, ArrayNode jsonArrayNode ) {
+    public static int extractJSONObjFromQueryResult(final String jsonQueryRslt, final ArrayNode jsonArrayNode ) {
         int total = 0;
         if (jsonQueryRslt != null && jsonQueryRslt.length() > 0) {
-            try {
-                JsonNode node = JSONUtils.stringToJsonNode( jsonQueryRslt );
-                node = node.get("hits");
-                if (node != null) {
-                    JsonNode totalNode = node.get("total");
-                    if (totalNode != null) {
-                        total = totalNode.asInt();
-                    }
-                    JsonNode jsonObjArray = node.get("hits");  // fetch the array associated with the second instance of "hits"
-                    if (jsonObjArray.isArray()) {
-                        for (JsonNode jsonObjElem : jsonObjArray) {
-                            JsonNode jsonObj = jsonObjElem.get("_source");
-                            jsonArrayNode.add( jsonObj );
-                        }
-                    }
-                }
+            // Only the _source objects are read as JSON trees. The rest of the result is read from the token stream.
+            try (JsonParser parser = sharedMapper.getFactory().createParser( jsonQueryRslt )) {
+                total = readHits(parser, sourceParser -> jsonArrayNode.add( (JsonNode)sharedMapper.readTree( sourceParser ) ));
             } catch (IOException e) {
                 logger.error("Error processing JSON: " + e.getLocalizedMessage());
             }
@@ -395,35 +498,123 @@ public final class JSONUtils {
      * @return
      */
     public static List<BucketAggregation> extractBucketTermAggregationResult(final String aggregateName, final String jsonResult ) {
-        ArrayList<BucketAggregation> bucketInfoList = new ArrayList<BucketAggregation>();
+        return extractBucketTermAggregations( Collections.singletonList(aggregateName), jsonResult ).get(aggregateName);
+    }
+    
+    /**
+     * <p>
+     * Extract the result from an Elasticsearch bucket term aggregation query that is read from a JSON parser.
+     * </p>
+     * 
+     * @param aggregateName the name of the aggregation in the query
+     * @param parser a JSON parser positioned at the start of the aggregation result
+     * @return a list of aggregation buckets
+     * @throws IOException if there is an error reading the JSON
+     */
+    public static List<BucketAggregation> extractBucketTermAggregationResult(final String aggregateName, final JsonParser parser ) throws IOException {
+        return extractBucketTermAggregations( Collections.singletonList(aggregateName), parser ).get(aggregateName);
+    }
+
+    /**
+     * <p>
+     * Extract the results of several sibling bucket term aggregations (for example, the facets of a
+     * BookSearchService.facetAggregation() search) from an Elasticsearch search result.
+     * </p>
+     *
+     * @param aggregateNames the names of the aggregations in the query
+     * @param jsonResult the search result
+     * @return the aggregation buckets by aggregation name, in the order of the names. An aggregation that is not in the
+     *         result has an empty list.
+     */
+    public static Map<String, List<BucketAggregation>> extractBucketTermAggregations(final Collection<String> aggregateNames, final String jsonResult ) {
+        Map<String, List<BucketAggregation>> aggregations = null;
         if (jsonResult != null && jsonResult.length() > 0) {
-            try {
-                JsonNode node = JSONUtils.stringToJsonNode( jsonResult );
-                if (node != null) {
-                    JsonNode aggTree = node.get("aggregations");
-                    if (aggTree != null) {
-                        JsonNode aggRsltTree = aggTree.get(aggregateName);
-                        if (aggRsltTree != null) {
-                            JsonNode buckets = aggRsltTree.get("buckets");
-                            if (buckets.isArray()) {
-                                ObjectMapper mapper = new ObjectMapper();
-                                for (JsonNode bucketInfoJson : buckets) {
-                                    BucketAggregation info = mapper.convertValue(bucketInfoJson, BucketAggregation.class);
-                                    if (info != null) {
-                                        bucketInfoList.add( info );
-                                    }
-                                }
-                            }
+            try (JsonParser parser = sharedMapper.getFactory().createParser( jsonResult )) {
+                aggregations = extractBucketTermAggregations(aggregateNames, parser);
+            } catch (IOException e) {
+                logger.error("Error processing bucket term aggregation result: " + e.getLocalizedMessage());
+            }
+        }
+        if (aggregations == null) {
+            aggregations = emptyAggregations(aggregateNames);
+        }
+        return aggregations;
+    }
+
+    /**
+     * <p>
+     * Extract the results of several sibling bucket term aggregations from a JSON parser. The search result is read
+     * in one pass: the buckets are read from the token stream and the hits and the other aggregations are skipped,
+     * without building a JSON tree.
+     * </p>
+     *
+     * @param aggregateNames the names of the aggregations in the query
+     * @param parser a JSON parser positioned at the start of the search result
+     * @return the aggregation buckets by aggregation name, in the order of the names
+     * @throws IOException if there is an error reading the JSON
+     */
+    public static Map<String, List<BucketAggregation>> extractBucketTermAggregations(final Collection<String> aggregateNames, final JsonParser parser ) throws IOException {
+        Map<String, List<BucketAggregation>> aggregations = emptyAggregations(aggregateNames);
+        JsonToken token = (parser.currentToken() != null) ? parser.currentToken() : parser.nextToken();
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                token = parser.nextToken();
+                if (fieldName.equals("aggregations") && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        List<BucketAggregation> bucketInfoList = aggregations.get( parser.getCurrentName() );
+                        token = parser.nextToken();
+                        if (bucketInfoList != null && token == JsonToken.START_OBJECT) {
+                            readBuckets(parser, bucketInfoList);
+                        } else {
+                            parser.skipChildren();
                         }
                     }
+                } else {
+                    parser.skipChildren();
                 }
-            } catch (IOException e) {
-                logger.error("Error processing bucket term aggregation result: " + e.getLocalizedMessage());
             }
         }
-        return bucketInfoList;
+        return aggregations;
     }
-    
+
+    private static Map<String, List<BucketAggregation>> emptyAggregations(final Collection<String> aggregateNames) {
+        Map<String, List<BucketAggregation>> aggregations = new LinkedHashMap<String, List<BucketAggregation>>();
+        for (String aggregateName : aggregateNames) {
+            aggregations.put(aggregateName, new ArrayList<BucketAggregation>());
+        }
+        return aggregations;
+    }
+
+    /**
+     * Read the buckets of an aggregation result. The parser is positioned at the start of the aggregation object.
+     */
+    private static void readBuckets(final JsonParser parser, final List<BucketAggregation> bucketInfoList) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (fieldName.equals("buckets") && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    BucketAggregation info = new BucketAggregation();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String bucketField = parser.getCurrentName();
+                        parser.nextToken();
+                        if (bucketField.equals("key")) {
+                            info.key = parser.getValueAsString();
+                        } else if (bucketField.equals("doc_count")) {
+                            info.doc_count = parser.getValueAsInt();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    bucketInfoList.add( info );
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
     /**
      * <p>
      * Check that a JSON string is valid JSON
@@ -439,8 +630,7 @@ public final class JSONUtils {
      */
     public static boolean isJSONValid(String jsonInString ) {
         try {
-            final ObjectMapper mapper = new ObjectMapper();
-            mapper.readTree(jsonInString);
+            sharedMapper.readTree(jsonInString);
             return true;
         } catch (IOException e) {
             return false;
@@ -8,18 +8,27 @@
  */
 package booksearch_es.json;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
 import javax.json.stream.JsonGeneratorFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 final public class Mapping {
     
     public final static String TYPE_NAME = "bookinfo";
     
+    private static volatile Map<String, String> bookInfoFieldTypes = null;
+    
     /**
      * <p>
      * Return the Elasticsearch JSON mapping object for the BookInfo class. The mapping object defines the
@@ -187,4 +196,55 @@ final public class Mapping {
         generator.close();
         return writer.toString();
     }
+    
+    /**
+     * <p>
+     * The Elasticsearch field types in a mapping, by field name. A multi-field is listed under its full name, so
+     * for the bookinfo mapping the map contains "title" : "text" and "title.keyword" : "keyword".
+     * </p>
+     * 
+     * @param mapping the JSON for an index mapping (e.g., bookInfoMapping())
+     * @return the field name to field type map
+     */
+    public static Map<String, String> fieldTypes(final String mapping) {
+        Map<String, String> types = new LinkedHashMap<String, String>();
+        try {
+            JsonNode mappings = new ObjectMapper().readTree(mapping).path("mappings");
+            Iterator<JsonNode> typeItr = mappings.elements();
+            while (typeItr.hasNext()) {
+                addFieldTypes("", typeItr.next().path("properties"), types);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not parse the mapping: " + e.getLocalizedMessage());
+        }
+        return types;
+    }
+    
+    private static void addFieldTypes(final String prefix, final JsonNode properties, final Map<String, String> types) {
+        Iterator<Map.Entry<String, JsonNode>> fieldItr = properties.fields();
+        while (fieldItr.hasNext()) {
+            Map.Entry<String, JsonNode> field = fieldItr.next();
+            final String name = prefix + field.getKey();
+            if (field.getValue().has("properties")) {
+                addFieldTypes(name + ".", field.getValue().get("properties"), types);
+            } else {
+                types.put(name, field.getValue().path("type").asText("object"));
+                Iterator<Map.Entry<String, JsonNode>> subItr = field.getValue().path("fields").fields();
+                while (subItr.hasNext()) {
+                    Map.Entry<String, JsonNode> subField = subItr.next();
+                    types.put(name + "." + subField.getKey(), subField.getValue().path("type").asText("object"));
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the field types of the bookinfo mapping (see fieldTypes())
+     */
+    public static Map<String, String> bookInfoFieldTypes() {
+        if (bookInfoFieldTypes == null) {
+            bookInfoFieldTypes = Collections.unmodifiableMap( fieldTypes( bookInfoMapping(false) ) );
+        }
+        return bookInfoFieldTypes;
+    }
 }
@@ -0,0 +1,195 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h4>
+ * QueryPlanner
+ * </h4>
+ * <p>
+ * Plan the filter clauses of a query from the field types in the index mapping (see Mapping.fieldTypes()), so that
+ * each condition is sent as the clause that Elasticsearch can answer (and cache) most cheaply:
+ * </p>
+ * <ul>
+ * <li>An exact value on a keyword, numeric, date or boolean field is a term filter. An exact value on a text field
+ * that has a keyword sub-field (e.g., title.keyword) is a term filter on the sub-field.</li>
+ * <li>A set of values is a terms filter.</li>
+ * <li>A range of values on a numeric or date field is a range filter.</li>
+ * <li>Words on a text field are a match clause, in filter context.</li>
+ * </ul>
+ * <p>
+ * Term, terms and range filters are not analyzed and their results are cached by Elasticsearch (the node query cache)
+ * and reused by later queries. The filters are wrapped in a constant_score query, since the results are sorted or
+ * only tested for a match and no relevance score is needed.
+ * </p>
+ * <p>
+ * A plan is compiled into a QueryTemplate for the query clause, with a slot for each condition value. The slots
+ * are named after the fields and are in the order of the conditions. For example:
+ * </p>
+ * <pre>
+ * QueryTemplate genre = QueryPlanner.bookInfo().plan().equal("genre").compile();
+ * // {"constant_score":{"filter":{"term":{"genre":${genre}}}}}
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class QueryPlanner {
+    private final static String KEYWORD_SUB_FIELD = ".keyword";
+    private final static String RANGE_FROM = "_from";
+    private final static String RANGE_TO = "_to";
+    private static volatile QueryPlanner bookInfoPlanner = null;
+
+    private final Map<String, String> fieldTypes;
+
+    /**
+     * @param fieldTypes the Elasticsearch field types by field name (see Mapping.fieldTypes())
+     */
+    public QueryPlanner(final Map<String, String> fieldTypes) {
+        this.fieldTypes = fieldTypes;
+    }
+
+    /**
+     * @return the planner for the bookinfo mapping
+     */
+    public static QueryPlanner bookInfo() {
+        if (bookInfoPlanner == null) {
+            bookInfoPlanner = new QueryPlanner( Mapping.bookInfoFieldTypes() );
+        }
+        return bookInfoPlanner;
+    }
+
+    public Plan plan() {
+        return new Plan();
+    }
+
+    /**
+     * @return the Elasticsearch type of a field
+     * @throws IllegalArgumentException if the field is not in the mapping
+     */
+    public String fieldType(final String field) {
+        final String type = fieldTypes.get(field);
+        if (type == null) {
+            throw new IllegalArgumentException("The field " + field + " is not in the mapping");
+        }
+        return type;
+    }
+
+    private boolean isText(final String field) {
+        return fieldType(field).equals("text");
+    }
+
+    /**
+     * @return the field that holds the exact (not analyzed) value of a field: the field or its keyword sub-field.
+     */
+    private String exactField(final String field) {
+        String exact = field;
+        if (isText(field)) {
+            exact = field + KEYWORD_SUB_FIELD;
+            if (! "keyword".equals( fieldTypes.get(exact) )) {
+                throw new IllegalArgumentException("The text field " + field + " does not have a keyword sub-field");
+            }
+        }
+        return exact;
+    }
+
+    private static String quote(final String name) {
+        return JSONUtils.quoteString(name);
+    }
+
+    /**
+     * <h4>
+     * QueryPlanner.Plan
+     * </h4>
+     * <p>
+     * The conditions of a query. Every condition must be true for a document to match.
+     * </p>
+     */
+    public final class Plan {
+        private final List<String> filters = new ArrayList<String>();
+
+        private Plan() {}
+
+        /**
+         * The field has exactly the value.
+         */
+        public Plan equal(final String field) {
+            filters.add( "{\"term\":{" + quote( exactField(field) ) + ":${" + field + "}}}" );
+            return this;
+        }
+
+        /**
+         * The field has one of the values (a strings slot).
+         */
+        public Plan anyOf(final String field) {
+            filters.add( "{\"terms\":{" + quote( exactField(field) ) + ":${" + field + ":strings}}}" );
+            return this;
+        }
+
+        /**
+         * The value of a numeric or date field is in a range, including the bounds. The slots are [field]_from and
+         * [field]_to.
+         */
+        public Plan range(final String field) {
+            if (isText(field)) {
+                throw new IllegalArgumentException("A range query on the text field " + field + " would compare the terms");
+            }
+            filters.add( "{\"range\":{" + quote(field) + ":{\"gte\":${" + field + RANGE_FROM + "},\"lte\":${" + field + RANGE_TO + "}}}}" );
+            return this;
+        }
+
+        /**
+         * The field contains one of the words. For a field that is not a text field this is the same as equal().
+         */
+        public Plan words(final String field) {
+            if (isText(field)) {
+                filters.add( "{\"match\":{" + quote(field) + ":${" + field + "}}}" );
+            } else {
+                equal(field);
+            }
+            return this;
+        }
+
+        /**
+         * @return the query template source: the filters in a constant_score query
+         */
+        public String source() {
+            final StringBuilder source = new StringBuilder();
+            if (filters.isEmpty()) {
+                source.append("{\"match_all\":{}}");
+            } else {
+                source.append("{\"constant_score\":{\"filter\":");
+                if (filters.size() == 1) {
+                    source.append( filters.get(0) );
+                } else {
+                    source.append("{\"bool\":{\"filter\":[");
+                    for (int i = 0; i < filters.size(); i++) {
+                        if (i > 0) {
+                            source.append(',');
+                        }
+                        source.append( filters.get(i) );
+                    }
+                    source.append("]}}");
+                }
+                source.append("}}");
+            }
+            return source.toString();
+        }
+
+        public QueryTemplate compile() {
+            return QueryTemplate.compile( source() );
+        }
+    }
+}
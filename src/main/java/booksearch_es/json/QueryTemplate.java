@@ -0,0 +1,352 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <h4>
+ * QueryTemplate
+ * </h4>
+ * <p>
+ * A JSON query that is compiled once into UTF-8 byte segments with typed parameter slots between them. Rendering
+ * a query copies the segments and the encoded parameter values into an output array that is allocated with the
+ * exact length of the query. No JSON tree, mapper, writer or generator is created for each query.
+ * </p>
+ * <p>
+ * A slot is written in the template as ${name} for a string, ${name:int} for an integer or ${name:strings} for
+ * an array of strings (a Collection or a String[]). A string value is written as a JSON string (with the quotes),
+ * with the characters that JSON requires escaped. A null string is written as null. For example:
+ * </p>
+ * <pre>
+ * QueryTemplate template = QueryTemplate.compile("{\"query\":{\"match\":{\"genre\":${genre}}}}");
+ * byte[] query = template.render("Science Fiction");
+ * </pre>
+ * <p>
+ * The values are passed to render() in the order of the slots in the template. A QueryTemplate is immutable and
+ * thread safe.
+ * </p>
+ * <p>
+ * Only render() allocates just the output array. renderString() decodes the output array to a String (for
+ * SearchQuery and the transport operations, which take a String payload), so it also allocates the String.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class QueryTemplate {
+    private final static String SLOT_START = "${";
+    private final static String SLOT_END = "}";
+    private final static String INT_SUFFIX = ":int";
+    private final static String STRINGS_SUFFIX = ":strings";
+    // The slot types
+    private final static byte STRING_SLOT = 0;
+    private final static byte INT_SLOT = 1;
+    private final static byte STRINGS_SLOT = 2;
+    private final static byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private final static byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[][] segments;
+    private final byte[] slotTypes;
+    private final String[] slotNames;
+    private final int segmentLength;
+
+    private QueryTemplate(final byte[][] segments, final byte[] slotTypes, final String[] slotNames) {
+        this.segments = segments;
+        this.slotTypes = slotTypes;
+        this.slotNames = slotNames;
+        int length = 0;
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+        this.segmentLength = length;
+    }
+
+    /**
+     * @param template the JSON query, with ${name}, ${name:int} and ${name:strings} slots
+     * @return the compiled template
+     * @throws IllegalArgumentException if a slot is not closed or has no name
+     */
+    public static QueryTemplate compile(final String template) {
+        List<byte[]> segments = new ArrayList<byte[]>();
+        List<String> names = new ArrayList<String>();
+        int start = 0;
+        int slotStart = template.indexOf(SLOT_START);
+        while (slotStart >= 0) {
+            int slotEnd = template.indexOf(SLOT_END, slotStart + SLOT_START.length());
+            if (slotEnd < 0) {
+                throw new IllegalArgumentException("Unclosed slot at " + slotStart + " in the query template " + template);
+            }
+            String name = template.substring(slotStart + SLOT_START.length(), slotEnd).trim();
+            if (name.isEmpty() || name.equals(INT_SUFFIX) || name.equals(STRINGS_SUFFIX)) {
+                throw new IllegalArgumentException("Slot without a name at " + slotStart + " in the query template " + template);
+            }
+            segments.add( template.substring(start, slotStart).getBytes(StandardCharsets.UTF_8) );
+            names.add(name);
+            start = slotEnd + SLOT_END.length();
+            slotStart = template.indexOf(SLOT_START, start);
+        }
+        segments.add( template.substring(start).getBytes(StandardCharsets.UTF_8) );
+        byte[] slotTypes = new byte[ names.size() ];
+        String[] slotNames = new String[ names.size() ];
+        for (int i = 0; i < slotNames.length; i++) {
+            String name = names.get(i);
+            slotTypes[i] = STRING_SLOT;
+            slotNames[i] = name;
+            if (name.endsWith(INT_SUFFIX)) {
+                slotTypes[i] = INT_SLOT;
+                slotNames[i] = name.substring(0, name.length() - INT_SUFFIX.length());
+            } else if (name.endsWith(STRINGS_SUFFIX)) {
+                slotTypes[i] = STRINGS_SLOT;
+                slotNames[i] = name.substring(0, name.length() - STRINGS_SUFFIX.length());
+            }
+        }
+        return new QueryTemplate(segments.toArray(new byte[segments.size()][]), slotTypes, slotNames);
+    }
+
+    /**
+     * @return the slot names, in the order of the render() arguments
+     */
+    public List<String> getSlotNames() {
+        List<String> names = new ArrayList<String>( slotNames.length );
+        for (String name : slotNames) {
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * <p>
+     * Render the query.
+     * </p>
+     *
+     * @param values the slot values: a String (or null) for a string slot, a Number for an int slot and a Collection
+     *               or String[] for a strings slot
+     * @return the UTF-8 encoded JSON query
+     * @throws IllegalArgumentException if the number or the types of the values do not match the slots
+     */
+    public byte[] render(final Object... values) {
+        if (values.length != slotNames.length) {
+            throw new IllegalArgumentException("The query template has " + slotNames.length + " slots, not " + values.length);
+        }
+        int length = segmentLength;
+        for (int i = 0; i < values.length; i++) {
+            switch (slotTypes[i]) {
+            case INT_SLOT:
+                length += longLength( toLong(i, values[i]) );
+                break;
+            case STRINGS_SLOT:
+                length += stringsLength( toStrings(i, values[i]) );
+                break;
+            default:
+                length += stringLength( toText(i, values[i]) );
+            }
+        }
+        final byte[] query = new byte[ length ];
+        int pos = 0;
+        for (int i = 0; i < values.length; i++) {
+            System.arraycopy(segments[i], 0, query, pos, segments[i].length);
+            pos += segments[i].length;
+            switch (slotTypes[i]) {
+            case INT_SLOT:
+                pos = writeLong(query, pos, toLong(i, values[i]));
+                break;
+            case STRINGS_SLOT:
+                pos = writeStrings(query, pos, toStrings(i, values[i]));
+                break;
+            default:
+                pos = writeString(query, pos, toText(i, values[i]));
+            }
+        }
+        final byte[] last = segments[ segments.length - 1 ];
+        System.arraycopy(last, 0, query, pos, last.length);
+        return query;
+    }
+
+    /**
+     * Render the query as a String, for SearchQuery and the transport operations that take a String payload. The
+     * rendered bytes are decoded to the String.
+     */
+    public String renderString(final Object... values) {
+        return new String( render(values), StandardCharsets.UTF_8 );
+    }
+
+    private long toLong(final int slot, final Object value) {
+        if (! (value instanceof Number)) {
+            throw new IllegalArgumentException("The value for the int slot " + slotNames[slot] + " is not a number: " + value);
+        }
+        return ((Number)value).longValue();
+    }
+
+    private CharSequence toText(final int slot, final Object value) {
+        if (value != null && ! (value instanceof CharSequence)) {
+            throw new IllegalArgumentException("The value for the string slot " + slotNames[slot] + " is not a string: " + value);
+        }
+        return (CharSequence)value;
+    }
+
+    private Collection<?> toStrings(final int slot, final Object value) {
+        Collection<?> strings = null;
+        if (value instanceof Collection) {
+            strings = (Collection<?>)value;
+        } else if (value instanceof CharSequence[]) {
+            strings = Arrays.asList( (CharSequence[])value );
+        } else {
+            throw new IllegalArgumentException("The value for the strings slot " + slotNames[slot] + " is not a collection: " + value);
+        }
+        for (Object element : strings) {
+            if (element != null && ! (element instanceof CharSequence)) {
+                throw new IllegalArgumentException("The strings slot " + slotNames[slot] + " has a value that is not a string: " + element);
+            }
+        }
+        return strings;
+    }
+
+    private static int stringsLength(final Collection<?> strings) {
+        int length = 2 + Math.max(0, strings.size() - 1);
+        for (Object element : strings) {
+            length += stringLength( (CharSequence)element );
+        }
+        return length;
+    }
+
+    private static int writeStrings(final byte[] out, final int start, final Collection<?> strings) {
+        int pos = start;
+        out[pos++] = '[';
+        boolean first = true;
+        for (Object element : strings) {
+            if (! first) {
+                out[pos++] = ',';
+            }
+            first = false;
+            pos = writeString(out, pos, (CharSequence)element);
+        }
+        out[pos++] = ']';
+        return pos;
+    }
+
+    private static int longLength(final long value) {
+        int length = (value < 0) ? 2 : 1;
+        long remaining = (value < 0) ? -(value / 10) : value / 10;
+        while (remaining > 0) {
+            length++;
+            remaining /= 10;
+        }
+        return length;
+    }
+
+    private static int writeLong(final byte[] out, final int pos, final long value) {
+        final int length = longLength(value);
+        int ix = pos + length - 1;
+        long remaining = value;
+        if (value < 0) {
+            out[pos] = '-';
+            // the first digit is taken before negating, so Long.MIN_VALUE is not negated
+            out[ix--] = (byte)('0' - (remaining % 10));
+            remaining = -(remaining / 10);
+        } else {
+            out[ix--] = (byte)('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        while (remaining > 0) {
+            out[ix--] = (byte)('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        return pos + length;
+    }
+
+    /**
+     * @return the number of bytes in the escaped, UTF-8 encoded JSON string, including the quotes
+     */
+    private static int stringLength(final CharSequence text) {
+        int length = NULL.length;
+        if (text != null) {
+            length = 2;
+            final int n = text.length();
+            for (int i = 0; i < n; i++) {
+                final char ch = text.charAt(i);
+                if (ch == '"' || ch == '\\' || ch == '\n' || ch == '\r' || ch == '\t' || ch == '\b' || ch == '\f') {
+                    length += 2;
+                } else if (ch < 0x20) {
+                    length += 6;
+                } else if (ch < 0x80) {
+                    length += 1;
+                } else if (ch < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate( text.charAt(i + 1) )) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(ch)) {
+                    length += 1;  // an unpaired surrogate is written as '?'
+                } else {
+                    length += 3;
+                }
+            }
+        }
+        return length;
+    }
+
+    private static int writeString(final byte[] out, final int start, final CharSequence text) {
+        int pos = start;
+        if (text == null) {
+            System.arraycopy(NULL, 0, out, pos, NULL.length);
+            pos += NULL.length;
+        } else {
+            out[pos++] = '"';
+            final int n = text.length();
+            for (int i = 0; i < n; i++) {
+                final char ch = text.charAt(i);
+                if (ch == '"' || ch == '\\') {
+                    out[pos++] = '\\';
+                    out[pos++] = (byte)ch;
+                } else if (ch < 0x20) {
+                    out[pos++] = '\\';
+                    switch (ch) {
+                    case '\n': out[pos++] = 'n'; break;
+                    case '\r': out[pos++] = 'r'; break;
+                    case '\t': out[pos++] = 't'; break;
+                    case '\b': out[pos++] = 'b'; break;
+                    case '\f': out[pos++] = 'f'; break;
+                    default:
+                        out[pos++] = 'u';
+                        out[pos++] = '0';
+                        out[pos++] = '0';
+                        out[pos++] = HEX[ ch >> 4 ];
+                        out[pos++] = HEX[ ch & 0xf ];
+                    }
+                } else if (ch < 0x80) {
+                    out[pos++] = (byte)ch;
+                } else if (ch < 0x800) {
+                    out[pos++] = (byte)(0xc0 | (ch >> 6));
+                    out[pos++] = (byte)(0x80 | (ch & 0x3f));
+                } else if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate( text.charAt(i + 1) )) {
+                    final int codePoint = Character.toCodePoint(ch, text.charAt(++i));
+                    out[pos++] = (byte)(0xf0 | (codePoint >> 18));
+                    out[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                    out[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                    out[pos++] = (byte)(0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(ch)) {
+                    out[pos++] = '?';
+                } else {
+                    out[pos++] = (byte)(0xe0 | (ch >> 12));
+                    out[pos++] = (byte)(0x80 | ((ch >> 6) & 0x3f));
+                    out[pos++] = (byte)(0x80 | (ch & 0x3f));
+                }
+            }
+            out[pos++] = '"';
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,372 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h4>
+ * SearchQuery
+ * </h4>
+ * <p>
+ * An Elasticsearch search request: the query clause, filter clauses, sort fields, the _source includes, aggregations
+ * and the page window (from and size). The query clause, the filters and the aggregations are JSON fragments (for
+ * example, rendered by a QueryTemplate).
+ * </p>
+ * <p>
+ * Everything except the page window is serialized once, when the query is built. A query for another page of the
+ * result (see withPage()) shares the serialized body, so requesting a page only writes the from and size values
+ * and copies the body. The query is not parsed or rebuilt.
+ * </p>
+ * <pre>
+ * SearchQuery query = SearchQuery.builder()
+ *                                .query("{\"match\":{\"genre\":\"Science Fiction\"}}")
+ *                                .sort("author_last_name", true)
+ *                                .build();
+ * String page = query.withPage(10, 3).toJson();
+ * // {"from":10,"size":3,"query":{"match":{"genre":"Science Fiction"}},"sort":[{"author_last_name":{"order":"asc"}}]}
+ * </pre>
+ * <p>
+ * If there are filters, the query clause and the filters are combined in a bool query, with the query clause as the
+ * "must" clause. A SearchQuery is immutable and thread safe.
+ * </p>
+ * <p>
+ * A query can also reference a search template that is stored in Elasticsearch (see SearchTemplate). The request
+ * only contains the template id and the template parameters, and the page window is passed as the "from" and "size"
+ * parameters. A template query is sent to the _search/template end-point (see getEndpoint()).
+ * </p>
+ * <pre>
+ * {"id":"booksearch_genre_234566dc","params":{"genre":"Science Fiction","from":10,"size":3}}
+ * </pre>
+ * <p>
+ * The response paths that the caller reads are sent as the filter_path URL parameter, so that Elasticsearch leaves
+ * the rest of the response envelope (_shards, _index, _type, _id, _score, max_score...) out of the response. The
+ * filter path is part of the end-point:
+ * </p>
+ * <pre>
+ * SearchQuery query = SearchQuery.builder()
+ *                                .query("{\"match\":{\"genre\":\"Science Fiction\"}}")
+ *                                .source("title", "author")
+ *                                .filterPath("hits.total", "hits.hits._source")
+ *                                .build();
+ * query.getEndpoint(); // _search?filter_path=hits.total,hits.hits._source
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class SearchQuery {
+    private final static int NO_VALUE = -1;
+    private final static String SEARCH_ENDPOINT = "_search";
+    private final static String TEMPLATE_ENDPOINT = "_search/template";
+    private final static String FILTER_PATH = "?filter_path=";
+
+    private final int from;
+    private final int size;
+    // The serialized query is head + page window + tail. For a query the head is the opening brace. For a template
+    // query the head ends in the template parameters, which the page window is added to.
+    private final String head;
+    private final String tail;
+    private final boolean template;
+    private final String endpoint;
+    private volatile String json = null;
+
+    private SearchQuery(final int from, final int size, final String head, final String tail, final boolean template,
+                        final String endpoint) {
+        this.from = from;
+        this.size = size;
+        this.head = head;
+        this.tail = tail;
+        this.template = template;
+        this.endpoint = endpoint;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param from the first result to return (numbered from zero)
+     * @param size the number of results to return
+     * @return a query for the page of the result. The query body is shared with this query.
+     */
+    public SearchQuery withPage(final int from, final int size) {
+        if (from < 0 || size < 0) {
+            throw new IllegalArgumentException("The page window must not be negative: from = " + from + ", size = " + size);
+        }
+        return new SearchQuery(from, size, head, tail, template, endpoint);
+    }
+
+    /**
+     * @return the first result to return, or -1 if the query does not set "from"
+     */
+    public int getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the number of results to return, or -1 if the query does not set "size"
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if the query references a stored search template
+     */
+    public boolean isTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the Elasticsearch end-point for the query: _search or _search/template, with the filter_path parameter
+     *         if the query has a filter path
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    private boolean hasWindow() {
+        return from != NO_VALUE || size != NO_VALUE;
+    }
+
+    // There are members before the page window (the template parameters)
+    private boolean commaBeforeWindow() {
+        return template && head.charAt(head.length() - 1) != '{';
+    }
+
+    // There are members after the page window (the query fields)
+    private boolean commaAfterWindow() {
+        return ! template && tail.length() > 1;
+    }
+
+    /**
+     * @return the JSON for the query.
+     */
+    public String toJson() {
+        String queryJson = json;
+        if (queryJson == null) {
+            final StringBuilder builder = new StringBuilder( head.length() + tail.length() + 32 );
+            builder.append(head);
+            if (hasWindow() && commaBeforeWindow()) {
+                builder.append(',');
+            }
+            if (from != NO_VALUE) {
+                builder.append("\"from\":").append(from);
+            }
+            if (size != NO_VALUE) {
+                if (from != NO_VALUE) {
+                    builder.append(',');
+                }
+                builder.append("\"size\":").append(size);
+            }
+            if (hasWindow() && commaAfterWindow()) {
+                builder.append(',');
+            }
+            builder.append(tail);
+            queryJson = builder.toString();
+            json = queryJson;
+        }
+        return queryJson;
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * <h4>
+     * SearchQuery.Builder
+     * </h4>
+     * <p>
+     * Collect the parts of a query. build() serializes the query.
+     * </p>
+     */
+    public static final class Builder {
+        private String query = null;
+        private final List<String> filters = new ArrayList<String>();
+        private final List<String> sort = new ArrayList<String>();
+        private final List<String> sourceIncludes = new ArrayList<String>();
+        private final List<String> aggregations = new ArrayList<String>();
+        private final List<String> filterPaths = new ArrayList<String>();
+        private String templateId = null;
+        private final List<String> params = new ArrayList<String>();
+        private int from = NO_VALUE;
+        private int size = NO_VALUE;
+
+        private Builder() {}
+
+        /**
+         * @param queryClause the JSON query clause, for example {"match":{"title":"neuromancer"}}
+         */
+        public Builder query(final String queryClause) {
+            this.query = queryClause;
+            return this;
+        }
+
+        /**
+         * @param filterClause a JSON filter clause, for example {"term":{"genre":"Fantasy"}}
+         */
+        public Builder filter(final String filterClause) {
+            filters.add(filterClause);
+            return this;
+        }
+
+        public Builder sort(final String fieldName, final boolean ascending) {
+            sort.add( "{" + quote(fieldName) + ":{\"order\":" + (ascending ? "\"asc\"" : "\"desc\"") + "}}" );
+            return this;
+        }
+
+        /**
+         * @param fieldNames the _source fields that are returned for each hit
+         */
+        public Builder source(final String... fieldNames) {
+            for (String fieldName : fieldNames) {
+                sourceIncludes.add( quote(fieldName) );
+            }
+            return this;
+        }
+
+        /**
+         * @param paths the response paths that are returned (for example, hits.total and hits.hits._source). A path
+         *              element can be the * wildcard. The other parts of the response are left out.
+         */
+        public Builder filterPath(final String... paths) {
+            for (String path : paths) {
+                filterPaths.add(path);
+            }
+            return this;
+        }
+
+        /**
+         * @param name the aggregation name
+         * @param aggregation the JSON aggregation, for example {"terms":{"field":"genre"}}
+         */
+        public Builder aggregation(final String name, final String aggregation) {
+            aggregations.add( quote(name) + ":" + aggregation );
+            return this;
+        }
+
+        /**
+         * @param id the id of a stored search template. The query is sent with the template parameters.
+         */
+        public Builder template(final String id) {
+            this.templateId = id;
+            return this;
+        }
+
+        /**
+         * @param name a template parameter name
+         * @param value the parameter value (a String, a Number or null)
+         */
+        public Builder param(final String name, final Object value) {
+            String json = "null";
+            if (value instanceof Number) {
+                json = value.toString();
+            } else if (value != null) {
+                json = quote( value.toString() );
+            }
+            params.add( quote(name) + ":" + json );
+            return this;
+        }
+
+        public Builder from(final int from) {
+            this.from = from;
+            return this;
+        }
+
+        public Builder size(final int size) {
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if a template query also has query fields, or a query has template parameters
+         */
+        public SearchQuery build() {
+            SearchQuery searchQuery = null;
+            if (templateId != null) {
+                if (query != null || ! filters.isEmpty() || ! sort.isEmpty() || ! sourceIncludes.isEmpty() || ! aggregations.isEmpty()) {
+                    throw new IllegalStateException("A search template query only has template parameters");
+                }
+                final StringBuilder head = new StringBuilder();
+                head.append("{\"id\":").append( quote(templateId) ).append(",\"params\":");
+                appendList(head, '{', params, '}');
+                // the page window is added to the parameters
+                head.setLength( head.length() - 1 );
+                searchQuery = new SearchQuery(from, size, head.toString(), "}}", true, endpoint(TEMPLATE_ENDPOINT));
+            } else {
+                if (! params.isEmpty()) {
+                    throw new IllegalStateException("Template parameters without a search template id");
+                }
+                searchQuery = buildQuery();
+            }
+            return searchQuery;
+        }
+
+        private SearchQuery buildQuery() {
+            final StringBuilder body = new StringBuilder();
+            if (query != null || ! filters.isEmpty()) {
+                body.append("\"query\":");
+                if (filters.isEmpty()) {
+                    body.append(query);
+                } else {
+                    body.append("{\"bool\":{");
+                    if (query != null) {
+                        body.append("\"must\":").append(query).append(',');
+                    }
+                    body.append("\"filter\":");
+                    appendList(body, '[', filters, ']');
+                    body.append("}}");
+                }
+            }
+            appendMember(body, "\"sort\":", '[', sort, ']');
+            appendMember(body, "\"_source\":", '[', sourceIncludes, ']');
+            appendMember(body, "\"aggs\":", '{', aggregations, '}');
+            return new SearchQuery(from, size, "{", body.append('}').toString(), false, endpoint(SEARCH_ENDPOINT));
+        }
+
+        private String endpoint(final String searchEndpoint) {
+            String endpoint = searchEndpoint;
+            if (! filterPaths.isEmpty()) {
+                endpoint = searchEndpoint + FILTER_PATH + String.join(",", filterPaths);
+            }
+            return endpoint;
+        }
+
+        private static void appendMember(final StringBuilder body, final String name, final char open, final List<String> values, final char close) {
+            if (! values.isEmpty()) {
+                if (body.length() > 0) {
+                    body.append(',');
+                }
+                body.append(name);
+                appendList(body, open, values, close);
+            }
+        }
+
+        private static void appendList(final StringBuilder body, final char open, final List<String> values, final char close) {
+            body.append(open);
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append( values.get(i) );
+            }
+            body.append(close);
+        }
+
+        private static String quote(final String name) {
+            return JSONUtils.quoteString(name);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <h4>
+ * SearchTemplate
+ * </h4>
+ * <p>
+ * A mustache search template that is stored in Elasticsearch, so that a search only sends the template id and the
+ * parameters:
+ * </p>
+ * <pre>
+ * PUT _scripts/booksearch_genre_234566dc
+ * {"script":{"lang":"mustache","source":"{\"from\":\"{{from}}{{^from}}0{{/from}}\", ... }"}}
+ *
+ * GET bookindex/bookinfo/_search/template
+ * {"id":"booksearch_genre_234566dc","params":{"genre":"Science Fiction"}}
+ * </pre>
+ * <p>
+ * The templates are registered by the BookIndex when it is initialized. The template id is the template name and a
+ * hash (CRC32) of the template source, so a changed template is registered under a new id, and application versions
+ * with different templates can share a cluster. A template that already exists under its id is not replaced, so a
+ * query can be tuned on the cluster (by storing a new source under the same id) without redeploying the application.
+ * The tuned template is used until the application template changes.
+ * </p>
+ * <p>
+ * Elasticsearch escapes the string parameters for JSON when the template is rendered. The "from" and "size"
+ * parameters are optional (the page window of a SearchQuery, see SearchQuery.withPage()).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class SearchTemplate {
+    public final static String LANG = "mustache";
+
+    private final static String PAGE_WINDOW = "\"from\":\"{{from}}{{^from}}0{{/from}}\",\"size\":\"{{size}}{{^size}}10{{/size}}\",";
+    /**
+     * The _source fields that the book lists show. The author_last_name is only used to sort the books.
+     */
+    public final static String[] BOOK_LIST_SOURCE = { "title", "author", "genre", "publisher", "year", "price" };
+    private final static String SOURCE_INCLUDES = "\"_source\":[\"" + String.join("\",\"", BOOK_LIST_SOURCE) + "\"],";
+    private final static String AUTHOR_TITLE_SORT =
+            "\"sort\":[{\"author_last_name\":{\"order\":\"asc\"}},{\"title.keyword\":{\"order\":\"asc\"}}]";
+
+    // The exact values are cached term filters (see QueryPlanner). Only the book list fields of the _source are
+    // returned.
+    public final static SearchTemplate GENRE = new SearchTemplate("booksearch_genre",
+            "{" + PAGE_WINDOW + SOURCE_INCLUDES + "\"query\":{\"constant_score\":{\"filter\":{\"term\":{\"genre\":\"{{genre}}\"}}}}," +
+            AUTHOR_TITLE_SORT + "}");
+    public final static SearchTemplate PUBLISHER_KEYWORD = new SearchTemplate("booksearch_publisher_keyword",
+            "{" + PAGE_WINDOW + SOURCE_INCLUDES + "\"query\":{\"constant_score\":{\"filter\":{\"term\":{\"publisher.keyword\":\"{{publisher}}\"}}}}," +
+            AUTHOR_TITLE_SORT + "}");
+    public final static SearchTemplate TITLE_AUTHOR = new SearchTemplate("booksearch_title_author",
+            "{" + PAGE_WINDOW + SOURCE_INCLUDES + "\"query\":{\"constant_score\":{\"filter\":{\"bool\":{\"filter\":[" +
+            "{\"match\":{\"title\":\"{{title}}\"}},{\"match\":{\"author\":\"{{author}}\"}}]}}}}}");
+    public final static SearchTemplate MATCH_ALL = new SearchTemplate("booksearch_match_all",
+            "{" + PAGE_WINDOW + SOURCE_INCLUDES + "\"query\":{\"match_all\":{}},\"sort\":[{\"genre\":{\"order\":\"asc\"}}]}");
+
+    private final static List<SearchTemplate> BOOK_TEMPLATES = Collections.unmodifiableList(
+            Arrays.asList(GENRE, PUBLISHER_KEYWORD, TITLE_AUTHOR, MATCH_ALL) );
+
+    private final String name;
+    private final String source;
+    private final String id;
+
+    public SearchTemplate(final String name, final String source) {
+        this.name = name;
+        this.source = source;
+        this.id = name + "_" + sourceHash(source);
+    }
+
+    /**
+     * @return the CRC32 of the UTF-8 encoded source, as eight hex digits
+     */
+    private static String sourceHash(final String source) {
+        CRC32 crc = new CRC32();
+        crc.update( source.getBytes(StandardCharsets.UTF_8) );
+        return String.format("%08x", crc.getValue());
+    }
+
+    /**
+     * @return the templates that are used by the BookSearchService
+     */
+    public static List<SearchTemplate> bookTemplates() {
+        return BOOK_TEMPLATES;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the stored script id: the template name and the hash of the source (e.g., booksearch_genre_234566dc)
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the mustache template source
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the body for the PUT _scripts/[id] request that stores the template
+     */
+    public String scriptJson() {
+        return "{\"script\":{\"lang\":\"" + LANG + "\",\"source\":" + JSONUtils.quoteString(source) + "}}";
+    }
+
+    /**
+     * @return a query builder for a search with this template. The template parameters are added with param().
+     */
+    public SearchQuery.Builder query() {
+        return SearchQuery.builder().template( getId() );
+    }
+}
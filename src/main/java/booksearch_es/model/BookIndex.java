@@ -8,13 +8,19 @@
  */
 package booksearch_es.model;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import booksearch_es.json.JSONUtils;
 import booksearch_es.json.Mapping;
+import booksearch_es.json.SearchTemplate;
 import booksearch_es.service.ElasticsearchService;
-import booksearch_es.service.HttpService;
+import booksearch_es.service.IElasticsearch;
+import booksearch_es.service.IElasticsearchTransport;
+import booksearch_es.service.TransportFactory;
 
 /**
  * <h4>
@@ -35,6 +41,17 @@ import booksearch_es.service.HttpService;
  * if the singleton value is null. So this function should only be called once per instance execution.
  * </p>
  * <p>
+ * The singleton is associated with an Elasticsearch transport. If a BookIndex is allocated for a different transport
+ * (for example, the InMemoryTransport used for testing) the index is checked (and created, if needed) for that
+ * transport.
+ * </p>
+ * <p>
+ * When the index is initialized the search templates used by the BookSearchService (see SearchTemplate) are stored
+ * in Elasticsearch. A template is only stored if its id (which includes the template version) is not already
+ * stored. If a template cannot be stored, the BookSearchService sends the full query instead. Search templates are
+ * turned off with the system property booksearch.searchTemplates.enabled=false.
+ * </p>
+ * <p>
  * Jul 10, 2018
  * </p>
  * 
@@ -43,29 +60,79 @@ import booksearch_es.service.HttpService;
 public final class BookIndex {
     public final static String BOOK_INDEX_NAME = "bookindex";
     private Logger logger = LoggerFactory.getLogger( BookIndex.class.getName() );
-    @SuppressWarnings("unused")
-    private static BookIndex singleton = null;
+    private static volatile BookIndex singleton = null;
+    private final IElasticsearchTransport transport;
+    // The ids of the search templates that are stored in Elasticsearch
+    private final Set<String> searchTemplateIds = ConcurrentHashMap.newKeySet();
+    
+    public static boolean searchTemplatesEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.searchTemplates.enabled",
+                                                        Boolean.toString(IElasticsearch.SEARCH_TEMPLATES_ENABLED)) );
+    }
     
     public BookIndex() {
-        if (singleton == null) {
+        this( TransportFactory.defaultTransport() );
+    }
+    
+    public BookIndex(final IElasticsearchTransport transport) {
+        this.transport = transport;
+        if (singleton == null || singleton.transport != transport) {
             synchronized (BookIndex.class) { // make the singleton thread safe
-                if (singleton == null) {
-                    singleton = new BookIndex( BOOK_INDEX_NAME );
+                if (singleton == null || singleton.transport != transport) {
+                    singleton = new BookIndex( BOOK_INDEX_NAME, transport );
                 }
             }
         }
     }
     
-    private BookIndex( final String indexName ) {
-        ElasticsearchService service = new ElasticsearchService();
+    private BookIndex( final String indexName, final IElasticsearchTransport transport ) {
+        this.transport = transport;
+        ElasticsearchService service = new ElasticsearchService( transport );
         if (! service.indexExists(indexName)) {
             final String bookInfoMapping = Mapping.bookInfoMapping(false);
             final String type = null;
             final String suffix = null;
-            String rslt = HttpService.putDocument(indexName, type, suffix, bookInfoMapping);
+            String rslt = transport.putDocument(indexName, type, suffix, bookInfoMapping);
             if (! JSONUtils.isAcknowledged(rslt)) {
                 logger.error("Critical error: could not create the Elasticsearch index " + BOOK_INDEX_NAME );
             }
         }
+        if (searchTemplatesEnabled()) {
+            registerSearchTemplates( service );
+        }
+    }
+    
+    /**
+     * <p>
+     * Store the search templates that are not already stored. The template id includes a hash of the template source
+     * (see SearchTemplate.getId()), so a changed template is stored under a new id. A stored template with the same
+     * id is left as it is, even if its source is different, since it was tuned on the cluster.
+     * </p>
+     */
+    private void registerSearchTemplates( final ElasticsearchService service ) {
+        for (SearchTemplate template : SearchTemplate.bookTemplates()) {
+            final String id = template.getId();
+            final String storedSource = service.getStoredScript( id );
+            if (storedSource != null) {
+                if (! storedSource.equals( template.getSource() )) {
+                    logger.info("The stored search template " + id + " was tuned on the cluster. The stored template is used.");
+                }
+                searchTemplateIds.add( id );
+            } else if (service.putStoredScript(id, template.scriptJson())) {
+                logger.info("Stored the search template " + id);
+                searchTemplateIds.add( id );
+            } else {
+                logger.error("Could not store the search template " + id + ". The full query will be sent.");
+            }
+        }
+    }
+    
+    /**
+     * @param template a search template
+     * @return true if the template is stored in Elasticsearch (for the transport of this BookIndex)
+     */
+    public boolean hasSearchTemplate(final SearchTemplate template) {
+        final BookIndex index = singleton;
+        return searchTemplatesEnabled() && index != null && index.transport == transport && index.searchTemplateIds.contains( template.getId() );
     }
 }
@@ -0,0 +1,262 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.model;
+
+/**
+ * <h4>
+ * CompactBookInfo
+ * </h4>
+ * <p>
+ * An immutable, compact version of a BookInfo, for large lists of books (e.g., the list of all of the books, see
+ * CompactBookList). A BookInfo read from a search hit has seven strings of its own, although the genre,
+ * publisher and author repeat across the books and the year and price are numbers:
+ * </p>
+ * <ul>
+ * <li>The genre and the publisher are stored as codes in a shared StringDictionary. The genre dictionary starts
+ * with the GenreEnum names, so the code of a GenreEnum genre is its ordinal.</li>
+ * <li>The author and the author last name are the canonical (shared) instances of the names.</li>
+ * <li>The year is stored as a short and the price is stored as an int number of cents.</li>
+ * </ul>
+ * <p>
+ * The conversion to and from a BookInfo is lossless: toBookInfo() returns a BookInfo that has the same field values.
+ * A value that can't be encoded (a null value, an empty year or price, a price like "16" or "15.9500", or a value
+ * that doesn't fit in a full dictionary) is kept as it is in the verbatim array.
+ * </p>
+ * <p>
+ * The getters are the BookInfo getters, so a page template can show a CompactBookInfo in place of a BookInfo. The
+ * year strings are cached, so only getPrice() builds a new string.
+ * </p>
+ * <p>
+ * The dictionaries are shared by all of the CompactBookInfo objects in the JVM. A string is never removed from a
+ * dictionary, so the genre, publisher and author strings are held for the life of the JVM (up to the dictionary
+ * sizes: MAX_GENRES, MAX_PUBLISHERS and MAX_AUTHORS strings).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class CompactBookInfo {
+    private final static int MAX_GENRES = 1024;
+    private final static int MAX_PUBLISHERS = Short.MAX_VALUE;
+    private final static int MAX_AUTHORS = 1 << 18;
+    // cents fit in an int
+    private final static int MAX_DOLLAR_DIGITS = 7;
+    private final static int MAX_YEAR_DIGITS = 4;
+    private final static int MAX_YEAR = 9999;
+
+    // The field is in the verbatim array
+    private final static short VERBATIM = -1;
+    private final static int VERBATIM_PRICE = -1;
+    // The verbatim array indexes
+    private final static int GENRE_IX = 0;
+    private final static int PUBLISHER_IX = 1;
+    private final static int YEAR_IX = 2;
+    private final static int PRICE_IX = 3;
+
+    private final static GenreEnum[] genreValues = GenreEnum.values();
+    private final static StringDictionary genres = new StringDictionary(MAX_GENRES);
+    private final static StringDictionary publishers = new StringDictionary(MAX_PUBLISHERS);
+    private final static StringDictionary authors = new StringDictionary(MAX_AUTHORS);
+    // The year strings, built on first use. A race builds an equal string, so the array is not synchronized.
+    private final static String[] yearStrings = new String[MAX_YEAR + 1];
+
+    static {
+        for (GenreEnum genre : genreValues) {
+            genres.code( genre.getName() );
+        }
+    }
+
+    private final String title;
+    private final String author;
+    private final String authorLastName;
+    private final short genre;
+    private final short publisher;
+    private final short year;
+    private final int price;
+    // The values that are not encoded. Null when all of the values are encoded.
+    private final String[] verbatim;
+
+    private CompactBookInfo(final BookInfo info) {
+        String[] notEncoded = null;
+        title = info.getTitle();
+        author = authors.canonical( info.getAuthor() );
+        authorLastName = authors.canonical( info.getAuthor_last_name() );
+        genre = dictionaryCode(genres, info.getGenre());
+        publisher = dictionaryCode(publishers, info.getPublisher());
+        year = yearValue( info.getYear() );
+        price = cents( info.getPrice() );
+        if (genre == VERBATIM || publisher == VERBATIM || year == VERBATIM || price == VERBATIM_PRICE) {
+            notEncoded = new String[4];
+            notEncoded[GENRE_IX] = info.getGenre();
+            notEncoded[PUBLISHER_IX] = info.getPublisher();
+            notEncoded[YEAR_IX] = info.getYear();
+            notEncoded[PRICE_IX] = info.getPrice();
+        }
+        verbatim = notEncoded;
+    }
+
+    /**
+     * @param info a BookInfo object
+     * @return the compact version of the BookInfo
+     */
+    public static CompactBookInfo fromBookInfo(final BookInfo info) {
+        return new CompactBookInfo(info);
+    }
+
+    /**
+     * @return a new BookInfo object with the field values of the book
+     */
+    public BookInfo toBookInfo() {
+        BookInfo info = new BookInfo();
+        // The BookInfo setters change null to "", so a null value is not set
+        if (title != null) {
+            info.setTitle(title);
+        }
+        if (author != null) {
+            info.setAuthor(author);
+        }
+        info.setAuthor_last_name(authorLastName);
+        final String genreName = getGenre();
+        if (genreName != null) {
+            info.setGenre(genreName);
+        }
+        final String publisherName = getPublisher();
+        if (publisherName != null) {
+            info.setPublisher(publisherName);
+        }
+        final String yearStr = getYear();
+        if (yearStr != null) {
+            info.setYear(yearStr);
+        }
+        final String priceStr = getPrice();
+        if (priceStr != null) {
+            info.setPrice(priceStr);
+        }
+        return info;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getAuthor_last_name() {
+        return authorLastName;
+    }
+
+    public String getGenre() {
+        return (genre == VERBATIM) ? verbatim[GENRE_IX] : genres.value(genre);
+    }
+
+    /**
+     * @return the genre enumeration value, or GenreEnum.BAD_ENUM if the genre is not one of the GenreEnum genres
+     */
+    public GenreEnum getGenreEnum() {
+        GenreEnum genreEnum = GenreEnum.BAD_ENUM;
+        if (genre != VERBATIM && genre < genreValues.length) {
+            genreEnum = genreValues[genre];
+        }
+        return genreEnum;
+    }
+
+    public String getPublisher() {
+        return (publisher == VERBATIM) ? verbatim[PUBLISHER_IX] : publishers.value(publisher);
+    }
+
+    public String getYear() {
+        String yearStr = null;
+        if (year == VERBATIM) {
+            yearStr = verbatim[YEAR_IX];
+        } else {
+            yearStr = yearStrings[year];
+            if (yearStr == null) {
+                yearStr = Short.toString(year);
+                yearStrings[year] = yearStr;
+            }
+        }
+        return yearStr;
+    }
+
+    public String getPrice() {
+        String priceStr = null;
+        if (price == VERBATIM_PRICE) {
+            priceStr = verbatim[PRICE_IX];
+        } else {
+            final int fraction = price % 100;
+            priceStr = (price / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+        }
+        return priceStr;
+    }
+
+    /**
+     * @return the price in cents, or -1 if the price is not a dollars and cents value (e.g., 15.95)
+     */
+    public int getPriceCents() {
+        return price;
+    }
+
+    private static short dictionaryCode(final StringDictionary dictionary, final String value) {
+        short code = VERBATIM;
+        if (value != null) {
+            final int dictCode = dictionary.code(value);
+            if (dictCode != StringDictionary.NO_CODE) {
+                code = (short)dictCode;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * @return the year, or VERBATIM if the string is not a year with one to four digits and no leading zeros
+     */
+    private static short yearValue(final String yearStr) {
+        short yearVal = VERBATIM;
+        if (yearStr != null && isNumber(yearStr, 0, yearStr.length()) && yearStr.length() <= MAX_YEAR_DIGITS) {
+            yearVal = Short.parseShort(yearStr);
+        }
+        return yearVal;
+    }
+
+    /**
+     * @return the price in cents, or VERBATIM_PRICE if the string is not a dollars and cents price (e.g., 47.50)
+     */
+    private static int cents(final String priceStr) {
+        int centsVal = VERBATIM_PRICE;
+        if (priceStr != null) {
+            final int point = priceStr.length() - 3;
+            if (point > 0 && point <= MAX_DOLLAR_DIGITS && priceStr.charAt(point) == '.' &&
+                isNumber(priceStr, 0, point) && isDigits(priceStr, point + 1, priceStr.length())) {
+                centsVal = Integer.parseInt( priceStr.substring(0, point) ) * 100 + Integer.parseInt( priceStr.substring(point + 1) );
+            }
+        }
+        return centsVal;
+    }
+
+    /**
+     * @return true if the characters are a number that is written without leading zeros
+     */
+    private static boolean isNumber(final String str, final int start, final int end) {
+        return end > start && isDigits(str, start, end) && (str.charAt(start) != '0' || end - start == 1);
+    }
+
+    private static boolean isDigits(final String str, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char ch = str.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <h4>
+ * CompactBookList
+ * </h4>
+ * <p>
+ * A List&lt;BookInfo&gt; that stores the books as CompactBookInfo objects. The search hits are read into the list
+ * as BookInfo objects (see JSONUtils.extractFromQueryResult()) and are kept as CompactBookInfo objects, so a large
+ * search result (e.g., the list of all of the books, see BookSearchService.getCompactBooks()) never holds a full
+ * BookInfo for every book.
+ * </p>
+ * <p>
+ * A BookInfo that is added to the list is copied and get() returns a new BookInfo for the book. Changing a BookInfo
+ * that was returned by get() does not change the list: use set() to replace a book. The books are read, without
+ * allocating a BookInfo, with getCompact() or through the compactBooks() view.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class CompactBookList extends AbstractList<BookInfo> implements RandomAccess {
+    private final ArrayList<CompactBookInfo> books;
+
+    public CompactBookList() {
+        books = new ArrayList<CompactBookInfo>();
+    }
+
+    /**
+     * Copy a list of books. The CompactBookInfo objects are immutable, so the books in another CompactBookList are
+     * shared, not converted.
+     *
+     * @param bookList the books to copy
+     */
+    public CompactBookList(final Collection<? extends BookInfo> bookList) {
+        if (bookList instanceof CompactBookList) {
+            books = new ArrayList<CompactBookInfo>( ((CompactBookList)bookList).books );
+        } else {
+            books = new ArrayList<CompactBookInfo>( bookList.size() );
+            for (BookInfo info : bookList) {
+                books.add( CompactBookInfo.fromBookInfo(info) );
+            }
+        }
+    }
+
+    @Override
+    public BookInfo get(final int index) {
+        return books.get(index).toBookInfo();
+    }
+
+    /**
+     * @return the compact book at index (without the allocation of a BookInfo)
+     */
+    public CompactBookInfo getCompact(final int index) {
+        return books.get(index);
+    }
+
+    /**
+     * @return a read only view of the compact books. The page templates read the view like a list of BookInfo
+     *         objects, since CompactBookInfo has the BookInfo getters.
+     */
+    public List<CompactBookInfo> compactBooks() {
+        return Collections.unmodifiableList(books);
+    }
+
+    @Override
+    public BookInfo set(final int index, final BookInfo info) {
+        return books.set(index, CompactBookInfo.fromBookInfo(info)).toBookInfo();
+    }
+
+    @Override
+    public void add(final int index, final BookInfo info) {
+        books.add(index, CompactBookInfo.fromBookInfo(info));
+        modCount++;
+    }
+
+    @Override
+    public BookInfo remove(final int index) {
+        modCount++;
+        return books.remove(index).toBookInfo();
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        books.clear();
+    }
+
+    @Override
+    public int size() {
+        return books.size();
+    }
+}
@@ -0,0 +1,112 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h4>
+ * StringDictionary
+ * </h4>
+ * <p>
+ * A thread safe dictionary that assigns a small integer code to each distinct string and keeps one canonical
+ * instance of the string. The book fields that repeat across the search hits (genre, publisher, author) are stored
+ * once in a dictionary, instead of once per book (see CompactBookInfo).
+ * </p>
+ * <p>
+ * Strings are never removed from a dictionary, so a dictionary has a maximum size. When the dictionary is full,
+ * code() returns NO_CODE and canonical() returns the string that it was passed.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class StringDictionary {
+    public final static int NO_CODE = -1;
+    private final static int INITIAL_SIZE = 16;
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+    // The values are written before the code is published in the codes map
+    private volatile String[] values = new String[INITIAL_SIZE];
+    private int size = 0;
+
+    /**
+     * @param capacity the maximum number of strings in the dictionary
+     */
+    public StringDictionary(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Return the code for a string, adding the string to the dictionary if it is not already in the dictionary.
+     *
+     * @param value a non-null string
+     * @return the code for the string or NO_CODE if the dictionary is full
+     */
+    public int code(final String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = add(value);
+        }
+        return code;
+    }
+
+    private synchronized int add(final String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            if (size == capacity) {
+                return NO_CODE;
+            }
+            String[] newValues = values;
+            if (size == newValues.length) {
+                newValues = Arrays.copyOf(newValues, Math.min(capacity, newValues.length * 2));
+            }
+            newValues[size] = value;
+            values = newValues;
+            code = size;
+            size++;
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * @param code a code returned by code()
+     * @return the string for the code
+     */
+    public String value(final int code) {
+        return values[code];
+    }
+
+    /**
+     * @param value a string or null
+     * @return the dictionary instance of the string (or the string if the dictionary is full or the string is null)
+     */
+    public String canonical(final String value) {
+        String rslt = value;
+        if (value != null) {
+            final int code = code(value);
+            if (code != NO_CODE) {
+                rslt = value(code);
+            }
+        }
+        return rslt;
+    }
+
+    /**
+     * @return the number of strings in the dictionary
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,131 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+/**
+ * <h4>
+ * AdaptiveConcurrencyLimiter
+ * </h4>
+ * <p>
+ * Limit the number of requests that are in flight to Elasticsearch. The limit is adjusted from the measured request
+ * latency (a gradient limiter):
+ * </p>
+ * <ul>
+ * <li>Two moving averages of the latency are kept: a short term average (the current latency) and a long term
+ * average (the latency when Elasticsearch is not overloaded).</li>
+ * <li>The gradient is tolerance * longTerm / shortTerm, limited to [0.5, 1.0]. While the short term latency is
+ * within the tolerance, the gradient is 1 and the limit grows by sqrt(limit). When requests queue in Elasticsearch
+ * the short term latency goes up and the limit shrinks in proportion.</li>
+ * <li>A request that failed because Elasticsearch is overloaded (no response or a 429/503 error) is a drop. A drop
+ * reduces the limit multiplicatively (the MD of AIMD).</li>
+ * </ul>
+ * <p>
+ * The limit is not raised while fewer than half of the permits are used, since the latency does not say anything
+ * about a higher limit.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class AdaptiveConcurrencyLimiter {
+    private final static double SHORT_TERM_WEIGHT = 0.1;
+    private final static double LONG_TERM_WEIGHT = 0.01;
+    private final static double SMOOTHING = 0.2;
+    private final static double DROP_RATIO = 0.9;
+    private final static double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private double limit;
+    private int inFlight = 0;
+    private double shortTermRtt = 0;
+    private double longTermRtt = 0;
+
+    /**
+     * @param initialLimit the starting concurrency limit
+     * @param minLimit the limit is never reduced below this value
+     * @param maxLimit the limit is never increased above this value
+     * @param tolerance the ratio of the current latency to the unloaded latency that is accepted before the limit is reduced
+     */
+    public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit, final double tolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * @return true if a permit was acquired. The caller must release the permit with onSuccess(), onDropped() or release().
+     */
+    public synchronized boolean tryAcquire() {
+        boolean acquired = false;
+        if (inFlight < (int)limit) {
+            inFlight++;
+            acquired = true;
+        }
+        return acquired;
+    }
+
+    /**
+     * Release a permit without a latency sample (e.g., a cancelled request).
+     */
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    /**
+     * Release a permit for a request that completed.
+     *
+     * @param rttNanos the request latency in nanoseconds
+     */
+    public synchronized void onSuccess(final long rttNanos) {
+        final int used = inFlight;
+        inFlight--;
+        final double rtt = rttNanos;
+        if (shortTermRtt == 0) {
+            shortTermRtt = rtt;
+            longTermRtt = rtt;
+        } else {
+            shortTermRtt = (1.0 - SHORT_TERM_WEIGHT) * shortTermRtt + SHORT_TERM_WEIGHT * rtt;
+            longTermRtt = (1.0 - LONG_TERM_WEIGHT) * longTermRtt + LONG_TERM_WEIGHT * rtt;
+            // After a long period of high latency, pull the long term average down so that the limit can recover.
+            if (longTermRtt > 2 * shortTermRtt) {
+                longTermRtt = longTermRtt * 0.95;
+            }
+        }
+        if (used >= limit / 2) {
+            final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * longTermRtt / shortTermRtt));
+            final double newLimit = limit * gradient + Math.sqrt(limit);
+            limit = clamp( (1.0 - SMOOTHING) * limit + SMOOTHING * newLimit );
+        }
+    }
+
+    /**
+     * Release a permit for a request that failed because Elasticsearch is overloaded or not reachable.
+     */
+    public synchronized void onDropped() {
+        inFlight--;
+        limit = clamp( limit * DROP_RATIO );
+    }
+
+    private double clamp(final double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
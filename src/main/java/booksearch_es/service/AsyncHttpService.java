@@ -0,0 +1,324 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h4>
+ * AsyncHttpService
+ * </h4>
+ * <p>
+ * A non-blocking version of the HttpService GET, POST and PUT operations. Each operation returns a
+ * CompletableFuture that is completed with the response body when the response arrives.
+ * </p>
+ * <p>
+ * The blocking HttpService operations hold the calling (Tomcat) thread until Elasticsearch answers. The operations
+ * in this class are built on the Apache HttpAsyncClient, which uses a small number of I/O dispatch threads
+ * to multiplex all of the in-flight requests. This allows a caller to start a number of Elasticsearch queries
+ * at the same time and compose the results, without a thread per request.
+ * </p>
+ * <p>
+ * The futures are completed on an I/O dispatch thread. Callers that do significant work on the result
+ * (for example, parsing a large query result) should use the "Async" CompletableFuture methods (e.g., thenApplyAsync)
+ * so that this work does not stall the I/O dispatch threads.
+ * </p>
+ * <p>
+ * Cancelling a future returned by this class aborts the associated HTTP exchange.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class AsyncHttpService implements IElasticsearch {
+    private static Logger logger = LoggerFactory.getLogger( AsyncHttpService.class.getName() );
+
+    private static volatile CloseableHttpAsyncClient sharedClient = null;
+    private static volatile PoolingNHttpClientConnectionManager connectionManager = null;
+
+    /**
+     * <p>
+     * Return the shared asynchronous HTTP client, building and starting it on the first call. The client uses
+     * the same request signing and connection pool limits as the blocking HttpService client.
+     * </p>
+     *
+     * @return a started CloseableHttpAsyncClient
+     */
+    protected static CloseableHttpAsyncClient signedAsyncClient() {
+        if (sharedClient == null) {
+            synchronized (AsyncHttpService.class) {
+                if (sharedClient == null) {
+                    try {
+                        final int ioThreads = Integer.getInteger("booksearch.http.ioThreads", HTTP_ASYNC_IO_THREADS);
+                        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                                .setIoThreadCount( ioThreads )
+                                .build();
+                        PoolingNHttpClientConnectionManager poolManager =
+                                new PoolingNHttpClientConnectionManager( new DefaultConnectingIOReactor( reactorConfig ) );
+                        poolManager.setMaxTotal( HttpService.poolMaxTotal() );
+                        poolManager.setDefaultMaxPerRoute( HttpService.poolMaxPerRoute() );
+                        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                                .setConnectionManager( poolManager )
+                                .addInterceptorLast( HttpService.signingInterceptor() )
+                                .build();
+                        client.start();
+                        connectionManager = poolManager;
+                        sharedClient = client;
+                    } catch (IOReactorException e) {
+                        throw new IllegalStateException("Could not create the asynchronous HTTP client I/O reactor", e);
+                    }
+                }
+            }
+        }
+        return sharedClient;
+    }
+
+    /**
+     * <p>
+     * Stop the asynchronous HTTP client and close its connections. This is called when the Spring context is
+     * closed (see HttpServiceLifecycle).
+     * </p>
+     */
+    public static void shutdown() {
+        synchronized (AsyncHttpService.class) {
+            if (sharedClient != null) {
+                try {
+                    sharedClient.close();
+                } catch (IOException e) {
+                    logger.error("Error closing the asynchronous HTTP client: " + e.getLocalizedMessage());
+                }
+                sharedClient = null;
+                connectionManager = null;
+            }
+        }
+    }
+
+    /**
+     * @return the asynchronous connection pool statistics or null if the client has not been started.
+     */
+    public static PoolStats getPoolStats() {
+        PoolStats stats = null;
+        PoolingNHttpClientConnectionManager poolManager = connectionManager;
+        if (poolManager != null) {
+            stats = poolManager.getTotalStats();
+        }
+        return stats;
+    }
+
+    /**
+     * <p>
+     * Start an HTTP request. The returned future is completed with the response body, or completed exceptionally
+     * if the HTTP exchange fails.
+     * </p>
+     * <p>
+     * If Elasticsearch rejects an idempotent request because it is overloaded (status 429 or 503), the request is
+     * sent again after a backoff delay (see RetryPolicy). The retry is scheduled on a timer, so no thread waits
+     * for the delay.
+     * </p>
+     * <p>
+     * The request is sent to the Elasticsearch node with the fewest outstanding requests (see NodePool). If the node
+     * can not be reached, an idempotent request is sent to another live node.
+     * </p>
+     * <p>
+     * If there is no response by the deadline for the request's OperationClass, the future is completed with a
+     * TimeoutException. When a search times out or is cancelled, its Elasticsearch task is cancelled (see TaskCanceller).
+     * </p>
+     *
+     * @param request the HTTP request
+     * @return a future for the response body
+     */
+    protected static CompletableFuture<String> sendHTTPTransaction( final HttpUriRequest request ) {
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+        final AtomicReference<Future<HttpResponse>> httpFuture = new AtomicReference<Future<HttpResponse>>();
+        final NodePool pool = NodePool.defaultPool();
+        final OperationClass operation = TaskCanceller.prepare( request );
+        HttpCompression.acceptCompressed( request );
+        execute(request, result, HttpService.retryBudget( request ), httpFuture, pool, pool.acquire());
+        // If the caller cancels the future, or the deadline passes, abort the HTTP exchange
+        TaskCanceller.watch(result, request, operation, () -> {
+            Future<HttpResponse> exchange = httpFuture.get();
+            return exchange != null && ! exchange.isDone();
+        }, () -> httpFuture.get().cancel(true));
+        return result;
+    }
+
+    /**
+     * Send the request to a node. Rejected requests are retried and failed idempotent requests are sent to another
+     * node, as in HttpService.
+     */
+    private static void execute( final HttpUriRequest request, final CompletableFuture<String> result, final RetryPolicy.Budget budget,
+                                 final AtomicReference<Future<HttpResponse>> httpFuture, final NodePool pool, final NodePool.Node node) {
+        HttpService.route(request, node);
+        httpFuture.set( signedAsyncClient().execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                pool.release(node, true);
+                try {
+                    HttpEntity entity = response.getEntity();
+                    final long delay = HttpService.retryDelay(request, response, budget);
+                    if (delay >= 0) {
+                        EntityUtils.consumeQuietly(entity);
+                        RetryPolicy.retryTimer().schedule(() -> {
+                            if (! result.isDone()) {
+                                execute(request, result, budget, httpFuture, pool, pool.acquire());
+                            }
+                        }, delay, TimeUnit.MILLISECONDS);
+                    } else {
+                        String body = null;
+                        if (entity != null) {
+                            try (InputStream responseStream = HttpCompression.responseStream(entity, HttpService.operationName(request))) {
+                                body = IOUtils.toString(responseStream, StandardCharsets.UTF_8);
+                            }
+                        }
+                        result.complete( body );
+                    }
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                pool.release(node, false);
+                NodePool.Node other = (budget != null && ! result.isDone()) ? pool.acquireOther(node) : null;
+                if (other != null) {
+                    logger.warn("Asynchronous HTTP " + request.getMethod() + " failed on " + node.getUrl() + ", sending it to " + other.getUrl());
+                    execute(request, result, budget, httpFuture, pool, other);
+                } else {
+                    logger.error("Asynchronous HTTP " + request.getMethod() + " failed: " + e.getLocalizedMessage());
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                pool.release(node);
+                result.cancel(false);
+            }
+        }) );
+        if (result.isDone()) {
+            // cancelled or timed out while the retry was being started
+            httpFuture.get().cancel(true);
+        }
+    }
+
+    private static CompletableFuture<String> failedFuture(Exception e) {
+        CompletableFuture<String> failed = new CompletableFuture<String>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    /**
+     * An asynchronous HTTP GET, with a JSON entity (for example, an Elasticsearch query).
+     *
+     * @param index
+     * @param type
+     * @param suffix
+     * @param jsonPayload
+     * @return a future for the response body
+     */
+    public static CompletableFuture<String> getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        CompletableFuture<String> response = null;
+        String url = HttpService.buildURL(index, type, suffix);
+        try {
+            HttpGetWithEntity get = new HttpGetWithEntity( url );
+            get.setHeader("Content-type", "application/json");
+            get.setEntity( HttpCompression.jsonEntity(jsonPayload, HttpService.operationName(get)) );
+            response = sendHTTPTransaction( get );
+        } catch (Exception e) {
+            logger.error("HttpGet with entity failed: " + e.getLocalizedMessage());
+            response = failedFuture(e);
+        }
+        return response;
+    }
+
+    /**
+     * An asynchronous HTTP GET, without an entity (for example, GET _tasks).
+     *
+     * @param index
+     * @param type
+     * @param suffix
+     * @return a future for the response body
+     */
+    public static CompletableFuture<String> getDocument(final String index, final String type, final String suffix) {
+        return sendHTTPTransaction( new HttpGet( HttpService.buildURL(index, type, suffix) ) );
+    }
+
+    /**
+     * An asynchronous HTTP PUT operation
+     *
+     * @param index The index for the document
+     * @param type The Elasticsearch type for the document
+     * @param suffix A unique ID for the document or the URL suffix
+     * @param jsonPayload The JSON string to be added to the Elasticsearch index
+     * @return a future for the JSON result object
+     */
+    public static CompletableFuture<String> putDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        String url = HttpService.buildURL(index, type, suffix);
+        HttpPut put = new HttpPut( url );
+        put.setHeader("Content-type", "application/json");
+        put.setEntity( HttpCompression.jsonEntity(jsonPayload, HttpService.operationName(put)) );
+        return sendHTTPTransaction( put );
+    }
+
+    /**
+     * An asynchronous HTTP POST where it is assumed that the caller builds the URL
+     *
+     * @param url
+     * @param jsonPayload
+     * @return a future for the response body
+     */
+    public static CompletableFuture<String> postDocument(final String url, final String jsonPayload) {
+        HttpPost post = new HttpPost( url );
+        post.setHeader("Content-type", "application/json");
+        post.setEntity( HttpCompression.jsonEntity(jsonPayload, HttpService.operationName(post)) );
+        return sendHTTPTransaction( post );
+    }
+
+    /**
+     * An asynchronous HTTP POST operation
+     *
+     * @param index
+     * @param type
+     * @param suffix
+     * @param jsonPayload
+     * @return a future for the response body
+     */
+    public static CompletableFuture<String> postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        String url = HttpService.buildURL(index, type, suffix);
+        return postDocument(url, jsonPayload);
+    }
+}
@@ -0,0 +1,210 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * <h4>
+ * BatchThrottle
+ * </h4>
+ * <p>
+ * Decide when a batch request (see RequestPriority) can be sent. Interactive requests are never delayed. Batch
+ * requests have two limits:
+ * </p>
+ * <ul>
+ * <li>Priority: a batch request waits while there are maxInteractive or more interactive requests in flight
+ * (but no longer than maxYieldMillis, so that a busy site does not stop a load altogether).</li>
+ * <li>Rate: a batch request needs a token from a token bucket. The bucket is refilled at the batch rate and holds
+ * at most burst tokens.</li>
+ * </ul>
+ * <p>
+ * The batch rate follows the interactive latency. At most once per adjustment period, if there were interactive
+ * requests in the period and their 95th percentile latency is above the target, the rate is halved. Otherwise the
+ * rate is increased by a tenth of the maximum rate (additive increase, multiplicative decrease). A load can run
+ * while the site is in use: it slows down when the users would notice and speeds up when the site is quiet.
+ * </p>
+ * <p>
+ * The throttle only sees the interactive requests that are sent by its own process. A loader that runs in a separate
+ * JVM is limited by the rate and burst, but not by the web application's latency.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class BatchThrottle {
+    private final static int LATENCY_WINDOW = 256;
+    private final static long YIELD_SLEEP_MILLIS = 10;
+
+    private final LatencyTracker interactiveLatencies = new LatencyTracker( LATENCY_WINDOW );
+    private final AtomicInteger interactiveInFlight = new AtomicInteger(0);
+    private final LongAdder batchRequests = new LongAdder();
+    private final LongAdder batchWaitMillis = new LongAdder();
+    private final LongAdder yields = new LongAdder();
+    private final long latencyTargetNanos;
+    private final double maxRate;
+    private final double minRate;
+    private final int burst;
+    private final long adjustMillis;
+    private final int maxInteractive;
+    private final long maxYieldMillis;
+    private final LongSupplier clock;
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long lastAdjust;
+    private int samplesSinceAdjust = 0;
+    private long rateDecreases = 0;
+
+    /**
+     * @param latencyTargetMillis the interactive 95th percentile latency target
+     * @param maxRate the highest batch rate (requests per second)
+     * @param minRate the lowest batch rate
+     * @param burst the size of the token bucket
+     * @param adjustMillis the batch rate is adjusted at most once in this period
+     * @param maxInteractive batch requests wait while this many interactive requests are in flight
+     * @param maxYieldMillis the longest time that a batch request waits for the interactive requests
+     * @param clock the current time in milliseconds
+     */
+    public BatchThrottle(final long latencyTargetMillis, final double maxRate, final double minRate, final int burst,
+                         final long adjustMillis, final int maxInteractive, final long maxYieldMillis, final LongSupplier clock) {
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos( latencyTargetMillis );
+        this.maxRate = maxRate;
+        this.minRate = Math.min(minRate, maxRate);
+        this.burst = Math.max(1, burst);
+        this.adjustMillis = adjustMillis;
+        this.maxInteractive = Math.max(1, maxInteractive);
+        this.maxYieldMillis = maxYieldMillis;
+        this.clock = clock;
+        this.rate = maxRate;
+        this.tokens = this.burst;
+        this.lastRefill = clock.getAsLong();
+        this.lastAdjust = lastRefill;
+    }
+
+    public BatchThrottle(final long latencyTargetMillis, final double maxRate, final double minRate, final int burst,
+                         final long adjustMillis, final int maxInteractive, final long maxYieldMillis) {
+        this(latencyTargetMillis, maxRate, minRate, burst, adjustMillis, maxInteractive, maxYieldMillis, System::currentTimeMillis);
+    }
+
+    public void onInteractiveStart() {
+        interactiveInFlight.incrementAndGet();
+    }
+
+    /**
+     * @param latencyNanos the latency of an interactive request that completed
+     */
+    public void onInteractiveComplete(final long latencyNanos) {
+        interactiveInFlight.decrementAndGet();
+        interactiveLatencies.record(latencyNanos);
+        synchronized (this) {
+            samplesSinceAdjust++;
+        }
+    }
+
+    /**
+     * An interactive request was cancelled or failed without a response, so its latency is not recorded.
+     */
+    public void onInteractiveAbandoned() {
+        interactiveInFlight.decrementAndGet();
+    }
+
+    public int getInteractiveInFlight() {
+        return interactiveInFlight.get();
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void adjust(final long now) {
+        if (now - lastAdjust >= adjustMillis) {
+            if (samplesSinceAdjust > 0 && interactiveLatencies.percentile(95.0) > latencyTargetNanos) {
+                rate = Math.max(minRate, rate / 2.0);
+                rateDecreases++;
+            } else {
+                rate = Math.min(maxRate, rate + (maxRate / 10.0));
+            }
+            lastAdjust = now;
+            samplesSinceAdjust = 0;
+        }
+    }
+
+    /**
+     * <p>
+     * Take a token for a batch request, if one is available. This does not wait.
+     * </p>
+     *
+     * @return zero if a token was taken. Otherwise the time, in milliseconds, until a token will be available.
+     */
+    public synchronized long tryAcquire() {
+        final long now = clock.getAsLong();
+        adjust(now);
+        tokens = Math.min(burst, tokens + ((now - lastRefill) * rate) / 1000.0);
+        lastRefill = now;
+        long waitMillis = 0;
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+        } else {
+            waitMillis = Math.max(1, (long)Math.ceil( ((1.0 - tokens) * 1000.0) / rate ));
+        }
+        return waitMillis;
+    }
+
+    /**
+     * <p>
+     * Wait until a batch request can be sent: until the interactive requests in flight are below the limit (or
+     * maxYieldMillis has passed) and there is a token.
+     * </p>
+     *
+     * @throws InterruptedException if the thread is interrupted while it waits
+     */
+    public void acquire() throws InterruptedException {
+        final long start = clock.getAsLong();
+        if (interactiveInFlight.get() >= maxInteractive) {
+            yields.increment();
+            while (interactiveInFlight.get() >= maxInteractive && (clock.getAsLong() - start) < maxYieldMillis) {
+                Thread.sleep( YIELD_SLEEP_MILLIS );
+            }
+        }
+        long waitMillis = tryAcquire();
+        while (waitMillis > 0) {
+            Thread.sleep( Math.min(waitMillis, adjustMillis) );
+            waitMillis = tryAcquire();
+        }
+        batchRequests.increment();
+        batchWaitMillis.add( clock.getAsLong() - start );
+    }
+
+    /**
+     * @return the throttle counters: the batch rate (requests per minute), the number of times the rate was
+     * reduced, the interactive requests in flight, the interactive 95th percentile latency, the batch requests, the
+     * total time that the batch requests waited and the number of batch requests that yielded to interactive requests.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        synchronized (this) {
+            stats.put("batchRatePerMinute", Math.round(rate * 60.0));
+            stats.put("rateDecreases", rateDecreases);
+        }
+        stats.put("interactiveInFlight", (long)interactiveInFlight.get());
+        stats.put("interactiveP95Millis", TimeUnit.NANOSECONDS.toMillis( Math.max(0, interactiveLatencies.percentile(95.0)) ));
+        stats.put("batchRequests", batchRequests.sum());
+        stats.put("batchWaitMillis", batchWaitMillis.sum());
+        stats.put("yields", yields.sum());
+        return stats;
+    }
+}
@@ -9,28 +9,36 @@
 package booksearch_es.service;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import javax.json.Json;
-import javax.json.stream.JsonGenerator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import booksearch_es.json.Facet;
 import booksearch_es.json.JSONUtils;
 import booksearch_es.json.JSONUtils.BucketAggregation;
 import booksearch_es.json.Mapping;
+import booksearch_es.json.QueryPlanner;
+import booksearch_es.json.QueryTemplate;
+import booksearch_es.json.SearchQuery;
+import booksearch_es.json.SearchTemplate;
 import booksearch_es.model.BookIndex;
 import booksearch_es.model.BookInfo;
+import booksearch_es.model.CompactBookInfo;
+import booksearch_es.model.CompactBookList;
 
 /**
  * <h4>BookSearchService</h4>
@@ -45,223 +53,109 @@ import booksearch_es.model.BookInfo;
  * @author Ian Kaplan, iank@bearcave.com
  */
 public class BookSearchService {
-    /**
-     * <h4>Author</h4>
-     * <p>
-     * This serializes to the JSON { "author" : "author name here" }
-     * <p>
-     * Jul 26, 2018
-     * </p>
-     * 
-     * @author Ian Kaplan, iank@bearcave.com
-     */
-    private static class Author {
-        @SuppressWarnings("unused")
-        final public String author;
-
-        public Author(final String author) {
-            this.author = author;
-        }
-    }
-
-    /**
-     * <h4>BoolExp</h4>
-     * <p>
-     * This serializes to
-     * </p>
-     * 
-     * <pre>
-     * bool : {
-     *    JSON
-     * }
-     * </pre>
-     * <p>
-     * Jul 26, 2018
-     * </p>
-     * 
-     * @author Ian Kaplan, iank@bearcave.com
-     */
-    private static class BoolExp {
-        @SuppressWarnings("unused")
-        final public Object bool;
-
-        public BoolExp(Object obj) {
-            this.bool = obj;
-        }
-    }
-
-    private static class FilterArrayExp {
-        @SuppressWarnings("unused")
-        final public Object[] filter;
-
-        public FilterArrayExp(Object[] filterArray) {
-            this.filter = filterArray;
-        }
-    }
-
-    private static class FilterExp {
-        @SuppressWarnings("unused")
-        final public Object filter;
-
-        public FilterExp(Object obj) {
-            this.filter = obj;
-        }
-    }
+    private final static int GET_MAX = 10000;
 
-    private static class Genre {
-        @SuppressWarnings("unused")
-        final public String genre;
+    private final static String SEARCH_SUFFIX = "_search";
+    // The response paths that are read from a book search (see JSONUtils.extractFromQueryResult()) and from an
+    // aggregation search (see JSONUtils.extractBucketTermAggregations()). The book searches only return the book
+    // list fields of the _source (see SearchTemplate.BOOK_LIST_SOURCE).
+    private final static String[] HITS_FILTER_PATH = { "hits.total", "hits.hits._source" };
+    private final static String AGGREGATION_FILTER_PATH = "filter_path=aggregations.*.buckets";
 
-        public Genre(final String genre) {
-            this.genre = genre;
-        }
-    }
+    // The queries are compiled once (see QueryTemplate). SearchQuery and the transport take String payloads, so the
+    // queries are rendered with renderString(): the rendered bytes are decoded to a String, which is encoded again
+    // when the request is sent.
+    private final static QueryTemplate BUCKET_TERMS_TEMPLATE = QueryTemplate.compile(
+            "{\"size\":0,\"aggs\":{${aggregate}:{\"terms\":{\"field\":${field},\"size\":10000,\"order\":{\"_key\":\"asc\"}}}}}");
+    // The query clauses of the search queries (see SearchQuery). The genre, publisher, title/author and match all
+    // searches are sent with the stored search templates (see SearchTemplate) when the templates are available.
+    // The filter clauses are planned from the mapping field types (see QueryPlanner): exact values are cached term
+    // filters and the words of the title, author and publisher fields are matched. The duplicate book check
+    // (hasBookEntry()) matches the title and publisher words, so a title or publisher that differs only in case or
+    // spacing is the same book.
+    private final static QueryPlanner planner = QueryPlanner.bookInfo();
+    private final static QueryTemplate BOOK_INFO_TEMPLATE = planner.plan()
+                                                                   .words("title")
+                                                                   .words("author")
+                                                                   .words("publisher")
+                                                                   .equal("genre")
+                                                                   .equal("year")
+                                                                   .equal("price")
+                                                                   .compile();
+    private final static QueryTemplate AUTHOR_FILTER_TEMPLATE = planner.plan().words("author").compile();
+    private final static QueryTemplate TITLE_MATCH_TEMPLATE = QueryTemplate.compile(
+            "{\"match\":{\"title\":${title}}}");
+    private final static QueryTemplate TITLE_AUTHOR_TEMPLATE = planner.plan().words("title").words("author").compile();
+    private final static QueryTemplate GENRE_TEMPLATE = planner.plan().equal("genre").compile();
+    private final static QueryTemplate PUBLISHER_KEYWORD_TEMPLATE = planner.plan().equal("publisher").compile();
+    private final static SearchQuery MATCH_ALL_QUERY = SearchQuery.builder()
+                                                                  .query("{\"match_all\":{}}")
+                                                                  .sort("genre", true)
+                                                                  .source(SearchTemplate.BOOK_LIST_SOURCE)
+                                                                  .filterPath(HITS_FILTER_PATH)
+                                                                  .build();
+    private final static SearchQuery MATCH_ALL_TEMPLATE_QUERY = SearchTemplate.MATCH_ALL.query().filterPath(HITS_FILTER_PATH).build();
 
-    /**
-     * <h4>MatchExp</h4>
-     * 
-     * <p>
-     * For generating the JSON:
-     * </p>
-     * 
-     * <pre>
-     * "match": {
-               Match expression
-             }
-     * </pre>
-     * <p>
-     * Jun 15, 2018
-     * </p>
-     * 
-     * @author Ian Kaplan, iank@bearcave.com
-     */
-    private static class MatchExp {
-        @SuppressWarnings("unused")
-        final public Object match;
-
-        public MatchExp(Object obj) {
-            match = obj;
-        }
-    }
+    private Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    /**
-     * <h4>Price</h4>
-     * <p>
-     * This serializes to { "price" : "floating point price" }
-     * </p>
-     * <p>
-     * Jul 26, 2018
-     * </p>
-     * 
-     * @author Ian Kaplan, iank@bearcave.com
-     */
-    private static class Price {
-        @SuppressWarnings("unused")
-        final public String price;
+    private final IElasticsearchTransport transport;
 
-        public Price(final String price) {
-            this.price = price;
-        }
+    private final ElasticsearchService elasticService;
+    
+    // Identical queries that are in flight at the same time share one Elasticsearch request
+    private final SingleFlight<List<BookInfo>> queryFlights = new SingleFlight<List<BookInfo>>();
+    private final SingleFlight<List<CompactBookInfo>> compactQueryFlights = new SingleFlight<List<CompactBookInfo>>();
+    private final SingleFlight<List<BucketAggregation>> aggregationFlights = new SingleFlight<List<BucketAggregation>>();
+    private final SingleFlight<Map<String, List<BucketAggregation>>> facetFlights = new SingleFlight<Map<String, List<BucketAggregation>>>();
+    
+    // Allocate the BookIndex singleton which will create the Elasticsearch mapping (index) for the BookInfo data if it 
+    // doesn't already exist. The BookIndex also stores the search templates.
+    private final BookIndex bookIndex;
+    
+    public BookSearchService() {
+        this( TransportFactory.defaultTransport() );
     }
-
+    
     /**
-     * <h4>Publisher</h4>
-     * <p>
-     * This serializes to { "publisher" : "publisher name here" }
-     * </p>
-     * <p>
-     * Jul 26, 2018
-     * </p>
-     * 
-     * @author Ian Kaplan, iank@bearcave.com
+     * @param transport the Elasticsearch transport used for the book search operations
      */
-    private static class Publisher {
-        @SuppressWarnings("unused")
-        final public String publisher;
-
-        public Publisher(final String publisher) {
-            this.publisher = publisher;
-        }
+    public BookSearchService(final IElasticsearchTransport transport) {
+        this.transport = transport;
+        this.elasticService = new ElasticsearchService( transport );
+        this.bookIndex = new BookIndex( transport );
     }
 
     /**
-     * <h4>Query</h4>
      * <p>
-     * For generating the JSON
+     * The URL suffix for the aggregation (size 0) searches. These are sent with request_cache=true, so that each shard
+     * caches the result, and with a fixed preference key, so that a repeated aggregation is sent to the same shard
+     * copies and finds the cached result. Without a preference, each search goes to a random copy of each shard and
+     * the cached results are spread over all of the copies. Only the aggregation buckets are returned (filter_path).
      * </p>
-     * 
      * <pre>
-     * "query": { 
-             Query expression
-          }
+     * POST bookindex/bookinfo/_search?filter_path=aggregations.*.buckets&amp;request_cache=true&amp;preference=booksearch_facets
      * </pre>
-     * 
-     * Jun 15, 2018
-     * 
-     * @author Ian Kaplan, iank@bearcave.com
-     */
-    private static class Query {
-        @SuppressWarnings("unused")
-        final public Object query;
-
-        public Query(final Object query) {
-            this.query = query;
-        }
-    }
-
-    /**
-     * <h4>Title</h4>
-     * <p>
-     * This serializes to the JSON { "title" : "book title here" }
-     * </p>
-     * <p>
-     * Jul 26, 2018
-     * </p>
-     * 
-     * @author Ian Kaplan, iank@bearcave.com
-     */
-    private static class Title {
-        @SuppressWarnings("unused")
-        final public String title;
-
-        public Title(final String title) {
-            this.title = title;
-        }
-    }
-
-    /**
-     * <h4>Year</h4>
-     * <p>
-     * This serializes to { "year" : "year data value" }
-     * </p>
      * <p>
-     * Jul 26, 2018
+     * The shard cache is invalidated when the index is refreshed after a change. The cache statistics are read
+     * with ElasticsearchService.requestCacheStats().
      * </p>
-     * 
-     * @author Ian Kaplan, iank@bearcave.com
      */
-    private static class Year {
-        @SuppressWarnings("unused")
-        final public String year;
-
-        public Year(final String year) {
-            this.year = year;
+    protected static String cachedSearchSuffix() {
+        String suffix = SEARCH_SUFFIX + "?" + AGGREGATION_FILTER_PATH;
+        if (Boolean.parseBoolean( System.getProperty("booksearch.requestCache.enabled", Boolean.toString(IElasticsearch.REQUEST_CACHE_ENABLED)) )) {
+            final String preference = System.getProperty("booksearch.requestCache.preference", IElasticsearch.REQUEST_CACHE_PREFERENCE);
+            suffix = suffix + "&request_cache=true";
+            if (preference != null && preference.length() > 0) {
+                try {
+                    suffix = suffix + "&preference=" + URLEncoder.encode(preference, StandardCharsets.UTF_8.name());
+                } catch (UnsupportedEncodingException e) {
+                    // UTF-8 is always supported
+                }
+            }
         }
+        return suffix;
     }
 
-    private final static int GET_MAX = 10000;
-
-    private final static String SEARCH_SUFFIX = "_search";
-
-    private Logger logger = LoggerFactory.getLogger(this.getClass());
-
-    private ElasticsearchService elasticService = new ElasticsearchService();
-    
-    // Allocate the BookIndex singleton which will create the Elasticsearch mapping (index) for the BookInfo data if it 
-    // doesn't already exist.
-    @SuppressWarnings("unused")
-    private final BookIndex bookIndex = new BookIndex();
-
     /**
      * <p>
      * Build a bucket terms aggregate query.
@@ -309,24 +203,7 @@ public class BookSearchService {
      * @return
      */
     protected String buildBucketTermsAggregate(final String aggregateName, final String fieldName) {
-        StringWriter writer = new StringWriter();
-        JsonGenerator generator = Json.createGenerator(writer);
-        generator.writeStartObject();                    // {
-        generator.write("size", 0);                      //  "size" : 0,
-        generator.writeStartObject("aggs");              //  "aggs" : {
-        generator.writeStartObject(aggregateName);       //     "aggregateName" : {
-        generator.writeStartObject("terms");             //        "terms" : {
-        generator.write("field", fieldName);             //            "field" : "fieldName",
-        generator.write("size", 10000);                  //            "size" : 10000,
-        generator.writeStartObject("order");             //            "order : {
-        generator.write("_key", "asc");                  //                "_key" : "asc"
-        generator.writeEnd();                            //             }
-        generator.writeEnd();                            //        }
-        generator.writeEnd();                            //     }
-        generator.writeEnd();                            //   }
-        generator.writeEnd();                            // }
-        generator.close();
-        return writer.toString();
+        return BUCKET_TERMS_TEMPLATE.renderString(aggregateName, fieldName);
     }
 
     /**
@@ -334,36 +211,39 @@ public class BookSearchService {
      * <pre>
      * {
          "query": {
-         "bool" : {
-            "filter" : [
-               { "match" : { "author" : bookInfo.getAuthor() }},
-               { "match" : { "title" : bookInfo.getTitle()}},
-               { "match" : { "publisher" : bookInfo.getPublisher() }},
-               { "match" : { "year" : bookInfo.getDate() }}
-           ]
+         "constant_score" : {
+           "filter" : {
+             "bool" : {
+               "filter" : [
+                 { "term" : { "title.keyword" : bookInfo.getTitle()}},
+                 { "match" : { "author" : bookInfo.getAuthor() }},
+                 { "term" : { "publisher.keyword" : bookInfo.getPublisher() }},
+                 { "term" : { "genre" : bookInfo.getGenre() }},
+                 { "term" : { "year" : bookInfo.getYear() }},
+                 { "term" : { "price" : bookInfo.getPrice() }}
+               ]
+             }
+           }
          }
        }
      }
      * </pre>
      * </pre>
+     * <p>
+     * The exact values are term filters on the keyword, date and numeric fields (see QueryPlanner). The author field
+     * is a text field without a keyword sub-field, so the author is matched.
+     * </p>
      * 
      * @param info
      * @return
-     * @throws JsonProcessingException
      */
-    protected String buildBookInfoQuery(final BookInfo info) throws JsonProcessingException {
-        Object[] matchArray = { new MatchExp(new Title(info.getTitle())), new MatchExp(new Author(info.getAuthor())),
-                new MatchExp(new Publisher(info.getPublisher())), new MatchExp(new Genre(info.getGenre())),
-                new MatchExp(new Year(info.getYear())), new MatchExp(new Price(info.getPrice())) };
-        final String jsonString = buildFilterArrayQuery(matchArray);
-        return jsonString;
-    }
-
-    protected String buildFilterArrayQuery(Object[] matchArray) throws JsonProcessingException {
-        Query query = new Query(new BoolExp(new FilterArrayExp(matchArray)));
-        ObjectMapper mapper = new ObjectMapper();
-        final String jsonString = mapper.writeValueAsString(query);
-        return jsonString;
+    protected SearchQuery buildBookInfoQuery(final BookInfo info) {
+        return SearchQuery.builder()
+                          .query( BOOK_INFO_TEMPLATE.renderString(info.getTitle(), info.getAuthor(), info.getPublisher(), info.getGenre(),
+                                                                  info.getYear(), info.getPrice()) )
+                          .source("title") // only the number of hits is used
+                          .filterPath(HITS_FILTER_PATH)
+                          .build();
     }
 
     /**
@@ -384,7 +264,7 @@ public class BookSearchService {
      * <pre>
       {
         "query": {
-          "bool": {
+          "constant_score": {
             "filter": {
               "match": {
                 "author": "gibson"
@@ -396,67 +276,23 @@ public class BookSearchService {
      * </pre>
      * <p>
      * The Elasticsearch documentation is not terribly clear and the book
-     * Elasticsearch in Action is out of date. As far as I can tell, all parts of
-     * the query above are needed. For example, removing the "book" or "match"
-     * clauses results in a syntax error.
+     * Elasticsearch in Action is out of date. A filter must be wrapped in a
+     * query that runs it in filter context: a bool query or, when there is no
+     * scoring clause, a constant_score query.
      * </p>
      * 
-     * @param obj
+     * @param author
      * @return
-     * @throws JsonProcessingException
      */
-    protected String buildFilterQuery(Object obj) throws JsonProcessingException {
-        Query query = new Query(new BoolExp(new FilterExp(new MatchExp(obj))));
-        ObjectMapper mapper = new ObjectMapper();
-        final String jsonString = mapper.writeValueAsString(query);
-        return jsonString;
+    protected SearchQuery buildAuthorFilterQuery(final String author) {
+        return SearchQuery.builder()
+                          .query( AUTHOR_FILTER_TEMPLATE.renderString(author) )
+                          .source(SearchTemplate.BOOK_LIST_SOURCE)
+                          .filterPath(HITS_FILTER_PATH)
+                          .build();
     }
 
-    /**
-     * <p>
-     * Add "from" and "size" fields to the query that is passed in.
-     * </p>
-     * 
-     * <pre>
-     * {
-         "from" : 10, "size" : 3,
-         "query" : {
-            ...
-        }
-      }
-     * </pre>
-     * <p>
-     * The Jackson class library is used to construct the new tree from the existing
-     * JSON.
-     * </p>
-     * 
-     * @param startIx
-     *            The first record to fetch (numbered from zero)
-     * @param fetchSize
-     *            The number of records to fetch
-     * @param jsonQuery
-     *            a JSON query that starts with { "query" : { ... } }
-     * @return The JSON query with "from" and "size" fields added.
-     */
-    protected String buildFromQuery(int startIx, int fetchSize, String jsonQuery ) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode jsonTree = mapper.readTree(jsonQuery);
-        ObjectNode objNode = mapper.createObjectNode();
-        objNode.put("from", startIx);
-        objNode.put("size", fetchSize);
-        // iterate over the elements of the JSON tree and add them to the ObjectNode that is being
-        // built for the new query.
-        Iterator<Map.Entry<String, JsonNode>> fieldItr = jsonTree.fields();
-        while (fieldItr.hasNext()) {
-            Map.Entry<String, JsonNode> entry = fieldItr.next();
-            objNode.set(entry.getKey(), entry.getValue());
-        }        
-        String newTree = mapper.writeValueAsString(objNode);
-        return newTree;
-    }
-    
-    
-    /**
+/**
      * <p>
      * Build the JSON for a match_all query that will return all of the books in the Elasticsearch database.
      * </p>
@@ -475,49 +311,32 @@ public class BookSearchService {
      * </p>
      * @return the JSON for a match_all query.
      */
-    protected String buildMatchAllQuery() {
-        StringWriter writer = new StringWriter();
-        JsonGenerator generator = Json.createGenerator(writer);
-        generator.writeStartObject();                    // {
-        generator.writeStartObject("query");              //  "query" : {
-        generator.writeStartObject("match_all");          //      "match_all" : {
-        generator.writeEnd();                            //                     }
-        generator.writeEnd();                            //    },
-        generator.writeStartArray("sort");               //    "sort" : [
-        generator.writeStartObject();                    //        {
-        generator.writeStartObject("genre");             //           "genre" : {
-        generator.write("order", "asc");                 //               "order" : "asc"
-        generator.writeEnd();                            //            }
-        generator.writeEnd();                            //        }
-        generator.writeEnd();                            //    ]
-        generator.writeEnd();                            // }
-        generator.close();
-        return writer.toString();
+    protected SearchQuery buildMatchAllQuery() {
+        return bookIndex.hasSearchTemplate(SearchTemplate.MATCH_ALL) ? MATCH_ALL_TEMPLATE_QUERY : MATCH_ALL_QUERY;
     }
 
     /**
      * <p>
-     * Build the JSON for a query expression:
+     * Build the JSON for a title match query:
      * </p>
      * 
      * <pre>
       "query" : {
           "match": {
-               Match expression
+               "title" : "title words"
               }
         }
      * </pre>
      * 
-     * @param obj
+     * @param titleWords
      * @return
-     * @throws JsonProcessingException
      */
-    protected String buildMatchQuery(Object obj) throws JsonProcessingException {
-        final MatchExp match = new MatchExp(obj);
-        final Query query = new Query(match);
-        ObjectMapper mapper = new ObjectMapper();
-        final String jsonString = mapper.writeValueAsString(query);
-        return jsonString;
+    protected SearchQuery buildTitleMatchQuery(final String titleWords) {
+        return SearchQuery.builder()
+                          .query( TITLE_MATCH_TEMPLATE.renderString(titleWords) )
+                          .source(SearchTemplate.BOOK_LIST_SOURCE)
+                          .filterPath(HITS_FILTER_PATH)
+                          .build();
     }
 
     /**
@@ -528,11 +347,15 @@ public class BookSearchService {
      * <pre>
      * {
          "query": {
-         "bool" : {
-            "filter" : [
-               { "match" : { "author" : "gibson" }},
-               { "match" : { "title" : "neuromancer"}}
-           ]
+         "constant_score" : {
+           "filter" : {
+             "bool" : {
+               "filter" : [
+                 { "match" : { "title" : "neuromancer"}},
+                 { "match" : { "author" : "gibson" }}
+               ]
+             }
+           }
          }
        }
      }
@@ -541,12 +364,30 @@ public class BookSearchService {
      * @param title
      * @param author
      * @return
-     * @throws JsonProcessingException
      */
-    protected String buildTitleAuthorQuery(final String title, final String author) throws JsonProcessingException {
-        Object[] matchArray = { new MatchExp(new Title(title)), new MatchExp(new Author(author)) };
-        final String jsonString = buildFilterArrayQuery(matchArray);
-        return jsonString;
+    protected SearchQuery buildTitleAuthorQuery(final String title, final String author) {
+        return SearchQuery.builder().query( TITLE_AUTHOR_TEMPLATE.renderString(title, author) ).build();
+    }
+    
+    /**
+     * <p>
+     * The title/author search, with the stored search template if it is available. The _delete_by_query request
+     * uses the full query (see buildTitleAuthorQuery()), since Elasticsearch only applies search templates to
+     * searches. The search only returns the book list fields.
+     * </p>
+     */
+    protected SearchQuery buildTitleAuthorSearch(final String title, final String author) {
+        SearchQuery query = null;
+        if (bookIndex.hasSearchTemplate(SearchTemplate.TITLE_AUTHOR)) {
+            query = SearchTemplate.TITLE_AUTHOR.query().param("title", title).param("author", author).filterPath(HITS_FILTER_PATH).build();
+        } else {
+            query = SearchQuery.builder()
+                               .query( TITLE_AUTHOR_TEMPLATE.renderString(title, author) )
+                               .source(SearchTemplate.BOOK_LIST_SOURCE)
+                               .filterPath(HITS_FILTER_PATH)
+                               .build();
+        }
+        return query;
     }
     
     
@@ -557,8 +398,8 @@ public class BookSearchService {
      * <pre>
       GET bookindex/bookinfo/_search
       {"query":
-         {"match":
-             {"genre":"Science Fiction"}
+         {"constant_score":
+             {"filter":{"term":{"genre":"Science Fiction"}}}
          },
          "sort":[
             {"author_last_name": {"order" : "asc"}},
@@ -568,33 +409,21 @@ public class BookSearchService {
      *  <pre>
      * @param genre
      * @return
-     * @throws JsonProcessingException
      */
-    protected String buildGenreQuery(final String genre) throws JsonProcessingException {
-        StringWriter writer = new StringWriter();
-        JsonGenerator generator = Json.createGenerator(writer);
-        generator.writeStartObject();                    // {
-        generator.writeStartObject("query");              //  "query" : {
-        generator.writeStartObject("match");          //      "match" : {
-        generator.write("genre", genre );               //        "genre" : [genre]            
-        generator.writeEnd();                            //             }
-        generator.writeEnd();                            //    },
-        generator.writeStartArray("sort");               //    "sort" : [
-        generator.writeStartObject();                    //        {
-        generator.writeStartObject("author_last_name");  //          "author_last_name" : {
-        generator.write("order", "asc");                 //               "order" : "asc"
-        generator.writeEnd();                            //            }
-        generator.writeEnd();                            //        },
-        generator.writeStartObject();                    //        {
-        generator.writeStartObject("title.keyword");     //              "title.keyword" : {
-        generator.write("order", "asc");                 //               "order" : "asc"
-        generator.writeEnd();                            //            }
-        generator.writeEnd();                            //        }
-        generator.writeEnd();                            //    ]
-        generator.writeEnd();                            // }
-        generator.close();
-        String jsonString = writer.toString();
-        return jsonString;
+    protected SearchQuery buildGenreQuery(final String genre) {
+        SearchQuery query = null;
+        if (bookIndex.hasSearchTemplate(SearchTemplate.GENRE)) {
+            query = SearchTemplate.GENRE.query().param("genre", genre).filterPath(HITS_FILTER_PATH).build();
+        } else {
+            query = SearchQuery.builder()
+                               .query( GENRE_TEMPLATE.renderString(genre) )
+                               .sort("author_last_name", true)
+                               .sort("title.keyword", true)
+                               .source(SearchTemplate.BOOK_LIST_SOURCE)
+                               .filterPath(HITS_FILTER_PATH)
+                               .build();
+        }
+        return query;
     }
     
    
@@ -604,8 +433,8 @@ public class BookSearchService {
      * </p>
      * <pre>
      {"query":
-         {"match":
-             {"publisher.keyword":"Arbor House"}
+         {"constant_score":
+             {"filter":{"term":{"publisher.keyword":"Arbor House"}}}
          },
          sort":[
             {"author_last_name": {"order" : "asc"}},
@@ -614,36 +443,25 @@ public class BookSearchService {
       }
      * </pre>
      * <p>
-     * Note that the search is done on the keyword field.
+     * Note that the search is done on the keyword field, with a term filter (the publisher name is not analyzed).
      * </p>
      * @param publisher
      * @return
-     * @throws JsonProcessingException
      */
-    protected String buildPublisherKeywordQuery(final String publisher) throws JsonProcessingException {
-        StringWriter writer = new StringWriter();
-        JsonGenerator generator = Json.createGenerator(writer);
-        generator.writeStartObject();                     // {
-        generator.writeStartObject("query");              //  "query" : {
-        generator.writeStartObject("match");              //     "match" : {
-        generator.write("publisher.keyword", publisher);  //         "publisher.keyword" : "[publisher]",
-        generator.writeEnd();                             //      }
-        generator.writeEnd();                             //   }
-        generator.writeStartArray("sort");               //    "sort" : [
-        generator.writeStartObject();                    //        {
-        generator.writeStartObject("author_last_name");  //          "author_last_name" : {
-        generator.write("order", "asc");                 //               "order" : "asc"
-        generator.writeEnd();                            //            }
-        generator.writeEnd();                            //        },
-        generator.writeStartObject();                    //        {
-        generator.writeStartObject("title.keyword");     //              "title.keyword" : {
-        generator.write("order", "asc");                 //               "order" : "asc"
-        generator.writeEnd();                            //            }
-        generator.writeEnd();                            //        }
-        generator.writeEnd();                            //    ]
-        generator.writeEnd();                             // }
-        generator.close();
-        return writer.toString();
+    protected SearchQuery buildPublisherKeywordQuery(final String publisher) {
+        SearchQuery query = null;
+        if (bookIndex.hasSearchTemplate(SearchTemplate.PUBLISHER_KEYWORD)) {
+            query = SearchTemplate.PUBLISHER_KEYWORD.query().param("publisher", publisher).filterPath(HITS_FILTER_PATH).build();
+        } else {
+            query = SearchQuery.builder()
+                               .query( PUBLISHER_KEYWORD_TEMPLATE.renderString(publisher) )
+                               .sort("author_last_name", true)
+                               .sort("title.keyword", true)
+                               .source(SearchTemplate.BOOK_LIST_SOURCE)
+                               .filterPath(HITS_FILTER_PATH)
+                               .build();
+        }
+        return query;
     }
     
     
@@ -687,27 +505,186 @@ public class BookSearchService {
      * </p>
      * 
      * @param indexName
-     * @param jsonQuery
+     * @param query
      * @return
-     * @throws IOException 
      */
-    protected List<BookInfo> getQueryResult(final String indexName, final String jsonQuery) throws IOException {
-        List<BookInfo> bookList = new ArrayList<BookInfo>();
-        String result = HttpService.getDocument(indexName, Mapping.TYPE_NAME, SEARCH_SUFFIX, jsonQuery);
+    protected List<BookInfo> getQueryResult(final String indexName, final SearchQuery query) {
+        List<BookInfo> bookList = null;
+        if (SingleFlight.isEnabled()) {
+            // Identical concurrent queries share one Elasticsearch request. Each caller gets its own copy of the list.
+            bookList = new ArrayList<BookInfo>( queryFlights.execute(flightKey(indexName, query), () -> fetchQueryResult(indexName, query, new ArrayList<BookInfo>())) );
+        } else {
+            bookList = fetchQueryResult(indexName, query, new ArrayList<BookInfo>());
+        }
+        return bookList;
+    }
+    
+    /**
+     * <p>
+     * A version of getQueryResult() for large results that are kept (e.g., in the session, for the page that
+     * lists the books). The books are stored as CompactBookInfo objects, which share the genre, publisher and author
+     * strings. The list is read only, so the callers of a single-flight query share it.
+     * </p>
+     * 
+     * @param indexName
+     * @param query
+     * @return a read only list of the books returned by the query
+     */
+    protected List<CompactBookInfo> getCompactQueryResult(final String indexName, final SearchQuery query) {
+        final Supplier<List<CompactBookInfo>> fetch = () -> fetchQueryResult(indexName, query, new CompactBookList()).compactBooks();
+        List<CompactBookInfo> bookList = null;
+        if (SingleFlight.isEnabled()) {
+            bookList = compactQueryFlights.execute(flightKey(indexName, query), fetch);
+        } else {
+            bookList = fetch.get();
+        }
+        return bookList;
+    }
+    
+    /**
+     * @return the single-flight key for a query: the index name and the query JSON.
+     */
+    private static String flightKey(final String indexName, final SearchQuery query) {
+        return flightKey(indexName, query.toJson());
+    }
+    
+    private static String flightKey(final String indexName, final String jsonQuery) {
+        return indexName + "\n" + jsonQuery;
+    }
+    
+    /**
+     * Send a query (and the requests for any additional result pages) to Elasticsearch. 
+     */
+    private <L extends List<BookInfo>> L fetchQueryResult(final String indexName, final SearchQuery query, final L bookList) {
+        // The query result is streamed from the HTTP response into the JSON parser
+        final JsonResponseHandler<Integer> extractBooks = parser -> JSONUtils.extractFromQueryResult(parser, bookList);
         // Get the first n results (where n <= 10). totalAvail is the total number of
-        // results that are available
-        int totalAvail = JSONUtils.extractFromQueryResult(result, bookList);
+        // results that are available. The queries for the other pages share the serialized query.
+        Integer totalAvail = transport.getDocument(indexName, Mapping.TYPE_NAME, query.getEndpoint(), query.toJson(), extractBooks);
         int startIx = bookList.size();
-        while (totalAvail > bookList.size()) {
+        while (totalAvail != null && totalAvail > bookList.size()) {
             int numLeft = totalAvail - bookList.size();
             int fetchSize = Math.min(GET_MAX, numLeft);
-            String newQuery = buildFromQuery(startIx, fetchSize, jsonQuery);
-            result = HttpService.getDocument(indexName, Mapping.TYPE_NAME, SEARCH_SUFFIX, newQuery);
-            JSONUtils.extractFromQueryResult(result, bookList);
+            String newQuery = query.withPage(startIx, fetchSize).toJson();
+            if (transport.getDocument(indexName, Mapping.TYPE_NAME, query.getEndpoint(), newQuery, extractBooks) == null) {
+                break;
+            }
             startIx = startIx + GET_MAX;
         }
         return bookList;
     }
+    
+    
+    /**
+     * <p>
+     * An asynchronous version of getQueryResult(). The first page of results is fetched to find out how many
+     * results are available. The remaining pages are then requested at the same time and the pages are combined,
+     * in order, into a single list.
+     * </p>
+     * <p>
+     * The JSON processing is done in the CompletableFuture default executor, not on the HTTP I/O dispatch thread.
+     * </p>
+     * 
+     * @param indexName
+     * @param query
+     * @return a future for the list of books returned by the query.
+     */
+    protected CompletableFuture<List<BookInfo>> getQueryResultAsync(final String indexName, final SearchQuery query) {
+        CompletableFuture<List<BookInfo>> bookList = null;
+        if (SingleFlight.isEnabled()) {
+            CompletableFuture<List<BookInfo>> flight = queryFlights.executeAsync(flightKey(indexName, query),
+                                                                                  () -> this.<List<BookInfo>>fetchQueryResultAsync(indexName, query, ArrayList::new));
+            bookList = flight.thenApply(books -> (List<BookInfo>)new ArrayList<BookInfo>(books));
+            cancelWith(bookList, Collections.singletonList(flight));
+        } else {
+            bookList = this.<List<BookInfo>>fetchQueryResultAsync(indexName, query, ArrayList::new);
+        }
+        return bookList;
+    }
+    
+    /**
+     * An asynchronous version of getCompactQueryResult().
+     * 
+     * @param indexName
+     * @param query
+     * @return a future for the read only list of the books returned by the query
+     */
+    protected CompletableFuture<List<CompactBookInfo>> getCompactQueryResultAsync(final String indexName, final SearchQuery query) {
+        CompletableFuture<List<CompactBookInfo>> bookList = null;
+        if (SingleFlight.isEnabled()) {
+            CompletableFuture<List<CompactBookInfo>> flight = compactQueryFlights.executeAsync(flightKey(indexName, query),
+                                                                                                () -> fetchCompactQueryResultAsync(indexName, query));
+            bookList = flight.thenApply(books -> books);
+            cancelWith(bookList, Collections.singletonList(flight));
+        } else {
+            bookList = fetchCompactQueryResultAsync(indexName, query);
+        }
+        return bookList;
+    }
+    
+    private CompletableFuture<List<CompactBookInfo>> fetchCompactQueryResultAsync(final String indexName, final SearchQuery query) {
+        final CompletableFuture<CompactBookList> books = fetchQueryResultAsync(indexName, query, CompactBookList::new);
+        final CompletableFuture<List<CompactBookInfo>> bookList = books.thenApply(CompactBookList::compactBooks);
+        cancelWith(bookList, Collections.singletonList(books));
+        return bookList;
+    }
+    
+    private <L extends List<BookInfo>> CompletableFuture<L> fetchQueryResultAsync(final String indexName, final SearchQuery query, final Supplier<L> newList) {
+        // The requests that are cancelled if the caller cancels the result
+        final List<CompletableFuture<String>> requests = new CopyOnWriteArrayList<CompletableFuture<String>>();
+        final AtomicReference<CompletableFuture<L>> resultRef = new AtomicReference<CompletableFuture<L>>();
+        final CompletableFuture<String> firstPage = transport.getDocumentAsync(indexName, Mapping.TYPE_NAME, query.getEndpoint(), query.toJson());
+        requests.add( firstPage );
+        CompletableFuture<L> bookListResult = firstPage.thenComposeAsync(result -> {
+            final L bookList = newList.get();
+            final int totalAvail = JSONUtils.extractFromQueryResult(result, bookList);
+            final List<CompletableFuture<String>> pageList = new ArrayList<CompletableFuture<String>>();
+            int startIx = bookList.size();
+            while (startIx > 0 && startIx < totalAvail) {
+                int fetchSize = Math.min(GET_MAX, totalAvail - startIx);
+                // The page query shares the serialized query: only the page window is written
+                String newQuery = query.withPage(startIx, fetchSize).toJson();
+                CompletableFuture<String> page = transport.getDocumentAsync(indexName, Mapping.TYPE_NAME, query.getEndpoint(), newQuery);
+                pageList.add( page );
+                requests.add( page );
+                if (resultRef.get() != null && resultRef.get().isCancelled()) {
+                    // the caller cancelled the result while the pages were being requested
+                    page.cancel(true);
+                }
+                startIx = startIx + fetchSize;
+            }
+            CompletableFuture<?>[] pages = pageList.toArray( new CompletableFuture<?>[pageList.size()] );
+            return CompletableFuture.allOf( pages ).thenApplyAsync(v -> {
+                for (CompletableFuture<String> page : pageList) {
+                    JSONUtils.extractFromQueryResult(page.join(), bookList);
+                }
+                return bookList;
+            });
+        });
+        resultRef.set( bookListResult );
+        cancelWith(bookListResult, requests);
+        return bookListResult;
+    }
+    
+    /**
+     * <p>
+     * CompletableFuture cancellation does not propagate to the futures that a result depends on. When the result is
+     * cancelled (e.g., the user abandoned the page), cancel the Elasticsearch requests, which aborts the HTTP exchanges
+     * and cancels the Elasticsearch search tasks (see TaskCanceller).
+     * </p>
+     * 
+     * @param result the result future
+     * @param requests the futures to cancel with the result
+     */
+    private static void cancelWith(final CompletableFuture<?> result, final List<? extends CompletableFuture<?>> requests) {
+        result.whenComplete((value, ex) -> {
+            if (result.isCancelled()) {
+                for (CompletableFuture<?> request : requests) {
+                    request.cancel(true);
+                }
+            }
+        });
+    }
 
 
     /**
@@ -818,8 +795,21 @@ public class BookSearchService {
      */
     public List<BucketAggregation> bucketAggregation(final String index, final String aggregateName, final String fieldName) {
         String jsonString = buildBucketTermsAggregate(aggregateName, fieldName);
-        String result = HttpService.postDocument(index, Mapping.TYPE_NAME, SEARCH_SUFFIX, jsonString);
-        List<BucketAggregation> termList = JSONUtils.extractBucketTermAggregationResult(aggregateName, result);
+        List<BucketAggregation> termList = null;
+        if (SingleFlight.isEnabled()) {
+            List<BucketAggregation> sharedList = aggregationFlights.execute(flightKey(index, jsonString), () ->
+                transport.postDocument(index, Mapping.TYPE_NAME, cachedSearchSuffix(), jsonString, 
+                                       parser -> JSONUtils.extractBucketTermAggregationResult(aggregateName, parser)));
+            if (sharedList != null) {
+                termList = new ArrayList<BucketAggregation>( sharedList );
+            }
+        } else {
+            termList = transport.postDocument(index, Mapping.TYPE_NAME, cachedSearchSuffix(), jsonString, 
+                                              parser -> JSONUtils.extractBucketTermAggregationResult(aggregateName, parser));
+        }
+        if (termList == null) {
+            termList = new ArrayList<BucketAggregation>();
+        }
         return termList;
     }
     
@@ -839,6 +829,83 @@ public class BookSearchService {
         List<JSONUtils.BucketAggregation> termList = bucketAggregation(BookIndex.BOOK_INDEX_NAME, aggregateName, fieldName );
         return termList;
     }
+    
+    /**
+     * <p>
+     * An asynchronous version of bucketAggregation(). This allows several aggregations to be requested at the same time.
+     * </p>
+     * 
+     * @param index the Elasticsearch index
+     * @param aggregateName The name assigned for the aggregate.
+     * @param fieldName The (keyword) field name in the Elasticsearch mapping.
+     * @return a future for the bucket aggregation key/value objects
+     */
+    public CompletableFuture<List<BucketAggregation>> bucketAggregationAsync(final String index, final String aggregateName, final String fieldName) {
+        String jsonString = buildBucketTermsAggregate(aggregateName, fieldName);
+        return transport.postDocumentAsync(index, Mapping.TYPE_NAME, cachedSearchSuffix(), jsonString)
+                .thenApplyAsync(result -> JSONUtils.extractBucketTermAggregationResult(aggregateName, result));
+    }
+    
+    public CompletableFuture<List<BucketAggregation>> bucketAggregationAsync(final String aggregateName, final String fieldName) {
+        return bucketAggregationAsync(BookIndex.BOOK_INDEX_NAME, aggregateName, fieldName);
+    }
+
+
+    /**
+     * <p>
+     * Request several bucket term aggregations (facets) with one search. The facets are sibling aggregations in a
+     * search that does not return any hits:
+     * </p>
+     * <pre>
+     * {"size":0,
+     *  "aggs":{
+     *     "GenreAgg":{"terms":{"field":"genre","size":10000,"order":{"_key":"asc"}}},
+     *     "PublisherAgg":{"terms":{"field":"publisher.keyword","size":10000,"order":{"_key":"asc"}}}
+     *  }
+     * }
+     * </pre>
+     * <p>
+     * A page that displays several facets pays for one Elasticsearch request, whatever the number of facets.
+     * The bucket lists are read from the search result in one pass (see JSONUtils.extractBucketTermAggregations()).
+     * </p>
+     *
+     * @param index the Elasticsearch index
+     * @param facets the facets
+     * @return the buckets of each facet by facet name, in the order of the facets. If the search fails, the bucket
+     *         lists are empty.
+     */
+    public Map<String, List<BucketAggregation>> facetAggregation(final String index, final List<Facet> facets) {
+        final List<String> facetNames = new ArrayList<String>( facets.size() );
+        SearchQuery.Builder builder = SearchQuery.builder().size(0);
+        for (Facet facet : facets) {
+            facetNames.add( facet.getName() );
+            builder.aggregation(facet.getName(), facet.aggregation());
+        }
+        final String jsonString = builder.build().toJson();
+        Map<String, List<BucketAggregation>> facetBuckets = null;
+        if (SingleFlight.isEnabled()) {
+            Map<String, List<BucketAggregation>> sharedBuckets = facetFlights.execute(flightKey(index, jsonString), () ->
+                transport.postDocument(index, Mapping.TYPE_NAME, cachedSearchSuffix(), jsonString,
+                                       parser -> JSONUtils.extractBucketTermAggregations(facetNames, parser)));
+            if (sharedBuckets != null) {
+                facetBuckets = new LinkedHashMap<String, List<BucketAggregation>>();
+                for (Map.Entry<String, List<BucketAggregation>> entry : sharedBuckets.entrySet()) {
+                    facetBuckets.put(entry.getKey(), new ArrayList<BucketAggregation>( entry.getValue() ));
+                }
+            }
+        } else {
+            facetBuckets = transport.postDocument(index, Mapping.TYPE_NAME, cachedSearchSuffix(), jsonString,
+                                                  parser -> JSONUtils.extractBucketTermAggregations(facetNames, parser));
+        }
+        if (facetBuckets == null) {
+            facetBuckets = JSONUtils.extractBucketTermAggregations(facetNames, (String)null);
+        }
+        return facetBuckets;
+    }
+
+    public Map<String, List<BucketAggregation>> facetAggregation(final List<Facet> facets) {
+        return facetAggregation(BookIndex.BOOK_INDEX_NAME, facets);
+    }
 
 
     public boolean deleteByTitleAuthor(String title, String author) {
@@ -924,8 +991,8 @@ public class BookSearchService {
         boolean deleteRslt = false;
         final String deleteByQuery = "_delete_by_query";
         try {
-            String jsonDeleteByQuery = buildTitleAuthorQuery(title, author);
-            String deleteResult = HttpService.postDocument(index, Mapping.TYPE_NAME, deleteByQuery, jsonDeleteByQuery);
+            String jsonDeleteByQuery = buildTitleAuthorQuery(title, author).toJson();
+            String deleteResult = transport.postDocument(index, Mapping.TYPE_NAME, deleteByQuery, jsonDeleteByQuery);
             if (deleteResult != null && deleteResult.length() > 0) {
                 // We assume that the title author pair results in a single book being deleted
                 JsonNode jsonNode = JSONUtils.stringToJsonNode(deleteResult); // this call is associated with the
@@ -940,8 +1007,6 @@ public class BookSearchService {
             } else {
                 logger.error("delete by title author did not return a result");
             }
-        } catch (JsonProcessingException e) {
-            logger.error("Error building JSON: " + e.getLocalizedMessage());
         } catch (IOException e) {
             logger.error("Error parsing the JSON result from delete by title author: " + e.getLocalizedMessage());
         }
@@ -960,15 +1025,24 @@ public class BookSearchService {
     }
 
     public List<BookInfo> findBookByAuthor(final String indexName, final String author) {
-        List<BookInfo> bookList = null;
-        try {
-            final String jsonQuery = buildFilterQuery(new Author(author));
-            bookList = getQueryResult(indexName, jsonQuery);
-        } catch (IOException e) {
-            logger.error(e.getLocalizedMessage());
-        }
+        final SearchQuery query = buildAuthorFilterQuery(author);
+        List<BookInfo> bookList = getQueryResult(indexName, query);
         return bookList;
     }
+    
+    /**
+     * <p>
+     * An asynchronous version of findBookByAuthor()
+     * </p>
+     */
+    public CompletableFuture<List<BookInfo>> findBookByAuthorAsync(final String author) {
+        return findBookByAuthorAsync(BookIndex.BOOK_INDEX_NAME, author);
+    }
+    
+    public CompletableFuture<List<BookInfo>> findBookByAuthorAsync(final String indexName, final String author) {
+        final SearchQuery query = buildAuthorFilterQuery(author);
+        return getQueryResultAsync(indexName, query);
+    }
 
     /**
      * <p>
@@ -995,13 +1069,8 @@ public class BookSearchService {
     }
 
     public List<BookInfo> findBookByTitle(final String index, final String titleWord) {
-        List<BookInfo> bookList = null;
-        try {
-            final String jsonString = buildMatchQuery(new Title(titleWord));
-            bookList = getQueryResult(index, jsonString);
-        } catch (IOException e) {
-            logger.error("Error building JSON for findBooksByTitle query: " + e.getLocalizedMessage());
-        }
+        final SearchQuery query = buildTitleMatchQuery(titleWord);
+        List<BookInfo> bookList = getQueryResult(index, query);
         return bookList;
     }
 
@@ -1040,25 +1109,15 @@ public class BookSearchService {
      * @return
      */
     public List<BookInfo> findBookByTitleAuthor(final String index, String title, String author) {
-        List<BookInfo> book = null;
-        try {
-            final String jsonString = buildTitleAuthorQuery(title, author);
-            book = getQueryResult(index, jsonString);
-        } catch (IOException e) {
-            logger.error("Error building JSON query: " + e.getLocalizedMessage());
-        }
+        final SearchQuery query = buildTitleAuthorSearch(title, author);
+        List<BookInfo> book = getQueryResult(index, query);
         return book;
     }
     
     
     public List<BookInfo> findBooksByGenre(final String index, String genre) {
-        List<BookInfo> bookList = new ArrayList<BookInfo>();
-        try {
-            final String jsonString = buildGenreQuery( genre );
-            bookList = getQueryResult(index, jsonString);
-        } catch (IOException e) {
-            logger.error("Error building JSON query: " + e.getLocalizedMessage());
-        }
+        final SearchQuery query = buildGenreQuery( genre );
+        List<BookInfo> bookList = getQueryResult(index, query);
         return bookList;
     }
     
@@ -1066,15 +1125,24 @@ public class BookSearchService {
         List<BookInfo> bookList = findBooksByGenre(BookIndex.BOOK_INDEX_NAME, genre);
         return bookList;
     }
+    
+    /**
+     * <p>
+     * An asynchronous version of findBooksByGenre()
+     * </p>
+     */
+    public CompletableFuture<List<BookInfo>> findBooksByGenreAsync(final String index, final String genre) {
+        final SearchQuery query = buildGenreQuery( genre );
+        return getQueryResultAsync(index, query);
+    }
+    
+    public CompletableFuture<List<BookInfo>> findBooksByGenreAsync(final String genre) {
+        return findBooksByGenreAsync(BookIndex.BOOK_INDEX_NAME, genre);
+    }
 
     public List<BookInfo> findBooksByPublisherKeyword(final String index, String publisher) {
-        List<BookInfo> bookList = new ArrayList<BookInfo>();
-        try {
-            final String jsonString = buildPublisherKeywordQuery( publisher );
-            bookList = getQueryResult(index, jsonString);
-        } catch (IOException e) {
-            logger.error("Error building JSON query: " + e.getLocalizedMessage());
-        }
+        final SearchQuery query = buildPublisherKeywordQuery( publisher );
+        List<BookInfo> bookList = getQueryResult(index, query);
         return bookList;
     }
 
@@ -1097,16 +1165,55 @@ public class BookSearchService {
      * @return
      */
     public List<BookInfo> getBooks(final String index) {
-        String jsonQuery = buildMatchAllQuery();
-        List<BookInfo> bookList = new ArrayList<BookInfo>();
-        try {
-            bookList = getQueryResult(index, jsonQuery);
-        } catch (IOException e) {
-            logger.error("Error building the getBooks matchAll query: " + e.getLocalizedMessage());
-        }
+        SearchQuery query = buildMatchAllQuery();
+        List<BookInfo> bookList = getQueryResult(index, query);
         return bookList;
     }
     
+    /**
+     * <p>
+     * An asynchronous version of getBooks(). Cancelling the returned future cancels the Elasticsearch searches.
+     * </p>
+     * 
+     * @param index
+     * @return a future for the list of all of the books in the index
+     */
+    public CompletableFuture<List<BookInfo>> getBooksAsync(final String index) {
+        return getQueryResultAsync(index, buildMatchAllQuery());
+    }
+    
+    public CompletableFuture<List<BookInfo>> getBooksAsync() {
+        return getBooksAsync(BookIndex.BOOK_INDEX_NAME);
+    }
+    
+    /**
+     * <p>
+     * Return all of the books in the database, sorted by genre, as a read only list of CompactBookInfo objects. The
+     * CompactBookInfo getters are the BookInfo getters, so the list can be shown by the pages that show a list of
+     * BookInfo objects. A list of all of the books is kept in the session until it is shown, and the compact books
+     * take about a third of the heap of BookInfo objects.
+     * </p>
+     * 
+     * @param index
+     * @return the books in the index
+     */
+    public List<CompactBookInfo> getCompactBooks(final String index) {
+        return getCompactQueryResult(index, buildMatchAllQuery());
+    }
+    
+    /**
+     * An asynchronous version of getCompactBooks(). Cancelling the returned future cancels the Elasticsearch searches.
+     * 
+     * @param index
+     * @return a future for the books in the index
+     */
+    public CompletableFuture<List<CompactBookInfo>> getCompactBooksAsync(final String index) {
+        return getCompactQueryResultAsync(index, buildMatchAllQuery());
+    }
+    
+    public CompletableFuture<List<CompactBookInfo>> getCompactBooksAsync() {
+        return getCompactBooksAsync(BookIndex.BOOK_INDEX_NAME);
+    }
     
     /**
      * <p>
@@ -1155,14 +1262,9 @@ public class BookSearchService {
     }
     
     public boolean hasBookEntry(final String indexName, BookInfo bookInfo) {
-        boolean foundBook = false;
-        try {
-            String jsonQuery = buildBookInfoQuery(bookInfo);
-            List<BookInfo> book = getQueryResult(indexName, jsonQuery);
-            foundBook = (book.size() > 0);
-        } catch (IOException e) {
-            logger.error("Error building JSON query string for BookSearchService.hasBookEntry()");
-        }
+        SearchQuery query = buildBookInfoQuery(bookInfo);
+        List<BookInfo> book = getQueryResult(indexName, query);
+        boolean foundBook = (book.size() > 0);
         return foundBook;
     }
 
@@ -0,0 +1,271 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h4>
+ * Bulkhead
+ * </h4>
+ * <p>
+ * A bounded thread pool for one class of Elasticsearch requests (see OperationClass). Each class has its own threads
+ * and its own queue, so a slow bulk load or a heavy aggregation can only use up its own bulkhead, and the searches
+ * that the users are waiting for still have threads.
+ * </p>
+ * <p>
+ * The number of threads is the number of requests of the class that can be in flight. An asynchronous request
+ * holds its thread until the response arrives. When the threads are busy, requests wait in the queue. When the
+ * queue is full, the rejection policy for the class decides what happens:
+ * </p>
+ * <ul>
+ * <li>abort: the request fails at once with an ElasticsearchUnavailableException, which the controllers display
+ * as an error message. This is the policy for the interactive classes (search, aggregation and write).</li>
+ * <li>callerRuns: the request is sent on the caller's thread. The caller (e.g., a bulk loader) is slowed down to the
+ * rate that the bulkhead can handle. This is the policy for bulk requests.</li>
+ * </ul>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class Bulkhead implements IElasticsearch {
+    private static Logger logger = LoggerFactory.getLogger( Bulkhead.class.getName() );
+    private static volatile Map<OperationClass, Bulkhead> bulkheads = null;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final boolean callerRuns;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder callerRan = new LongAdder();
+
+    /**
+     * @param name the bulkhead name, which is used for the thread names (e.g., es-search-1)
+     * @param threads the number of threads
+     * @param queueSize the number of requests that can wait for a thread
+     * @param rejection the rejection policy (IElasticsearch.BULKHEAD_REJECT_ABORT or BULKHEAD_REJECT_CALLER_RUNS)
+     */
+    public Bulkhead(final String name, final int threads, final int queueSize, final String rejection) {
+        this.name = name;
+        this.callerRuns = BULKHEAD_REJECT_CALLER_RUNS.equalsIgnoreCase(rejection);
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>( Math.max(1, queueSize) ),
+                                          runnable -> {
+                                              Thread thread = new Thread(runnable, "es-" + name + "-" + threadCount.incrementAndGet());
+                                              thread.setDaemon(true);
+                                              return thread;
+                                          },
+                                          new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.bulkhead.enabled", Boolean.toString(BULKHEAD_ENABLED)) );
+    }
+
+    private static Bulkhead create(final OperationClass operation, final int threads, final int queueSize, final String rejection) {
+        final String prefix = "booksearch.bulkhead." + operation.getName();
+        return new Bulkhead(operation.getName(),
+                            Integer.getInteger(prefix + ".threads", threads),
+                            Integer.getInteger(prefix + ".queue", queueSize),
+                            System.getProperty(prefix + ".rejection", rejection));
+    }
+
+    /**
+     * @param operation the operation class
+     * @return the shared bulkhead for the class
+     */
+    public static Bulkhead forClass(final OperationClass operation) {
+        if (bulkheads == null) {
+            synchronized (Bulkhead.class) {
+                if (bulkheads == null) {
+                    Map<OperationClass, Bulkhead> classBulkheads = new EnumMap<OperationClass, Bulkhead>(OperationClass.class);
+                    classBulkheads.put(OperationClass.SEARCH, create(OperationClass.SEARCH, BULKHEAD_SEARCH_THREADS, BULKHEAD_SEARCH_QUEUE,
+                                                                     BULKHEAD_REJECT_ABORT));
+                    classBulkheads.put(OperationClass.AGGREGATION, create(OperationClass.AGGREGATION, BULKHEAD_AGGREGATION_THREADS,
+                                                                          BULKHEAD_AGGREGATION_QUEUE, BULKHEAD_REJECT_ABORT));
+                    classBulkheads.put(OperationClass.WRITE, create(OperationClass.WRITE, BULKHEAD_WRITE_THREADS, BULKHEAD_WRITE_QUEUE,
+                                                                    BULKHEAD_REJECT_ABORT));
+                    classBulkheads.put(OperationClass.BULK, create(OperationClass.BULK, BULKHEAD_BULK_THREADS, BULKHEAD_BULK_QUEUE,
+                                                                   BULKHEAD_REJECT_CALLER_RUNS));
+                    bulkheads = classBulkheads;
+                }
+            }
+        }
+        return bulkheads.get(operation);
+    }
+
+    /**
+     * @return the counters for each of the shared bulkheads (an empty map if no request has been sent).
+     */
+    public static Map<String, Map<String, Long>> snapshotAll() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<String, Map<String, Long>>();
+        Map<OperationClass, Bulkhead> classBulkheads = bulkheads;
+        if (classBulkheads != null) {
+            for (Bulkhead bulkhead : classBulkheads.values()) {
+                stats.put(bulkhead.getName(), bulkhead.snapshot());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Stop the threads of the shared bulkheads (called when the web application is stopped).
+     */
+    public static synchronized void shutdown() {
+        if (bulkheads != null) {
+            for (Bulkhead bulkhead : bulkheads.values()) {
+                bulkhead.executor.shutdownNow();
+            }
+            bulkheads = null;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the bulkhead counters: the threads, the active threads, the queued requests, the queue space that is left,
+     * and the submitted, completed, rejected and caller run requests.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("threads", (long)executor.getMaximumPoolSize());
+        stats.put("active", (long)executor.getActiveCount());
+        stats.put("queued", (long)executor.getQueue().size());
+        stats.put("queueRemaining", (long)executor.getQueue().remainingCapacity());
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", executor.getCompletedTaskCount());
+        stats.put("rejected", rejected.sum());
+        stats.put("callerRuns", callerRan.sum());
+        return stats;
+    }
+
+    private ElasticsearchUnavailableException rejection() {
+        rejected.increment();
+        return new ElasticsearchUnavailableException(ElasticsearchUnavailableException.Reason.BULKHEAD_FULL,
+                                                     "Too many " + name + " requests (" + executor.getMaximumPoolSize() + " in flight, " +
+                                                     executor.getQueue().size() + " waiting)");
+    }
+
+    /**
+     * <p>
+     * Run a blocking request on a bulkhead thread and wait for the result.
+     * </p>
+     *
+     * @param request the request
+     * @return the request result
+     * @throws ElasticsearchUnavailableException if the bulkhead is full and the rejection policy is abort
+     */
+    public <R> R call(final Supplier<R> request) {
+        R result = null;
+        submitted.increment();
+        Future<R> future = null;
+        try {
+            future = executor.submit(() -> request.get());
+        } catch (RejectedExecutionException e) {
+            if (! callerRuns) {
+                throw rejection();
+            }
+        }
+        if (future == null) {
+            callerRan.increment();
+            result = request.get();
+        } else {
+            try {
+                result = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                logger.error("Interrupted while waiting for a " + name + " request");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                logger.error(name + " request failed: " + cause);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Start an asynchronous request on a bulkhead thread. The thread waits for the response, so the requests in
+     * flight are limited to the number of threads. Cancelling the returned future cancels the request.
+     * </p>
+     *
+     * @param request starts the request
+     * @return a future for the response. If the bulkhead is full and the rejection policy is abort, the future
+     * completes with an ElasticsearchUnavailableException.
+     */
+    public <T> CompletableFuture<T> callAsync(final Supplier<CompletableFuture<T>> request) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final Runnable send = () -> {
+            if (! result.isDone()) {
+                try {
+                    final CompletableFuture<T> response = request.get();
+                    result.whenComplete((value, ex) -> {
+                        if (result.isCancelled()) {
+                            response.cancel(true);
+                        }
+                    });
+                    response.whenComplete((value, ex) -> {
+                        if (ex != null) {
+                            result.completeExceptionally( (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex );
+                        } else {
+                            result.complete(value);
+                        }
+                    });
+                    // hold the thread until there is a result
+                    result.join();
+                } catch (CancellationException | CompletionException e) {
+                    // the result was cancelled or failed, which the caller sees through the result future
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        };
+        submitted.increment();
+        try {
+            executor.execute(send);
+        } catch (RejectedExecutionException e) {
+            if (callerRuns) {
+                callerRan.increment();
+                send.run();
+            } else {
+                result.completeExceptionally( rejection() );
+            }
+        }
+        return result;
+    }
+}
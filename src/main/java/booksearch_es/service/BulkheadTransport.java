@@ -0,0 +1,120 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <h4>
+ * BulkheadTransport
+ * </h4>
+ * <p>
+ * Run each Elasticsearch request in the Bulkhead for its OperationClass: searches (BookSearchController), aggregations
+ * (IndexController), writes (AddBookController) and bulk loads (the util loaders) each have their own bounded thread
+ * pool. When one class of requests is saturated, only the pages that send that class of request are slowed down or
+ * see an error.
+ * </p>
+ * <p>
+ * The bulkhead transport is wrapped only by the PriorityTransport (see TransportFactory.decorate()), so a batch
+ * request is throttled before it takes a bulkhead thread. The bulkhead transport wraps the hedging, concurrency limit
+ * and _msearch transports, so a request that is waiting in a bulkhead queue does not hold a concurrency limiter
+ * permit. The bulkheads are turned off with the system property booksearch.bulkhead.enabled=false (see
+ * IElasticsearch.BULKHEAD_ENABLED).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class BulkheadTransport extends ForwardingTransport {
+    private final Map<OperationClass, Bulkhead> bulkheads;
+
+    /**
+     * Use the shared bulkheads.
+     */
+    public BulkheadTransport(final IElasticsearchTransport delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * @param delegate the transport that sends the requests
+     * @param bulkheads the bulkhead for each class. A class that is not in the map uses the shared bulkhead.
+     */
+    public BulkheadTransport(final IElasticsearchTransport delegate, final Map<OperationClass, Bulkhead> bulkheads) {
+        super(delegate);
+        this.bulkheads = new EnumMap<OperationClass, Bulkhead>(OperationClass.class);
+        for (OperationClass operation : OperationClass.values()) {
+            Bulkhead bulkhead = (bulkheads != null) ? bulkheads.get(operation) : null;
+            this.bulkheads.put(operation, (bulkhead != null) ? bulkhead : Bulkhead.forClass(operation));
+        }
+    }
+
+    /**
+     * @param method the HTTP method
+     * @param suffix the URL suffix (e.g., _search or _bulk), which may be null
+     * @return the bulkhead for the request
+     */
+    protected Bulkhead bulkhead(final String method, final String suffix) {
+        return bulkheads.get( OperationClass.classify(method, "/" + ((suffix != null) ? suffix : "")) );
+    }
+
+    @Override
+    public int head(final String index) {
+        Integer status = bulkhead("HEAD", null).call(() -> delegate.head(index));
+        return (status != null) ? status : -1;
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix) {
+        return bulkhead("GET", suffix).call(() -> delegate.getDocument(index, type, suffix));
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return bulkhead("GET", suffix).call(() -> delegate.getDocument(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return bulkhead("GET", suffix).call(() -> delegate.getDocument(index, type, suffix, jsonPayload, handler));
+    }
+
+    @Override
+    public String putDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return bulkhead("PUT", suffix).call(() -> delegate.putDocument(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return bulkhead("POST", suffix).call(() -> delegate.postDocument(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return bulkhead("POST", suffix).call(() -> delegate.postDocument(index, type, suffix, jsonPayload, handler));
+    }
+
+    @Override
+    public String deleteDocument(final String index, final String type, final String suffix) {
+        return bulkhead("DELETE", suffix).call(() -> delegate.deleteDocument(index, type, suffix));
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return bulkhead("GET", suffix).callAsync(() -> delegate.getDocumentAsync(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return bulkhead("POST", suffix).callAsync(() -> delegate.postDocumentAsync(index, type, suffix, jsonPayload));
+    }
+}
@@ -0,0 +1,170 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.function.LongSupplier;
+
+/**
+ * <h4>
+ * CircuitBreaker
+ * </h4>
+ * <p>
+ * A circuit breaker for the requests to Elasticsearch:
+ * </p>
+ * <ul>
+ * <li>CLOSED: requests are sent. The outcome of the most recent requests is kept in a window. When there are at
+ * least minCalls outcomes and the failure percentage reaches the threshold, the breaker opens.</li>
+ * <li>OPEN: requests are rejected without being sent. After openMillis the breaker is half open.</li>
+ * <li>HALF_OPEN: a small number of trial requests are sent. If they all succeed, the breaker closes. If one
+ * fails, the breaker opens again.</li>
+ * </ul>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final boolean[] window;
+    private final int minCalls;
+    private final double failurePercent;
+    private final long openMillis;
+    private final int trialCalls;
+    private final LongSupplier clock;
+    private State state = State.CLOSED;
+    private int count = 0;
+    private int next = 0;
+    private int failures = 0;
+    private long openedAt = 0;
+    private int trialPermits = 0;
+    private int trialSuccesses = 0;
+    private long openCount = 0;
+
+    /**
+     * @param windowSize the number of recent outcomes that are kept
+     * @param minCalls the minimum number of outcomes before the breaker can open
+     * @param failurePercent the breaker opens when this percentage of the outcomes in the window are failures
+     * @param openMillis the time the breaker stays open before trial requests are allowed
+     * @param trialCalls the number of trial requests in the half open state
+     * @param clock the current time in milliseconds
+     */
+    public CircuitBreaker(final int windowSize, final int minCalls, final double failurePercent, final long openMillis,
+                          final int trialCalls, final LongSupplier clock) {
+        this.window = new boolean[ Math.max(1, windowSize) ];
+        this.minCalls = Math.max(1, Math.min(window.length, minCalls));
+        this.failurePercent = failurePercent;
+        this.openMillis = openMillis;
+        this.trialCalls = Math.max(1, trialCalls);
+        this.clock = clock;
+    }
+
+    public CircuitBreaker(final int windowSize, final int minCalls, final double failurePercent, final long openMillis, final int trialCalls) {
+        this(windowSize, minCalls, failurePercent, openMillis, trialCalls, System::currentTimeMillis);
+    }
+
+    /**
+     * @return true if a request can be sent. If the request is not sent after all, call onIgnored().
+     */
+    public synchronized boolean allowRequest() {
+        boolean allowed = true;
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt >= openMillis) {
+                state = State.HALF_OPEN;
+                trialPermits = trialCalls;
+                trialSuccesses = 0;
+            } else {
+                allowed = false;
+            }
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialPermits > 0) {
+                trialPermits--;
+            } else {
+                allowed = false;
+            }
+        }
+        return allowed;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            trialSuccesses++;
+            if (trialSuccesses >= trialCalls) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (count >= minCalls && (failures * 100.0) >= (failurePercent * count)) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * An allowed request that was not sent or was cancelled. In the half open state the trial permit is returned.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            trialPermits = Math.min(trialCalls, trialPermits + 1);
+        }
+    }
+
+    private void record(final boolean failed) {
+        if (count == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            count++;
+        }
+        window[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        openCount++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        count = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of times the breaker has opened
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+}
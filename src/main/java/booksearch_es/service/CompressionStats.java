@@ -0,0 +1,104 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h4>
+ * CompressionStats
+ * </h4>
+ * <p>
+ * Counts the request and response body bytes for each kind of Elasticsearch operation (e.g., _search, _bulk, put).
+ * Two values are kept for each direction: the size of the JSON body and the number of bytes that actually crossed
+ * the network. When gzip compression is not used the two values are the same.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class CompressionStats {
+
+    private static class Counters {
+        final LongAdder requestBytes = new LongAdder();
+        final LongAdder requestWireBytes = new LongAdder();
+        final LongAdder responseBytes = new LongAdder();
+        final LongAdder responseWireBytes = new LongAdder();
+    }
+
+    private static final ConcurrentHashMap<String, Counters> operationCounters = new ConcurrentHashMap<String, Counters>();
+
+    private CompressionStats() {}
+
+    private static Counters countersFor(final String operation) {
+        return operationCounters.computeIfAbsent(operation, k -> new Counters());
+    }
+
+    /**
+     * <p>
+     * Return the operation name for an Elasticsearch URL. This is the last URL path element if it is an
+     * Elasticsearch end-point (for example, _search or _bulk). Otherwise it is the HTTP method (e.g., put, delete).
+     * </p>
+     *
+     * @param method the HTTP method
+     * @param url the request URL
+     * @return the operation name
+     */
+    public static String operationName(final String method, final String url) {
+        String operation = method.toLowerCase();
+        if (url != null) {
+            String path = url;
+            int queryIx = path.indexOf('?');
+            if (queryIx >= 0) {
+                path = path.substring(0, queryIx);
+            }
+            int slashIx = path.lastIndexOf('/');
+            String lastElement = path.substring(slashIx + 1);
+            if (lastElement.startsWith("_")) {
+                operation = lastElement;
+            }
+        }
+        return operation;
+    }
+
+    public static void recordRequest(final String operation, final long bodyBytes, final long wireBytes) {
+        Counters counters = countersFor( operation );
+        counters.requestBytes.add( bodyBytes );
+        counters.requestWireBytes.add( wireBytes );
+    }
+
+    public static void recordResponse(final String operation, final long bodyBytes, final long wireBytes) {
+        Counters counters = countersFor( operation );
+        counters.responseBytes.add( bodyBytes );
+        counters.responseWireBytes.add( wireBytes );
+    }
+
+    /**
+     * @return the byte counts, by operation name.
+     */
+    public static Map<String, Map<String, Long>> snapshot() {
+        Map<String, Map<String, Long>> stats = new TreeMap<String, Map<String, Long>>();
+        for (Map.Entry<String, Counters> entry : operationCounters.entrySet()) {
+            Counters counters = entry.getValue();
+            Map<String, Long> values = new LinkedHashMap<String, Long>();
+            values.put("requestBytes", counters.requestBytes.sum());
+            values.put("requestWireBytes", counters.requestWireBytes.sum());
+            values.put("responseBytes", counters.responseBytes.sum());
+            values.put("responseWireBytes", counters.responseWireBytes.sum());
+            stats.put(entry.getKey(), values);
+        }
+        return stats;
+    }
+}
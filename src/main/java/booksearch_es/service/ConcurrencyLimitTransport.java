@@ -0,0 +1,270 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * <h4>
+ * ConcurrencyLimitTransport
+ * </h4>
+ * <p>
+ * Protect the web application from a slow or failing Elasticsearch domain. Every request passes through an
+ * AdaptiveConcurrencyLimiter and a CircuitBreaker:
+ * </p>
+ * <ul>
+ * <li>If the number of requests in flight has reached the (latency based) concurrency limit, the request is
+ * rejected at once, instead of tying up another Tomcat thread waiting on Elasticsearch.</li>
+ * <li>If the circuit breaker is open (too many recent requests failed), the request is rejected without being sent.</li>
+ * </ul>
+ * <p>
+ * A rejected request throws an ElasticsearchUnavailableException (for the asynchronous operations, the future
+ * completes with this exception). The controllers catch this exception and display an error message.
+ * </p>
+ * <p>
+ * A request fails if there is no response (a connection or I/O error) or if Elasticsearch returns a 429 or 5xx
+ * error. Other errors (e.g., index not found) are client errors and count as a success for the limiter and breaker.
+ * </p>
+ * <p>
+ * There is one limiter and one breaker for the Elasticsearch domain, which are shared by the transports that are
+ * created with the single argument constructor. The limiter and breaker are turned off with the system property
+ * booksearch.limit.enabled=false (see IElasticsearch.LIMIT_ENABLED).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class ConcurrencyLimitTransport extends ForwardingTransport implements IElasticsearch {
+    private static final LongAdder limitRejections = new LongAdder();
+    private static final LongAdder breakerRejections = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+    private static volatile AdaptiveConcurrencyLimiter sharedLimiter = null;
+    private static volatile CircuitBreaker sharedBreaker = null;
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final CircuitBreaker breaker;
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.limit.enabled", Boolean.toString(LIMIT_ENABLED)) );
+    }
+
+    private static synchronized void initShared() {
+        if (sharedLimiter == null) {
+            sharedLimiter = new AdaptiveConcurrencyLimiter( Integer.getInteger("booksearch.limit.initial", LIMIT_INITIAL),
+                                                            Integer.getInteger("booksearch.limit.min", LIMIT_MIN),
+                                                            Integer.getInteger("booksearch.limit.max", LIMIT_MAX),
+                                                            Double.parseDouble( System.getProperty("booksearch.limit.tolerance",
+                                                                                                   Double.toString(LIMIT_TOLERANCE)) ));
+            sharedBreaker = new CircuitBreaker( Integer.getInteger("booksearch.breaker.window", BREAKER_WINDOW),
+                                                Integer.getInteger("booksearch.breaker.minCalls", BREAKER_MIN_CALLS),
+                                                Double.parseDouble( System.getProperty("booksearch.breaker.failurePercent",
+                                                                                       Double.toString(BREAKER_FAILURE_PERCENT)) ),
+                                                Long.getLong("booksearch.breaker.openMillis", BREAKER_OPEN_MILLIS),
+                                                Integer.getInteger("booksearch.breaker.trialCalls", BREAKER_TRIAL_CALLS) );
+        }
+    }
+
+    private static AdaptiveConcurrencyLimiter defaultLimiter() {
+        initShared();
+        return sharedLimiter;
+    }
+
+    private static CircuitBreaker defaultBreaker() {
+        initShared();
+        return sharedBreaker;
+    }
+
+    public ConcurrencyLimitTransport(final IElasticsearchTransport delegate) {
+        this(delegate, defaultLimiter(), defaultBreaker());
+    }
+
+    public ConcurrencyLimitTransport(final IElasticsearchTransport delegate, final AdaptiveConcurrencyLimiter limiter, final CircuitBreaker breaker) {
+        super(delegate);
+        this.limiter = limiter;
+        this.breaker = breaker;
+    }
+
+    /**
+     * @return the limiter and breaker counters: the current limit, requests in flight, the breaker state
+     * (0 closed, 1 open, 2 half open), the number of times the breaker opened, rejected requests and failed requests.
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        AdaptiveConcurrencyLimiter limiter = sharedLimiter;
+        CircuitBreaker breaker = sharedBreaker;
+        if (limiter != null && breaker != null) {
+            stats.put("limit", (long)limiter.getLimit());
+            stats.put("inFlight", (long)limiter.getInFlight());
+            stats.put("breakerState", (long)breaker.getState().ordinal());
+            stats.put("breakerOpened", breaker.getOpenCount());
+        }
+        stats.put("limitRejections", limitRejections.sum());
+        stats.put("breakerRejections", breakerRejections.sum());
+        stats.put("failures", failures.sum());
+        return stats;
+    }
+
+    /**
+     * <p>
+     * Decide whether a response is an Elasticsearch overload or server error. The error response has the form
+     * {"error":{...},"status":503}, so only responses that start with an error object are examined.
+     * </p>
+     *
+     * @param response the response body or null if there was no response
+     * @return true if there was no response or the response is a 429 or 5xx error.
+     */
+    protected static boolean isServerError(final String response) {
+        boolean serverError = (response == null);
+        if (response != null && response.startsWith("{\"error\"")) {
+            final String statusTag = "\"status\":";
+            int ix = response.lastIndexOf(statusTag);
+            if (ix > 0) {
+                ix = ix + statusTag.length();
+                while (ix < response.length() && response.charAt(ix) == ' ') {
+                    ix++;
+                }
+                serverError = response.startsWith("429", ix) || response.startsWith("5", ix);
+            }
+        }
+        return serverError;
+    }
+
+    /**
+     * Acquire a breaker permit and a concurrency permit.
+     *
+     * @throws ElasticsearchUnavailableException if either permit is not available
+     */
+    private void admit() {
+        if (! breaker.allowRequest()) {
+            breakerRejections.increment();
+            throw new ElasticsearchUnavailableException(ElasticsearchUnavailableException.Reason.CIRCUIT_OPEN,
+                                                        "Elasticsearch is not available (too many failed requests)");
+        }
+        if (! limiter.tryAcquire()) {
+            breaker.onIgnored();
+            limitRejections.increment();
+            throw new ElasticsearchUnavailableException(ElasticsearchUnavailableException.Reason.CONCURRENCY_LIMIT,
+                                                        "Elasticsearch is busy (" + limiter.getLimit() + " requests in flight)");
+        }
+    }
+
+    private void complete(final long startTime, final boolean failed) {
+        if (failed) {
+            failures.increment();
+            limiter.onDropped();
+            breaker.onFailure();
+        } else {
+            limiter.onSuccess( System.nanoTime() - startTime );
+            breaker.onSuccess();
+        }
+    }
+
+    private <R> R limited(final Supplier<R> request, final Predicate<R> isFailure) {
+        admit();
+        final long startTime = System.nanoTime();
+        boolean failed = true;
+        R result = null;
+        try {
+            result = request.get();
+            failed = isFailure.test(result);
+        } finally {
+            complete(startTime, failed);
+        }
+        return result;
+    }
+
+    private CompletableFuture<String> limitedAsync(final Supplier<CompletableFuture<String>> request) {
+        CompletableFuture<String> result = null;
+        try {
+            admit();
+        } catch (ElasticsearchUnavailableException e) {
+            result = new CompletableFuture<String>();
+            result.completeExceptionally(e);
+        }
+        if (result == null) {
+            final long startTime = System.nanoTime();
+            try {
+                result = request.get();
+            } catch (RuntimeException e) {
+                complete(startTime, true);
+                throw e;
+            }
+            result.whenComplete((response, ex) -> {
+                Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+                if (cause instanceof CancellationException) {
+                    // a cancelled request (e.g., the hedged request that lost) says nothing about Elasticsearch
+                    limiter.release();
+                    breaker.onIgnored();
+                } else {
+                    complete(startTime, cause != null || isServerError(response));
+                }
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public int head(final String index) {
+        return limited(() -> delegate.head(index), status -> status < 0 || status == 429 || status >= 500);
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix) {
+        return limited(() -> delegate.getDocument(index, type, suffix), ConcurrencyLimitTransport::isServerError);
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return limited(() -> delegate.getDocument(index, type, suffix, jsonPayload), ConcurrencyLimitTransport::isServerError);
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return limited(() -> delegate.getDocument(index, type, suffix, jsonPayload, handler), result -> result == null);
+    }
+
+    @Override
+    public String putDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return limited(() -> delegate.putDocument(index, type, suffix, jsonPayload), ConcurrencyLimitTransport::isServerError);
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return limited(() -> delegate.postDocument(index, type, suffix, jsonPayload), ConcurrencyLimitTransport::isServerError);
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return limited(() -> delegate.postDocument(index, type, suffix, jsonPayload, handler), result -> result == null);
+    }
+
+    @Override
+    public String deleteDocument(final String index, final String type, final String suffix) {
+        return limited(() -> delegate.deleteDocument(index, type, suffix), ConcurrencyLimitTransport::isServerError);
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return limitedAsync(() -> delegate.getDocumentAsync(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return limitedAsync(() -> delegate.postDocumentAsync(index, type, suffix, jsonPayload));
+    }
+}
@@ -13,7 +13,11 @@ import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
@@ -40,8 +44,8 @@ import booksearch_es.json.JSONUtils;
  * </p>
  * <p>
  * Elasticsearch uses a REST interface (e.g., PUT, DELETE, GET, HEAD HTTP operations). The ElasticsearchService 
- * operations are built on top of the HttpService. However, these operations are designed to be generic. They
- * could work with in any application.
+ * operations are built on top of an IElasticsearchTransport (by default, the transport returned by the TransportFactory).
+ * However, these operations are designed to be generic. They could work with in any application.
  * </p>
  * <p>
  * Jul 11, 2018
@@ -51,9 +55,23 @@ import booksearch_es.json.JSONUtils;
  */
 public class ElasticsearchService {
     private static String BULK = "_bulk";
+    private static String SCRIPTS = "_scripts";
+    private static String REQUEST_CACHE_STATS = "_stats/request_cache";
     private static int OK_STATUS = 201;
     private Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final IElasticsearchTransport transport;
     
+    public ElasticsearchService() {
+        this( TransportFactory.defaultTransport() );
+    }
+    
+    public ElasticsearchService(final IElasticsearchTransport transport) {
+        this.transport = transport;
+    }
+    
+    public IElasticsearchTransport getTransport() {
+        return transport;
+    }
     
     /**
      * Calculate an MD5 hash and return it as a hexadecimal string.
@@ -116,7 +134,7 @@ public class ElasticsearchService {
                     final String jsonString = mapper.writeValueAsString( obj );
                     // calculate an MD5 hash of the JSON string to use as the document ID
                     final String md5ID = calculateMD5String( jsonString );
-                    String httpResponse = HttpService.putDocument(index, type, md5ID, jsonString);
+                    String httpResponse = transport.putDocument(index, type, md5ID, jsonString);
                     if (httpResponse != null && httpResponse.length() > 0) {
                         //  Check response to see whether the "document" was added to the Elasticsearch database
                         JsonNode node = JSONUtils.stringToJsonNode(httpResponse);
@@ -223,35 +241,99 @@ public class ElasticsearchService {
         }
     }
     
+    /**
+     * <p>
+     * Return the action and source lines for the bulk items at the given positions.
+     * </p>
+     * 
+     * @param bulkJSON the bulk request (an action line followed by a source line for each object)
+     * @param itemIndexes the positions of the items
+     * @return the bulk request for these items
+     */
+    protected String selectBulkItems(final String bulkJSON, final List<Integer> itemIndexes) {
+        final String[] lines = bulkJSON.split("\n");
+        StringBuilder builder = new StringBuilder();
+        for (int ix : itemIndexes) {
+            builder.append(lines[2 * ix]);
+            builder.append("\n");
+            builder.append(lines[2 * ix + 1]);
+            builder.append("\n");
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * <p>
+     * Send a bulk load request. Elasticsearch can reject some (or all) of the items in a bulk request with status 429
+     * (es_rejected_execution_exception) when its write queue is full. These items were not written, so they are sent
+     * again, in a smaller bulk request, after a backoff delay. The retries are limited by the bulk RetryPolicy. Since the
+     * document ID is the MD5 hash of the document, a retried "create" can not add a duplicate document.
+     * </p>
+     * 
+     * @param bulkJSON the bulk request
+     * @param numObjects the number of objects in the bulk request
+     * @return true if all of the objects were created.
+     */
     protected boolean sendBulkLoadJSON(final String bulkJSON, int numObjects) {
         boolean bulkLoadRslt = false;
         // The index and type are included in the bulk load prefix for each object, so they are ommitted from the URL
-        String url = IElasticsearch.ES_URL + "/" + BULK;
-        String httpResponse = HttpService.postDocument(url, bulkJSON);
-        if (httpResponse != null && httpResponse.length() > 0) {
-            //  Check response to see whether the "document" was added to the Elasticsearch database
-            try {
-                JsonNode node = JSONUtils.stringToJsonNode(httpResponse);
-                if (node != null) {
-                    // search the JSON tree for "status" : 201 nodes
-                    List<JsonNode> statusNodes = node.findValues("status");
-                    if (statusNodes != null && statusNodes.size() == numObjects) {
-                        // now check that they values are actually 201
-                        bulkLoadRslt = true;
-                        for (JsonNode statusNode : statusNodes) {
-                            if (statusNode.asInt() != OK_STATUS) {
-                                logger.error("Error in bulk load. HTTP status = " + statusNode.asInt());
-                                bulkLoadRslt = false;
-                                break;
+        final String index = null;
+        final String type = null;
+        final RetryPolicy.Budget budget = RetryPolicy.bulkPolicy().newBudget();
+        String pendingJSON = bulkJSON;
+        int pendingObjects = numObjects;
+        boolean itemsFailed = false;
+        while (pendingJSON != null) {
+            final String sentJSON = pendingJSON;
+            String httpResponse = transport.postDocument(index, type, BULK, sentJSON);
+            List<Integer> rejected = new ArrayList<Integer>();
+            bulkLoadRslt = false;
+            if (httpResponse != null && httpResponse.length() > 0) {
+                //  Check response to see whether the "document" was added to the Elasticsearch database
+                try {
+                    JsonNode node = JSONUtils.stringToJsonNode(httpResponse);
+                    if (node != null) {
+                        JsonNode items = node.get("items");
+                        if (items != null && items.isArray() && items.size() == pendingObjects) {
+                            // now check that the item status values are actually 201
+                            bulkLoadRslt = true;
+                            for (int i = 0; i < items.size(); i++) {
+                                JsonNode item = items.get(i).elements().next();
+                                final int status = item.path("status").asInt();
+                                if (RetryPolicy.isRetryableStatus(status)) {
+                                    rejected.add(i);
+                                } else if (status != OK_STATUS) {
+                                    logger.error("Error in bulk load. HTTP status = " + status);
+                                    itemsFailed = true;
+                                }
+                            }
+                        } else if (node.has("error") && RetryPolicy.isRetryableStatus( node.path("status").asInt() )) {
+                            // The whole request was rejected
+                            for (int i = 0; i < pendingObjects; i++) {
+                                rejected.add(i);
                             }
                         }
                     }
+                } catch (IOException e) {
+                    logger.error("Error processing bulk load JSON: " + e.getLocalizedMessage());
+                }
+            }
+            pendingJSON = null;
+            if (rejected.size() > 0) {
+                bulkLoadRslt = false;
+                final long delay = budget.nextDelayMillis(0);
+                if (delay >= 0) {
+                    logger.warn("Bulk load: " + rejected.size() + " items rejected, retry " + budget.getRetryCount() + " in " + delay + " ms");
+                    if (RetryPolicy.sleep(delay)) {
+                        pendingJSON = selectBulkItems(sentJSON, rejected);
+                        pendingObjects = rejected.size();
+                    }
+                } else {
+                    logger.error("Bulk load: " + rejected.size() + " items were rejected and the retry budget is used up");
                 }
-            } catch (IOException e) {
-                logger.error("Error processing bulk load JSON: " + e.getLocalizedMessage());
             }
         }
-        return bulkLoadRslt;
+        return bulkLoadRslt && (! itemsFailed);
     }
     
     
@@ -535,24 +617,31 @@ public class ElasticsearchService {
      */
     public String dumpIndex(final String indexName) throws IOException {
         final int GET_MAX = 10;
-        final String SEARCH_SUFFIX = "_search";
+        // The dump only reads the total and the _source of each hit. The rest of the response is left out.
+        final String SEARCH_SUFFIX = "_search?filter_path=hits.total,hits.hits._source";
         final String TYPE = ""; // no type needed
         String jsonResult = "";
         String matchAllQuery = buildMatchAllQuery();
-        String result = HttpService.getDocument(indexName, TYPE, SEARCH_SUFFIX, matchAllQuery);
         JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
         ArrayNode jsonArrayNode = new ArrayNode( nodeFactory );
-        // Get the first n results (where n <= 10). totalAvail is the total number of
-        // results that are available
-        int totalAvail = JSONUtils.extractJSONObjFromQueryResult(result, jsonArrayNode);
-        int startIx = GET_MAX;
-        while (totalAvail > jsonArrayNode.size()) {
-            int numLeft = totalAvail - jsonArrayNode.size();
-            int fetchSize = Math.min(GET_MAX, numLeft);
-            String newQuery = buildFromMatchAllQuery(startIx, fetchSize);
-            result = HttpService.getDocument(indexName, TYPE, SEARCH_SUFFIX, newQuery);
-            JSONUtils.extractJSONObjFromQueryResult(result, jsonArrayNode);
-            startIx = startIx + GET_MAX;
+        // The dump searches are batch requests, which are throttled in favor of the interactive searches
+        final RequestPriority.Scope batch = RequestPriority.batch();
+        try {
+            String result = transport.getDocument(indexName, TYPE, SEARCH_SUFFIX, matchAllQuery);
+            // Get the first n results (where n <= 10). totalAvail is the total number of
+            // results that are available
+            int totalAvail = JSONUtils.extractJSONObjFromQueryResult(result, jsonArrayNode);
+            int startIx = GET_MAX;
+            while (totalAvail > jsonArrayNode.size()) {
+                int numLeft = totalAvail - jsonArrayNode.size();
+                int fetchSize = Math.min(GET_MAX, numLeft);
+                String newQuery = buildFromMatchAllQuery(startIx, fetchSize);
+                result = transport.getDocument(indexName, TYPE, SEARCH_SUFFIX, newQuery);
+                JSONUtils.extractJSONObjFromQueryResult(result, jsonArrayNode);
+                startIx = startIx + GET_MAX;
+            }
+        } finally {
+            batch.close();
         }
         if (jsonArrayNode.size() > 0) {
             JsonFactory jsonFactory = new JsonFactory();
@@ -588,9 +677,94 @@ public class ElasticsearchService {
     public boolean indexExists( final String indexName ) {
         boolean hasIndex = false;
         if (indexName != null && indexName.length() > 0) {
-            int statusCode = HttpService.head(indexName);
+            int statusCode = transport.head(indexName);
             hasIndex = (statusCode == 200);
         }
         return hasIndex;
     }
+    
+    
+    /**
+     * <p>
+     * Read a stored script (for example, a mustache search template).
+     * </p>
+     * <pre>
+     * GET _scripts/booksearch_genre_234566dc
+     * 
+     * {"_id":"booksearch_genre_234566dc","found":true,"script":{"lang":"mustache","source":"..."}}
+     * </pre>
+     * 
+     * @param scriptId the stored script id
+     * @return the script source or null if the script is not stored (or there was an error).
+     */
+    public String getStoredScript( final String scriptId ) {
+        String source = null;
+        String result = transport.getDocument(null, null, SCRIPTS + "/" + scriptId);
+        if (result != null) {
+            try {
+                JsonNode node = JSONUtils.stringToJsonNode( result );
+                if (node.path("found").asBoolean(false)) {
+                    source = node.path("script").path("source").asText(null);
+                }
+            } catch (IOException e) {
+                logger.error("Error reading the stored script " + scriptId + ": " + e.getLocalizedMessage());
+            }
+        }
+        return source;
+    }
+    
+    /**
+     * <p>
+     * Store a script. An existing script with the same id is replaced.
+     * </p>
+     * <pre>
+     * PUT _scripts/booksearch_genre_234566dc
+     * {"script":{"lang":"mustache","source":"..."}}
+     * </pre>
+     * 
+     * @param scriptId the stored script id
+     * @param scriptJson the script object
+     * @return true if the script was stored.
+     */
+    public boolean putStoredScript( final String scriptId, final String scriptJson ) {
+        String result = transport.putDocument(null, null, SCRIPTS + "/" + scriptId, scriptJson);
+        boolean stored = (result != null && JSONUtils.isAcknowledged( result ));
+        if (! stored) {
+            logger.error("Could not store the script " + scriptId + ": " + result);
+        }
+        return stored;
+    }
+    
+    /**
+     * <p>
+     * Read the shard request cache statistics for an index. The request cache holds the results of size 0 searches
+     * (aggregations) that are sent with request_cache=true (see BookSearchService.cachedSearchSuffix()).
+     * </p>
+     * <pre>
+     * GET bookindex/_stats/request_cache
+     * 
+     * {"_all":{"primaries":{ ... },"total":{"request_cache":{"memory_size_in_bytes":4096,"evictions":0,"hit_count":120,"miss_count":8}}}, ... }
+     * </pre>
+     * 
+     * @param indexName the index
+     * @return the request cache statistics for all of the shard copies (memory_size_in_bytes, evictions, hit_count
+     *         and miss_count). The map is empty if the statistics could not be read.
+     */
+    public Map<String, Long> requestCacheStats( final String indexName ) {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        String result = transport.getDocument(indexName, null, REQUEST_CACHE_STATS);
+        if (result != null) {
+            try {
+                JsonNode cacheStats = JSONUtils.stringToJsonNode( result ).path("_all").path("total").path("request_cache");
+                Iterator<Map.Entry<String, JsonNode>> statItr = cacheStats.fields();
+                while (statItr.hasNext()) {
+                    Map.Entry<String, JsonNode> stat = statItr.next();
+                    stats.put(stat.getKey(), stat.getValue().asLong());
+                }
+            } catch (IOException e) {
+                logger.error("Error reading the request cache statistics for " + indexName + ": " + e.getLocalizedMessage());
+            }
+        }
+        return stats;
+    }
 }
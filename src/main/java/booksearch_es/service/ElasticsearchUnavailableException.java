@@ -0,0 +1,49 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+/**
+ * <h4>
+ * ElasticsearchUnavailableException
+ * </h4>
+ * <p>
+ * Thrown when a request is rejected before it is sent to Elasticsearch: the concurrency limit has been reached, the
+ * circuit breaker is open or the bulkhead for the request's class is full. The request was not sent, so it is safe to
+ * retry it later.
+ * </p>
+ * <p>
+ * This is an unchecked exception so that it passes through the service classes (which handle IOException) to the
+ * controllers, which display an error message instead of waiting on Elasticsearch.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class ElasticsearchUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        CONCURRENCY_LIMIT,
+        CIRCUIT_OPEN,
+        BULKHEAD_FULL
+    }
+
+    private final Reason reason;
+
+    public ElasticsearchUnavailableException(final Reason reason, final String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,115 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * <h4>
+ * ForwardingTransport
+ * </h4>
+ * <p>
+ * A transport that passes each operation to another transport. This is the base class for the transports that add a
+ * policy (for example, request hedging) on top of the HTTP or in-memory transport. A sub-class overrides the
+ * operations that the policy applies to.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public abstract class ForwardingTransport implements IElasticsearchTransport {
+    private final static JsonFactory jsonFactory = new JsonFactory();
+    protected final IElasticsearchTransport delegate;
+
+    protected ForwardingTransport(final IElasticsearchTransport delegate) {
+        this.delegate = delegate;
+    }
+
+    public IElasticsearchTransport getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return true if the URL suffix is a search, which does not change the index.
+     */
+    protected static boolean isSearch(final String suffix) {
+        return suffix != null && suffix.startsWith("_search");
+    }
+
+    /**
+     * Pass a JSON response string to a JSON parser callback.
+     *
+     * @return the handler result or null if the response is null.
+     */
+    protected static <T> T handleResponse(final String response, final JsonResponseHandler<T> handler) throws IOException {
+        T result = null;
+        if (response != null) {
+            try (JsonParser parser = jsonFactory.createParser( response )) {
+                result = handler.handle( parser );
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int head(final String index) {
+        return delegate.head(index);
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix) {
+        return delegate.getDocument(index, type, suffix);
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return delegate.getDocument(index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return delegate.getDocument(index, type, suffix, jsonPayload, handler);
+    }
+
+    @Override
+    public String putDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return delegate.putDocument(index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return delegate.postDocument(index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return delegate.postDocument(index, type, suffix, jsonPayload, handler);
+    }
+
+    @Override
+    public String deleteDocument(final String index, final String type, final String suffix) {
+        return delegate.deleteDocument(index, type, suffix);
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return delegate.getDocumentAsync(index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return delegate.postDocumentAsync(index, type, suffix, jsonPayload);
+    }
+}
@@ -0,0 +1,299 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h4>
+ * HedgingTransport
+ * </h4>
+ * <p>
+ * Hedged search requests. A search that has not been answered after a delay is sent a second time and the first
+ * response to arrive is used. The other request is cancelled (for the HTTP transport, this aborts the HTTP exchange).
+ * This cuts the tail latency that is caused by an occasional slow response (for example, a slow shard or a slow
+ * TLS connection setup).
+ * </p>
+ * <p>
+ * The hedge delay is a percentile (by default the 95th) of the recent search latencies, so only the slowest
+ * requests are hedged. Until enough latencies have been recorded, the initial delay is used.
+ * </p>
+ * <p>
+ * A hedge budget limits the extra load. Each search adds budgetPercent/100 of a token to the budget (up to a maximum)
+ * and each hedge uses one token. With the default of 5 percent, at most one search in twenty is hedged over time,
+ * even if Elasticsearch slows down for every request.
+ * </p>
+ * <p>
+ * Only _search requests are hedged, since they do not change the index. A hedged search is read as a String and
+ * the winning response is passed to the JSON parser callback, since two callbacks cannot safely build the same
+ * result at the same time.
+ * </p>
+ * <p>
+ * Hedging is turned on with the system property booksearch.hedge.enabled=true (see IElasticsearch.HEDGE_ENABLED).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class HedgingTransport extends ForwardingTransport implements IElasticsearch {
+    private final static int LATENCY_WINDOW = 1024;
+    private final static int MIN_LATENCY_SAMPLES = 32;
+    private final static double MAX_BUDGET_TOKENS = 10.0;
+    private static Logger logger = LoggerFactory.getLogger( HedgingTransport.class.getName() );
+
+    private static final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "es-hedge-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final LongAdder searchCount = new LongAdder();
+    private static final LongAdder hedgesSent = new LongAdder();
+    private static final LongAdder hedgesWon = new LongAdder();
+    private static final LongAdder hedgesOverBudget = new LongAdder();
+    private static volatile long hedgeDelayMillis = 0;
+
+    private final LatencyTracker latencies = new LatencyTracker( LATENCY_WINDOW );
+    private final double percentile;
+    private final long minDelayMillis;
+    private final long initialDelayMillis;
+    private final double budgetRatio;
+    private double budgetTokens = 0;
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.hedge.enabled", Boolean.toString(HEDGE_ENABLED)) );
+    }
+
+    public HedgingTransport(final IElasticsearchTransport delegate) {
+        super(delegate);
+        percentile = Double.parseDouble( System.getProperty("booksearch.hedge.percentile", Double.toString(HEDGE_PERCENTILE)) );
+        minDelayMillis = Long.getLong("booksearch.hedge.minDelayMillis", HEDGE_MIN_DELAY_MILLIS);
+        initialDelayMillis = Long.getLong("booksearch.hedge.initialDelayMillis", HEDGE_INITIAL_DELAY_MILLIS);
+        budgetRatio = Double.parseDouble( System.getProperty("booksearch.hedge.budgetPercent", Double.toString(HEDGE_BUDGET_PERCENT)) ) / 100.0;
+    }
+
+    /**
+     * @return the hedging counters: searches, hedgesSent, hedgesWon, hedgesOverBudget and the last hedge delay.
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("searches", searchCount.sum());
+        stats.put("hedgesSent", hedgesSent.sum());
+        stats.put("hedgesWon", hedgesWon.sum());
+        stats.put("hedgesOverBudget", hedgesOverBudget.sum());
+        stats.put("delayMillis", hedgeDelayMillis);
+        return stats;
+    }
+
+    /**
+     * @return the delay, in milliseconds, before a search is hedged.
+     */
+    protected long hedgeDelay() {
+        long delay = initialDelayMillis;
+        if (latencies.getCount() >= MIN_LATENCY_SAMPLES) {
+            delay = Math.max(minDelayMillis, TimeUnit.NANOSECONDS.toMillis( latencies.percentile(percentile) ));
+        }
+        hedgeDelayMillis = delay;
+        return delay;
+    }
+
+    private synchronized void depositBudget() {
+        budgetTokens = Math.min(MAX_BUDGET_TOKENS, budgetTokens + budgetRatio);
+    }
+
+    private synchronized boolean withdrawBudget() {
+        boolean hasBudget = false;
+        if (budgetTokens >= 1.0) {
+            budgetTokens -= 1.0;
+            hasBudget = true;
+        }
+        return hasBudget;
+    }
+
+    /**
+     * Start one attempt. A successful attempt completes the result. A failed attempt only completes the result if
+     * there is no other attempt outstanding.
+     */
+    private CompletableFuture<String> startAttempt(final Supplier<CompletableFuture<String>> request, final CompletableFuture<String> result,
+                                                   final AtomicInteger outstanding, final AtomicBoolean won, final boolean isHedge) {
+        final long startTime = System.nanoTime();
+        outstanding.incrementAndGet();
+        CompletableFuture<String> attempt = request.get();
+        attempt.whenComplete((response, ex) -> {
+            if (ex == null) {
+                latencies.record( System.nanoTime() - startTime );
+                // The first successful attempt wins. The hedge win is counted before the result is completed.
+                if (won.compareAndSet(false, true)) {
+                    if (isHedge) {
+                        hedgesWon.increment();
+                    }
+                    result.complete(response);
+                }
+            } else if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return attempt;
+    }
+
+    /**
+     * <p>
+     * Send a request and, if there is no response after the hedge delay (and there is hedge budget), send it again.
+     * </p>
+     *
+     * @param request a supplier that starts a new (identical) request each time it is called
+     * @return a future for the first response
+     */
+    protected CompletableFuture<String> hedged(final Supplier<CompletableFuture<String>> request) {
+        searchCount.increment();
+        depositBudget();
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+        final AtomicInteger outstanding = new AtomicInteger(0);
+        final AtomicBoolean won = new AtomicBoolean(false);
+        final AtomicReference<CompletableFuture<String>> hedge = new AtomicReference<CompletableFuture<String>>();
+        final CompletableFuture<String> primary = startAttempt(request, result, outstanding, won, false);
+        if (! result.isDone()) {
+            final ScheduledFuture<?> timer = hedgeTimer.schedule(() -> {
+                if (! result.isDone()) {
+                    if (withdrawBudget()) {
+                        hedgesSent.increment();
+                        hedge.set( startAttempt(request, result, outstanding, won, true) );
+                        if (result.isDone()) {
+                            hedge.get().cancel(true);
+                        }
+                    } else {
+                        hedgesOverBudget.increment();
+                    }
+                }
+            }, hedgeDelay(), TimeUnit.MILLISECONDS);
+            // When there is a result, stop the timer and cancel the request that lost
+            result.whenComplete((response, ex) -> {
+                timer.cancel(false);
+                primary.cancel(true);
+                CompletableFuture<String> hedgeAttempt = hedge.get();
+                if (hedgeAttempt != null) {
+                    hedgeAttempt.cancel(true);
+                }
+            });
+        }
+        return result;
+    }
+
+    private String join(final CompletableFuture<String> response) {
+        String result = null;
+        try {
+            result = response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.cancel(true);
+            logger.error("Hedged search interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ElasticsearchUnavailableException) {
+                // the request was rejected by the concurrency limiter or circuit breaker
+                throw (ElasticsearchUnavailableException)e.getCause();
+            }
+            logger.error("Hedged search failed: " + e.getCause().getLocalizedMessage());
+        }
+        return result;
+    }
+
+    private <T> T handle(final String response, final JsonResponseHandler<T> handler) {
+        T result = null;
+        try {
+            result = handleResponse(response, handler);
+        } catch (IOException e) {
+            logger.error("Error processing the search response: " + e.getLocalizedMessage());
+        }
+        return result;
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        String result = null;
+        if (isSearch(suffix)) {
+            result = join( getDocumentAsync(index, type, suffix, jsonPayload) );
+        } else {
+            result = delegate.getDocument(index, type, suffix, jsonPayload);
+        }
+        return result;
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        T result = null;
+        if (isSearch(suffix)) {
+            result = handle( join( getDocumentAsync(index, type, suffix, jsonPayload) ), handler );
+        } else {
+            result = delegate.getDocument(index, type, suffix, jsonPayload, handler);
+        }
+        return result;
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        String result = null;
+        if (isSearch(suffix)) {
+            result = join( postDocumentAsync(index, type, suffix, jsonPayload) );
+        } else {
+            result = delegate.postDocument(index, type, suffix, jsonPayload);
+        }
+        return result;
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        T result = null;
+        if (isSearch(suffix)) {
+            result = handle( join( postDocumentAsync(index, type, suffix, jsonPayload) ), handler );
+        } else {
+            result = delegate.postDocument(index, type, suffix, jsonPayload, handler);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        CompletableFuture<String> result = null;
+        if (isSearch(suffix)) {
+            result = hedged(() -> delegate.getDocumentAsync(index, type, suffix, jsonPayload));
+        } else {
+            result = delegate.getDocumentAsync(index, type, suffix, jsonPayload);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        CompletableFuture<String> result = null;
+        if (isSearch(suffix)) {
+            result = hedged(() -> delegate.postDocumentAsync(index, type, suffix, jsonPayload));
+        } else {
+            result = delegate.postDocumentAsync(index, type, suffix, jsonPayload);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,456 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.SystemDefaultDnsResolver;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h4>
+ * Http2Service
+ * </h4>
+ * <p>
+ * Send Elasticsearch requests over HTTP/2. An HTTP/1.1 connection carries one request at a time, so the
+ * HttpService and AsyncHttpService open a pooled connection (with its own TLS session) for each concurrent request.
+ * HTTP/2 multiplexes many concurrent requests as streams on one connection, so the client keeps a single connection
+ * to each Elasticsearch node (or proxy) and a slow response does not block the requests behind it.
+ * </p>
+ * <p>
+ * The HTTP/2 client is the Apache HttpClient 5 asynchronous client. It uses TLS ALPN to negotiate HTTP/2 for an
+ * https end-point (ALPN requires Java 8u252 or later) and HTTP/2 "prior knowledge" (h2c) for an http end-point.
+ * The end-point must support HTTP/2: Elasticsearch itself only speaks HTTP/1.1, so this is used with a proxy
+ * (or a service end-point) that supports HTTP/2.
+ * </p>
+ * <p>
+ * The requests are built as HttpClient 4 requests, in the same way as the HttpService requests, and are signed
+ * by the HttpService signing interceptor (SigV4SigningInterceptor or AWSRequestSigningApacheInterceptor) before
+ * they are copied to an HTTP/2 request. The signature covers the host, the path, the query and the body, which do
+ * not change when the request is sent as HTTP/2 streams. The request is signed again for each retry, since the
+ * signature includes the time.
+ * </p>
+ * <p>
+ * As in AsyncHttpService, requests are sent to the node with the fewest outstanding requests (NodePool), rejected
+ * idempotent requests are retried (RetryPolicy) and compression is handled by HttpCompression.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class Http2Service implements IElasticsearch {
+    private static Logger logger = LoggerFactory.getLogger( Http2Service.class.getName() );
+    private static final LongAdder connections = new LongAdder();
+    private static final LongAdder requests = new LongAdder();
+    private static final AtomicInteger streams = new AtomicInteger(0);
+
+    private static volatile CloseableHttpAsyncClient sharedClient = null;
+    private static volatile HttpRequestInterceptor signer = null;
+
+    /**
+     * Each new connection resolves the node host name, so counting the resolutions counts the connections
+     * that the HTTP/2 client opens.
+     */
+    private static final DnsResolver countingResolver = new DnsResolver() {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            connections.increment();
+            return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+        }
+
+        @Override
+        public String resolveCanonicalHostname(String host) throws UnknownHostException {
+            return SystemDefaultDnsResolver.INSTANCE.resolveCanonicalHostname(host);
+        }
+    };
+
+    /**
+     * @return the shared HTTP/2 client, which is built and started on the first call.
+     */
+    protected static CloseableHttpAsyncClient http2Client() {
+        if (sharedClient == null) {
+            synchronized (Http2Service.class) {
+                if (sharedClient == null) {
+                    final int ioThreads = Integer.getInteger("booksearch.http.ioThreads", HTTP_ASYNC_IO_THREADS);
+                    CloseableHttpAsyncClient client = HttpAsyncClients.customHttp2()
+                            .setIOReactorConfig( IOReactorConfig.custom().setIoThreadCount( ioThreads ).build() )
+                            .setDnsResolver( countingResolver )
+                            // Rejected requests are retried by RetryPolicy
+                            .disableAutomaticRetries()
+                            .build();
+                    client.start();
+                    signer = HttpService.signingInterceptor();
+                    sharedClient = client;
+                }
+            }
+        }
+        return sharedClient;
+    }
+
+    /**
+     * <p>
+     * Stop the HTTP/2 client and close its connections. This is called when the Spring context is closed
+     * (see HttpServiceLifecycle).
+     * </p>
+     */
+    public static void shutdown() {
+        synchronized (Http2Service.class) {
+            if (sharedClient != null) {
+                sharedClient.close( CloseMode.GRACEFUL );
+                sharedClient = null;
+            }
+        }
+    }
+
+    /**
+     * @return the counters: connections (connections opened), requests (HTTP/2 requests sent, including retries) and
+     * streams (requests in flight).
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("connections", connections.sum());
+        stats.put("requests", requests.sum());
+        stats.put("streams", (long)streams.get());
+        return stats;
+    }
+
+    /**
+     * <p>
+     * Sign a request with the HttpService signing interceptor and copy it to an HTTP/2 request. The signing
+     * interceptor sees the request as the HttpClient 4 protocol chain would: the target host is in the context and the
+     * entity Content-Encoding is a request header. The connection specific headers (Host, Content-Length), which
+     * HTTP/2 replaces with the :authority pseudo-header and the stream framing, are not copied.
+     * </p>
+     *
+     * @param request the unsigned request
+     * @param interceptor the signing interceptor
+     * @return the signed HTTP/2 request
+     */
+    protected static SimpleHttpRequest signedRequest(final HttpUriRequest request, final HttpRequestInterceptor interceptor)
+            throws IOException, HttpException {
+        byte[] body = null;
+        Header contentEncoding = null;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+            if (entity != null) {
+                body = EntityUtils.toByteArray( entity );
+                contentEncoding = entity.getContentEncoding();
+            }
+        }
+        // Sign a copy, since the AWS interceptor replaces the entity with a stream that can only be read once
+        final String uri = request.getURI().toString();
+        HttpRequest signable = null;
+        if (body != null) {
+            BasicHttpEntityEnclosingRequest entityRequest = new BasicHttpEntityEnclosingRequest(request.getMethod(), uri);
+            ByteArrayEntity entity = new ByteArrayEntity( body );
+            entity.setContentEncoding( contentEncoding );
+            entityRequest.setEntity( entity );
+            signable = entityRequest;
+        } else {
+            signable = new BasicHttpRequest(request.getMethod(), uri);
+        }
+        signable.setHeaders( request.getAllHeaders() );
+        if (contentEncoding != null) {
+            signable.setHeader( contentEncoding );
+        }
+        HttpHost target = URIUtils.extractHost( request.getURI() );
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, target);
+        interceptor.process(signable, context);
+
+        SimpleHttpRequest h2Request = new SimpleHttpRequest(request.getMethod(), request.getURI());
+        for (Header header : signable.getAllHeaders()) {
+            final String name = header.getName();
+            if (! ("Host".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name))) {
+                h2Request.addHeader(name, header.getValue());
+            }
+        }
+        if (body != null) {
+            h2Request.setBody(body, ContentType.APPLICATION_JSON);
+        }
+        return h2Request;
+    }
+
+    /**
+     * @return the HttpClient 5 timeouts for an operation class (see OperationClass.requestConfig)
+     */
+    private static RequestConfig http2Config(final OperationClass operation) {
+        return RequestConfig.custom()
+                .setConnectTimeout( Timeout.ofMilliseconds( Math.min(operation.timeoutMillis(), OperationClass.connectTimeoutMillis()) ) )
+                .setResponseTimeout( Timeout.ofMilliseconds( operation.timeoutMillis() ) )
+                .build();
+    }
+
+    /**
+     * Copy an HTTP/2 response to an HttpClient 4 response, so that it can be read by HttpCompression and checked
+     * by HttpService.retryDelay.
+     */
+    private static HttpResponse toHttpResponse(final SimpleHttpResponse h2Response) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, h2Response.getCode(), h2Response.getReasonPhrase());
+        for (org.apache.hc.core5.http.Header header : h2Response.getHeaders()) {
+            response.addHeader(header.getName(), header.getValue());
+        }
+        byte[] body = h2Response.getBodyBytes();
+        if (body != null) {
+            ByteArrayEntity entity = new ByteArrayEntity( body );
+            entity.setContentEncoding( response.getFirstHeader("Content-Encoding") );
+            response.setEntity( entity );
+        }
+        return response;
+    }
+
+    /**
+     * <p>
+     * Send a request over HTTP/2. The returned future is completed with the final response, after any retries, or
+     * completed exceptionally if the request fails or is not answered by the deadline for its OperationClass. Cancelling
+     * the future cancels the HTTP/2 stream (and, for a search, the Elasticsearch task; see TaskCanceller).
+     * </p>
+     *
+     * @param request the unsigned HTTP request
+     * @param pool the Elasticsearch nodes
+     * @return a future for the response
+     */
+    public static CompletableFuture<HttpResponse> execute(final HttpUriRequest request, final NodePool pool) {
+        final CompletableFuture<HttpResponse> result = new CompletableFuture<HttpResponse>();
+        final AtomicReference<Future<SimpleHttpResponse>> streamFuture = new AtomicReference<Future<SimpleHttpResponse>>();
+        final OperationClass operation = TaskCanceller.prepare( request );
+        HttpCompression.acceptCompressed( request );
+        execute(request, result, HttpService.retryBudget( request ), streamFuture, pool, pool.acquire());
+        TaskCanceller.watch(result, request, operation, () -> {
+            Future<SimpleHttpResponse> stream = streamFuture.get();
+            return stream != null && ! stream.isDone();
+        }, () -> streamFuture.get().cancel(true));
+        return result;
+    }
+
+    private static void execute(final HttpUriRequest request, final CompletableFuture<HttpResponse> result, final RetryPolicy.Budget budget,
+                                final AtomicReference<Future<SimpleHttpResponse>> streamFuture, final NodePool pool, final NodePool.Node node) {
+        SimpleHttpRequest h2Request = null;
+        final CloseableHttpAsyncClient client = http2Client();
+        HttpService.route(request, node);
+        try {
+            h2Request = signedRequest(request, signer);
+            h2Request.setConfig( http2Config( OperationClass.classify(request.getMethod(), request.getURI().getPath()) ) );
+        } catch (IOException | HttpException e) {
+            pool.release(node);
+            logger.error("Could not sign the HTTP/2 " + request.getMethod() + ": " + e.getLocalizedMessage());
+            result.completeExceptionally(e);
+        }
+        if (h2Request != null) {
+            requests.increment();
+            streams.incrementAndGet();
+            streamFuture.set( client.execute(h2Request, new FutureCallback<SimpleHttpResponse>() {
+                @Override
+                public void completed(SimpleHttpResponse h2Response) {
+                    streams.decrementAndGet();
+                    pool.release(node, true);
+                    HttpResponse response = toHttpResponse( h2Response );
+                    final long delay = HttpService.retryDelay(request, response, budget);
+                    if (delay >= 0) {
+                        RetryPolicy.retryTimer().schedule(() -> {
+                            if (! result.isDone()) {
+                                execute(request, result, budget, streamFuture, pool, pool.acquire());
+                            }
+                        }, delay, TimeUnit.MILLISECONDS);
+                    } else {
+                        result.complete( response );
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    streams.decrementAndGet();
+                    pool.release(node, false);
+                    NodePool.Node other = (budget != null && ! result.isDone()) ? pool.acquireOther(node) : null;
+                    if (other != null) {
+                        logger.warn("HTTP/2 " + request.getMethod() + " failed on " + node.getUrl() + ", sending it to " + other.getUrl());
+                        execute(request, result, budget, streamFuture, pool, other);
+                    } else {
+                        logger.error("HTTP/2 " + request.getMethod() + " failed: " + e.getLocalizedMessage());
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    streams.decrementAndGet();
+                    pool.release(node);
+                    result.cancel(false);
+                }
+            }) );
+            if (result.isDone()) {
+                streamFuture.get().cancel(true);
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Exception e) {
+        CompletableFuture<T> failed = new CompletableFuture<T>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    /**
+     * @param request the HTTP request
+     * @param pool the Elasticsearch nodes
+     * @return a future for the response body
+     */
+    public static CompletableFuture<String> sendHTTPTransaction(final HttpUriRequest request, final NodePool pool) {
+        return execute(request, pool).thenApply(response -> {
+            try {
+                return HttpService.readBody(response.getEntity(), HttpService.operationName(request));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * An HTTP/2 HEAD, which is used to check whether an index exists.
+     *
+     * @param index
+     * @param pool
+     * @return a future for the HTTP status
+     */
+    public static CompletableFuture<Integer> head(final String index, final NodePool pool) {
+        HttpHead head = new HttpHead( HttpService.buildURL(index, null, null) );
+        return execute(head, pool).thenApply(response -> response.getStatusLine().getStatusCode());
+    }
+
+    /**
+     * An HTTP/2 GET, with an optional JSON entity (for example, an Elasticsearch query).
+     *
+     * @param index
+     * @param type
+     * @param suffix
+     * @param jsonPayload the JSON entity or null
+     * @param pool
+     * @return a future for the response body
+     */
+    public static CompletableFuture<String> getDocument(final String index, final String type, final String suffix, final String jsonPayload,
+                                                        final NodePool pool) {
+        CompletableFuture<String> response = null;
+        String url = HttpService.buildURL(index, type, suffix);
+        try {
+            HttpUriRequest get = null;
+            if (jsonPayload != null) {
+                HttpGetWithEntity getWithEntity = new HttpGetWithEntity( url );
+                getWithEntity.setHeader("Content-type", "application/json");
+                getWithEntity.setEntity( HttpCompression.jsonEntity(jsonPayload, HttpService.operationName(getWithEntity)) );
+                get = getWithEntity;
+            } else {
+                get = new HttpGet( url );
+            }
+            response = sendHTTPTransaction(get, pool);
+        } catch (Exception e) {
+            logger.error("HTTP/2 GET failed: " + e.getLocalizedMessage());
+            response = failedFuture(e);
+        }
+        return response;
+    }
+
+    /**
+     * An HTTP/2 PUT
+     *
+     * @param index The index for the document
+     * @param type The Elasticsearch type for the document
+     * @param suffix A unique ID for the document or the URL suffix
+     * @param jsonPayload The JSON string to be added to the Elasticsearch index
+     * @param pool
+     * @return a future for the JSON result object
+     */
+    public static CompletableFuture<String> putDocument(final String index, final String type, final String suffix, final String jsonPayload,
+                                                        final NodePool pool) {
+        HttpPut put = new HttpPut( HttpService.buildURL(index, type, suffix) );
+        put.setHeader("Content-type", "application/json");
+        put.setEntity( HttpCompression.jsonEntity(jsonPayload, HttpService.operationName(put)) );
+        return sendHTTPTransaction(put, pool);
+    }
+
+    /**
+     * An HTTP/2 POST (for example, a _search or a _bulk request)
+     *
+     * @param index
+     * @param type
+     * @param suffix
+     * @param jsonPayload
+     * @param pool
+     * @return a future for the response body
+     */
+    public static CompletableFuture<String> postDocument(final String index, final String type, final String suffix, final String jsonPayload,
+                                                         final NodePool pool) {
+        HttpPost post = new HttpPost( HttpService.buildURL(index, type, suffix) );
+        post.setHeader("Content-type", "application/json");
+        post.setEntity( HttpCompression.jsonEntity(jsonPayload, HttpService.operationName(post)) );
+        return sendHTTPTransaction(post, pool);
+    }
+
+    /**
+     * An HTTP/2 DELETE
+     *
+     * @param index
+     * @param type
+     * @param suffix
+     * @param pool
+     * @return a future for the response body
+     */
+    public static CompletableFuture<String> deleteDocument(final String index, final String type, final String suffix, final NodePool pool) {
+        HttpDelete delete = new HttpDelete( HttpService.buildURL(index, type, suffix) );
+        return sendHTTPTransaction(delete, pool);
+    }
+}
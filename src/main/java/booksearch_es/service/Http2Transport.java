@@ -0,0 +1,140 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.HttpPost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h4>
+ * Http2Transport
+ * </h4>
+ * <p>
+ * The Elasticsearch transport for an end-point that supports HTTP/2 (see Http2Service). All of the concurrent
+ * requests to a node, including _search and _bulk requests, share one multiplexed connection. The transport is
+ * selected with -Dbooksearch.es.transport=http2.
+ * </p>
+ * <p>
+ * The blocking operations wait for the HTTP/2 response. As with HttpService, an error is logged and null is returned.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class Http2Transport implements IElasticsearchTransport {
+    private static Logger logger = LoggerFactory.getLogger( Http2Transport.class.getName() );
+
+    private final NodePool pool;
+
+    public Http2Transport() {
+        this( NodePool.defaultPool() );
+    }
+
+    /**
+     * @param pool the Elasticsearch nodes (or proxies) that requests are sent to
+     */
+    public Http2Transport(final NodePool pool) {
+        this.pool = pool;
+    }
+
+    private <T> T join(final CompletableFuture<T> future, final T errorResult) {
+        T result = errorResult;
+        try {
+            result = future.join();
+        } catch (CompletionException e) {
+            Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+            logger.error("HTTP/2 request failed: " + cause.getLocalizedMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Send a request and pass the response stream to a JSON parser (see HttpService.sendHTTPTransaction).
+     */
+    private <T> T sendHTTPTransaction(final HttpUriRequest request, final JsonResponseHandler<T> handler) {
+        return join( Http2Service.execute(request, pool).thenApply(response -> {
+            try {
+                return HttpService.readJson(response.getEntity(), HttpService.operationName(request), handler);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), null );
+    }
+
+    @Override
+    public int head(final String index) {
+        return join( Http2Service.head(index, pool), -1 );
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix) {
+        return join( Http2Service.getDocument(index, type, suffix, null, pool), null );
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return join( Http2Service.getDocument(index, type, suffix, jsonPayload, pool), null );
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        T result = null;
+        try {
+            HttpGetWithEntity get = new HttpGetWithEntity( HttpService.buildURL(index, type, suffix) );
+            get.setHeader("Content-type", "application/json");
+            get.setEntity( HttpCompression.jsonEntity(jsonPayload, HttpService.operationName(get)) );
+            result = sendHTTPTransaction(get, handler);
+        } catch (Exception e) {
+            logger.error("HTTP/2 GET failed: " + e.getLocalizedMessage());
+        }
+        return result;
+    }
+
+    @Override
+    public String putDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return join( Http2Service.putDocument(index, type, suffix, jsonPayload, pool), null );
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return join( Http2Service.postDocument(index, type, suffix, jsonPayload, pool), null );
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        HttpPost post = new HttpPost( HttpService.buildURL(index, type, suffix) );
+        post.setHeader("Content-type", "application/json");
+        post.setEntity( HttpCompression.jsonEntity(jsonPayload, HttpService.operationName(post)) );
+        return sendHTTPTransaction(post, handler);
+    }
+
+    @Override
+    public String deleteDocument(final String index, final String type, final String suffix) {
+        return join( Http2Service.deleteDocument(index, type, suffix, pool), null );
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return Http2Service.getDocument(index, type, suffix, jsonPayload, pool);
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return Http2Service.postDocument(index, type, suffix, jsonPayload, pool);
+    }
+}
@@ -0,0 +1,145 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.entity.ByteArrayEntity;
+
+/**
+ * <h4>
+ * HttpCompression
+ * </h4>
+ * <p>
+ * Optional gzip compression for Elasticsearch request and response bodies. Bulk load requests and large
+ * query results are JSON, which compresses well. Compression is turned on with the system property
+ * booksearch.http.gzip=true (see IElasticsearch.HTTP_GZIP).
+ * </p>
+ * <p>
+ * When compression is on, request bodies that are at least booksearch.http.gzipMinBytes long are sent with
+ * "Content-Encoding: gzip" and requests include "Accept-Encoding: gzip". Small bodies are sent as is, since
+ * the gzip header and the CPU time are not worth it.
+ * </p>
+ * <p>
+ * The request body is compressed before the request is signed, so the AWS SigV4 signature covers the bytes that
+ * are actually sent (and the Content-Encoding header).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class HttpCompression implements IElasticsearch {
+    private final static String GZIP = "gzip";
+
+    private HttpCompression() {}
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.http.gzip", Boolean.toString(HTTP_GZIP)) );
+    }
+
+    public static int minCompressBytes() {
+        return Integer.getInteger("booksearch.http.gzipMinBytes", HTTP_GZIP_MIN_BYTES);
+    }
+
+    protected static byte[] gzip(final byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream( Math.max(64, bytes.length / 4) );
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream( compressed )) {
+            gzipStream.write( bytes );
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * <p>
+     * Build the entity for a JSON request body. The body is compressed if compression is enabled and
+     * the body is large enough. The body and wire sizes are recorded in CompressionStats.
+     * </p>
+     *
+     * @param jsonPayload the JSON request body
+     * @param operation the operation name (see CompressionStats.operationName)
+     * @return a repeatable HTTP entity for the body
+     */
+    public static HttpEntity jsonEntity(final String jsonPayload, final String operation) {
+        byte[] body = jsonPayload.getBytes( StandardCharsets.UTF_8 );
+        ByteArrayEntity entity = null;
+        if (isEnabled() && body.length >= minCompressBytes()) {
+            try {
+                byte[] compressed = gzip( body );
+                entity = new ByteArrayEntity( compressed );
+                entity.setContentEncoding( GZIP );
+                CompressionStats.recordRequest(operation, body.length, compressed.length);
+            } catch (IOException e) {
+                // this should not happen with an in-memory stream. Send the body uncompressed.
+                entity = null;
+            }
+        }
+        if (entity == null) {
+            entity = new ByteArrayEntity( body );
+            CompressionStats.recordRequest(operation, body.length, body.length);
+        }
+        return entity;
+    }
+
+    /**
+     * Ask for a compressed response, if compression is enabled.
+     *
+     * @param request the HTTP request
+     */
+    public static void acceptCompressed(final HttpRequest request) {
+        if (isEnabled()) {
+            request.setHeader("Accept-Encoding", GZIP);
+        }
+    }
+
+    /**
+     * <p>
+     * Open the response body stream. A gzip response is decompressed. The returned stream counts the
+     * (decompressed) bytes read. The body and wire sizes are recorded in CompressionStats when the stream is closed.
+     * </p>
+     *
+     * @param entity the response entity
+     * @param operation the operation name (see CompressionStats.operationName)
+     * @return a counting stream for the response body
+     * @throws IOException
+     */
+    public static CountingInputStream responseStream(final HttpEntity entity, final String operation) throws IOException {
+        final CountingInputStream wireStream = new CountingInputStream( entity.getContent() );
+        Header encoding = entity.getContentEncoding();
+        InputStream bodyStream = wireStream;
+        if (encoding != null && GZIP.equalsIgnoreCase( encoding.getValue() )) {
+            bodyStream = new GZIPInputStream( wireStream );
+        }
+        return new CountingInputStream( bodyStream ) {
+            private boolean recorded = false;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (! recorded) {
+                        recorded = true;
+                        CompressionStats.recordResponse(operation, getByteCount(), wireStream.getByteCount());
+                    }
+                }
+            }
+        };
+    }
+}
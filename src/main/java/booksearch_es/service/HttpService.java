@@ -8,24 +8,35 @@
  */
 package booksearch_es.service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpRequestInterceptor;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,11 +45,20 @@ import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.http.AWSRequestSigningApacheInterceptor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 
 public class HttpService extends AmazonServiceBase implements IElasticsearch {
     
     private static Logger logger = LoggerFactory.getLogger( HttpService.class.getName() );
 
+    // Jackson JsonFactory objects are thread safe
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final LongAdder streamedResponseBytes = new LongAdder();
+    private static final LongAdder streamedResponseCount = new LongAdder();
+    private static volatile CloseableHttpClient sharedClient = null;
+    private static volatile PoolingHttpClientConnectionManager connectionManager = null;
+    
     /**
      * <p>
      * Build a an Apache HTTP ClosableHttpClient. This code is based on the sample code that can be found
@@ -47,36 +67,380 @@ public class HttpService extends AmazonServiceBase implements IElasticsearch {
      * <pre>
      * https://github.com/awslabs/aws-request-signing-apache-interceptor/blob/master/examples/Sample.java
      * </pre>
+     * <p>
+     * The client is built once and shared by all of the HTTP operations. The Apache CloseableHttpClient is
+     * thread safe, so sharing it allows TCP and TLS connections to be kept alive and reused, instead of
+     * paying for a new connection (and leaking its socket) on every Elasticsearch request. The connection
+     * pool limits, the idle connection eviction time and the keep-alive time are taken from the 
+     * IElasticsearch constants and may be overridden by system properties (see IElasticsearch).
+     * </p>
      * 
      * @return a ClosableHttpClient object
      */
     protected static CloseableHttpClient signedClient() {
-        AWS4Signer signer = new AWS4Signer();
-        signer.setServiceName( SERVICE_NAME );
-        signer.setRegionName( region.getName() );
+        if (sharedClient == null) {
+            synchronized (HttpService.class) {
+                if (sharedClient == null) {
+                    sharedClient = buildSignedClient();
+                }
+            }
+        }
+        return sharedClient;
+    }
+    
+    /**
+     * <p>
+     * Build the interceptor that signs requests with the Elasticsearch domain credentials. The interceptor
+     * is shared by the blocking and the asynchronous (AsyncHttpService) HTTP clients.
+     * </p>
+     * <p>
+     * By default the SigV4SigningInterceptor is used. The AWSRequestSigningApacheInterceptor and AWS4Signer can be
+     * selected with the system property booksearch.http.awsSigner=true.
+     * </p>
+     * 
+     * @return the request signing interceptor
+     */
+    protected static HttpRequestInterceptor signingInterceptor() {
         AWSCredentials credentials = getCredentials(ES_ID, ES_KEY);
         AWSCredentialsProvider credProvider = new AWSStaticCredentialsProvider( credentials );
-        HttpRequestInterceptor interceptor = new AWSRequestSigningApacheInterceptor(SERVICE_NAME, signer, credProvider);
+        HttpRequestInterceptor interceptor = null;
+        if (Boolean.getBoolean("booksearch.http.awsSigner")) {
+            // The original AWS interceptor and signer
+            AWS4Signer signer = new AWS4Signer();
+            signer.setServiceName( SERVICE_NAME );
+            signer.setRegionName( region.getName() );
+            interceptor = new AWSRequestSigningApacheInterceptor(SERVICE_NAME, signer, credProvider);
+        } else {
+            interceptor = new SigV4SigningInterceptor(SERVICE_NAME, region.getName(), credProvider);
+        }
+        return interceptor;
+    }
+    
+    protected static int poolMaxTotal() {
+        return Integer.getInteger("booksearch.http.maxTotal", HTTP_MAX_TOTAL_CONNECTIONS);
+    }
+    
+    protected static int poolMaxPerRoute() {
+        return Integer.getInteger("booksearch.http.maxPerRoute", HTTP_MAX_CONNECTIONS_PER_ROUTE);
+    }
+    
+    private static CloseableHttpClient buildSignedClient() {
+        final int maxTotal = poolMaxTotal();
+        final int maxPerRoute = poolMaxPerRoute();
+        final int idleEvictSeconds = Integer.getInteger("booksearch.http.idleEvictSeconds", HTTP_IDLE_EVICT_SECONDS);
+        final long maxKeepAliveMillis = TimeUnit.SECONDS.toMillis( Integer.getInteger("booksearch.http.keepAliveSeconds", HTTP_KEEP_ALIVE_SECONDS) );
+        HttpRequestInterceptor interceptor = signingInterceptor();
+        PoolingHttpClientConnectionManager poolManager = new PoolingHttpClientConnectionManager();
+        poolManager.setMaxTotal( maxTotal );
+        poolManager.setDefaultMaxPerRoute( maxPerRoute );
+        // Use the server's Keep-Alive time if it sends one, but never keep a connection longer than maxKeepAliveMillis
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return (serverKeepAlive > 0 && serverKeepAlive < maxKeepAliveMillis) ? serverKeepAlive : maxKeepAliveMillis;
+        };
+        connectionManager = poolManager;
+        logger.info("HTTP connection pool: maxTotal = " + maxTotal + ", maxPerRoute = " + maxPerRoute);
         return HttpClients.custom()
+                .setConnectionManager( poolManager )
+                .setKeepAliveStrategy( keepAliveStrategy )
+                .evictExpiredConnections()
+                .evictIdleConnections( idleEvictSeconds, TimeUnit.SECONDS )
+                // Compression is handled by HttpCompression, so that the compressed bytes can be counted
+                .disableContentCompression()
                 .addInterceptorLast(interceptor)
                 .build();
     }
     
+    /**
+     * <p>
+     * Close the shared HTTP client and its connection pool. This is called when the Spring context is closed
+     * (see HttpServiceLifecycle). A later HTTP operation will build a new client.
+     * </p>
+     */
+    public static void shutdown() {
+        synchronized (HttpService.class) {
+            if (sharedClient != null) {
+                try {
+                    sharedClient.close();
+                } catch (IOException e) {
+                    logger.error("Error closing the HTTP client: " + e.getLocalizedMessage());
+                }
+                sharedClient = null;
+                connectionManager = null;
+            }
+        }
+    }
+    
+    /**
+     * <p>
+     * Return the connection pool statistics: the number of connections that are leased (in use), the number 
+     * of requests that are pending (waiting for a connection), the number of idle connections that are available
+     * and the maximum pool size.
+     * </p>
+     * 
+     * @return the pool statistics or null if the HTTP client has not been built yet.
+     */
+    public static PoolStats getPoolStats() {
+        PoolStats stats = null;
+        PoolingHttpClientConnectionManager poolManager = connectionManager;
+        if (poolManager != null) {
+            stats = poolManager.getTotalStats();
+        }
+        return stats;
+    }
+    
+    /**
+     * @return the total number of response bytes that were passed directly to a JSON parser by the
+     *         streaming operations, instead of being copied into a String.
+     */
+    public static long getStreamedResponseBytes() {
+        return streamedResponseBytes.sum();
+    }
+    
+    /**
+     * @return the number of responses that were handled by the streaming operations.
+     */
+    public static long getStreamedResponseCount() {
+        return streamedResponseCount.sum();
+    }
     
+    /**
+     * <p>
+     * Decide whether a request can be sent again after Elasticsearch rejected it. GET, HEAD, PUT (of a document
+     * with an ID) and DELETE are idempotent. A POST is only idempotent when it is a search (or a count), which does
+     * not change the index. Bulk requests are retried item by item (see ElasticsearchService).
+     * </p>
+     *
+     * @param request the HTTP request
+     * @return true if the request may be retried
+     */
+    protected static boolean isIdempotent(final HttpUriRequest request) {
+        boolean idempotent = true;
+        if ("POST".equals(request.getMethod())) {
+            final String path = request.getURI().getPath();
+            idempotent = path != null && (path.contains("/_search") || path.contains("/_msearch") || path.contains("/_count"));
+        }
+        return idempotent;
+    }
+
+    /**
+     * @return a retry budget for an idempotent request or null if the request should not be retried.
+     */
+    protected static RetryPolicy.Budget retryBudget(final HttpUriRequest request) {
+        RetryPolicy.Budget budget = null;
+        if (isIdempotent(request)) {
+            budget = RetryPolicy.requestPolicy().newBudget();
+        }
+        return budget;
+    }
+
+    /**
+     * <p>
+     * Check the status of a response. If Elasticsearch rejected the request (status 429 or 503) and there is retry
+     * budget left, return the delay before the request is sent again. A Retry-After header (in seconds) is used as
+     * the minimum delay.
+     * </p>
+     *
+     * @param request the HTTP request
+     * @param response the HTTP response
+     * @param budget the retry budget for the request (or null if the request is not retried)
+     * @return the retry delay in milliseconds or -1 if the response is final.
+     */
+    protected static long retryDelay(final HttpUriRequest request, final HttpResponse response, final RetryPolicy.Budget budget) {
+        long delay = -1;
+        final int status = response.getStatusLine().getStatusCode();
+        if (budget != null && RetryPolicy.isRetryableStatus(status)) {
+            long retryAfterMillis = 0;
+            Header retryAfter = response.getFirstHeader("Retry-After");
+            if (retryAfter != null) {
+                try {
+                    retryAfterMillis = TimeUnit.SECONDS.toMillis( Long.parseLong( retryAfter.getValue().trim() ) );
+                } catch (NumberFormatException e) {
+                    // an HTTP date, which Elasticsearch does not send
+                }
+            }
+            delay = budget.nextDelayMillis( retryAfterMillis );
+            if (delay >= 0) {
+                logger.warn(request.getMethod() + " " + operationName(request) + " rejected with status " + status + ", retry " + budget.getRetryCount() + " in " + delay + " ms");
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Read the result from a final HTTP response.
+     */
+    private interface ResponseReader<T> {
+        T read(HttpResponse response) throws IOException;
+    }
+    
+    /**
+     * <p>
+     * Point a request at an Elasticsearch node (see NodePool).
+     * </p>
+     */
+    protected static void route(final HttpUriRequest request, final NodePool.Node node) {
+        if (request instanceof HttpRequestBase) {
+            ((HttpRequestBase)request).setURI( NodePool.resolve(node, request.getURI()) );
+        }
+    }
+    
+    /**
+     * <p>
+     * Send a request to the Elasticsearch node with the fewest outstanding requests and read the response.
+     * </p>
+     * <ul>
+     * <li>If Elasticsearch rejects an idempotent request because it is overloaded, the request is sent again after
+     * a backoff delay (see RetryPolicy).</li>
+     * <li>If the node can not be reached, it is marked dead and an idempotent request is sent to another live node.</li>
+     * <li>The request is aborted if it is not finished by the deadline for its OperationClass. The Elasticsearch task for
+     * a search that timed out is cancelled (see TaskCanceller).</li>
+     * </ul>
+     * <p>
+     * The response is always closed, which returns the connection to the pool.
+     * </p>
+     * 
+     * @param request the HTTP request
+     * @param errorResult the result if there is an error
+     * @param reader reads the result from the final response
+     * @return the result
+     */
+    private static <T> T execute(final HttpUriRequest request, final T errorResult, final ResponseReader<T> reader) {
+        T result = errorResult;
+        final CloseableHttpClient httpClient = signedClient();
+        final NodePool pool = NodePool.defaultPool();
+        final RetryPolicy.Budget budget = retryBudget( request );
+        final OperationClass operation = TaskCanceller.prepare( request );
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        // Abort the request if it is not finished by the deadline for its operation class
+        final ScheduledFuture<?> deadline = TaskCanceller.deadlineTimer().schedule(() -> {
+            if (finished.compareAndSet(false, true)) {
+                request.abort();
+            }
+        }, operation.timeoutMillis(), TimeUnit.MILLISECONDS);
+        NodePool.Node node = pool.acquire();
+        while (node != null && ! request.isAborted()) {
+            route(request, node);
+            boolean reachable = false;
+            long delay = -1;
+            try (CloseableHttpResponse response = httpClient.execute(request)) {
+                reachable = true;
+                delay = retryDelay(request, response, budget);
+                if (delay >= 0) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                } else {
+                    result = reader.read(response);
+                }
+            } catch (IOException e) {
+                logger.error("HTTP Result error: " + e.getLocalizedMessage());
+            }
+            final NodePool.Node sentTo = node;
+            pool.release(sentTo, reachable || request.isAborted());
+            node = null;
+            if (request.isAborted()) {
+                break;
+            } else if (! reachable && budget != null) {
+                node = pool.acquireOther(sentTo);
+                if (node != null) {
+                    logger.warn(request.getMethod() + " " + operationName(request) + " failed on " + sentTo.getUrl() + ", sending it to " + node.getUrl());
+                }
+            } else if (delay >= 0 && RetryPolicy.sleep(delay)) {
+                node = pool.acquire();
+            }
+        }
+        deadline.cancel(false);
+        if (! finished.compareAndSet(false, true)) {
+            TaskCanceller.deadlineExceeded(request, operation);
+        }
+        return result;
+    }
+    
+    /**
+     * <p>
+     * Execute an HTTP request and return the response body as a String. Elasticsearch responses
+     * are UTF-8 encoded JSON.
+     * </p>
+     * <p>
+     * Failed and rejected requests are handled as described for execute().
+     * </p>
+     * 
+     * @param request the HTTP request
+     * @return the response body or null if there was an error.
+     */
     protected static String sendHTTPTransaction( HttpUriRequest request ) {
+        HttpCompression.acceptCompressed( request );
+        return execute(request, null, response -> readBody(response.getEntity(), operationName(request)));
+    }
+    
+    /**
+     * <p>
+     * Execute an HTTP request and pass the response stream to a JSON parser. The handler builds the result from
+     * the parser. This avoids building a String copy of the response (which, for a large query result, is then
+     * parsed into yet another copy).
+     * </p>
+     * <p>
+     * Closing the parser reads any of the response that the handler did not consume, so the connection can
+     * be returned to the pool. A rejected idempotent request is retried before the response is passed to the handler.
+     * </p>
+     * 
+     * @param request the HTTP request
+     * @param handler the callback that processes the response
+     * @return the value returned by the handler or null if there was an error or no response.
+     */
+    protected static <T> T sendHTTPTransaction( HttpUriRequest request, JsonResponseHandler<T> handler ) {
+        HttpCompression.acceptCompressed( request );
+        return execute(request, null, response -> readJson(response.getEntity(), operationName(request), handler));
+    }
+    
+    /**
+     * <p>
+     * Read a response body as a String. Elasticsearch responses are UTF-8 encoded JSON.
+     * </p>
+     * 
+     * @param entity the response entity (may be null)
+     * @param operation the operation name (see CompressionStats)
+     * @return the response body or null if there is no entity
+     */
+    protected static String readBody(final HttpEntity entity, final String operation) throws IOException {
         String httpResult = null;
-        CloseableHttpClient httpClient = signedClient();
-        try {
-            HttpResponse response = httpClient.execute(request);
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-            httpResult = IOUtils.toString(bufferedReader);
-        } catch (IOException e) {
-            logger.error("HTTP Result error: " + e.getLocalizedMessage());
-        }  
+        if (entity != null) {
+            try (InputStream responseStream = HttpCompression.responseStream(entity, operation)) {
+                httpResult = IOUtils.toString(responseStream, StandardCharsets.UTF_8);
+            }
+        }
         return httpResult;
     }
     
-    private static String buildURL(final String index, final String type, final String suffix) {
+    /**
+     * <p>
+     * Pass a response body stream to a JSON parser and return the result built by the handler.
+     * </p>
+     * 
+     * @param entity the response entity (may be null)
+     * @param operation the operation name (see CompressionStats)
+     * @param handler the callback that processes the response
+     * @return the value returned by the handler or null if there is no entity
+     */
+    protected static <T> T readJson(final HttpEntity entity, final String operation, final JsonResponseHandler<T> handler) throws IOException {
+        T result = null;
+        if (entity != null) {
+            CountingInputStream responseStream = HttpCompression.responseStream(entity, operation);
+            try (JsonParser parser = jsonFactory.createParser( responseStream )) {
+                result = handler.handle( parser );
+            } finally {
+                streamedResponseBytes.add( responseStream.getByteCount() );
+                streamedResponseCount.increment();
+            }
+        }
+        return result;
+    }
+    
+    protected static String operationName(final HttpUriRequest request) {
+        return CompressionStats.operationName(request.getMethod(), request.getURI().getPath());
+    }
+    
+    protected static String buildURL(final String index, final String type, final String suffix) {
+        // ES_URL is replaced by the selected node when the request is sent (see NodePool)
         String url = IElasticsearch.ES_URL;
         if (index != null && index.length() > 0) {
             url = url + "/" + index;
@@ -105,17 +469,8 @@ public class HttpService extends AmazonServiceBase implements IElasticsearch {
         if (index != null && index.length() > 0) {
             url = url + "/" + index;
         }
-        CloseableHttpClient httpClient = signedClient();
         HttpHead head = new HttpHead( url );
-        HttpResponse response;
-
-        try {
-            response = httpClient.execute(head);
-            StatusLine statusLine = response.getStatusLine();
-            statusCode = statusLine.getStatusCode();
-        } catch (IOException e) {
-            logger.error("Error in HEAD transaction: " + e.getLocalizedMessage());
-        }
+        statusCode = execute(head, -1, response -> response.getStatusLine().getStatusCode());
         return statusCode;
     }
     
@@ -133,8 +488,7 @@ public class HttpService extends AmazonServiceBase implements IElasticsearch {
         try {
             HttpGetWithEntity get = new HttpGetWithEntity( url );
             get.setHeader("Content-type", "application/json");
-            StringEntity stringEntity = new StringEntity( jsonPayload, StandardCharsets.UTF_8);
-            get.setEntity(stringEntity);
+            get.setEntity( HttpCompression.jsonEntity(jsonPayload, operationName(get)) );
             responseString = sendHTTPTransaction( get );
         } catch (Exception e) {
             logger.error("HttpGet with entity failed: " + e.getLocalizedMessage());
@@ -142,6 +496,32 @@ public class HttpService extends AmazonServiceBase implements IElasticsearch {
         return responseString;
     }
     
+    /**
+     * <p>
+     * An HTTP GET with a JSON entity, where the response is streamed to a JSON parser callback.
+     * </p>
+     * 
+     * @param index
+     * @param type
+     * @param suffix
+     * @param jsonPayload
+     * @param handler the callback that builds the result from the response
+     * @return the handler result or null if there was an error.
+     */
+    public static <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        T result = null;
+        String url = buildURL(index, type, suffix);
+        try {
+            HttpGetWithEntity get = new HttpGetWithEntity( url );
+            get.setHeader("Content-type", "application/json");
+            get.setEntity( HttpCompression.jsonEntity(jsonPayload, operationName(get)) );
+            result = sendHTTPTransaction( get, handler );
+        } catch (Exception e) {
+            logger.error("HttpGet with entity failed: " + e.getLocalizedMessage());
+        }
+        return result;
+    }
+    
     /**
      * 
      * @param index
@@ -183,8 +563,7 @@ public class HttpService extends AmazonServiceBase implements IElasticsearch {
         String url = buildURL(index, type, suffix);
         HttpPut put = new HttpPut( url );
         put.setHeader("Content-type", "application/json");
-        StringEntity stringEntity = new StringEntity( jsonPayload, StandardCharsets.UTF_8);
-        put.setEntity(stringEntity);
+        put.setEntity( HttpCompression.jsonEntity(jsonPayload, operationName(put)) );
         String responseStr = sendHTTPTransaction( put );
         return responseStr;
     }
@@ -200,8 +579,7 @@ public class HttpService extends AmazonServiceBase implements IElasticsearch {
     public static String postDocument(final String url, String jsonPayload) {
         HttpPost post = new HttpPost( url );
         post.setHeader("Content-type", "application/json");
-        StringEntity stringEntity = new StringEntity( jsonPayload, StandardCharsets.UTF_8);
-        post.setEntity(stringEntity);
+        post.setEntity( HttpCompression.jsonEntity(jsonPayload, operationName(post)) );
         String responseStr = sendHTTPTransaction( post );
         return responseStr;
     }
@@ -222,4 +600,25 @@ public class HttpService extends AmazonServiceBase implements IElasticsearch {
         String responseStr = postDocument(url, jsonPayload ); 
         return responseStr;
     }
+    
+    /**
+     * <p>
+     * An HTTP Post operation, where the response is streamed to a JSON parser callback.
+     * </p>
+     * 
+     * @param index
+     * @param type
+     * @param suffix
+     * @param jsonPayload
+     * @param handler the callback that builds the result from the response
+     * @return the handler result or null if there was an error.
+     */
+    public static <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        String url = buildURL(index, type, suffix);
+        HttpPost post = new HttpPost( url );
+        post.setHeader("Content-type", "application/json");
+        post.setEntity( HttpCompression.jsonEntity(jsonPayload, operationName(post)) );
+        T result = sendHTTPTransaction( post, handler );
+        return result;
+    }
 }
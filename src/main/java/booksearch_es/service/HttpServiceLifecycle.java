@@ -0,0 +1,40 @@
+/** \file
+ * 
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * <h4>
+ * HttpServiceLifecycle
+ * </h4>
+ * <p>
+ * The HttpService, the AsyncHttpService and the Http2Service keep shared, pooled HTTP clients for the life of the application. 
+ * This Spring component closes the clients, and the pooled connections, when the Spring context is closed (for example, when the
+ * application is undeployed from Tomcat). It also stops the bulkhead threads.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ * 
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+@Component
+public class HttpServiceLifecycle {
+
+    @PreDestroy
+    public void shutdown() {
+        HttpService.shutdown();
+        AsyncHttpService.shutdown();
+        Http2Service.shutdown();
+        Bulkhead.shutdown();
+    }
+}
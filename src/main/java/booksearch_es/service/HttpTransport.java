@@ -0,0 +1,79 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <h4>
+ * HttpTransport
+ * </h4>
+ * <p>
+ * The Elasticsearch transport for the AWS Elasticsearch end-point. The blocking operations use the HttpService and the
+ * non-blocking operations use the AsyncHttpService. Both share signed, pooled HTTP clients, so this class has no state of
+ * its own.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class HttpTransport implements IElasticsearchTransport {
+
+    @Override
+    public int head(final String index) {
+        return HttpService.head(index);
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix) {
+        return HttpService.getDocument(index, type, suffix);
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return HttpService.getDocument(index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return HttpService.getDocument(index, type, suffix, jsonPayload, handler);
+    }
+
+    @Override
+    public String putDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return HttpService.putDocument(index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return HttpService.postDocument(index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return HttpService.postDocument(index, type, suffix, jsonPayload, handler);
+    }
+
+    @Override
+    public String deleteDocument(final String index, final String type, final String suffix) {
+        return HttpService.deleteDocument(index, type, suffix);
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return AsyncHttpService.getDocument(index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return AsyncHttpService.postDocument(index, type, suffix, jsonPayload);
+    }
+}
@@ -34,4 +34,162 @@ public interface IElasticsearch {
         // Elastic search full access (read, write and delete) IAM keys
     public final static String ES_ID = "Your Elasticsearch Service full access ID goes here";
     public final static String ES_KEY = "Your Elasticsearch Service full access secret key goes here";
+    // The Elasticsearch transport: "http" for the AWS end-point, "http2" for an HTTP/2 end-point (or proxy) or "memory"
+    // for the in-process InMemoryTransport (booksearch.es.transport)
+    public final static String ES_TRANSPORT = "http";
+    // Elasticsearch nodes (see NodePool). Each of these can be overridden by the system property shown in the comment.
+    // A comma separated list of node URLs. If this is empty, ES_URL is used (booksearch.es.nodes)
+    public final static String ES_NODES = "";
+    // Refresh the node list from _nodes/http at this interval. Zero turns discovery off (booksearch.es.discoveryIntervalSeconds)
+    public final static long ES_DISCOVERY_INTERVAL_SECONDS = 0;
+    // A node that can not be reached is not used for this long. The time doubles for each failure (booksearch.es.nodeDeadMillis)
+    public final static long NODE_DEAD_MILLIS = 1000;
+    // The longest time a node is not used (booksearch.es.nodeMaxDeadMillis)
+    public final static long NODE_MAX_DEAD_MILLIS = 60000;
+    
+    // HTTP connection pool defaults. Each of these can be overridden by the system property shown in the comment.
+    // The maximum number of pooled connections (booksearch.http.maxTotal)
+    public final static int HTTP_MAX_TOTAL_CONNECTIONS = 64;
+    // The maximum number of pooled connections to a single host (booksearch.http.maxPerRoute)
+    public final static int HTTP_MAX_CONNECTIONS_PER_ROUTE = 32;
+    // Connections that have been idle for this many seconds are closed (booksearch.http.idleEvictSeconds)
+    public final static int HTTP_IDLE_EVICT_SECONDS = 30;
+    // Keep-alive time used when the server does not send a Keep-Alive header (booksearch.http.keepAliveSeconds)
+    public final static int HTTP_KEEP_ALIVE_SECONDS = 60;
+    // The number of I/O dispatch threads used by the asynchronous HTTP client (booksearch.http.ioThreads)
+    public final static int HTTP_ASYNC_IO_THREADS = 2;
+    // Use gzip compression for request and response bodies (booksearch.http.gzip)
+    public final static boolean HTTP_GZIP = false;
+    // Request bodies smaller than this are not compressed (booksearch.http.gzipMinBytes)
+    public final static int HTTP_GZIP_MIN_BYTES = 1024;
+    
+    // Hedged search requests (see HedgingTransport). Each of these can be overridden by the system property shown in the comment.
+    // Send a second search request if the first has not been answered after the hedge delay (booksearch.hedge.enabled)
+    public final static boolean HEDGE_ENABLED = false;
+    // The hedge delay is this percentile of the recent search latencies (booksearch.hedge.percentile)
+    public final static double HEDGE_PERCENTILE = 95.0;
+    // The minimum hedge delay (booksearch.hedge.minDelayMillis)
+    public final static long HEDGE_MIN_DELAY_MILLIS = 10;
+    // The hedge delay used until enough search latencies have been recorded (booksearch.hedge.initialDelayMillis)
+    public final static long HEDGE_INITIAL_DELAY_MILLIS = 250;
+    // Hedged requests are limited to this percentage of the search requests (booksearch.hedge.budgetPercent)
+    public final static double HEDGE_BUDGET_PERCENT = 5.0;
+    
+    // Concurrency limit and circuit breaker (see ConcurrencyLimitTransport). Each of these can be overridden by the
+    // system property shown in the comment.
+    // Limit the requests in flight and fail fast when Elasticsearch is failing (booksearch.limit.enabled)
+    public final static boolean LIMIT_ENABLED = true;
+    // The starting concurrency limit (booksearch.limit.initial)
+    public final static int LIMIT_INITIAL = 20;
+    // The lowest concurrency limit (booksearch.limit.min)
+    public final static int LIMIT_MIN = 2;
+    // The highest concurrency limit (booksearch.limit.max). There is no point in more requests than pooled connections.
+    public final static int LIMIT_MAX = HTTP_MAX_TOTAL_CONNECTIONS;
+    // The limit is reduced when the latency is more than this multiple of the unloaded latency (booksearch.limit.tolerance)
+    public final static double LIMIT_TOLERANCE = 2.0;
+    // The number of recent requests used to compute the failure rate (booksearch.breaker.window)
+    public final static int BREAKER_WINDOW = 50;
+    // The breaker does not open until there are at least this many requests in the window (booksearch.breaker.minCalls)
+    public final static int BREAKER_MIN_CALLS = 20;
+    // The breaker opens when this percentage of the requests in the window failed (booksearch.breaker.failurePercent)
+    public final static double BREAKER_FAILURE_PERCENT = 50.0;
+    // Requests are rejected for this long after the breaker opens (booksearch.breaker.openMillis)
+    public final static long BREAKER_OPEN_MILLIS = 10000;
+    // The number of trial requests that must succeed before the breaker closes (booksearch.breaker.trialCalls)
+    public final static int BREAKER_TRIAL_CALLS = 3;
+    
+    // Retries for requests that Elasticsearch rejected with HTTP status 429 or 503 (see RetryPolicy). Each of these can be
+    // overridden by the system property shown in the comment.
+    // The maximum number of retries for an HTTP request (booksearch.retry.maxRetries)
+    public final static int RETRY_MAX_RETRIES = 3;
+    // The backoff ceiling for the first retry. The ceiling doubles for each retry (booksearch.retry.baseDelayMillis)
+    public final static long RETRY_BASE_DELAY_MILLIS = 50;
+    // The largest backoff ceiling (booksearch.retry.maxDelayMillis)
+    public final static long RETRY_MAX_DELAY_MILLIS = 1000;
+    // No retry is sent after this time from the start of the request (booksearch.retry.maxElapsedMillis)
+    public final static long RETRY_MAX_ELAPSED_MILLIS = 3000;
+    // The maximum number of retries for the rejected items in a bulk load (booksearch.retry.bulk.maxRetries)
+    public final static int BULK_RETRY_MAX_RETRIES = 8;
+    // The backoff ceiling for the first bulk retry (booksearch.retry.bulk.baseDelayMillis)
+    public final static long BULK_RETRY_BASE_DELAY_MILLIS = 200;
+    // The largest bulk backoff ceiling (booksearch.retry.bulk.maxDelayMillis)
+    public final static long BULK_RETRY_MAX_DELAY_MILLIS = 10000;
+    // No bulk retry is sent after this time from the start of the bulk load (booksearch.retry.bulk.maxElapsedMillis)
+    public final static long BULK_RETRY_MAX_ELAPSED_MILLIS = 60000;
+    
+    // Identical queries that are in flight at the same time share one Elasticsearch request (see SingleFlight)
+    // (booksearch.singleflight.enabled)
+    public final static boolean SINGLE_FLIGHT_ENABLED = true;
+    
+    // Request timeouts for each OperationClass. Each of these can be overridden by the system property shown in the comment.
+    // The time allowed to open a connection to a node (booksearch.timeout.connectMillis)
+    public final static int TIMEOUT_CONNECT_MILLIS = 2000;
+    // A search is cancelled if there is no response after this time, including retries (booksearch.timeout.searchMillis)
+    public final static int TIMEOUT_SEARCH_MILLIS = 5000;
+    // The timeout for an aggregation (booksearch.timeout.aggregationMillis)
+    public final static int TIMEOUT_AGGREGATION_MILLIS = 10000;
+    // The timeout for a document write, delete or index operation (booksearch.timeout.writeMillis)
+    public final static int TIMEOUT_WRITE_MILLIS = 10000;
+    // The timeout for a bulk request (booksearch.timeout.bulkMillis)
+    public final static int TIMEOUT_BULK_MILLIS = 60000;
+    // Ask Elasticsearch to cancel the search task of a search that timed out or was abandoned (booksearch.timeout.cancelTasks)
+    public final static boolean TIMEOUT_CANCEL_TASKS = true;
+    
+    // Bulkheads: each OperationClass has its own bounded thread pool (see Bulkhead and BulkheadTransport). Each of these
+    // can be overridden by the system property shown in the comment, where [class] is search, aggregation, write or bulk.
+    // Run the Elasticsearch requests in the bulkhead for their class (booksearch.bulkhead.enabled)
+    public final static boolean BULKHEAD_ENABLED = true;
+    // The threads (the requests in flight) for each class (booksearch.bulkhead.[class].threads)
+    public final static int BULKHEAD_SEARCH_THREADS = 16;
+    public final static int BULKHEAD_AGGREGATION_THREADS = 4;
+    public final static int BULKHEAD_WRITE_THREADS = 4;
+    public final static int BULKHEAD_BULK_THREADS = 2;
+    // The requests that can wait for a thread (booksearch.bulkhead.[class].queue)
+    public final static int BULKHEAD_SEARCH_QUEUE = 64;
+    public final static int BULKHEAD_AGGREGATION_QUEUE = 8;
+    public final static int BULKHEAD_WRITE_QUEUE = 32;
+    public final static int BULKHEAD_BULK_QUEUE = 2;
+    // What happens to a request when the queue is full (booksearch.bulkhead.[class].rejection): "abort" rejects it with an
+    // ElasticsearchUnavailableException, "callerRuns" sends it on the caller's thread, which slows the caller down.
+    public final static String BULKHEAD_REJECT_ABORT = "abort";
+    public final static String BULKHEAD_REJECT_CALLER_RUNS = "callerRuns";
+    
+    // Interactive and batch requests (see PriorityTransport and BatchThrottle). Each of these can be overridden by the
+    // system property shown in the comment.
+    // Throttle the batch requests (bulk loads, index dumps) in favor of the interactive requests (booksearch.priority.enabled)
+    public final static boolean PRIORITY_ENABLED = true;
+    // The interactive 95th percentile latency target. Above this the batch rate is halved (booksearch.priority.latencyTargetMillis)
+    public final static long PRIORITY_LATENCY_TARGET_MILLIS = 250;
+    // The highest batch request rate, in requests per second (booksearch.priority.batchMaxRate)
+    public final static double PRIORITY_BATCH_MAX_RATE = 20.0;
+    // The lowest batch request rate, in requests per second (booksearch.priority.batchMinRate)
+    public final static double PRIORITY_BATCH_MIN_RATE = 0.5;
+    // The number of batch requests that can be sent at once after an idle period (booksearch.priority.batchBurst)
+    public final static int PRIORITY_BATCH_BURST = 4;
+    // The batch rate is adjusted at most once in this period (booksearch.priority.adjustMillis)
+    public final static long PRIORITY_ADJUST_MILLIS = 1000;
+    // A batch request waits while this many interactive requests are in flight (booksearch.priority.maxInteractive)
+    public final static int PRIORITY_MAX_INTERACTIVE = 4;
+    // The longest time that a batch request waits for the interactive requests (booksearch.priority.maxYieldMillis)
+    public final static long PRIORITY_MAX_YIELD_MILLIS = 2000;
+    
+    // Micro-batched searches (see MultiSearchTransport). Each of these can be overridden by the system property shown
+    // in the comment.
+    // Send the searches that arrive at the same time as one _msearch request (booksearch.msearch.enabled)
+    public final static boolean MSEARCH_ENABLED = false;
+    // A batch is sent this long after its first search arrives (booksearch.msearch.windowMillis)
+    public final static long MSEARCH_WINDOW_MILLIS = 2;
+    // A batch is sent as soon as it has this many searches (booksearch.msearch.maxBatch)
+    public final static int MSEARCH_MAX_BATCH = 32;
+    
+    // The shard request cache (see BookSearchService.cachedSearchSuffix()). Each of these can be overridden by the system
+    // property shown in the comment.
+    // Send the aggregation searches with request_cache=true (booksearch.requestCache.enabled)
+    public final static boolean REQUEST_CACHE_ENABLED = true;
+    // The preference key of the cached searches, so that they are sent to the same shard copies (booksearch.requestCache.preference)
+    public final static String REQUEST_CACHE_PREFERENCE = "booksearch_facets";
+    
+    // Search with the templates that are stored in Elasticsearch when the BookIndex is initialized (see SearchTemplate),
+    // so that a search only sends the template id and parameters (booksearch.searchTemplates.enabled)
+    public final static boolean SEARCH_TEMPLATES_ENABLED = true;
 }
@@ -0,0 +1,85 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <h4>
+ * IElasticsearchTransport
+ * </h4>
+ * <p>
+ * The Elasticsearch REST operations that are used by the ElasticsearchService, the BookSearchService and the BookIndex.
+ * An operation is addressed by an index, a type and a suffix, which are combined to form the URL path
+ * (e.g., bookindex/bookinfo/_search). A null or empty index, type or suffix is left out of the path.
+ * </p>
+ * <p>
+ * Like the HttpService, the operations return the Elasticsearch JSON response (which may be an Elasticsearch error
+ * object), or null if no response could be obtained.
+ * </p>
+ * <p>
+ * There are two implementations: HttpTransport, which sends signed requests to the AWS Elasticsearch end-point, and
+ * InMemoryTransport, an in-process implementation of the Elasticsearch operations used by this application. The
+ * TransportFactory returns the transport selected by the booksearch.es.transport system property.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public interface IElasticsearchTransport {
+
+    /**
+     * @param index the index name
+     * @return the HTTP status for a HEAD on the index (200 if the index exists, 404 if it does not) or -1 on error.
+     */
+    public int head(String index);
+
+    public String getDocument(String index, String type, String suffix);
+
+    /**
+     * A GET with a JSON entity (for example, an Elasticsearch query).
+     */
+    public String getDocument(String index, String type, String suffix, String jsonPayload);
+
+    /**
+     * A GET with a JSON entity where the response is passed to a JSON parser callback.
+     *
+     * @return the handler result or null if there was an error.
+     */
+    public <T> T getDocument(String index, String type, String suffix, String jsonPayload, JsonResponseHandler<T> handler);
+
+    public String putDocument(String index, String type, String suffix, String jsonPayload);
+
+    public String postDocument(String index, String type, String suffix, String jsonPayload);
+
+    /**
+     * A POST where the response is passed to a JSON parser callback.
+     *
+     * @return the handler result or null if there was an error.
+     */
+    public <T> T postDocument(String index, String type, String suffix, String jsonPayload, JsonResponseHandler<T> handler);
+
+    public String deleteDocument(String index, String type, String suffix);
+
+    /**
+     * A non-blocking GET with a JSON entity.
+     *
+     * @return a future for the response body.
+     */
+    public CompletableFuture<String> getDocumentAsync(String index, String type, String suffix, String jsonPayload);
+
+    /**
+     * A non-blocking POST.
+     *
+     * @return a future for the response body.
+     */
+    public CompletableFuture<String> postDocumentAsync(String index, String type, String suffix, String jsonPayload);
+}
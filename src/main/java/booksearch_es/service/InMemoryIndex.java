@@ -0,0 +1,1231 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * <h4>
+ * InMemoryIndex
+ * </h4>
+ * <p>
+ * A single index for the InMemoryTransport. The index keeps the documents (in the order they were added) and the
+ * field types from the index mapping. Fields that are not in the mapping are added the way Elasticsearch's dynamic
+ * mapping would add them (a string becomes a text field with a keyword sub-field).
+ * </p>
+ * <p>
+ * The query support is limited to what this application uses: match_all, match (text fields are compared by
+ * lower case word tokens, other fields by value), term, terms, range, constant_score and bool (must, filter, should
+ * and must_not). Searches support from/size, sort, _source includes (top level fields, with * wildcards) and terms
+ * aggregations.
+ * </p>
+ * <p>
+ * Searches can run at the same time. Writes are serialized by a read/write lock.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+class InMemoryIndex {
+    private final static int MAX_RESULT_WINDOW = 10000;
+    private final static int DEFAULT_SIZE = 10;
+    private final static double NO_MATCH = -1.0;
+    private final static JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+
+    enum FieldType { TEXT, KEYWORD, NUMBER, DATE, BOOLEAN }
+
+    /**
+     * An Elasticsearch error, which is returned to the caller as an Elasticsearch error object.
+     */
+    static class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+        final String type;
+        final int status;
+
+        RequestException(final String type, final String reason, final int status) {
+            super(reason);
+            this.type = type;
+            this.status = status;
+        }
+
+        RequestException(final String type, final String reason) {
+            this(type, reason, 400);
+        }
+    }
+
+    /**
+     * A mapped field. A sub-field (e.g., title.keyword) is indexed from the source value of its parent field.
+     */
+    private static class Field {
+        final String sourcePath;
+        final FieldType type;
+
+        Field(final String sourcePath, final FieldType type) {
+            this.sourcePath = sourcePath;
+            this.type = type;
+        }
+    }
+
+    private static class Document {
+        final String type;
+        final String id;
+        final ObjectNode source;
+        final long version;
+        final long seqNo;
+
+        Document(final String type, final String id, final ObjectNode source, final long version, final long seqNo) {
+            this.type = type;
+            this.id = id;
+            this.source = source;
+            this.version = version;
+            this.seqNo = seqNo;
+        }
+    }
+
+    private static class Hit {
+        final Document doc;
+        final double score;
+        final int position;
+
+        Hit(final Document doc, final double score, final int position) {
+            this.doc = doc;
+            this.score = score;
+            this.position = position;
+        }
+    }
+
+    private static class SortField {
+        final String fieldName;
+        final Field field;
+        final boolean descending;
+
+        SortField(final String fieldName, final Field field, final boolean descending) {
+            this.fieldName = fieldName;
+            this.field = field;
+            this.descending = descending;
+        }
+    }
+
+    private final String name;
+    private final ObjectNode mappings = nodeFactory.objectNode();
+    private final Map<String, Field> fields = new HashMap<String, Field>();
+    private final LinkedHashMap<String, Document> documents = new LinkedHashMap<String, Document>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long seqNo = 0;
+    // The shard request cache: search results by request, for the index at requestCacheSeqNo
+    private final ConcurrentHashMap<String, ObjectNode> requestCache = new ConcurrentHashMap<String, ObjectNode>();
+    private final AtomicLong requestCacheBytes = new AtomicLong();
+    private volatile long requestCacheSeqNo = 0;
+    private final LongAdder requestCacheHits = new LongAdder();
+    private final LongAdder requestCacheMisses = new LongAdder();
+    private final LongAdder requestCacheEvictions = new LongAdder();
+
+    InMemoryIndex(final String name, final JsonNode settings) {
+        this.name = name;
+        if (settings != null) {
+            JsonNode mappingsNode = settings.get("mappings");
+            if (mappingsNode != null && mappingsNode.isObject()) {
+                mappings.setAll( (ObjectNode)mappingsNode );
+                JsonNode properties = mappingsNode.get("properties");
+                if (properties != null) {
+                    addProperties("", properties);
+                } else {
+                    // Elasticsearch 6 mappings are grouped by type
+                    Iterator<JsonNode> typeItr = mappingsNode.elements();
+                    while (typeItr.hasNext()) {
+                        JsonNode typeMapping = typeItr.next();
+                        if (typeMapping.has("properties")) {
+                            addProperties("", typeMapping.get("properties"));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    ObjectNode getMappings() {
+        return mappings;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static FieldType fieldType(final String esType) {
+        FieldType type = FieldType.KEYWORD;
+        if (esType != null) {
+            switch (esType) {
+            case "text":
+                type = FieldType.TEXT;
+                break;
+            case "date":
+                type = FieldType.DATE;
+                break;
+            case "boolean":
+                type = FieldType.BOOLEAN;
+                break;
+            case "long":
+            case "integer":
+            case "short":
+            case "byte":
+            case "double":
+            case "float":
+            case "half_float":
+            case "scaled_float":
+                type = FieldType.NUMBER;
+                break;
+            default:
+                type = FieldType.KEYWORD;
+            }
+        }
+        return type;
+    }
+
+    private void addProperties(final String prefix, final JsonNode properties) {
+        Iterator<Map.Entry<String, JsonNode>> fieldItr = properties.fields();
+        while (fieldItr.hasNext()) {
+            Map.Entry<String, JsonNode> entry = fieldItr.next();
+            final String path = prefix + entry.getKey();
+            JsonNode definition = entry.getValue();
+            if (definition.has("properties")) {
+                addProperties(path + ".", definition.get("properties"));
+            } else {
+                fields.put(path, new Field(path, fieldType( definition.path("type").asText(null) )));
+                JsonNode subFields = definition.get("fields");
+                if (subFields != null) {
+                    Iterator<Map.Entry<String, JsonNode>> subItr = subFields.fields();
+                    while (subItr.hasNext()) {
+                        Map.Entry<String, JsonNode> sub = subItr.next();
+                        fields.put(path + "." + sub.getKey(), new Field(path, fieldType( sub.getValue().path("type").asText(null) )));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add fields that are not in the mapping, following the Elasticsearch dynamic mapping rules.
+     */
+    private void addDynamicFields(final String prefix, final JsonNode source) {
+        Iterator<Map.Entry<String, JsonNode>> fieldItr = source.fields();
+        while (fieldItr.hasNext()) {
+            Map.Entry<String, JsonNode> entry = fieldItr.next();
+            final String path = prefix + entry.getKey();
+            JsonNode value = entry.getValue();
+            if (value.isArray() && value.size() > 0) {
+                value = value.get(0);
+            }
+            if (value.isObject()) {
+                addDynamicFields(path + ".", value);
+            } else if (! fields.containsKey(path) && ! value.isNull() && ! value.isArray()) {
+                ObjectNode definition = nodeFactory.objectNode();
+                if (value.isNumber()) {
+                    definition.put("type", value.isIntegralNumber() ? "long" : "float");
+                    fields.put(path, new Field(path, FieldType.NUMBER));
+                } else if (value.isBoolean()) {
+                    definition.put("type", "boolean");
+                    fields.put(path, new Field(path, FieldType.BOOLEAN));
+                } else {
+                    definition.put("type", "text");
+                    definition.putObject("fields").putObject("keyword").put("type", "keyword");
+                    fields.put(path, new Field(path, FieldType.TEXT));
+                    fields.put(path + ".keyword", new Field(path, FieldType.KEYWORD));
+                }
+            }
+        }
+    }
+
+    private static void addValues(final JsonNode node, final List<JsonNode> values) {
+        if (node != null && ! node.isNull() && ! node.isMissingNode()) {
+            if (node.isArray()) {
+                for (JsonNode elem : node) {
+                    addValues(elem, values);
+                }
+            } else {
+                values.add( node );
+            }
+        }
+    }
+
+    /**
+     * @return the source values for a (possibly dotted) field path. Array values are flattened.
+     */
+    private static List<JsonNode> values(final ObjectNode source, final String sourcePath) {
+        List<JsonNode> values = new ArrayList<JsonNode>(1);
+        JsonNode node = source.get(sourcePath);
+        if (node == null && sourcePath.indexOf('.') > 0) {
+            node = source;
+            for (String element : sourcePath.split("\\.")) {
+                node = (node != null) ? node.get(element) : null;
+            }
+        }
+        addValues(node, values);
+        return values;
+    }
+
+    /**
+     * <p>
+     * An approximation of the Elasticsearch standard analyzer: the text is broken into lower case tokens of
+     * letters and digits (an apostrophe inside a word is kept).
+     * </p>
+     */
+    static List<String> analyze(final String text) {
+        List<String> tokens = new ArrayList<String>();
+        if (text != null) {
+            StringBuilder token = new StringBuilder();
+            final int len = text.length();
+            for (int i = 0; i <= len; i++) {
+                char ch = (i < len) ? text.charAt(i) : ' ';
+                boolean wordChar = Character.isLetterOrDigit(ch) ||
+                        (ch == '\'' && token.length() > 0 && i + 1 < len && Character.isLetterOrDigit(text.charAt(i + 1)));
+                if (wordChar) {
+                    token.append( Character.toLowerCase(ch) );
+                } else if (token.length() > 0) {
+                    tokens.add( token.toString() );
+                    token.setLength(0);
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static double toNumber(final JsonNode value, final String fieldName) throws RequestException {
+        double number = 0;
+        if (value.isNumber()) {
+            number = value.asDouble();
+        } else {
+            try {
+                number = Double.parseDouble( value.asText().trim() );
+            } catch (NumberFormatException e) {
+                throw new RequestException("query_shard_exception",
+                        "failed to create query: For input string: \"" + value.asText() + "\" (field [" + fieldName + "])");
+            }
+        }
+        return number;
+    }
+
+    private Field resolve(final String fieldName) {
+        return fields.get(fieldName);
+    }
+
+    /* ------------------------------------------------------------------------------------------------------
+     * Document operations
+     * ------------------------------------------------------------------------------------------------------ */
+
+    /**
+     * Add or replace a document.
+     *
+     * @param createOnly if true, the operation fails if a document with the id already exists (the bulk "create" action)
+     * @return the Elasticsearch item result, including the HTTP status
+     */
+    ObjectNode indexDocument(final String type, final String id, final ObjectNode source, final boolean createOnly) {
+        ObjectNode result = nodeFactory.objectNode();
+        result.put("_index", name);
+        result.put("_type", type);
+        result.put("_id", id);
+        lock.writeLock().lock();
+        try {
+            Document current = documents.get(id);
+            if (current != null && createOnly) {
+                addError(result, "version_conflict_engine_exception",
+                        "[" + type + "][" + id + "]: version conflict, document already exists (current version [" + current.version + "])",
+                        409);
+            } else {
+                addDynamicFields("", source);
+                long version = (current == null) ? 1 : current.version + 1;
+                Document doc = new Document(type, id, source, version, seqNo++);
+                documents.put(id, doc);
+                result.put("_version", version);
+                result.put("result", (current == null) ? "created" : "updated");
+                addShards(result);
+                result.put("_seq_no", doc.seqNo);
+                result.put("_primary_term", 1);
+                result.put("status", (current == null) ? 201 : 200);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+
+    ObjectNode deleteDocument(final String type, final String id) {
+        ObjectNode result = nodeFactory.objectNode();
+        result.put("_index", name);
+        result.put("_type", type);
+        result.put("_id", id);
+        lock.writeLock().lock();
+        try {
+            Document removed = documents.remove(id);
+            result.put("_version", (removed == null) ? 1 : removed.version + 1);
+            result.put("result", (removed == null) ? "not_found" : "deleted");
+            addShards(result);
+            result.put("_seq_no", seqNo++);
+            result.put("_primary_term", 1);
+            result.put("status", (removed == null) ? 404 : 200);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+
+    ObjectNode getDocument(final String type, final String id) {
+        ObjectNode result = nodeFactory.objectNode();
+        result.put("_index", name);
+        result.put("_type", type);
+        result.put("_id", id);
+        lock.readLock().lock();
+        try {
+            Document doc = documents.get(id);
+            if (doc != null) {
+                result.put("_version", doc.version);
+                result.put("found", true);
+                result.set("_source", doc.source);
+            } else {
+                result.put("found", false);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private static void addShards(final ObjectNode result) {
+        ObjectNode shards = result.putObject("_shards");
+        shards.put("total", 2);
+        shards.put("successful", 1);
+        shards.put("failed", 0);
+    }
+
+    private void addError(final ObjectNode result, final String type, final String reason, final int status) {
+        ObjectNode error = result.putObject("error");
+        error.put("type", type);
+        error.put("reason", reason);
+        error.put("index", name);
+        result.put("status", status);
+    }
+
+    /* ------------------------------------------------------------------------------------------------------
+     * Queries
+     * ------------------------------------------------------------------------------------------------------ */
+
+    /**
+     * @return the score for the document or NO_MATCH
+     */
+    private double evaluate(final JsonNode query, final Document doc) throws RequestException {
+        double score = NO_MATCH;
+        if (query == null || query.isMissingNode() || query.isNull()) {
+            score = 1.0;
+        } else {
+            if (! query.isObject() || query.size() != 1) {
+                throw new RequestException("parsing_exception", "query malformed, must start with start_object and contain a single query");
+            }
+            Map.Entry<String, JsonNode> clause = query.fields().next();
+            switch (clause.getKey()) {
+            case "match_all":
+                score = 1.0;
+                break;
+            case "match":
+                score = evaluateMatch(clause.getValue(), doc);
+                break;
+            case "bool":
+                score = evaluateBool(clause.getValue(), doc);
+                break;
+            case "term":
+                score = evaluateTerms(clause.getKey(), clause.getValue(), doc);
+                break;
+            case "terms":
+                score = evaluateTerms(clause.getKey(), clause.getValue(), doc);
+                break;
+            case "range":
+                score = evaluateRange(clause.getValue(), doc);
+                break;
+            case "constant_score":
+                if (! clause.getValue().has("filter")) {
+                    throw new RequestException("parsing_exception", "[constant_score] requires a 'filter' element");
+                }
+                score = (evaluate(clause.getValue().get("filter"), doc) != NO_MATCH) ? clause.getValue().path("boost").asDouble(1.0) : NO_MATCH;
+                break;
+            default:
+                throw new RequestException("parsing_exception", "no [query] registered for [" + clause.getKey() + "]");
+            }
+        }
+        return score;
+    }
+
+    private double evaluateMatch(final JsonNode match, final Document doc) throws RequestException {
+        if (! match.isObject() || match.size() != 1) {
+            throw new RequestException("parsing_exception", "[match] query doesn't support multiple fields");
+        }
+        Map.Entry<String, JsonNode> fieldEntry = match.fields().next();
+        final String fieldName = fieldEntry.getKey();
+        JsonNode queryValue = fieldEntry.getValue();
+        boolean andOperator = false;
+        if (queryValue.isObject()) {
+            andOperator = "and".equalsIgnoreCase( queryValue.path("operator").asText("or") );
+            queryValue = queryValue.get("query");
+            if (queryValue == null) {
+                throw new RequestException("parsing_exception", "[match] requires query value");
+            }
+        }
+        double score = NO_MATCH;
+        Field field = resolve(fieldName);
+        if (field != null) {
+            List<JsonNode> docValues = values(doc.source, field.sourcePath);
+            switch (field.type) {
+            case TEXT: {
+                List<String> queryTokens = analyze( queryValue.asText() );
+                Set<String> docTokens = new HashSet<String>();
+                for (JsonNode value : docValues) {
+                    docTokens.addAll( analyze( value.asText() ) );
+                }
+                int matched = 0;
+                for (String token : queryTokens) {
+                    if (docTokens.contains(token)) {
+                        matched++;
+                    }
+                }
+                if (matched > 0 && (! andOperator || matched == queryTokens.size())) {
+                    score = matched;
+                }
+                break;
+            }
+            case NUMBER: {
+                double number = toNumber(queryValue, fieldName);
+                for (JsonNode value : docValues) {
+                    if (toNumber(value, fieldName) == number) {
+                        score = 1.0;
+                        break;
+                    }
+                }
+                break;
+            }
+            default: {
+                final String text = queryValue.asText();
+                for (JsonNode value : docValues) {
+                    if (value.asText().equals(text)) {
+                        score = 1.0;
+                        break;
+                    }
+                }
+            }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * @return true if a document value is the (not analyzed) query value. A text field value is compared by its
+     * word tokens, the way Elasticsearch compares a term to an analyzed field.
+     */
+    private static boolean termMatches(final Field field, final String fieldName, final JsonNode queryValue, final List<JsonNode> docValues) throws RequestException {
+        boolean matches = false;
+        for (JsonNode value : docValues) {
+            if (field.type == FieldType.TEXT) {
+                matches = analyze( value.asText() ).contains( queryValue.asText() );
+            } else if (field.type == FieldType.NUMBER) {
+                matches = toNumber(value, fieldName) == toNumber(queryValue, fieldName);
+            } else {
+                matches = value.asText().equals( queryValue.asText() );
+            }
+            if (matches) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * A term query ({"term":{"field":value}} or {"term":{"field":{"value":value}}}) or a terms query
+     * ({"terms":{"field":[values]}}).
+     */
+    private double evaluateTerms(final String queryName, final JsonNode terms, final Document doc) throws RequestException {
+        if (! terms.isObject() || terms.size() != 1) {
+            throw new RequestException("parsing_exception", "[" + queryName + "] query doesn't support multiple fields");
+        }
+        Map.Entry<String, JsonNode> fieldEntry = terms.fields().next();
+        final String fieldName = fieldEntry.getKey();
+        JsonNode queryValue = fieldEntry.getValue();
+        if (queryValue.isObject()) {
+            queryValue = queryValue.get("value");
+            if (queryValue == null) {
+                throw new RequestException("parsing_exception", "[" + queryName + "] requires a value");
+            }
+        }
+        if (queryName.equals("terms") != queryValue.isArray()) {
+            throw new RequestException("parsing_exception", "[" + queryName + "] query malformed for the field [" + fieldName + "]");
+        }
+        double score = NO_MATCH;
+        Field field = resolve(fieldName);
+        if (field != null) {
+            List<JsonNode> docValues = values(doc.source, field.sourcePath);
+            for (JsonNode value : clauses(queryValue)) {
+                if (termMatches(field, fieldName, value, docValues)) {
+                    score = 1.0;
+                    break;
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * A range query: {"range":{"field":{"gte":from,"lte":to}}} (and gt, lt). Numeric fields are compared as numbers,
+     * other fields (e.g., dates in the mapping format) as strings.
+     */
+    private double evaluateRange(final JsonNode range, final Document doc) throws RequestException {
+        if (! range.isObject() || range.size() != 1) {
+            throw new RequestException("parsing_exception", "[range] query doesn't support multiple fields");
+        }
+        Map.Entry<String, JsonNode> fieldEntry = range.fields().next();
+        final String fieldName = fieldEntry.getKey();
+        final JsonNode bounds = fieldEntry.getValue();
+        double score = NO_MATCH;
+        Field field = resolve(fieldName);
+        if (field != null) {
+            for (JsonNode value : values(doc.source, field.sourcePath)) {
+                if (inRange(field, fieldName, value, bounds)) {
+                    score = 1.0;
+                    break;
+                }
+            }
+        }
+        return score;
+    }
+
+    private static boolean inRange(final Field field, final String fieldName, final JsonNode value, final JsonNode bounds) throws RequestException {
+        boolean inRange = true;
+        Iterator<Map.Entry<String, JsonNode>> boundItr = bounds.fields();
+        while (inRange && boundItr.hasNext()) {
+            Map.Entry<String, JsonNode> bound = boundItr.next();
+            if (bound.getValue().isNull()) {
+                continue;
+            }
+            int compare = 0;
+            if (field.type == FieldType.NUMBER) {
+                compare = Double.compare( toNumber(value, fieldName), toNumber(bound.getValue(), fieldName) );
+            } else {
+                compare = value.asText().compareTo( bound.getValue().asText() );
+            }
+            switch (bound.getKey()) {
+            case "gte":
+                inRange = compare >= 0;
+                break;
+            case "gt":
+                inRange = compare > 0;
+                break;
+            case "lte":
+                inRange = compare <= 0;
+                break;
+            case "lt":
+                inRange = compare < 0;
+                break;
+            default:
+                // format, time_zone and boost do not change the in-memory comparison
+            }
+        }
+        return inRange;
+    }
+
+    private static List<JsonNode> clauses(final JsonNode node) {
+        List<JsonNode> clauseList = new ArrayList<JsonNode>();
+        if (node != null) {
+            if (node.isArray()) {
+                for (JsonNode elem : node) {
+                    clauseList.add( elem );
+                }
+            } else {
+                clauseList.add( node );
+            }
+        }
+        return clauseList;
+    }
+
+    private double evaluateBool(final JsonNode bool, final Document doc) throws RequestException {
+        List<JsonNode> must = clauses( bool.get("must") );
+        List<JsonNode> filter = clauses( bool.get("filter") );
+        List<JsonNode> should = clauses( bool.get("should") );
+        List<JsonNode> mustNot = clauses( bool.get("must_not") );
+        double score = 0;
+        if (must.isEmpty() && filter.isEmpty() && should.isEmpty()) {
+            score = 1.0;
+        }
+        for (JsonNode clause : must) {
+            double clauseScore = evaluate(clause, doc);
+            if (clauseScore == NO_MATCH) {
+                return NO_MATCH;
+            }
+            score += clauseScore;
+        }
+        for (JsonNode clause : filter) {
+            if (evaluate(clause, doc) == NO_MATCH) {
+                return NO_MATCH;
+            }
+        }
+        for (JsonNode clause : mustNot) {
+            if (evaluate(clause, doc) != NO_MATCH) {
+                return NO_MATCH;
+            }
+        }
+        int minShouldMatch = (must.isEmpty() && filter.isEmpty() && ! should.isEmpty()) ? 1 : 0;
+        if (bool.has("minimum_should_match")) {
+            minShouldMatch = bool.get("minimum_should_match").asInt();
+        }
+        int shouldMatched = 0;
+        for (JsonNode clause : should) {
+            double clauseScore = evaluate(clause, doc);
+            if (clauseScore != NO_MATCH) {
+                shouldMatched++;
+                score += clauseScore;
+            }
+        }
+        if (shouldMatched < minShouldMatch) {
+            score = NO_MATCH;
+        }
+        return score;
+    }
+
+    private List<Hit> matchingDocuments(final JsonNode query) throws RequestException {
+        List<Hit> hits = new ArrayList<Hit>();
+        int position = 0;
+        for (Document doc : documents.values()) {
+            double score = evaluate(query, doc);
+            if (score != NO_MATCH) {
+                hits.add( new Hit(doc, score, position) );
+            }
+            position++;
+        }
+        return hits;
+    }
+
+    /* ------------------------------------------------------------------------------------------------------
+     * Sort
+     * ------------------------------------------------------------------------------------------------------ */
+
+    private SortField sortField(final String fieldName, final JsonNode orderNode) throws RequestException {
+        boolean descending = "_score".equals(fieldName);
+        if (orderNode != null) {
+            JsonNode order = orderNode.isObject() ? orderNode.get("order") : orderNode;
+            if (order != null) {
+                descending = "desc".equalsIgnoreCase( order.asText() );
+            }
+        }
+        Field field = null;
+        if (! fieldName.equals("_score") && ! fieldName.equals("_doc")) {
+            field = resolve(fieldName);
+            if (field != null && field.type == FieldType.TEXT) {
+                throw new RequestException("illegal_argument_exception",
+                        "Fielddata is disabled on text fields by default. Set fielddata=true on [" + fieldName + "] in order to load " +
+                        "fielddata in memory by uninverting the inverted index. Note that this can however use significant memory. " +
+                        "Alternatively use a keyword field instead.");
+            }
+            if (field == null) {
+                throw new RequestException("query_shard_exception", "No mapping found for [" + fieldName + "] in order to sort on");
+            }
+        }
+        return new SortField(fieldName, field, descending);
+    }
+
+    private List<SortField> parseSort(final JsonNode sortNode) throws RequestException {
+        List<SortField> sortFields = new ArrayList<SortField>();
+        for (JsonNode elem : clauses(sortNode)) {
+            if (elem.isTextual()) {
+                sortFields.add( sortField(elem.asText(), null) );
+            } else if (elem.isObject()) {
+                Iterator<Map.Entry<String, JsonNode>> fieldItr = elem.fields();
+                while (fieldItr.hasNext()) {
+                    Map.Entry<String, JsonNode> entry = fieldItr.next();
+                    sortFields.add( sortField(entry.getKey(), entry.getValue()) );
+                }
+            }
+        }
+        return sortFields;
+    }
+
+    /**
+     * @return the value that the document is sorted on: a Double for numeric fields, otherwise a String. Null if the
+     *         document does not have the field.
+     */
+    private static Comparable<?> sortValue(final SortField sortField, final Hit hit) {
+        Comparable<?> value = null;
+        if (sortField.field == null) {
+            if (sortField.fieldName.equals("_score")) {
+                value = hit.score;
+            } else {
+                value = (double)hit.position;
+            }
+        } else {
+            List<JsonNode> docValues = values(hit.doc.source, sortField.field.sourcePath);
+            for (JsonNode docValue : docValues) {
+                Comparable<?> candidate = null;
+                if (sortField.field.type == FieldType.NUMBER) {
+                    try {
+                        candidate = toNumber(docValue, sortField.fieldName);
+                    } catch (RequestException e) {
+                        candidate = null;
+                    }
+                } else {
+                    candidate = docValue.asText();
+                }
+                // Elasticsearch sorts a multi-valued field on the minimum value (ascending) or the maximum value (descending)
+                if (candidate != null && (value == null || compareValues(candidate, value) * (sortField.descending ? -1 : 1) < 0)) {
+                    value = candidate;
+                }
+            }
+        }
+        return value;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(final Comparable a, final Comparable b) {
+        int rslt = 0;
+        if (a.getClass() == b.getClass()) {
+            rslt = a.compareTo(b);
+        } else {
+            rslt = a.toString().compareTo( b.toString() );
+        }
+        return rslt;
+    }
+
+    private static void sortHits(final List<Hit> hits, final List<SortField> sortFields, final Map<Hit, Comparable<?>[]> sortValues) {
+        for (Hit hit : hits) {
+            Comparable<?>[] hitValues = new Comparable<?>[ sortFields.size() ];
+            for (int i = 0; i < hitValues.length; i++) {
+                hitValues[i] = sortValue(sortFields.get(i), hit);
+            }
+            sortValues.put(hit, hitValues);
+        }
+        Collections.sort(hits, new Comparator<Hit>() {
+            @Override
+            public int compare(Hit h1, Hit h2) {
+                Comparable<?>[] v1 = sortValues.get(h1);
+                Comparable<?>[] v2 = sortValues.get(h2);
+                int rslt = 0;
+                for (int i = 0; i < v1.length && rslt == 0; i++) {
+                    if (v1[i] == null || v2[i] == null) {
+                        // missing values sort last in either order
+                        rslt = (v1[i] == null ? 1 : 0) - (v2[i] == null ? 1 : 0);
+                    } else {
+                        rslt = compareValues(v1[i], v2[i]);
+                        if (sortFields.get(i).descending) {
+                            rslt = -rslt;
+                        }
+                    }
+                }
+                if (rslt == 0) {
+                    rslt = Integer.compare(h1.position, h2.position);
+                }
+                return rslt;
+            }
+        });
+    }
+
+    /* ------------------------------------------------------------------------------------------------------
+     * Aggregations
+     * ------------------------------------------------------------------------------------------------------ */
+
+    private static JsonNode keyNode(final Object key) {
+        JsonNode node = null;
+        if (key instanceof Double) {
+            double number = (Double)key;
+            if (number == Math.rint(number) && ! Double.isInfinite(number)) {
+                node = nodeFactory.numberNode( (long)number );
+            } else {
+                node = nodeFactory.numberNode( number );
+            }
+        } else {
+            node = nodeFactory.textNode( key.toString() );
+        }
+        return node;
+    }
+
+    private ObjectNode termsAggregation(final String aggName, final JsonNode terms, final List<Hit> hits) throws RequestException {
+        final String fieldName = terms.path("field").asText(null);
+        if (fieldName == null) {
+            throw new RequestException("illegal_argument_exception", "Required one of fields [field, script], but none were specified.");
+        }
+        final int size = terms.path("size").asInt(DEFAULT_SIZE);
+        Field field = resolve(fieldName);
+        if (field != null && field.type == FieldType.TEXT) {
+            throw new RequestException("illegal_argument_exception",
+                    "Fielddata is disabled on text fields by default. Set fielddata=true on [" + fieldName + "] in order to load " +
+                    "fielddata in memory by uninverting the inverted index. Note that this can however use significant memory. " +
+                    "Alternatively use a keyword field instead.");
+        }
+        // count the documents for each term
+        final Map<Comparable<?>, Long> counts = new HashMap<Comparable<?>, Long>();
+        if (field != null) {
+            for (Hit hit : hits) {
+                Set<Comparable<?>> docTerms = new HashSet<Comparable<?>>();
+                for (JsonNode value : values(hit.doc.source, field.sourcePath)) {
+                    if (field.type == FieldType.NUMBER) {
+                        docTerms.add( toNumber(value, fieldName) );
+                    } else {
+                        docTerms.add( value.asText() );
+                    }
+                }
+                for (Comparable<?> term : docTerms) {
+                    counts.merge(term, 1L, Long::sum);
+                }
+            }
+        }
+        // the bucket order: the default is by document count (descending), then by key
+        boolean byKey = false;
+        boolean descending = true;
+        JsonNode order = terms.get("order");
+        if (order != null) {
+            JsonNode orderSpec = order.isArray() ? order.get(0) : order;
+            if (orderSpec != null && orderSpec.size() > 0) {
+                Map.Entry<String, JsonNode> orderEntry = orderSpec.fields().next();
+                if (orderEntry.getKey().equals("_key") || orderEntry.getKey().equals("_term")) {
+                    byKey = true;
+                } else if (! orderEntry.getKey().equals("_count")) {
+                    throw new RequestException("aggregation_execution_exception",
+                            "Invalid aggregator order path [" + orderEntry.getKey() + "] for aggregation [" + aggName + "]");
+                }
+                descending = "desc".equalsIgnoreCase( orderEntry.getValue().asText() );
+            }
+        }
+        final boolean orderByKey = byKey;
+        final boolean orderDescending = descending;
+        List<Comparable<?>> keys = new ArrayList<Comparable<?>>( counts.keySet() );
+        Collections.sort(keys, new Comparator<Comparable<?>>() {
+            @Override
+            public int compare(Comparable<?> k1, Comparable<?> k2) {
+                int rslt = 0;
+                if (orderByKey) {
+                    rslt = compareValues(k1, k2);
+                } else {
+                    rslt = Long.compare(counts.get(k1), counts.get(k2));
+                }
+                if (orderDescending) {
+                    rslt = -rslt;
+                }
+                if (rslt == 0) {
+                    rslt = compareValues(k1, k2);
+                }
+                return rslt;
+            }
+        });
+        ObjectNode result = nodeFactory.objectNode();
+        result.put("doc_count_error_upper_bound", 0);
+        long otherCount = 0;
+        ArrayNode buckets = nodeFactory.arrayNode();
+        for (int i = 0; i < keys.size(); i++) {
+            if (i < size) {
+                ObjectNode bucket = buckets.addObject();
+                bucket.set("key", keyNode( keys.get(i) ));
+                bucket.put("doc_count", counts.get( keys.get(i) ));
+            } else {
+                otherCount += counts.get( keys.get(i) );
+            }
+        }
+        result.put("sum_other_doc_count", otherCount);
+        result.set("buckets", buckets);
+        return result;
+    }
+
+    private ObjectNode aggregations(final JsonNode aggs, final List<Hit> hits) throws RequestException {
+        ObjectNode result = nodeFactory.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> aggItr = aggs.fields();
+        while (aggItr.hasNext()) {
+            Map.Entry<String, JsonNode> agg = aggItr.next();
+            JsonNode terms = agg.getValue().get("terms");
+            if (terms == null) {
+                String aggType = agg.getValue().size() > 0 ? agg.getValue().fieldNames().next() : "";
+                throw new RequestException("parsing_exception", "Unknown aggregation type [" + aggType + "] for aggregation [" + agg.getKey() + "]");
+            }
+            result.set(agg.getKey(), termsAggregation(agg.getKey(), terms, hits));
+        }
+        return result;
+    }
+
+    /* ------------------------------------------------------------------------------------------------------
+     * Search and delete by query
+     * ------------------------------------------------------------------------------------------------------ */
+
+    private static void addSearchShards(final ObjectNode result) {
+        ObjectNode shards = result.putObject("_shards");
+        shards.put("total", 1);
+        shards.put("successful", 1);
+        shards.put("skipped", 0);
+        shards.put("failed", 0);
+    }
+
+    /**
+     * Execute a search request.
+     *
+     * @param body the search request (query, from, size, sort, aggs). A null body is a match_all search.
+     * @return the Elasticsearch search response
+     */
+    ObjectNode search(final JsonNode body) throws RequestException {
+        return search(body, null);
+    }
+
+    /**
+     * <p>
+     * Execute a search request, with the request cache. As in Elasticsearch, a search is cached if request_cache is
+     * true or, by default, if the search does not return any hits (size 0). The cache is invalidated by any change to
+     * the index (Elasticsearch invalidates it when the changes are refreshed).
+     * </p>
+     *
+     * @param body the search request
+     * @param useRequestCache the request_cache parameter or null for the default
+     * @return the Elasticsearch search response
+     */
+    ObjectNode search(final JsonNode body, final Boolean useRequestCache) throws RequestException {
+        ObjectNode result = null;
+        final int size = (body != null) ? body.path("size").asInt(DEFAULT_SIZE) : DEFAULT_SIZE;
+        if ((useRequestCache != null) ? useRequestCache.booleanValue() : size == 0) {
+            lock.readLock().lock();
+            try {
+                if (requestCacheSeqNo != seqNo) {
+                    requestCacheEvictions.add( requestCache.size() );
+                    requestCache.clear();
+                    requestCacheBytes.set(0);
+                    requestCacheSeqNo = seqNo;
+                }
+                final String key = (body != null) ? body.toString() : "";
+                ObjectNode cached = requestCache.get(key);
+                if (cached != null) {
+                    requestCacheHits.increment();
+                } else {
+                    requestCacheMisses.increment();
+                    cached = searchIndex(body);
+                    if (requestCache.putIfAbsent(key, cached) == null) {
+                        requestCacheBytes.addAndGet( key.length() + cached.toString().length() );
+                    }
+                }
+                result = cached.deepCopy();
+            } finally {
+                lock.readLock().unlock();
+            }
+        } else {
+            result = searchIndex(body);
+        }
+        return result;
+    }
+
+    /**
+     * @return the request cache statistics: memory_size_in_bytes (the size of the cached JSON), evictions, hit_count
+     *         and miss_count
+     */
+    ObjectNode requestCacheStats() {
+        ObjectNode stats = nodeFactory.objectNode();
+        stats.put("memory_size_in_bytes", requestCacheBytes.get());
+        stats.put("evictions", requestCacheEvictions.sum());
+        stats.put("hit_count", requestCacheHits.sum());
+        stats.put("miss_count", requestCacheMisses.sum());
+        return stats;
+    }
+
+    /**
+     * @param source the _source of a search request: true, false, a field name or pattern, an array of field names
+     *               and patterns or an object with an "includes" member (excludes are not supported)
+     * @return the fields to include in the hit _source, an empty list for no _source or null for the whole _source
+     */
+    private static List<String> sourceIncludes(final JsonNode source) throws RequestException {
+        List<String> includes = null;
+        JsonNode includeNode = source;
+        if (source != null && source.isObject()) {
+            if (source.has("excludes") || source.has("exclude")) {
+                throw new RequestException("illegal_argument_exception", "The in-memory index does not support _source excludes");
+            }
+            includeNode = source.has("includes") ? source.get("includes") : source.get("include");
+        }
+        if (includeNode != null && ! includeNode.isNull()) {
+            if (includeNode.isBoolean()) {
+                includes = includeNode.asBoolean() ? null : Collections.<String>emptyList();
+            } else {
+                includes = new ArrayList<String>();
+                for (JsonNode field : includeNode.isArray() ? includeNode : Collections.singletonList(includeNode)) {
+                    includes.add( field.asText() );
+                }
+            }
+        }
+        return includes;
+    }
+
+    /**
+     * @return the top level fields of the source that match a field name or pattern (* matches any characters)
+     */
+    private static ObjectNode filterSource(final JsonNode source, final List<String> includes) {
+        ObjectNode filtered = nodeFactory.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            for (String include : includes) {
+                if (wildcardMatches(include, field.getKey())) {
+                    filtered.set(field.getKey(), field.getValue());
+                    break;
+                }
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * @return true if the name matches the pattern, where * matches any characters
+     */
+    static boolean wildcardMatches(final String pattern, final String name) {
+        final int starIx = pattern.indexOf('*');
+        boolean matches = false;
+        if (starIx < 0) {
+            matches = pattern.equals(name);
+        } else if (name.startsWith( pattern.substring(0, starIx) )) {
+            final String rest = pattern.substring(starIx + 1);
+            for (int i = starIx; i <= name.length() && ! matches; i++) {
+                matches = wildcardMatches(rest, name.substring(i));
+            }
+        }
+        return matches;
+    }
+
+    private ObjectNode searchIndex(final JsonNode body) throws RequestException {
+        final JsonNode request = (body != null) ? body : nodeFactory.objectNode();
+        final int from = request.path("from").asInt(0);
+        final int size = request.path("size").asInt(DEFAULT_SIZE);
+        if (from < 0 || size < 0) {
+            throw new RequestException("illegal_argument_exception", "[from] and [size] parameters cannot be negative");
+        }
+        if (from + size > MAX_RESULT_WINDOW) {
+            throw new RequestException("illegal_argument_exception", "Result window is too large, from + size must be less than or equal to: [" +
+                    MAX_RESULT_WINDOW + "] but was [" + (from + size) + "].");
+        }
+        ObjectNode result = nodeFactory.objectNode();
+        lock.readLock().lock();
+        try {
+            List<Hit> hits = matchingDocuments( request.get("query") );
+            List<SortField> sortFields = parseSort( request.get("sort") );
+            Map<Hit, Comparable<?>[]> sortValues = new HashMap<Hit, Comparable<?>[]>();
+            if (sortFields.isEmpty()) {
+                sortFields.add( new SortField("_score", null, true) );
+                sortHits(hits, sortFields, sortValues);
+                sortFields.clear();
+            } else {
+                sortHits(hits, sortFields, sortValues);
+            }
+            final List<String> sourceIncludes = sourceIncludes( request.get("_source") );
+            result.put("took", 0);
+            result.put("timed_out", false);
+            addSearchShards(result);
+            ObjectNode hitsNode = result.putObject("hits");
+            hitsNode.put("total", hits.size());
+            double maxScore = 0;
+            for (Hit hit : hits) {
+                maxScore = Math.max(maxScore, hit.score);
+            }
+            if (sortFields.isEmpty() && ! hits.isEmpty()) {
+                hitsNode.put("max_score", maxScore);
+            } else {
+                hitsNode.putNull("max_score");
+            }
+            ArrayNode hitArray = hitsNode.putArray("hits");
+            for (int i = from; i < Math.min(hits.size(), from + size); i++) {
+                Hit hit = hits.get(i);
+                ObjectNode hitNode = hitArray.addObject();
+                hitNode.put("_index", name);
+                hitNode.put("_type", hit.doc.type);
+                hitNode.put("_id", hit.doc.id);
+                if (sortFields.isEmpty()) {
+                    hitNode.put("_score", hit.score);
+                } else {
+                    hitNode.putNull("_score");
+                }
+                if (sourceIncludes == null) {
+                    hitNode.set("_source", hit.doc.source);
+                } else if (! sourceIncludes.isEmpty()) {
+                    hitNode.set("_source", filterSource(hit.doc.source, sourceIncludes));
+                }
+                if (! sortFields.isEmpty()) {
+                    ArrayNode sortArray = hitNode.putArray("sort");
+                    for (Comparable<?> value : sortValues.get(hit)) {
+                        if (value == null) {
+                            sortArray.addNull();
+                        } else {
+                            sortArray.add( keyNode(value) );
+                        }
+                    }
+                }
+            }
+            JsonNode aggs = request.has("aggs") ? request.get("aggs") : request.get("aggregations");
+            if (aggs != null) {
+                result.set("aggregations", aggregations(aggs, hits));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Delete the documents that match a query.
+     *
+     * @param body the request, which contains the query
+     * @return the Elasticsearch delete by query response
+     */
+    ObjectNode deleteByQuery(final JsonNode body) throws RequestException {
+        JsonNode query = (body != null) ? body.get("query") : null;
+        if (query == null) {
+            throw new RequestException("action_request_validation_exception", "Validation Failed: 1: query is missing;");
+        }
+        int deleted = 0;
+        lock.writeLock().lock();
+        try {
+            List<Hit> hits = matchingDocuments( query );
+            for (Hit hit : hits) {
+                documents.remove( hit.doc.id );
+                seqNo++;
+            }
+            deleted = hits.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ObjectNode result = nodeFactory.objectNode();
+        result.put("took", 0);
+        result.put("timed_out", false);
+        result.put("total", deleted);
+        result.put("deleted", deleted);
+        result.put("batches", (deleted > 0) ? 1 : 0);
+        result.put("version_conflicts", 0);
+        result.put("noops", 0);
+        ObjectNode retries = result.putObject("retries");
+        retries.put("bulk", 0);
+        retries.put("search", 0);
+        result.put("throttled_millis", 0);
+        result.put("requests_per_second", -1.0);
+        result.put("throttled_until_millis", 0);
+        result.putArray("failures");
+        return result;
+    }
+}
@@ -0,0 +1,765 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import booksearch_es.json.JSONUtils;
+import booksearch_es.service.InMemoryIndex.RequestException;
+
+/**
+ * <h4>
+ * InMemoryTransport
+ * </h4>
+ * <p>
+ * An in-process implementation of the Elasticsearch REST operations used by this application. The transport allows the
+ * query building and result parsing code to be tested and benchmarked without a network connection (and without
+ * the network latency).
+ * </p>
+ * <p>
+ * The supported operations are:
+ * </p>
+ * <ul>
+ * <li>GET / (the cluster information)</li>
+ * <li>PUT, HEAD, GET and DELETE on an index</li>
+ * <li>PUT, POST, GET and DELETE on a document (index/type/id)</li>
+ * <li>_bulk (create, index and delete actions)</li>
+ * <li>_search (see InMemoryIndex for the query support)</li>
+ * <li>_msearch and _msearch/template</li>
+ * <li>_stats (the request cache statistics of an index). Searches are cached with the request_cache parameter, or
+ * by default if they have size 0, until the index is changed.</li>
+ * <li>_scripts/[id] (PUT, GET and DELETE on a stored mustache template) and _search/template. The templates support
+ * variables and sections, which is enough for the search templates used by this application (see SearchTemplate).</li>
+ * <li>_delete_by_query</li>
+ * <li>_refresh (there is nothing to do, since documents can be searched as soon as they are added)</li>
+ * </ul>
+ * <p>
+ * The filter_path parameter (a comma separated list of response paths, with * wildcards) is applied to all of the
+ * responses.
+ * </p>
+ * <p>
+ * Errors are returned as Elasticsearch error objects, so the calling code sees the same result that it would from
+ * Elasticsearch.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class InMemoryTransport implements IElasticsearchTransport {
+    private final static String BULK = "_bulk";
+    private final static String SEARCH = "_search";
+    private final static String MSEARCH = "_msearch";
+    private final static String STATS = "_stats";
+    private final static String REQUEST_CACHE = "request_cache";
+    private final static String FILTER_PATH = "filter_path";
+    private final static String TEMPLATE = "template";
+    private final static String SCRIPTS = "_scripts";
+    private final static String MUSTACHE = "mustache";
+    private final static String DELETE_BY_QUERY = "_delete_by_query";
+    private final static String REFRESH = "_refresh";
+    private final static String DEFAULT_TYPE = "_doc";
+    private static Logger logger = LoggerFactory.getLogger( InMemoryTransport.class.getName() );
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = mapper.getFactory();
+
+    private final ConcurrentHashMap<String, InMemoryIndex> indexes = new ConcurrentHashMap<String, InMemoryIndex>();
+    // The stored mustache templates, by id
+    private final ConcurrentHashMap<String, String> scripts = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The parsed request path: the path elements and the query string (if any).
+     */
+    private static class RequestPath {
+        final List<String> elements = new ArrayList<String>();
+        final String path;
+        final String queryString;
+
+        RequestPath(final String index, final String type, final String suffix) {
+            StringBuilder builder = new StringBuilder();
+            for (String part : new String[] { index, type, suffix }) {
+                if (part != null && part.length() > 0) {
+                    builder.append('/');
+                    builder.append(part);
+                }
+            }
+            String fullPath = builder.toString();
+            int queryIx = fullPath.indexOf('?');
+            queryString = (queryIx >= 0) ? fullPath.substring(queryIx + 1) : null;
+            path = (queryIx >= 0) ? fullPath.substring(0, queryIx) : fullPath;
+            for (String element : path.split("/")) {
+                if (element.length() > 0) {
+                    elements.add( element );
+                }
+            }
+        }
+
+        int size() {
+            return elements.size();
+        }
+
+        String get(final int ix) {
+            return elements.get(ix);
+        }
+
+        String last() {
+            return elements.isEmpty() ? "" : elements.get( elements.size() - 1 );
+        }
+
+        /**
+         * @return the value of a URL query string parameter or null if the parameter is not in the query string
+         */
+        String parameter(final String name) {
+            String value = null;
+            if (queryString != null) {
+                for (String parameter : queryString.split("&")) {
+                    int equalIx = parameter.indexOf('=');
+                    String parameterName = (equalIx >= 0) ? parameter.substring(0, equalIx) : parameter;
+                    if (parameterName.equals(name)) {
+                        try {
+                            value = (equalIx >= 0) ? URLDecoder.decode(parameter.substring(equalIx + 1), StandardCharsets.UTF_8.name()) : "";
+                        } catch (UnsupportedEncodingException e) {
+                            // UTF-8 is always supported
+                        }
+                    }
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Remove all of the indexes.
+     */
+    public void clear() {
+        indexes.clear();
+        scripts.clear();
+    }
+
+    private static JsonNode parseBody(final String jsonPayload) throws RequestException {
+        JsonNode body = null;
+        if (jsonPayload != null && jsonPayload.trim().length() > 0) {
+            try {
+                body = mapper.readTree( jsonPayload );
+            } catch (IOException e) {
+                throw new RequestException("parsing_exception", "Failed to parse the request body: " + e.getLocalizedMessage());
+            }
+        }
+        return body;
+    }
+
+    private static String toJSON(final JsonNode node) {
+        String json = null;
+        try {
+            json = mapper.writeValueAsString( node );
+        } catch (JsonProcessingException e) {
+            logger.error("Error writing the JSON response: " + e.getLocalizedMessage());
+        }
+        return json;
+    }
+
+    private static ObjectNode errorResponse(final RequestException e, final String index) {
+        ObjectNode response = mapper.createObjectNode();
+        ObjectNode error = response.putObject("error");
+        ObjectNode rootCause = error.putArray("root_cause").addObject();
+        rootCause.put("type", e.type);
+        rootCause.put("reason", e.getMessage());
+        error.put("type", e.type);
+        error.put("reason", e.getMessage());
+        if (index != null) {
+            rootCause.put("index", index);
+            error.put("index", index);
+        }
+        response.put("status", e.status);
+        return response;
+    }
+
+    private InMemoryIndex getIndex(final String indexName) throws RequestException {
+        InMemoryIndex index = indexes.get(indexName);
+        if (index == null) {
+            throw new RequestException("index_not_found_exception", "no such index", 404);
+        }
+        return index;
+    }
+
+    /**
+     * Return the index, creating it (with dynamic field mapping) if it does not exist. This is what Elasticsearch
+     * does when a document is added to an index that does not exist.
+     */
+    private InMemoryIndex getOrCreateIndex(final String indexName) {
+        return indexes.computeIfAbsent(indexName, name -> new InMemoryIndex(name, null));
+    }
+
+    private static RequestException unsupported(final String method, final RequestPath path) {
+        return new RequestException("illegal_argument_exception", "The in-memory transport does not support " + method + " " + path.path);
+    }
+
+    private ObjectNode clusterInfo() {
+        ObjectNode info = mapper.createObjectNode();
+        info.put("name", "in-memory");
+        info.put("cluster_name", "in-memory:" + IElasticsearch.DOMAIN_NAME);
+        info.put("cluster_uuid", "in-memory");
+        ObjectNode version = info.putObject("version");
+        version.put("number", "6.2.2");
+        version.put("build_snapshot", false);
+        version.put("lucene_version", "7.2.1");
+        info.put("tagline", "You Know, for Search");
+        return info;
+    }
+
+    private ObjectNode createIndex(final String indexName, final JsonNode settings) throws RequestException {
+        InMemoryIndex index = new InMemoryIndex(indexName, settings);
+        if (indexes.putIfAbsent(indexName, index) != null) {
+            throw new RequestException("resource_already_exists_exception", "index [" + indexName + "] already exists");
+        }
+        ObjectNode response = mapper.createObjectNode();
+        response.put("acknowledged", true);
+        response.put("shards_acknowledged", true);
+        response.put("index", indexName);
+        return response;
+    }
+
+    private ObjectNode deleteIndex(final String indexName) throws RequestException {
+        if (indexes.remove(indexName) == null) {
+            throw new RequestException("index_not_found_exception", "no such index", 404);
+        }
+        ObjectNode response = mapper.createObjectNode();
+        response.put("acknowledged", true);
+        return response;
+    }
+
+    private ObjectNode getIndexInfo(final String indexName) throws RequestException {
+        InMemoryIndex index = getIndex(indexName);
+        ObjectNode response = mapper.createObjectNode();
+        ObjectNode indexInfo = response.putObject(indexName);
+        indexInfo.putObject("aliases");
+        indexInfo.set("mappings", index.getMappings());
+        indexInfo.putObject("settings");
+        return response;
+    }
+
+    private static String newId() {
+        return UUID.randomUUID().toString().replace("-", "").substring(0, 20);
+    }
+
+    /**
+     * <p>
+     * Process a bulk request. Each action is on its own line and, except for delete, is followed by a line
+     * with the document.
+     * </p>
+     */
+    private ObjectNode bulk(final String defaultIndex, final String defaultType, final String payload) throws RequestException {
+        if (payload == null || payload.trim().length() == 0) {
+            throw new RequestException("action_request_validation_exception", "Validation Failed: 1: no requests added;");
+        }
+        String[] lines = payload.split("\n");
+        ObjectNode response = mapper.createObjectNode();
+        response.put("took", 0);
+        ArrayNode items = mapper.createArrayNode();
+        boolean errors = false;
+        int lineIx = 0;
+        while (lineIx < lines.length) {
+            String line = lines[lineIx++].trim();
+            if (line.length() == 0) {
+                continue;
+            }
+            JsonNode actionNode = parseBody(line);
+            if (actionNode == null || ! actionNode.isObject() || actionNode.size() != 1) {
+                throw new RequestException("illegal_argument_exception", "Malformed action/metadata line [" + lineIx + "]");
+            }
+            final String action = actionNode.fieldNames().next();
+            JsonNode metadata = actionNode.get(action);
+            final String indexName = metadata.path("_index").asText(defaultIndex);
+            final String type = metadata.path("_type").asText(defaultType != null ? defaultType : DEFAULT_TYPE);
+            String id = metadata.path("_id").asText(null);
+            ObjectNode item = null;
+            if (action.equals("delete")) {
+                if (indexName == null || id == null) {
+                    throw new RequestException("action_request_validation_exception", "Validation Failed: 1: index or id is missing;");
+                }
+                InMemoryIndex index = indexes.get(indexName);
+                if (index != null) {
+                    item = index.deleteDocument(type, id);
+                } else {
+                    item = errorItem(indexName, type, id, new RequestException("index_not_found_exception", "no such index", 404));
+                }
+            } else if (action.equals("create") || action.equals("index")) {
+                if (lineIx >= lines.length) {
+                    throw new RequestException("illegal_argument_exception", "The bulk request must be terminated by a newline [\\n]");
+                }
+                JsonNode source = parseBody( lines[lineIx++] );
+                if (indexName == null) {
+                    throw new RequestException("action_request_validation_exception", "Validation Failed: 1: index is missing;");
+                }
+                if (source == null || ! source.isObject()) {
+                    item = errorItem(indexName, type, id, new RequestException("mapper_parsing_exception", "failed to parse"));
+                } else {
+                    if (id == null) {
+                        id = newId();
+                    }
+                    item = getOrCreateIndex(indexName).indexDocument(type, id, (ObjectNode)source, action.equals("create"));
+                }
+            } else {
+                throw new RequestException("illegal_argument_exception",
+                        "Malformed action/metadata line [" + lineIx + "], expected one of [create, delete, index] but found [" + action + "]");
+            }
+            errors = errors || item.has("error");
+            items.addObject().set(action, item);
+        }
+        response.put("errors", errors);
+        response.set("items", items);
+        return response;
+    }
+
+    private static ObjectNode errorItem(final String index, final String type, final String id, final RequestException e) {
+        ObjectNode item = mapper.createObjectNode();
+        item.put("_index", index);
+        item.put("_type", type);
+        item.put("_id", id);
+        ObjectNode error = item.putObject("error");
+        error.put("type", e.type);
+        error.put("reason", e.getMessage());
+        item.put("status", e.status);
+        return item;
+    }
+
+    private ObjectNode putDocument(final InMemoryIndex index, final String type, final String id, final JsonNode source) throws RequestException {
+        if (source == null || ! source.isObject()) {
+            throw new RequestException("mapper_parsing_exception", "failed to parse, document is empty");
+        }
+        ObjectNode result = index.indexDocument(type, id, (ObjectNode)source, false);
+        result.remove("status");
+        return result;
+    }
+
+    /**
+     * PUT, GET or DELETE a stored script. Only mustache templates are supported.
+     */
+    private ObjectNode storedScript(final String method, final String id, final String jsonPayload) throws RequestException {
+        ObjectNode response = mapper.createObjectNode();
+        if (method.equals("PUT") || method.equals("POST")) {
+            JsonNode script = parseBody(jsonPayload);
+            script = (script != null) ? script.get("script") : null;
+            if (script == null || ! script.has("source")) {
+                throw new RequestException("action_request_validation_exception", "Validation Failed: 1: must specify code for stored script;");
+            }
+            if (! MUSTACHE.equals( script.path("lang").asText() )) {
+                throw new RequestException("illegal_argument_exception", "The in-memory transport only supports mustache scripts");
+            }
+            final JsonNode source = script.get("source");
+            scripts.put(id, source.isTextual() ? source.asText() : toJSON(source));
+            response.put("acknowledged", true);
+        } else if (method.equals("GET")) {
+            final String source = scripts.get(id);
+            response.put("_id", id);
+            response.put("found", source != null);
+            if (source != null) {
+                ObjectNode script = response.putObject("script");
+                script.put("lang", MUSTACHE);
+                script.put("source", source);
+            }
+        } else if (method.equals("DELETE")) {
+            if (scripts.remove(id) == null) {
+                throw new RequestException("resource_not_found_exception", "stored script [" + id + "] does not exist", 404);
+            }
+            response.put("acknowledged", true);
+        } else {
+            throw new RequestException("illegal_argument_exception", "The in-memory transport does not support " + method + " /" + SCRIPTS);
+        }
+        return response;
+    }
+
+    private static Boolean requestCache(final String parameter) {
+        return (parameter != null) ? Boolean.valueOf(parameter) : null;
+    }
+
+    /**
+     * The index statistics (_stats). Only the request cache statistics are returned. There is one copy of the
+     * in-memory index, so the primaries and the total are the same.
+     */
+    private ObjectNode indexStats(final String indexName) throws RequestException {
+        ObjectNode cacheStats = getIndex(indexName).requestCacheStats();
+        ObjectNode response = mapper.createObjectNode();
+        ObjectNode shards = response.putObject("_shards");
+        shards.put("total", 1);
+        shards.put("successful", 1);
+        shards.put("failed", 0);
+        ObjectNode all = response.putObject("_all");
+        all.putObject("primaries").set(REQUEST_CACHE, cacheStats);
+        all.putObject("total").set(REQUEST_CACHE, cacheStats);
+        ObjectNode index = response.putObject("indices").putObject(indexName);
+        index.putObject("primaries").set(REQUEST_CACHE, cacheStats);
+        index.putObject("total").set(REQUEST_CACHE, cacheStats);
+        return response;
+    }
+
+    /**
+     * <p>
+     * Process a multi-search (_msearch or _msearch/template) request. Each search is a header line (the index) and a
+     * search line. An error in a search is returned in its response, so the other searches are not affected.
+     * </p>
+     */
+    private ObjectNode multiSearch(final String defaultIndex, final boolean template, final String payload) throws RequestException {
+        if (payload == null || payload.trim().length() == 0) {
+            throw new RequestException("action_request_validation_exception", "Validation Failed: 1: no requests added;");
+        }
+        List<String> lines = new ArrayList<String>();
+        for (String line : payload.split("\n")) {
+            if (line.trim().length() > 0) {
+                lines.add(line);
+            }
+        }
+        if (lines.size() % 2 != 0) {
+            throw new RequestException("illegal_argument_exception", "The msearch request must be terminated by a newline [\\n]");
+        }
+        ObjectNode response = mapper.createObjectNode();
+        response.put("took", 0);
+        ArrayNode responses = response.putArray("responses");
+        for (int i = 0; i < lines.size(); i += 2) {
+            JsonNode header = parseBody( lines.get(i) );
+            final String indexName = (header != null) ? header.path("index").asText(defaultIndex) : defaultIndex;
+            ObjectNode searchResponse = null;
+            try {
+                if (indexName == null) {
+                    throw new RequestException("action_request_validation_exception", "Validation Failed: 1: no indices;");
+                }
+                JsonNode body = parseBody( lines.get(i + 1) );
+                if (template) {
+                    body = renderSearchTemplate(body);
+                }
+                searchResponse = getIndex(indexName).search(body, requestCache( (header != null && header.has(REQUEST_CACHE)) ? header.get(REQUEST_CACHE).asText() : null ));
+                searchResponse.put("status", 200);
+            } catch (RequestException e) {
+                searchResponse = errorResponse(e, indexName);
+            }
+            responses.add(searchResponse);
+        }
+        return response;
+    }
+
+    /**
+     * @param body a search template request: {"id":"...","params":{...}} or {"source":"...","params":{...}}
+     * @return the search request rendered from the template
+     */
+    private JsonNode renderSearchTemplate(final JsonNode body) throws RequestException {
+        if (body == null) {
+            throw new RequestException("action_request_validation_exception", "Validation Failed: 1: template is missing;");
+        }
+        String source = null;
+        if (body.has("id")) {
+            final String id = body.get("id").asText();
+            source = scripts.get(id);
+            if (source == null) {
+                throw new RequestException("resource_not_found_exception", "unable to find script [" + id + "] in cluster state", 404);
+            }
+        } else if (body.has("source")) {
+            source = body.get("source").isTextual() ? body.get("source").asText() : toJSON(body.get("source"));
+        } else {
+            throw new RequestException("action_request_validation_exception", "Validation Failed: 1: template is missing;");
+        }
+        return parseBody( renderMustache(source, body.path("params")) );
+    }
+
+    /**
+     * <p>
+     * Render a mustache template: {{name}} is replaced by the JSON escaped parameter value, {{#name}}...{{/name}} is
+     * rendered if the parameter is set and {{^name}}...{{/name}} is rendered if it is not. Sections are not
+     * iterated over.
+     * </p>
+     */
+    private static String renderMustache(final String source, final JsonNode params) throws RequestException {
+        final StringBuilder out = new StringBuilder();
+        int pos = 0;
+        int tagStart = source.indexOf("{{");
+        while (tagStart >= 0) {
+            final int tagEnd = source.indexOf("}}", tagStart + 2);
+            if (tagEnd < 0) {
+                throw new RequestException("general_script_exception", "Unclosed mustache tag at " + tagStart);
+            }
+            out.append(source, pos, tagStart);
+            final String tag = source.substring(tagStart + 2, tagEnd).trim();
+            pos = tagEnd + 2;
+            if (tag.startsWith("#") || tag.startsWith("^")) {
+                final String name = tag.substring(1).trim();
+                final String close = "{{/" + name + "}}";
+                final int closeIx = source.indexOf(close, pos);
+                if (closeIx < 0) {
+                    throw new RequestException("general_script_exception", "Unclosed mustache section " + name);
+                }
+                final JsonNode value = params.get(name);
+                final boolean isSet = value != null && ! value.isNull() && ! (value.isBoolean() && ! value.asBoolean()) &&
+                                      ! (value.isContainerNode() && value.size() == 0) && ! (value.isTextual() && value.asText().isEmpty());
+                if (isSet == tag.startsWith("#")) {
+                    out.append( renderMustache(source.substring(pos, closeIx), params) );
+                }
+                pos = closeIx + close.length();
+            } else {
+                final JsonNode value = params.get(tag);
+                if (value != null && ! value.isNull()) {
+                    out.append( JSONUtils.escapeString( value.isValueNode() ? value.asText() : toJSON(value) ) );
+                }
+            }
+            tagStart = source.indexOf("{{", pos);
+        }
+        out.append(source, pos, source.length());
+        return out.toString();
+    }
+
+    /**
+     * <p>
+     * Apply a filter_path to a response. Only the parts of the response that are on one of the paths are returned.
+     * Arrays are passed through, so hits.hits._source selects the _source of each hit. Objects and arrays that are
+     * left empty are removed.
+     * </p>
+     *
+     * @param node a response node
+     * @param paths the remaining elements of each path
+     * @return the filtered node, or null if nothing in the node is on a path
+     */
+    private static JsonNode filterPath(final JsonNode node, final List<List<String>> paths) {
+        JsonNode filtered = null;
+        boolean selected = false;
+        for (List<String> path : paths) {
+            selected = selected || path.isEmpty();
+        }
+        if (selected) {
+            filtered = node;
+        } else if (node.isObject()) {
+            ObjectNode filteredObject = mapper.createObjectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                List<List<String>> fieldPaths = new ArrayList<List<String>>();
+                for (List<String> path : paths) {
+                    if (InMemoryIndex.wildcardMatches(path.get(0), field.getKey())) {
+                        fieldPaths.add( path.subList(1, path.size()) );
+                    }
+                }
+                JsonNode value = fieldPaths.isEmpty() ? null : filterPath(field.getValue(), fieldPaths);
+                if (value != null) {
+                    filteredObject.set(field.getKey(), value);
+                }
+            }
+            filtered = (filteredObject.size() > 0) ? filteredObject : null;
+        } else if (node.isArray()) {
+            ArrayNode filteredArray = mapper.createArrayNode();
+            for (JsonNode element : node) {
+                JsonNode value = filterPath(element, paths);
+                if (value != null) {
+                    filteredArray.add(value);
+                }
+            }
+            filtered = (filteredArray.size() > 0) ? filteredArray : null;
+        }
+        return filtered;
+    }
+
+    private static JsonNode filterPath(final JsonNode response, final String filterPath) {
+        List<List<String>> paths = new ArrayList<List<String>>();
+        for (String path : filterPath.split(",")) {
+            if (path.trim().length() > 0) {
+                paths.add( Arrays.asList( path.trim().split("\\.") ) );
+            }
+        }
+        JsonNode filtered = paths.isEmpty() ? response : filterPath(response, paths);
+        return (filtered != null) ? filtered : mapper.createObjectNode();
+    }
+
+    /**
+     * <p>
+     * Execute an Elasticsearch REST operation.
+     * </p>
+     *
+     * @param method the HTTP method (GET, PUT, POST, DELETE)
+     * @param index the index (or null)
+     * @param type the type (or null)
+     * @param suffix the URL suffix (e.g., _search or a document id). The suffix may include a query string.
+     * @param jsonPayload the request body (or null)
+     * @return the JSON response
+     */
+    protected String execute(final String method, final String index, final String type, final String suffix, final String jsonPayload) {
+        final RequestPath path = new RequestPath(index, type, suffix);
+        JsonNode response = null;
+        String indexName = null;
+        try {
+            if (path.size() == 0) {
+                if (! method.equals("GET")) {
+                    throw unsupported(method, path);
+                }
+                response = clusterInfo();
+            } else if (path.last().equals(BULK) && path.size() <= 3) {
+                if (! method.equals("POST") && ! method.equals("PUT")) {
+                    throw unsupported(method, path);
+                }
+                String defaultIndex = (path.size() > 1) ? path.get(0) : null;
+                String defaultType = (path.size() > 2) ? path.get(1) : null;
+                response = bulk(defaultIndex, defaultType, jsonPayload);
+            } else if (path.elements.contains(MSEARCH) && path.size() <= 4) {
+                final int msearchIx = path.elements.indexOf(MSEARCH);
+                final boolean template = (msearchIx == path.size() - 2) && path.last().equals(TEMPLATE);
+                if (msearchIx > 2 || (msearchIx != path.size() - 1 && ! template)) {
+                    throw unsupported(method, path);
+                }
+                response = multiSearch((msearchIx > 0) ? path.get(0) : null, template, jsonPayload);
+            } else if (path.get(0).equals(SCRIPTS) && path.size() == 2) {
+                response = storedScript(method, path.get(1), jsonPayload);
+            } else if (path.get(0).startsWith("_")) {
+                throw unsupported(method, path);
+            } else {
+                indexName = path.get(0);
+                final String endPoint = path.last();
+                if (path.size() == 1) {
+                    if (method.equals("PUT")) {
+                        response = createIndex(indexName, parseBody(jsonPayload));
+                    } else if (method.equals("DELETE")) {
+                        response = deleteIndex(indexName);
+                    } else if (method.equals("GET")) {
+                        response = getIndexInfo(indexName);
+                    } else {
+                        throw unsupported(method, path);
+                    }
+                } else if (endPoint.equals(SEARCH) && path.size() <= 3) {
+                    response = getIndex(indexName).search( parseBody(jsonPayload), requestCache( path.parameter(REQUEST_CACHE) ) );
+                } else if (endPoint.equals(TEMPLATE) && path.get(path.size() - 2).equals(SEARCH) && path.size() <= 4) {
+                    response = getIndex(indexName).search( renderSearchTemplate( parseBody(jsonPayload) ), requestCache( path.parameter(REQUEST_CACHE) ) );
+                } else if (path.get(1).equals(STATS) && path.size() <= 3 && method.equals("GET")) {
+                    response = indexStats(indexName);
+                } else if (endPoint.equals(DELETE_BY_QUERY) && path.size() <= 3 && method.equals("POST")) {
+                    response = getIndex(indexName).deleteByQuery( parseBody(jsonPayload) );
+                } else if (endPoint.equals(REFRESH) && path.size() == 2) {
+                    getIndex(indexName);
+                    ObjectNode refresh = mapper.createObjectNode();
+                    ObjectNode shards = refresh.putObject("_shards");
+                    shards.put("total", 1);
+                    shards.put("successful", 1);
+                    shards.put("failed", 0);
+                    response = refresh;
+                } else if (path.size() == 2 && method.equals("POST") && ! endPoint.startsWith("_")) {
+                    // add a document with a generated id
+                    response = putDocument(getOrCreateIndex(indexName), endPoint, newId(), parseBody(jsonPayload));
+                } else if (path.size() == 3 && ! endPoint.startsWith("_")) {
+                    final String docType = path.get(1);
+                    if (method.equals("PUT") || method.equals("POST")) {
+                        response = putDocument(getOrCreateIndex(indexName), docType, endPoint, parseBody(jsonPayload));
+                    } else if (method.equals("GET")) {
+                        response = getIndex(indexName).getDocument(docType, endPoint);
+                    } else if (method.equals("DELETE")) {
+                        ObjectNode result = getIndex(indexName).deleteDocument(docType, endPoint);
+                        result.remove("status");
+                        response = result;
+                    } else {
+                        throw unsupported(method, path);
+                    }
+                } else {
+                    throw unsupported(method, path);
+                }
+            }
+        } catch (RequestException e) {
+            logger.debug(method + " " + path.path + ": " + e.type + " " + e.getMessage());
+            response = errorResponse(e, indexName);
+        }
+        final String filterPath = path.parameter(FILTER_PATH);
+        if (filterPath != null && response != null) {
+            response = filterPath(response, filterPath);
+        }
+        return toJSON(response);
+    }
+
+    /**
+     * Pass a response to a JSON parser callback, the way the HttpService passes the response stream.
+     */
+    protected <T> T handleResponse(final String response, final JsonResponseHandler<T> handler) {
+        T result = null;
+        if (response != null) {
+            try (JsonParser parser = jsonFactory.createParser( response )) {
+                result = handler.handle( parser );
+            } catch (IOException e) {
+                logger.error("Error processing the response: " + e.getLocalizedMessage());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int head(final String index) {
+        int status = 200;
+        if (index != null && index.length() > 0) {
+            status = indexes.containsKey(index) ? 200 : 404;
+        }
+        return status;
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix) {
+        return execute("GET", index, type, suffix, null);
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return execute("GET", index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return handleResponse( execute("GET", index, type, suffix, jsonPayload), handler );
+    }
+
+    @Override
+    public String putDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return execute("PUT", index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return execute("POST", index, type, suffix, jsonPayload);
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return handleResponse( execute("POST", index, type, suffix, jsonPayload), handler );
+    }
+
+    @Override
+    public String deleteDocument(final String index, final String type, final String suffix) {
+        return execute("DELETE", index, type, suffix, null);
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return CompletableFuture.completedFuture( getDocument(index, type, suffix, jsonPayload) );
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return CompletableFuture.completedFuture( postDocument(index, type, suffix, jsonPayload) );
+    }
+}
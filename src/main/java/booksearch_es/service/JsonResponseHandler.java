@@ -0,0 +1,39 @@
+/** \file
+ * 
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * <h4>
+ * JsonResponseHandler
+ * </h4>
+ * <p>
+ * A callback that processes an Elasticsearch response as it is read from the HTTP connection. The parser reads
+ * directly from the (UTF-8) response stream, so the response is never materialized as a String.
+ * </p>
+ * <p>
+ * The handler does not need to read the whole response. The HTTP code closes the parser and releases
+ * the connection when the handler returns.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ * 
+ * @author Ian Kaplan, iank@bearcave.com
+ *
+ * @param <T> the type of the value built from the response
+ */
+@FunctionalInterface
+public interface JsonResponseHandler<T> {
+    
+    T handle(JsonParser parser) throws IOException;
+}
@@ -0,0 +1,84 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.Arrays;
+
+/**
+ * <h4>
+ * LatencyTracker
+ * </h4>
+ * <p>
+ * Keep the most recent request latencies in a circular buffer and return latency percentiles (e.g., the 95th
+ * percentile) over this window.
+ * </p>
+ * <p>
+ * Sorting the window for every percentile request would be expensive, so the sorted copy of the window is rebuilt
+ * after every windowSize/16 new samples. The percentile can lag the actual latency by this number of samples.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class LatencyTracker {
+    private final long[] window;
+    private final int resortInterval;
+    private int count = 0;
+    private int next = 0;
+    private int samplesSinceSort = 0;
+    private long[] sorted = new long[0];
+
+    /**
+     * @param windowSize the number of recent samples that are kept
+     */
+    public LatencyTracker(final int windowSize) {
+        window = new long[ windowSize ];
+        resortInterval = Math.max(1, windowSize / 16);
+    }
+
+    /**
+     * @param latencyNanos a request latency, in nanoseconds
+     */
+    public synchronized void record(final long latencyNanos) {
+        window[next] = latencyNanos;
+        next = (next + 1) % window.length;
+        if (count < window.length) {
+            count++;
+        }
+        samplesSinceSort++;
+    }
+
+    /**
+     * @return the number of samples in the window
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile a percentile between 0 and 100
+     * @return the latency percentile in nanoseconds or -1 if there are no samples.
+     */
+    public synchronized long percentile(final double percentile) {
+        long value = -1;
+        if (count > 0) {
+            if (sorted.length != count || samplesSinceSort >= resortInterval) {
+                sorted = Arrays.copyOf(window, count);
+                Arrays.sort(sorted);
+                samplesSinceSort = 0;
+            }
+            int ix = (int)Math.ceil( (percentile / 100.0) * sorted.length ) - 1;
+            ix = Math.max(0, Math.min(sorted.length - 1, ix));
+            value = sorted[ix];
+        }
+        return value;
+    }
+}
@@ -0,0 +1,509 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import booksearch_es.json.JSONUtils;
+
+/**
+ * <h4>
+ * MultiSearchTransport
+ * </h4>
+ * <p>
+ * Micro-batched searches. The searches that arrive within a short window (or until the batch is full) are sent
+ * as one _msearch request and each search response is passed back to the caller that is waiting for it. When
+ * many users search at the same time, this saves the per-request overhead (the request signature, the HTTP exchange
+ * and a search thread on the coordinating node) and Elasticsearch runs the searches of a batch in parallel.
+ * </p>
+ * <pre>
+ * POST _msearch
+ * {"index":"bookindex","type":"bookinfo"}
+ * {"query":{"constant_score":{"filter":{"term":{"genre":"Science Fiction"}}}}, ... }
+ * {"index":"bookindex","type":"bookinfo"}
+ * {"size":0,"aggs":{ ... }}
+ *
+ * {"took":4,"responses":[{"took":2,"hits":{ ... },"status":200},{"took":3,"aggregations":{ ... },"status":200}]}
+ * </pre>
+ * <p>
+ * The _search requests are batched with _msearch and the _search/template requests with _msearch/template. A search
+ * that is alone in its batch when the window closes is sent as it is. A search in a batch that is rejected by
+ * Elasticsearch (the item status is 429 or 503), or a batch that fails as a whole, is sent again by itself, so that
+ * it is retried by the RetryPolicy of the transport. The request_cache, preference and routing URL parameters of a
+ * search are sent in its header line. The searches with the same filter_path are batched together and the filter
+ * path is applied to each response (hits.total is sent as responses.hits.total). A search with other URL parameters
+ * or a multi-line body is not batched.
+ * </p>
+ * <p>
+ * This is the innermost policy (see TransportFactory.decorate()): the concurrency limit, the hedging and the
+ * bulkheads apply to each search, and the window adds at most windowMillis to a search.
+ * </p>
+ * <p>
+ * Batching is turned on with the system property booksearch.msearch.enabled=true (see IElasticsearch.MSEARCH_ENABLED).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class MultiSearchTransport extends ForwardingTransport implements IElasticsearch {
+    private final static String SEARCH = "_search";
+    private final static String SEARCH_TEMPLATE = "_search/template";
+    private final static String MSEARCH = "_msearch";
+    // The URL parameters that can be sent in an _msearch header line
+    private final static List<String> HEADER_PARAMETERS = Arrays.asList("request_cache", "preference", "routing");
+    private final static String FILTER_PATH = "filter_path";
+    // The parts of each _msearch response that are always kept, so that the rejected searches can be found
+    private final static List<String> MSEARCH_RESPONSE_PATHS = Arrays.asList("status", "error");
+    private final static JsonFactory jsonFactory = new JsonFactory();
+    private static Logger logger = LoggerFactory.getLogger( MultiSearchTransport.class.getName() );
+
+    private static final ScheduledExecutorService batchTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "es-msearch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final LongAdder searchCount = new LongAdder();
+    private static final LongAdder batchCount = new LongAdder();
+    private static final LongAdder batchedSearchCount = new LongAdder();
+    private static final LongAdder singleSearchCount = new LongAdder();
+    private static final LongAdder resentCount = new LongAdder();
+
+    private final long windowMillis;
+    private final int maxBatch;
+    // The open batch for each search end-point (_search or _search/template) and filter path. Guarded by this.
+    private final Map<String, Batch> openBatches = new HashMap<String, Batch>();
+
+    /**
+     * A search that is waiting for its batch to be sent.
+     */
+    private static class PendingSearch {
+        final boolean post;
+        final String index;
+        final String type;
+        final String suffix;
+        // the suffix without the URL parameters: _search or _search/template
+        final String endPoint;
+        // the filter_path parameter or null
+        final String filterPath;
+        // the searches with the same batch key are sent in one _msearch
+        final String batchKey;
+        final String jsonPayload;
+        final CompletableFuture<String> response = new CompletableFuture<String>();
+
+        PendingSearch(final boolean post, final String index, final String type, final String suffix, final String jsonPayload) {
+            this.post = post;
+            this.index = index;
+            this.type = type;
+            this.suffix = suffix;
+            this.endPoint = endPoint(suffix);
+            this.filterPath = parameters(suffix).get(FILTER_PATH);
+            this.batchKey = (filterPath != null) ? endPoint + "?" + FILTER_PATH + "=" + filterPath : endPoint;
+            this.jsonPayload = jsonPayload;
+        }
+    }
+
+    private static class Batch {
+        final String endPoint;
+        final String filterPath;
+        final String batchKey;
+        final List<PendingSearch> searches = new ArrayList<PendingSearch>();
+
+        Batch(final PendingSearch search) {
+            this.endPoint = search.endPoint;
+            this.filterPath = search.filterPath;
+            this.batchKey = search.batchKey;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.msearch.enabled", Boolean.toString(MSEARCH_ENABLED)) );
+    }
+
+    public MultiSearchTransport(final IElasticsearchTransport delegate) {
+        super(delegate);
+        windowMillis = Long.getLong("booksearch.msearch.windowMillis", MSEARCH_WINDOW_MILLIS);
+        maxBatch = Integer.getInteger("booksearch.msearch.maxBatch", MSEARCH_MAX_BATCH);
+    }
+
+    /**
+     * @return the batching counters: searches, batches (the _msearch requests), batchedSearches, singleSearches (sent
+     *         by themselves when the window closed) and resent (rejected items and failed batches).
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("searches", searchCount.sum());
+        stats.put("batches", batchCount.sum());
+        stats.put("batchedSearches", batchedSearchCount.sum());
+        stats.put("singleSearches", singleSearchCount.sum());
+        stats.put("resent", resentCount.sum());
+        return stats;
+    }
+
+    private static String endPoint(final String suffix) {
+        final int queryIx = suffix.indexOf('?');
+        return (queryIx >= 0) ? suffix.substring(0, queryIx) : suffix;
+    }
+
+    /**
+     * @return the URL parameters of a suffix (e.g., _search?request_cache=true), in order
+     */
+    private static Map<String, String> parameters(final String suffix) {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        final int queryIx = suffix.indexOf('?');
+        if (queryIx >= 0) {
+            for (String parameter : suffix.substring(queryIx + 1).split("&")) {
+                if (parameter.length() > 0) {
+                    final int equalIx = parameter.indexOf('=');
+                    try {
+                        parameters.put((equalIx >= 0) ? parameter.substring(0, equalIx) : parameter,
+                                       (equalIx >= 0) ? URLDecoder.decode(parameter.substring(equalIx + 1), StandardCharsets.UTF_8.name()) : "");
+                    } catch (UnsupportedEncodingException e) {
+                        // UTF-8 is always supported
+                    }
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @return true if the search can be sent in an _msearch request: a _search or _search/template with a single line
+     *         body and only the URL parameters that can be sent in the header line (and the filter_path).
+     */
+    protected static boolean isBatchable(final String suffix, final String jsonPayload) {
+        boolean batchable = suffix != null && (SEARCH.equals( endPoint(suffix) ) || SEARCH_TEMPLATE.equals( endPoint(suffix) )) &&
+                            (jsonPayload == null || (jsonPayload.indexOf('\n') < 0 && jsonPayload.indexOf('\r') < 0));
+        if (batchable) {
+            for (String parameter : parameters(suffix).keySet()) {
+                batchable = batchable && (HEADER_PARAMETERS.contains(parameter) || parameter.equals(FILTER_PATH));
+            }
+        }
+        return batchable;
+    }
+
+    /**
+     * Add a search to the open batch for its end-point and filter path. The first search in a batch starts the window. A full batch
+     * is sent on the caller's thread.
+     */
+    private CompletableFuture<String> submit(final PendingSearch search) {
+        searchCount.increment();
+        Batch fullBatch = null;
+        synchronized (this) {
+            Batch batch = openBatches.get(search.batchKey);
+            if (batch == null) {
+                final Batch newBatch = new Batch(search);
+                openBatches.put(search.batchKey, newBatch);
+                batchTimer.schedule(() -> close(newBatch), windowMillis, TimeUnit.MILLISECONDS);
+                batch = newBatch;
+            }
+            batch.searches.add(search);
+            if (batch.searches.size() >= maxBatch) {
+                openBatches.remove(search.batchKey);
+                fullBatch = batch;
+            }
+        }
+        if (fullBatch != null) {
+            send(fullBatch);
+        }
+        return search.response;
+    }
+
+    /**
+     * The window of a batch has closed. The batch is sent, unless it was already sent because it was full.
+     */
+    private void close(final Batch batch) {
+        boolean isOpen = false;
+        synchronized (this) {
+            if (openBatches.get(batch.batchKey) == batch) {
+                openBatches.remove(batch.batchKey);
+                isOpen = true;
+            }
+        }
+        if (isOpen) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Send a search by itself.
+     */
+    private void forward(final PendingSearch search) {
+        CompletableFuture<String> response = search.post ? delegate.postDocumentAsync(search.index, search.type, search.suffix, search.jsonPayload)
+                                                         : delegate.getDocumentAsync(search.index, search.type, search.suffix, search.jsonPayload);
+        response.whenComplete((result, ex) -> {
+            if (ex == null) {
+                search.response.complete(result);
+            } else {
+                search.response.completeExceptionally(ex);
+            }
+        });
+    }
+
+    private static void appendQuoted(final StringBuilder body, final String value) {
+        body.append( JSONUtils.quoteString(value) );
+    }
+
+    /**
+     * @return the _msearch body: a header line (the index, type and URL parameters) and a body line for each search
+     */
+    private static String multiSearchBody(final List<PendingSearch> searches) {
+        final StringBuilder body = new StringBuilder();
+        for (PendingSearch search : searches) {
+            final int headerStart = body.length();
+            body.append('{');
+            if (search.index != null) {
+                body.append("\"index\":");
+                appendQuoted(body, search.index);
+            }
+            if (search.type != null) {
+                body.append( (body.length() > headerStart + 1) ? "," : "" ).append("\"type\":");
+                appendQuoted(body, search.type);
+            }
+            for (Map.Entry<String, String> parameter : parameters(search.suffix).entrySet()) {
+                if (parameter.getKey().equals(FILTER_PATH)) {
+                    // the filter path is sent with the _msearch request
+                    continue;
+                }
+                body.append( (body.length() > headerStart + 1) ? "," : "" );
+                appendQuoted(body, parameter.getKey());
+                body.append(':');
+                if (parameter.getKey().equals("request_cache")) {
+                    body.append( Boolean.parseBoolean(parameter.getValue()) );
+                } else {
+                    appendQuoted(body, parameter.getValue());
+                }
+            }
+            body.append("}\n");
+            body.append( (search.jsonPayload != null) ? search.jsonPayload : "{}" ).append('\n');
+        }
+        return body.toString();
+    }
+
+    /**
+     * @return the filter_path for an _msearch: each search path is applied to the responses, and the status and error
+     *         of each response are kept
+     */
+    private static String multiSearchFilterPath(final String filterPath) {
+        final StringBuilder paths = new StringBuilder();
+        for (String path : filterPath.split(",")) {
+            paths.append( (paths.length() > 0) ? "," : "" ).append("responses.").append( path.trim() );
+        }
+        for (String path : MSEARCH_RESPONSE_PATHS) {
+            paths.append(",responses.").append(path);
+        }
+        return paths.toString();
+    }
+
+    private void send(final Batch batch) {
+        if (batch.searches.size() == 1) {
+            singleSearchCount.increment();
+            forward( batch.searches.get(0) );
+        } else {
+            batchCount.increment();
+            batchedSearchCount.add( batch.searches.size() );
+            // _search => _msearch, _search/template => _msearch/template
+            String multiSearchEndPoint = MSEARCH + batch.endPoint.substring( SEARCH.length() );
+            if (batch.filterPath != null) {
+                multiSearchEndPoint = multiSearchEndPoint + "?" + FILTER_PATH + "=" + multiSearchFilterPath(batch.filterPath);
+            }
+            final String endPoint = multiSearchEndPoint;
+            delegate.postDocumentAsync(null, null, endPoint, multiSearchBody(batch.searches)).whenComplete((response, ex) -> {
+                if (ex != null) {
+                    logger.error(endPoint + " failed, sending the searches by themselves: " + ex.getLocalizedMessage());
+                    resend(batch.searches);
+                } else {
+                    demultiplex(batch.searches, response);
+                }
+            });
+        }
+    }
+
+    private void resend(final List<PendingSearch> searches) {
+        for (PendingSearch search : searches) {
+            resentCount.increment();
+            forward(search);
+        }
+    }
+
+    /**
+     * <p>
+     * Pass each response in an _msearch result to the search that is waiting for it. The responses are copied from
+     * the result string, so they are not parsed and written again. If the result does not have a response for each
+     * search (for example, the whole request was rejected), the searches are sent by themselves.
+     * </p>
+     */
+    private void demultiplex(final List<PendingSearch> searches, final String result) {
+        final List<String> responses = new ArrayList<String>( searches.size() );
+        final List<Integer> statusList = new ArrayList<Integer>( searches.size() );
+        if (result != null) {
+            try (JsonParser parser = jsonFactory.createParser( result )) {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String fieldName = parser.getCurrentName();
+                        JsonToken token = parser.nextToken();
+                        if (fieldName.equals("responses") && token == JsonToken.START_ARRAY) {
+                            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                                final int start = (int)parser.getTokenLocation().getCharOffset();
+                                int status = 200;
+                                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                    final String responseField = parser.getCurrentName();
+                                    parser.nextToken();
+                                    if (responseField.equals("status")) {
+                                        status = parser.getValueAsInt(status);
+                                    } else {
+                                        parser.skipChildren();
+                                    }
+                                }
+                                final int end = (int)parser.getCurrentLocation().getCharOffset();
+                                responses.add( result.substring(start, end) );
+                                statusList.add( status );
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Error reading the _msearch result: " + e.getLocalizedMessage());
+                responses.clear();
+            }
+        }
+        if (responses.size() != searches.size()) {
+            logger.error("The _msearch result has " + responses.size() + " responses for " + searches.size() + " searches, sending the searches by themselves");
+            resend(searches);
+        } else {
+            List<PendingSearch> rejected = new ArrayList<PendingSearch>();
+            for (int i = 0; i < searches.size(); i++) {
+                if (RetryPolicy.isRetryableStatus( statusList.get(i) )) {
+                    rejected.add( searches.get(i) );
+                } else {
+                    searches.get(i).response.complete( responses.get(i) );
+                }
+            }
+            resend(rejected);
+        }
+    }
+
+    private String join(final CompletableFuture<String> response) {
+        String result = null;
+        try {
+            result = response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Batched search interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ElasticsearchUnavailableException) {
+                throw (ElasticsearchUnavailableException)e.getCause();
+            }
+            logger.error("Batched search failed: " + e.getCause().getLocalizedMessage());
+        }
+        return result;
+    }
+
+    private <T> T handle(final String response, final JsonResponseHandler<T> handler) {
+        T result = null;
+        try {
+            result = handleResponse(response, handler);
+        } catch (IOException e) {
+            logger.error("Error processing the search response: " + e.getLocalizedMessage());
+        }
+        return result;
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        String result = null;
+        if (isBatchable(suffix, jsonPayload)) {
+            result = join( getDocumentAsync(index, type, suffix, jsonPayload) );
+        } else {
+            result = delegate.getDocument(index, type, suffix, jsonPayload);
+        }
+        return result;
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        T result = null;
+        if (isBatchable(suffix, jsonPayload)) {
+            result = handle( join( getDocumentAsync(index, type, suffix, jsonPayload) ), handler );
+        } else {
+            result = delegate.getDocument(index, type, suffix, jsonPayload, handler);
+        }
+        return result;
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        String result = null;
+        if (isBatchable(suffix, jsonPayload)) {
+            result = join( postDocumentAsync(index, type, suffix, jsonPayload) );
+        } else {
+            result = delegate.postDocument(index, type, suffix, jsonPayload);
+        }
+        return result;
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        T result = null;
+        if (isBatchable(suffix, jsonPayload)) {
+            result = handle( join( postDocumentAsync(index, type, suffix, jsonPayload) ), handler );
+        } else {
+            result = delegate.postDocument(index, type, suffix, jsonPayload, handler);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        CompletableFuture<String> result = null;
+        if (isBatchable(suffix, jsonPayload)) {
+            result = submit( new PendingSearch(false, index, type, suffix, jsonPayload) );
+        } else {
+            result = delegate.getDocumentAsync(index, type, suffix, jsonPayload);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        CompletableFuture<String> result = null;
+        if (isBatchable(suffix, jsonPayload)) {
+            result = submit( new PendingSearch(true, index, type, suffix, jsonPayload) );
+        } else {
+            result = delegate.postDocumentAsync(index, type, suffix, jsonPayload);
+        }
+        return result;
+    }
+}
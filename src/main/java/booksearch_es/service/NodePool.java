@@ -0,0 +1,402 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <h4>
+ * NodePool
+ * </h4>
+ * <p>
+ * The Elasticsearch nodes that HTTP requests are sent to. By default there is a single node, IElasticsearch.ES_URL
+ * (the AWS managed domain, which has its own load balancer). For a self-managed cluster, a list of nodes can be
+ * given with the system property booksearch.es.nodes (a comma separated list of URLs, e.g.,
+ * http://es1:9200,http://es2:9200).
+ * </p>
+ * <p>
+ * Each request is sent to the live node with the fewest outstanding requests (ties are broken at random). This
+ * spreads the coordinating work (parsing, scatter/gather and result merging) over the cluster, and sends less
+ * traffic to a node that is slow.
+ * </p>
+ * <p>
+ * A node that cannot be reached is marked dead and is not used until its dead time has passed. The dead time
+ * doubles for each consecutive failure (from booksearch.es.nodeDeadMillis up to booksearch.es.nodeMaxDeadMillis).
+ * After the dead time, the node is tried again. A successful request resurrects the node. If all of the nodes are
+ * dead, the node that will be resurrected first is used.
+ * </p>
+ * <p>
+ * If booksearch.es.discoveryIntervalSeconds is greater than zero, the node list is refreshed from the cluster with
+ * GET _nodes/http at this interval. The nodes from booksearch.es.nodes are always kept. Discovery should not be
+ * turned on for the AWS domain, where the node addresses are not reachable.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class NodePool implements IElasticsearch {
+    private static Logger logger = LoggerFactory.getLogger( NodePool.class.getName() );
+    private final static ObjectMapper mapper = new ObjectMapper();
+    private static volatile NodePool defaultPool = null;
+    private static volatile ScheduledExecutorService discoveryTimer = null;
+
+    /**
+     * An Elasticsearch node.
+     */
+    public static class Node {
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger(0);
+        private int failures = 0;
+        private long deadUntil = 0;
+
+        Node(final String url) {
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+    }
+
+    private final List<String> seedUrls;
+    private final long deadMillis;
+    private final long maxDeadMillis;
+    private final LongSupplier clock;
+    private volatile List<Node> nodes;
+
+    /**
+     * @param seedUrls the node URLs
+     * @param deadMillis the time a node is dead after its first failure
+     * @param maxDeadMillis the longest time a node is dead
+     * @param clock the current time in milliseconds
+     */
+    public NodePool(final List<String> seedUrls, final long deadMillis, final long maxDeadMillis, final LongSupplier clock) {
+        this.seedUrls = new ArrayList<String>();
+        for (String url : seedUrls) {
+            this.seedUrls.add( normalize(url) );
+        }
+        this.deadMillis = deadMillis;
+        this.maxDeadMillis = Math.max(deadMillis, maxDeadMillis);
+        this.clock = clock;
+        List<Node> nodeList = new ArrayList<Node>();
+        for (String url : this.seedUrls) {
+            nodeList.add( new Node(url) );
+        }
+        this.nodes = Collections.unmodifiableList(nodeList);
+    }
+
+    public NodePool(final List<String> seedUrls) {
+        this(seedUrls, Long.getLong("booksearch.es.nodeDeadMillis", NODE_DEAD_MILLIS),
+             Long.getLong("booksearch.es.nodeMaxDeadMillis", NODE_MAX_DEAD_MILLIS), System::currentTimeMillis);
+    }
+
+    /**
+     * @return the node pool for the booksearch.es.nodes system property (or IElasticsearch.ES_URL). If discovery is
+     * turned on, a discovery task is started for the pool.
+     */
+    public static NodePool defaultPool() {
+        if (defaultPool == null) {
+            synchronized (NodePool.class) {
+                if (defaultPool == null) {
+                    List<String> urls = new ArrayList<String>();
+                    for (String url : System.getProperty("booksearch.es.nodes", ES_NODES).split(",")) {
+                        if (url.trim().length() > 0) {
+                            urls.add( url.trim() );
+                        }
+                    }
+                    if (urls.isEmpty()) {
+                        urls.add( ES_URL );
+                    }
+                    defaultPool = new NodePool( urls );
+                    final long interval = Long.getLong("booksearch.es.discoveryIntervalSeconds", ES_DISCOVERY_INTERVAL_SECONDS);
+                    if (interval > 0) {
+                        startDiscovery(defaultPool, interval);
+                    }
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    private static void startDiscovery(final NodePool pool, final long intervalSeconds) {
+        discoveryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "es-node-discovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        discoveryTimer.scheduleWithFixedDelay(() -> {
+            try {
+                pool.discover( HttpService.getDocument(null, null, "_nodes/http") );
+            } catch (RuntimeException e) {
+                logger.error("Node discovery failed: " + e.getLocalizedMessage());
+            }
+        }, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private static String normalize(final String url) {
+        String normalized = url.trim();
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    private boolean isLive(final Node node, final long now) {
+        synchronized (node) {
+            return node.deadUntil <= now;
+        }
+    }
+
+    /**
+     * <p>
+     * Select the node for a request: the live node with the fewest outstanding requests. The caller must call
+     * release() when the request completes.
+     * </p>
+     *
+     * @return the selected node, with its outstanding count incremented.
+     */
+    public Node acquire() {
+        final List<Node> nodeList = nodes;
+        final long now = clock.getAsLong();
+        Node selected = null;
+        int ties = 0;
+        for (Node node : nodeList) {
+            if (isLive(node, now)) {
+                if (selected == null || node.getOutstanding() < selected.getOutstanding()) {
+                    selected = node;
+                    ties = 1;
+                } else if (node.getOutstanding() == selected.getOutstanding()) {
+                    // reservoir sampling, so that each of the tied nodes is equally likely to be selected
+                    ties++;
+                    if (ThreadLocalRandom.current().nextInt(ties) == 0) {
+                        selected = node;
+                    }
+                }
+            }
+        }
+        if (selected == null) {
+            // All of the nodes are dead. Try the node that will be resurrected first.
+            long soonest = Long.MAX_VALUE;
+            for (Node node : nodeList) {
+                synchronized (node) {
+                    if (node.deadUntil < soonest) {
+                        soonest = node.deadUntil;
+                        selected = node;
+                    }
+                }
+            }
+        }
+        selected.outstanding.incrementAndGet();
+        return selected;
+    }
+
+    /**
+     * <p>
+     * Select a node other than the node that just failed, for a retry.
+     * </p>
+     *
+     * @return another live node, with its outstanding count incremented, or null if there is no other live node.
+     */
+    public Node acquireOther(final Node failed) {
+        Node other = null;
+        if (nodes.size() > 1) {
+            Node selected = acquire();
+            if (selected != failed && isLive(selected, clock.getAsLong())) {
+                other = selected;
+            } else {
+                selected.outstanding.decrementAndGet();
+            }
+        }
+        return other;
+    }
+
+    /**
+     * A request to the node was cancelled. This does not say anything about the node's health.
+     */
+    public void release(final Node node) {
+        node.outstanding.decrementAndGet();
+    }
+
+    /**
+     * A request to the node completed.
+     *
+     * @param node the node the request was sent to
+     * @param reachable false if the node could not be reached (a connection or I/O error)
+     */
+    public void release(final Node node, final boolean reachable) {
+        node.outstanding.decrementAndGet();
+        if (reachable) {
+            markAlive(node);
+        } else {
+            markDead(node);
+        }
+    }
+
+    public void markAlive(final Node node) {
+        synchronized (node) {
+            if (node.failures > 0) {
+                logger.info("Elasticsearch node " + node.url + " resurrected");
+            }
+            node.failures = 0;
+            node.deadUntil = 0;
+        }
+    }
+
+    public void markDead(final Node node) {
+        synchronized (node) {
+            final int shift = Math.min(node.failures, 20);
+            final long deadTime = Math.min(maxDeadMillis, deadMillis << shift);
+            node.failures++;
+            node.deadUntil = clock.getAsLong() + deadTime;
+            logger.warn("Elasticsearch node " + node.url + " marked dead for " + deadTime + " ms (" + node.failures + " failures)");
+        }
+    }
+
+    /**
+     * <p>
+     * Replace the node in a request URI (which was built for IElasticsearch.ES_URL) with a node URL. The node URL
+     * may include a path prefix (for example, for a proxy).
+     * </p>
+     *
+     * @param node the node
+     * @param uri the request URI
+     * @return the request URI for the node
+     */
+    public static URI resolve(final Node node, final URI uri) {
+        StringBuilder url = new StringBuilder( node.url );
+        if (uri.getRawPath() != null) {
+            url.append( uri.getRawPath() );
+        }
+        if (uri.getRawQuery() != null) {
+            url.append('?').append( uri.getRawQuery() );
+        }
+        return URI.create( url.toString() );
+    }
+
+    /**
+     * <p>
+     * Read the HTTP addresses from a _nodes/http response:
+     * </p>
+     * <pre>
+     * {"nodes":{"Vx1c...":{"name":"es1","http":{"publish_address":"10.0.0.11:9200", ...}}, ...}}
+     * </pre>
+     * <p>
+     * The publish address may include the host name (e.g., "es1/10.0.0.11:9200"), in which case the IP address
+     * is used.
+     * </p>
+     *
+     * @param nodesJson the _nodes/http response
+     * @param scheme the URL scheme (http or https)
+     * @return the node URLs
+     */
+    public static List<String> parseNodes(final String nodesJson, final String scheme) throws IOException {
+        List<String> urls = new ArrayList<String>();
+        JsonNode root = mapper.readTree( nodesJson );
+        JsonNode nodesNode = root.get("nodes");
+        if (nodesNode != null) {
+            Iterator<JsonNode> nodeIter = nodesNode.elements();
+            while (nodeIter.hasNext()) {
+                JsonNode address = nodeIter.next().path("http").path("publish_address");
+                if (address.isTextual()) {
+                    String hostPort = address.asText();
+                    int slash = hostPort.indexOf('/');
+                    if (slash >= 0) {
+                        hostPort = hostPort.substring(slash + 1);
+                    }
+                    urls.add( scheme + "://" + hostPort );
+                }
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * <p>
+     * Update the node list from a _nodes/http response. The seed nodes are always kept, and nodes that are already
+     * in the list keep their state (outstanding requests and dead time).
+     * </p>
+     *
+     * @param nodesJson the _nodes/http response (ignored if null)
+     */
+    public void discover(final String nodesJson) {
+        if (nodesJson != null && nodesJson.length() > 0) {
+            try {
+                final String scheme = URI.create( seedUrls.get(0) ).getScheme();
+                Set<String> urls = new LinkedHashSet<String>( seedUrls );
+                urls.addAll( parseNodes(nodesJson, scheme) );
+                synchronized (this) {
+                    Map<String, Node> current = new LinkedHashMap<String, Node>();
+                    for (Node node : nodes) {
+                        current.put(node.url, node);
+                    }
+                    List<Node> nodeList = new ArrayList<Node>();
+                    for (String url : urls) {
+                        Node node = current.get(url);
+                        nodeList.add( node != null ? node : new Node(url) );
+                    }
+                    if (nodeList.size() != nodes.size()) {
+                        logger.info("Elasticsearch nodes: " + urls);
+                    }
+                    nodes = Collections.unmodifiableList(nodeList);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                logger.error("Error reading the _nodes/http response: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * @return for each node, the outstanding requests, the consecutive failures and whether the node is live.
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<String, Map<String, Object>>();
+        final long now = clock.getAsLong();
+        for (Node node : nodes) {
+            Map<String, Object> nodeStats = new LinkedHashMap<String, Object>();
+            nodeStats.put("outstanding", node.getOutstanding());
+            synchronized (node) {
+                nodeStats.put("failures", node.failures);
+                nodeStats.put("live", node.deadUntil <= now);
+            }
+            stats.put(node.url, nodeStats);
+        }
+        return stats;
+    }
+}
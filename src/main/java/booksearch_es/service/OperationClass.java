@@ -0,0 +1,118 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import org.apache.http.client.config.RequestConfig;
+
+/**
+ * <h4>
+ * OperationClass
+ * </h4>
+ * <p>
+ * The classes of Elasticsearch requests, each of which has its own timeout. A search that is not answered within a
+ * few seconds will not be read by the user who is waiting for it, while a bulk load may reasonably take a minute.
+ * </p>
+ * <p>
+ * A request is classified by its method and path:
+ * </p>
+ * <ul>
+ * <li>BULK: a _bulk request</li>
+ * <li>AGGREGATION: a POST to _search. In this application searches are sent with GET and aggregations with POST
+ * (see BookSearchService).</li>
+ * <li>SEARCH: any other GET or HEAD, a GET _search, _search/template (a stored search template), _msearch and _count</li>
+ * <li>WRITE: a PUT, DELETE or any other POST (e.g., _delete_by_query)</li>
+ * </ul>
+ * <p>
+ * Searches and aggregations run as cancellable Elasticsearch tasks (see TaskCanceller).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public enum OperationClass implements IElasticsearch {
+    SEARCH("search", TIMEOUT_SEARCH_MILLIS),
+    AGGREGATION("aggregation", TIMEOUT_AGGREGATION_MILLIS),
+    WRITE("write", TIMEOUT_WRITE_MILLIS),
+    BULK("bulk", TIMEOUT_BULK_MILLIS);
+
+    private final String name;
+    private final int defaultTimeoutMillis;
+
+    private OperationClass(final String name, final int defaultTimeoutMillis) {
+        this.name = name;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    /**
+     * @return the class name (e.g., "search")
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time, in milliseconds, allowed for a request, including retries (booksearch.timeout.[name]Millis)
+     */
+    public int timeoutMillis() {
+        return Integer.getInteger("booksearch.timeout." + name + "Millis", defaultTimeoutMillis);
+    }
+
+    public static int connectTimeoutMillis() {
+        return Integer.getInteger("booksearch.timeout.connectMillis", TIMEOUT_CONNECT_MILLIS);
+    }
+
+    /**
+     * @return true if the request runs as an Elasticsearch task that can be cancelled
+     */
+    public boolean isCancellable() {
+        return this == SEARCH || this == AGGREGATION;
+    }
+
+    /**
+     * <p>
+     * The HTTP client timeouts for a request: the connect timeout, the time to wait for a pooled connection and the
+     * socket (read) timeout. The overall deadline is enforced separately, since the socket timeout only limits the
+     * time between packets.
+     * </p>
+     *
+     * @return the request configuration
+     */
+    public RequestConfig requestConfig() {
+        final int timeout = timeoutMillis();
+        return RequestConfig.custom()
+                .setConnectTimeout( Math.min(timeout, connectTimeoutMillis()) )
+                .setConnectionRequestTimeout( timeout )
+                .setSocketTimeout( timeout )
+                .build();
+    }
+
+    /**
+     * @param method the HTTP method
+     * @param path the URL path
+     * @return the class of the request
+     */
+    public static OperationClass classify(final String method, final String path) {
+        OperationClass operation = null;
+        final String urlPath = (path != null) ? path : "";
+        if (urlPath.contains("_bulk")) {
+            operation = BULK;
+        } else if (urlPath.contains("/_search/template")) {
+            operation = SEARCH;
+        } else if (urlPath.contains("/_search") && "POST".equals(method)) {
+            operation = AGGREGATION;
+        } else if ("GET".equals(method) || "HEAD".equals(method) || urlPath.contains("/_msearch") || urlPath.contains("/_count")) {
+            operation = SEARCH;
+        } else {
+            operation = WRITE;
+        }
+        return operation;
+    }
+}
@@ -0,0 +1,217 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h4>
+ * PriorityTransport
+ * </h4>
+ * <p>
+ * Give interactive requests priority over batch requests (see RequestPriority). Interactive requests are sent at
+ * once and their latency is recorded. Batch requests wait for the BatchThrottle, which slows them down when the
+ * interactive latency rises above its target.
+ * </p>
+ * <p>
+ * A batch request waits on the caller's thread (the loader thread), including an asynchronous batch request. The
+ * priority transport is the outermost transport (see TransportFactory), so the interactive latency includes the
+ * time spent waiting in a bulkhead. There is one throttle for the Elasticsearch domain, which is shared by the
+ * transports that are created with the single argument constructor. The throttle is turned off with the system
+ * property booksearch.priority.enabled=false (see IElasticsearch.PRIORITY_ENABLED).
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class PriorityTransport extends ForwardingTransport implements IElasticsearch {
+    private static Logger logger = LoggerFactory.getLogger( PriorityTransport.class.getName() );
+    private static volatile BatchThrottle sharedThrottle = null;
+
+    private final BatchThrottle throttle;
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.priority.enabled", Boolean.toString(PRIORITY_ENABLED)) );
+    }
+
+    private static BatchThrottle defaultThrottle() {
+        if (sharedThrottle == null) {
+            synchronized (PriorityTransport.class) {
+                if (sharedThrottle == null) {
+                    sharedThrottle = new BatchThrottle( Long.getLong("booksearch.priority.latencyTargetMillis", PRIORITY_LATENCY_TARGET_MILLIS),
+                                                        Double.parseDouble( System.getProperty("booksearch.priority.batchMaxRate",
+                                                                                               Double.toString(PRIORITY_BATCH_MAX_RATE)) ),
+                                                        Double.parseDouble( System.getProperty("booksearch.priority.batchMinRate",
+                                                                                               Double.toString(PRIORITY_BATCH_MIN_RATE)) ),
+                                                        Integer.getInteger("booksearch.priority.batchBurst", PRIORITY_BATCH_BURST),
+                                                        Long.getLong("booksearch.priority.adjustMillis", PRIORITY_ADJUST_MILLIS),
+                                                        Integer.getInteger("booksearch.priority.maxInteractive", PRIORITY_MAX_INTERACTIVE),
+                                                        Long.getLong("booksearch.priority.maxYieldMillis", PRIORITY_MAX_YIELD_MILLIS) );
+                }
+            }
+        }
+        return sharedThrottle;
+    }
+
+    public PriorityTransport(final IElasticsearchTransport delegate) {
+        this(delegate, defaultThrottle());
+    }
+
+    public PriorityTransport(final IElasticsearchTransport delegate, final BatchThrottle throttle) {
+        super(delegate);
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return the counters of the shared batch throttle (an empty map if there is no shared throttle).
+     */
+    public static Map<String, Long> snapshot() {
+        BatchThrottle throttle = sharedThrottle;
+        return (throttle != null) ? throttle.snapshot() : new LinkedHashMap<String, Long>();
+    }
+
+    /**
+     * @return true if the request is interactive. A batch request waits for the throttle before this returns.
+     */
+    private boolean admit(final String method, final String suffix) throws InterruptedException {
+        final OperationClass operation = OperationClass.classify(method, "/" + ((suffix != null) ? suffix : ""));
+        boolean interactive = true;
+        if (RequestPriority.of(operation) == RequestPriority.BATCH) {
+            interactive = false;
+            throttle.acquire();
+        } else {
+            throttle.onInteractiveStart();
+        }
+        return interactive;
+    }
+
+    private <R> R prioritized(final String method, final String suffix, final Supplier<R> request) {
+        R result = null;
+        boolean interactive = false;
+        boolean admitted = false;
+        try {
+            interactive = admit(method, suffix);
+            admitted = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while waiting to send a batch " + method + " request");
+        }
+        if (admitted) {
+            if (interactive) {
+                final long startTime = System.nanoTime();
+                boolean completed = false;
+                try {
+                    result = request.get();
+                    completed = true;
+                } finally {
+                    if (completed) {
+                        throttle.onInteractiveComplete( System.nanoTime() - startTime );
+                    } else {
+                        throttle.onInteractiveAbandoned();
+                    }
+                }
+            } else {
+                result = request.get();
+            }
+        }
+        return result;
+    }
+
+    private CompletableFuture<String> prioritizedAsync(final String method, final String suffix, final Supplier<CompletableFuture<String>> request) {
+        CompletableFuture<String> result = null;
+        boolean interactive = false;
+        try {
+            interactive = admit(method, suffix);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = new CompletableFuture<String>();
+            result.completeExceptionally(e);
+        }
+        if (result == null) {
+            if (interactive) {
+                final long startTime = System.nanoTime();
+                try {
+                    result = request.get();
+                } catch (RuntimeException e) {
+                    throttle.onInteractiveAbandoned();
+                    throw e;
+                }
+                result.whenComplete((response, ex) -> {
+                    if (ex == null) {
+                        throttle.onInteractiveComplete( System.nanoTime() - startTime );
+                    } else {
+                        throttle.onInteractiveAbandoned();
+                    }
+                });
+            } else {
+                result = request.get();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int head(final String index) {
+        Integer status = prioritized("HEAD", null, () -> delegate.head(index));
+        return (status != null) ? status : -1;
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix) {
+        return prioritized("GET", suffix, () -> delegate.getDocument(index, type, suffix));
+    }
+
+    @Override
+    public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return prioritized("GET", suffix, () -> delegate.getDocument(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return prioritized("GET", suffix, () -> delegate.getDocument(index, type, suffix, jsonPayload, handler));
+    }
+
+    @Override
+    public String putDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return prioritized("PUT", suffix, () -> delegate.putDocument(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+        return prioritized("POST", suffix, () -> delegate.postDocument(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public <T> T postDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+        return prioritized("POST", suffix, () -> delegate.postDocument(index, type, suffix, jsonPayload, handler));
+    }
+
+    @Override
+    public String deleteDocument(final String index, final String type, final String suffix) {
+        return prioritized("DELETE", suffix, () -> delegate.deleteDocument(index, type, suffix));
+    }
+
+    @Override
+    public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return prioritizedAsync("GET", suffix, () -> delegate.getDocumentAsync(index, type, suffix, jsonPayload));
+    }
+
+    @Override
+    public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+        return prioritizedAsync("POST", suffix, () -> delegate.postDocumentAsync(index, type, suffix, jsonPayload));
+    }
+}
@@ -0,0 +1,82 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+/**
+ * <h4>
+ * RequestPriority
+ * </h4>
+ * <p>
+ * The priority of an Elasticsearch request. Interactive requests are sent for a user who is waiting on a web page.
+ * Batch requests are sent by the loaders (LoadESFromJSON, CopyFromDynamoDB) and by the index dump. Batch requests
+ * are throttled by the PriorityTransport so that they do not slow down the interactive requests.
+ * </p>
+ * <p>
+ * A request is a batch request if it is a _bulk request or if it is sent by a thread in a batch scope:
+ * </p>
+ * <pre>
+ * RequestPriority.Scope scope = RequestPriority.batch();
+ * try {
+ *     ... Elasticsearch requests ...
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public enum RequestPriority {
+    INTERACTIVE,
+    BATCH;
+
+    private final static ThreadLocal<RequestPriority> threadPriority = ThreadLocal.withInitial(() -> INTERACTIVE);
+
+    /**
+     * Restores the thread's previous priority when it is closed.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final RequestPriority previous;
+
+        private Scope(final RequestPriority previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            threadPriority.set(previous);
+        }
+    }
+
+    /**
+     * @return a scope in which the requests sent by the current thread are batch requests
+     */
+    public static Scope batch() {
+        final Scope scope = new Scope( threadPriority.get() );
+        threadPriority.set(BATCH);
+        return scope;
+    }
+
+    /**
+     * @return the priority of the requests sent by the current thread
+     */
+    public static RequestPriority current() {
+        return threadPriority.get();
+    }
+
+    /**
+     * @param operation the operation class of a request
+     * @return the priority of the request, if it is sent by the current thread
+     */
+    public static RequestPriority of(final OperationClass operation) {
+        return (operation == OperationClass.BULK) ? BATCH : current();
+    }
+}
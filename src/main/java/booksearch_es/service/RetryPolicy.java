@@ -0,0 +1,186 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h4>
+ * RetryPolicy
+ * </h4>
+ * <p>
+ * Retry requests that Elasticsearch rejected because it is overloaded (HTTP status 429, Too Many Requests, or 503,
+ * Service Unavailable). A rejected request was not executed, so an idempotent request can be sent again.
+ * </p>
+ * <p>
+ * The delay before each retry uses exponential backoff with "full jitter": the delay is a random value between 0 and
+ * min(maxDelay, baseDelay * 2^retry). The random delay spreads the retries from many clients over time, so they do
+ * not arrive at Elasticsearch at the same moment and cause another overload.
+ * </p>
+ * <p>
+ * Each operation gets a retry Budget, which allows at most maxRetries retries and stops retrying when the next
+ * retry would be sent after maxElapsed milliseconds (measured from the start of the operation). The request policy
+ * (booksearch.retry.*) is used for single HTTP requests. The bulk policy (booksearch.retry.bulk.*) is used for the
+ * rejected items in a bulk load, which are worth waiting longer for.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class RetryPolicy implements IElasticsearch {
+    private static final LongAdder retries = new LongAdder();
+    private static final LongAdder retriesExhausted = new LongAdder();
+    private static volatile ScheduledExecutorService retryTimer = null;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxElapsedMillis;
+
+    /**
+     * The retry state for one operation.
+     */
+    public class Budget {
+        private final long startTime = System.nanoTime();
+        private int retryCount = 0;
+
+        /**
+         * <p>
+         * Use one retry from the budget.
+         * </p>
+         *
+         * @param minDelayMillis the minimum delay (e.g., from a Retry-After header) or 0
+         * @return the delay, in milliseconds, before the retry or -1 if the budget is used up.
+         */
+        public long nextDelayMillis(final long minDelayMillis) {
+            long delay = -1;
+            if (retryCount < maxRetries) {
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startTime );
+                final long backoff = Math.max(minDelayMillis, backoffMillis(retryCount));
+                if (elapsed + backoff <= maxElapsedMillis) {
+                    delay = backoff;
+                    retryCount++;
+                    retries.increment();
+                }
+            }
+            if (delay < 0) {
+                retriesExhausted.increment();
+            }
+            return delay;
+        }
+
+        public int getRetryCount() {
+            return retryCount;
+        }
+    }
+
+    public RetryPolicy(final int maxRetries, final long baseDelayMillis, final long maxDelayMillis, final long maxElapsedMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.maxElapsedMillis = maxElapsedMillis;
+    }
+
+    /**
+     * @return the policy for HTTP requests, from the booksearch.retry system properties
+     */
+    public static RetryPolicy requestPolicy() {
+        return new RetryPolicy( Integer.getInteger("booksearch.retry.maxRetries", RETRY_MAX_RETRIES),
+                                Long.getLong("booksearch.retry.baseDelayMillis", RETRY_BASE_DELAY_MILLIS),
+                                Long.getLong("booksearch.retry.maxDelayMillis", RETRY_MAX_DELAY_MILLIS),
+                                Long.getLong("booksearch.retry.maxElapsedMillis", RETRY_MAX_ELAPSED_MILLIS) );
+    }
+
+    /**
+     * @return the policy for rejected bulk load items, from the booksearch.retry.bulk system properties
+     */
+    public static RetryPolicy bulkPolicy() {
+        return new RetryPolicy( Integer.getInteger("booksearch.retry.bulk.maxRetries", BULK_RETRY_MAX_RETRIES),
+                                Long.getLong("booksearch.retry.bulk.baseDelayMillis", BULK_RETRY_BASE_DELAY_MILLIS),
+                                Long.getLong("booksearch.retry.bulk.maxDelayMillis", BULK_RETRY_MAX_DELAY_MILLIS),
+                                Long.getLong("booksearch.retry.bulk.maxElapsedMillis", BULK_RETRY_MAX_ELAPSED_MILLIS) );
+    }
+
+    /**
+     * @return a new retry budget for an operation
+     */
+    public Budget newBudget() {
+        return new Budget();
+    }
+
+    /**
+     * @return true for the HTTP status codes that Elasticsearch returns when it rejects a request because it is overloaded.
+     */
+    public static boolean isRetryableStatus(final int status) {
+        return status == 429 || status == 503;
+    }
+
+    /**
+     * @param retry the retry number, starting at 0
+     * @return a random delay between 0 and min(maxDelay, baseDelay * 2^retry)
+     */
+    public long backoffMillis(final int retry) {
+        final int shift = Math.min(retry, 30);
+        final long ceiling = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Wait before a retry.
+     *
+     * @return false if the thread was interrupted (and the retry should be abandoned)
+     */
+    public static boolean sleep(final long delayMillis) {
+        boolean slept = true;
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            slept = false;
+        }
+        return slept;
+    }
+
+    /**
+     * @return the timer used to schedule the retries of asynchronous requests.
+     */
+    public static ScheduledExecutorService retryTimer() {
+        if (retryTimer == null) {
+            synchronized (RetryPolicy.class) {
+                if (retryTimer == null) {
+                    retryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "es-retry-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return retryTimer;
+    }
+
+    /**
+     * @return the retry counters: retries and retriesExhausted (rejected requests that were not retried because the
+     * budget was used up).
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("retries", retries.sum());
+        stats.put("retriesExhausted", retriesExhausted.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,400 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import static org.apache.http.protocol.HttpCoreContext.HTTP_TARGET_HOST;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+
+/**
+ * <h4>
+ * SigV4SigningInterceptor
+ * </h4>
+ * <p>
+ * An HttpRequestInterceptor that signs requests with the AWS Signature Version 4 algorithm. This is a lower cost
+ * replacement for the AWSRequestSigningApacheInterceptor and the AWS4Signer.
+ * </p>
+ * <p>
+ * The AWSRequestSigningApacheInterceptor copies each request into an AWS DefaultRequest (parsing the URI and copying
+ * the headers into TreeMaps), reads the entity stream and then replaces the entity with a new stream entity. This
+ * means that the request body is buffered twice and that the request cannot be retried, since the new entity is
+ * not repeatable. The AWS4Signer also derives the signing key (four HMAC-SHA256 operations) for every request.
+ * </p>
+ * <p>
+ * This interceptor:
+ * </p>
+ * <ul>
+ * <li>Caches the derived signing key. The key depends only on the date, the region, the service and the secret key,
+ * so it changes once a day.</li>
+ * <li>Hashes a repeatable request entity (for example, the byte array entities built by HttpCompression) directly from
+ * its content and leaves the entity in place. Only a non-repeatable entity is buffered (once) so that it can
+ * be hashed and sent.</li>
+ * <li>Signs only the headers that SigV4 requires (host and x-amz-date, plus x-amz-security-token for
+ * session credentials) and the headers that describe the body (Content-Encoding and Content-Type), when they are in
+ * the request or its entity. A gzip request body (see HttpCompression) cannot be sent with a changed
+ * Content-Encoding.</li>
+ * </ul>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class SigV4SigningInterceptor implements HttpRequestInterceptor {
+    private final static String ALGORITHM = "AWS4-HMAC-SHA256";
+    private final static String TERMINATOR = "aws4_request";
+    private final static String HMAC_SHA256 = "HmacSHA256";
+    private final static String EMPTY_PAYLOAD_HASH = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private final static DateTimeFormatter AMZ_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    // The body headers that are signed when they are in the request, in canonical (sorted) order
+    private final static String[] BODY_HEADERS = { "content-encoding", "content-type" };
+
+    private final static ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+    private final static ThreadLocal<Mac> hmacSha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(HMAC_SHA256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    });
+    private final static ThreadLocal<byte[]> hashBuffer = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    /**
+     * The derived signing key for a date and access key
+     */
+    private static class SigningKey {
+        final String dateStamp;
+        final String accessKey;
+        final String secretKey;
+        final byte[] key;
+
+        SigningKey(String dateStamp, String accessKey, String secretKey, byte[] key) {
+            this.dateStamp = dateStamp;
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+            this.key = key;
+        }
+
+        boolean matches(final String date, final AWSCredentials credentials) {
+            return dateStamp.equals(date) && accessKey.equals(credentials.getAWSAccessKeyId())
+                    && secretKey.equals(credentials.getAWSSecretKey());
+        }
+    }
+
+    private final String service;
+    private final String region;
+    private final AWSCredentialsProvider awsCredentialsProvider;
+    private final Clock clock;
+    private volatile SigningKey signingKey = null;
+
+    /**
+     * @param service the AWS service name (e.g., "es")
+     * @param region the AWS region name (e.g., "eu-central-1")
+     * @param awsCredentialsProvider source of AWS credentials for signing
+     */
+    public SigV4SigningInterceptor(final String service, final String region, final AWSCredentialsProvider awsCredentialsProvider) {
+        this(service, region, awsCredentialsProvider, Clock.systemUTC());
+    }
+
+    /**
+     * A constructor with a clock, so that signatures can be compared at a fixed time.
+     */
+    public SigV4SigningInterceptor(final String service, final String region, final AWSCredentialsProvider awsCredentialsProvider, final Clock clock) {
+        this.service = service;
+        this.region = region;
+        this.awsCredentialsProvider = awsCredentialsProvider;
+        this.clock = clock;
+    }
+
+    @Override
+    public void process(final HttpRequest request, final HttpContext context) throws HttpException, IOException {
+        final AWSCredentials credentials = awsCredentialsProvider.getCredentials();
+        final String amzDate = AMZ_DATE_FORMAT.format( clock.instant() );
+        final String dateStamp = amzDate.substring(0, 8);
+        final String host = hostName(request, context);
+        final URI uri = URI.create( request.getRequestLine().getUri() );
+        String sessionToken = null;
+        if (credentials instanceof AWSSessionCredentials) {
+            sessionToken = ((AWSSessionCredentials)credentials).getSessionToken();
+        }
+
+        request.setHeader("X-Amz-Date", amzDate);
+        if (sessionToken != null) {
+            request.setHeader("X-Amz-Security-Token", sessionToken);
+        }
+        StringBuilder signedHeaderNames = new StringBuilder(80);
+        StringBuilder canonical = new StringBuilder(256);
+        canonical.append( request.getRequestLine().getMethod() ).append('\n');
+        canonical.append( canonicalPath(uri.getRawPath()) ).append('\n');
+        canonical.append( canonicalQuery(uri) ).append('\n');
+        for (String name : BODY_HEADERS) {
+            final String value = headerValue(request, name);
+            if (value != null) {
+                canonical.append( name ).append(':').append( value ).append('\n');
+                signedHeaderNames.append( name ).append(';');
+            }
+        }
+        signedHeaderNames.append( (sessionToken != null) ? "host;x-amz-date;x-amz-security-token" : "host;x-amz-date" );
+        final String signedHeaders = signedHeaderNames.toString();
+        canonical.append("host:").append( host ).append('\n');
+        canonical.append("x-amz-date:").append( amzDate ).append('\n');
+        if (sessionToken != null) {
+            canonical.append("x-amz-security-token:").append( sessionToken.trim() ).append('\n');
+        }
+        canonical.append('\n');
+        canonical.append( signedHeaders ).append('\n');
+        canonical.append( payloadHash(request) );
+
+        final String scope = dateStamp + "/" + region + "/" + service + "/" + TERMINATOR;
+        StringBuilder stringToSign = new StringBuilder(160);
+        stringToSign.append( ALGORITHM ).append('\n');
+        stringToSign.append( amzDate ).append('\n');
+        stringToSign.append( scope ).append('\n');
+        stringToSign.append( hex( sha256.get().digest( canonical.toString().getBytes(StandardCharsets.UTF_8) ) ) );
+
+        final byte[] signature = hmac( signingKey(dateStamp, credentials), stringToSign.toString() );
+        StringBuilder authorization = new StringBuilder(200);
+        authorization.append( ALGORITHM ).append(" Credential=").append( credentials.getAWSAccessKeyId() ).append('/').append( scope );
+        authorization.append(", SignedHeaders=").append( signedHeaders );
+        authorization.append(", Signature=").append( hex(signature) );
+        request.setHeader("Authorization", authorization.toString());
+    }
+
+    /**
+     * Return the cached signing key, deriving a new key when the date (or the credentials) change.
+     */
+    private byte[] signingKey(final String dateStamp, final AWSCredentials credentials) {
+        SigningKey cached = signingKey;
+        if (cached == null || !cached.matches(dateStamp, credentials)) {
+            byte[] kSecret = ("AWS4" + credentials.getAWSSecretKey()).getBytes(StandardCharsets.UTF_8);
+            byte[] kDate = hmac(kSecret, dateStamp);
+            byte[] kRegion = hmac(kDate, region);
+            byte[] kService = hmac(kRegion, service);
+            byte[] kSigning = hmac(kService, TERMINATOR);
+            cached = new SigningKey(dateStamp, credentials.getAWSAccessKeyId(), credentials.getAWSSecretKey(), kSigning);
+            signingKey = cached;
+        }
+        return cached.key;
+    }
+
+    /**
+     * <p>
+     * Return the canonical value of a body header (the values of repeated headers are joined with commas and runs of
+     * spaces are replaced by one space). If the header is not in the request, the entity header is used, since the
+     * HTTP client copies the entity Content-Type and Content-Encoding into the request when it is sent.
+     * </p>
+     *
+     * @return the header value or null if neither the request nor the entity has the header
+     */
+    private static String headerValue(final HttpRequest request, final String name) {
+        String value = null;
+        Header[] headers = request.getHeaders(name);
+        if (headers.length == 0 && request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                Header entityHeader = name.equals("content-encoding") ? entity.getContentEncoding() : entity.getContentType();
+                if (entityHeader != null) {
+                    headers = new Header[] { entityHeader };
+                }
+            }
+        }
+        if (headers.length > 0) {
+            StringBuilder builder = new StringBuilder();
+            for (Header header : headers) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append( header.getValue().trim().replaceAll("\\s+", " ") );
+            }
+            value = builder.toString();
+        }
+        return value;
+    }
+
+    private static String hostName(final HttpRequest request, final HttpContext context) {
+        String host = null;
+        HttpHost target = (HttpHost) context.getAttribute(HTTP_TARGET_HOST);
+        if (target != null) {
+            host = target.getHostName();
+            int port = target.getPort();
+            boolean defaultPort = (port == 443 && "https".equalsIgnoreCase(target.getSchemeName())) 
+                                  || (port == 80 && "http".equalsIgnoreCase(target.getSchemeName()));
+            if (port != -1 && !defaultPort) {
+                host = host + ":" + port;
+            }
+        } else {
+            Header hostHeader = request.getFirstHeader("Host");
+            if (hostHeader != null) {
+                host = hostHeader.getValue();
+            }
+        }
+        return host;
+    }
+
+    /**
+     * <p>
+     * Calculate the hex encoded SHA-256 hash of the request body. A repeatable entity is read from its content
+     * and is left in place. A non-repeatable entity can only be read once, so it is buffered and replaced by a
+     * byte array entity.
+     * </p>
+     */
+    private static String payloadHash(final HttpRequest request) throws IOException {
+        String hash = EMPTY_PAYLOAD_HASH;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+            HttpEntity entity = entityRequest.getEntity();
+            if (entity != null) {
+                MessageDigest digest = sha256.get();
+                digest.reset();
+                if (entity.isRepeatable()) {
+                    byte[] buffer = hashBuffer.get();
+                    try (InputStream content = entity.getContent()) {
+                        int n;
+                        while ((n = content.read(buffer)) > 0) {
+                            digest.update(buffer, 0, n);
+                        }
+                    }
+                } else {
+                    byte[] body = EntityUtils.toByteArray( entity );
+                    ByteArrayEntity bufferedEntity = new ByteArrayEntity( body );
+                    bufferedEntity.setContentType( entity.getContentType() );
+                    bufferedEntity.setContentEncoding( entity.getContentEncoding() );
+                    entityRequest.setEntity( bufferedEntity );
+                    digest.update( body );
+                }
+                hash = hex( digest.digest() );
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * The canonical path is the URI path, URI encoded a second time (this is what the AWS4Signer does for
+     * all services except S3).
+     */
+    private static String canonicalPath(final String rawPath) {
+        String path = "/";
+        if (rawPath != null && rawPath.length() > 0) {
+            path = uriEncode(rawPath, false);
+        }
+        return path;
+    }
+
+    private static String canonicalQuery(final URI uri) {
+        String query = "";
+        if (uri.getRawQuery() != null && uri.getRawQuery().length() > 0) {
+            List<NameValuePair> params = URLEncodedUtils.parse(uri, StandardCharsets.UTF_8);
+            List<String[]> encodedParams = new ArrayList<String[]>( params.size() );
+            for (NameValuePair param : params) {
+                String value = (param.getValue() != null) ? param.getValue() : "";
+                encodedParams.add( new String[] { uriEncode(param.getName(), true), uriEncode(value, true) } );
+            }
+            // sort by the encoded parameter name and then by the encoded value
+            Collections.sort( encodedParams, (p1, p2) -> {
+                int compare = p1[0].compareTo( p2[0] );
+                return (compare != 0) ? compare : p1[1].compareTo( p2[1] );
+            });
+            StringBuilder builder = new StringBuilder();
+            for (String[] param : encodedParams) {
+                if (builder.length() > 0) {
+                    builder.append('&');
+                }
+                builder.append( param[0] ).append('=').append( param[1] );
+            }
+            query = builder.toString();
+        }
+        return query;
+    }
+
+    /**
+     * URI encode a string using the SigV4 rules: the unreserved characters A-Z, a-z, 0-9, '-', '.', '_' and '~' are
+     * not encoded. The '/' is not encoded in a path.
+     */
+    private static String uriEncode(final String str, final boolean encodeSlash) {
+        StringBuilder builder = null;
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            boolean unreserved = (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')
+                    || b == '-' || b == '.' || b == '_' || b == '~' || (b == '/' && !encodeSlash);
+            if (unreserved) {
+                if (builder != null) {
+                    builder.append((char) b);
+                }
+            } else {
+                if (builder == null) {
+                    builder = new StringBuilder(bytes.length + 16);
+                    for (int j = 0; j < i; j++) {
+                        builder.append((char) bytes[j]);
+                    }
+                }
+                builder.append('%').append( Character.toUpperCase(HEX_DIGITS[b >> 4]) ).append( Character.toUpperCase(HEX_DIGITS[b & 0xf]) );
+            }
+        }
+        return (builder != null) ? builder.toString() : str;
+    }
+
+    private static byte[] hmac(final byte[] key, final String data) {
+        try {
+            Mac mac = hmacSha256.get();
+            mac.init( new SecretKeySpec(key, HMAC_SHA256) );
+            return mac.doFinal( data.getBytes(StandardCharsets.UTF_8) );
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException("Invalid HMAC key", e);
+        }
+    }
+
+    private static String hex(final byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,221 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <h4>
+ * SingleFlight
+ * </h4>
+ * <p>
+ * Coalesce identical concurrent requests. The first caller for a key (the leader) executes the request. Callers
+ * with the same key that arrive while the request is in flight wait for the leader's result instead of sending
+ * their own request. When the request completes the key is removed, so a later call sends a new request (this
+ * is not a cache).
+ * </p>
+ * <p>
+ * For example, when many users click the same genre on the explore page at the same time, one Elasticsearch
+ * search is sent and its result is returned to all of them.
+ * </p>
+ * <p>
+ * An exception thrown by the leader's request is thrown to all of the callers that shared it. An asynchronous request
+ * is only cancelled when all of the callers that share it have cancelled.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ *
+ * @param <V> the result type
+ */
+public class SingleFlight<V> implements IElasticsearch {
+    private static final LongAdder leaders = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<String, Flight>();
+
+    /**
+     * A request in flight and the number of callers that are waiting for it.
+     */
+    private class Flight {
+        final CompletableFuture<V> result = new CompletableFuture<V>();
+        // -1 once every asynchronous caller has cancelled and the request has been cancelled
+        final AtomicInteger waiters = new AtomicInteger(1);
+        volatile CompletableFuture<V> request = null;
+
+        /**
+         * @return false if the flight was abandoned, so the caller must start a new one
+         */
+        boolean join() {
+            int count;
+            do {
+                count = waiters.get();
+                if (count < 0) {
+                    return false;
+                }
+            } while (! waiters.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * An asynchronous caller cancelled. When no callers are left, cancel the request.
+         */
+        void leave(final String key) {
+            if (waiters.decrementAndGet() == 0 && waiters.compareAndSet(0, -1)) {
+                inFlight.remove(key, this);
+                CompletableFuture<V> sent = request;
+                if (sent != null) {
+                    sent.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * @return a caller's own future for the shared result
+         */
+        CompletableFuture<V> callerFuture(final String key) {
+            final CompletableFuture<V> caller = new CompletableFuture<V>();
+            result.whenComplete((value, ex) -> {
+                if (ex != null) {
+                    caller.completeExceptionally(ex);
+                } else {
+                    caller.complete(value);
+                }
+            });
+            caller.whenComplete((value, ex) -> {
+                if (caller.isCancelled() && ! result.isDone()) {
+                    leave(key);
+                }
+            });
+            return caller;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.singleflight.enabled", Boolean.toString(SINGLE_FLIGHT_ENABLED)) );
+    }
+
+    /**
+     * @return the counters: leaders (requests that were sent) and coalesced (requests that shared a leader's result).
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("leaders", leaders.sum());
+        stats.put("coalesced", coalesced.sum());
+        return stats;
+    }
+
+    /**
+     * <p>
+     * Execute a blocking request, or wait for the identical request that is already in flight.
+     * </p>
+     *
+     * @param key the request key (e.g., the index name and the query JSON)
+     * @param request the request
+     * @return the request result
+     */
+    public V execute(final String key, final Supplier<V> request) {
+        V result = null;
+        final Flight flight = new Flight();
+        Flight existing = inFlight.putIfAbsent(key, flight);
+        while (existing != null && ! existing.join()) {
+            // an abandoned asynchronous flight that is being removed
+            inFlight.remove(key, existing);
+            existing = inFlight.putIfAbsent(key, flight);
+        }
+        if (existing == null) {
+            leaders.increment();
+            try {
+                result = request.get();
+                flight.result.complete(result);
+            } catch (RuntimeException | Error e) {
+                flight.result.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, flight);
+            }
+        } else {
+            coalesced.increment();
+            try {
+                result = existing.result.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Start an asynchronous request, or join the identical request that is already in flight. Each caller gets its own
+     * future, so cancelling it does not affect the other callers. When every caller has cancelled, the request
+     * itself is cancelled.
+     * </p>
+     *
+     * @param key the request key
+     * @param request starts the request
+     * @return a future for the request result
+     */
+    public CompletableFuture<V> executeAsync(final String key, final Supplier<CompletableFuture<V>> request) {
+        CompletableFuture<V> result = null;
+        final Flight flight = new Flight();
+        Flight existing = inFlight.putIfAbsent(key, flight);
+        while (existing != null && ! existing.join()) {
+            inFlight.remove(key, existing);
+            existing = inFlight.putIfAbsent(key, flight);
+        }
+        if (existing == null) {
+            leaders.increment();
+            result = flight.callerFuture(key);
+            try {
+                final CompletableFuture<V> sent = request.get();
+                flight.request = sent;
+                sent.whenComplete((value, ex) -> {
+                    inFlight.remove(key, flight);
+                    if (ex != null) {
+                        flight.result.completeExceptionally(ex);
+                    } else {
+                        flight.result.complete(value);
+                    }
+                });
+                if (flight.waiters.get() < 0) {
+                    // the caller cancelled while the request was being started
+                    sent.cancel(true);
+                }
+            } catch (RuntimeException e) {
+                inFlight.remove(key, flight);
+                flight.result.completeExceptionally(e);
+            }
+        } else {
+            coalesced.increment();
+            result = existing.callerFuture(key);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,240 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <h4>
+ * TaskCanceller
+ * </h4>
+ * <p>
+ * Stop the work for Elasticsearch requests whose answer will not be read: requests that passed their deadline (see
+ * OperationClass) and requests that the caller cancelled (for example, because the user abandoned the page).
+ * </p>
+ * <p>
+ * Aborting the HTTP exchange frees the connection, but Elasticsearch keeps running the search. Each request is
+ * tagged with an X-Opaque-Id header, which Elasticsearch (6.2 and later) stores with the request's tasks. When a search
+ * is abandoned, the search tasks are listed (GET _tasks?actions=*search*&amp;detailed), the task with the request's
+ * X-Opaque-Id is found and it is cancelled with POST _tasks/[task id]/_cancel. Cancelling the parent search task
+ * cancels the shard tasks. The task requests are asynchronous, so the caller does not wait for them.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class TaskCanceller implements IElasticsearch {
+    public final static String OPAQUE_ID_HEADER = "X-Opaque-Id";
+    private final static String OPAQUE_ID_PREFIX = "booksearch-";
+    private final static String SEARCH_TASKS = "_tasks?actions=*search*&detailed=true";
+    private static Logger logger = LoggerFactory.getLogger( TaskCanceller.class.getName() );
+    private final static ObjectMapper mapper = new ObjectMapper();
+    private static final AtomicLong sequence = new AtomicLong(0);
+    private static final LongAdder deadlinesExceeded = new LongAdder();
+    private static final LongAdder abandoned = new LongAdder();
+    private static final LongAdder tasksCancelled = new LongAdder();
+    private static volatile ScheduledExecutorService deadlineTimer = null;
+
+    private TaskCanceller() {}
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean( System.getProperty("booksearch.timeout.cancelTasks", Boolean.toString(TIMEOUT_CANCEL_TASKS)) );
+    }
+
+    /**
+     * @return the counters: deadlinesExceeded (requests that timed out), abandoned (requests that were cancelled by the
+     * caller before the response arrived) and tasksCancelled (Elasticsearch tasks that were cancelled).
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("deadlinesExceeded", deadlinesExceeded.sum());
+        stats.put("abandoned", abandoned.sum());
+        stats.put("tasksCancelled", tasksCancelled.sum());
+        return stats;
+    }
+
+    /**
+     * @return the timer that enforces the request deadlines.
+     */
+    protected static ScheduledExecutorService deadlineTimer() {
+        if (deadlineTimer == null) {
+            synchronized (TaskCanceller.class) {
+                if (deadlineTimer == null) {
+                    deadlineTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "es-deadline-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return deadlineTimer;
+    }
+
+    /**
+     * <p>
+     * Prepare a request to be sent: classify it, set the timeouts for its class and tag it with an X-Opaque-Id
+     * (unless the caller already set one).
+     * </p>
+     *
+     * @param request the HTTP request
+     * @return the operation class of the request
+     */
+    public static OperationClass prepare(final HttpUriRequest request) {
+        final OperationClass operation = OperationClass.classify(request.getMethod(), request.getURI().getPath());
+        if (request instanceof HttpRequestBase) {
+            ((HttpRequestBase)request).setConfig( operation.requestConfig() );
+        }
+        if (! request.containsHeader(OPAQUE_ID_HEADER)) {
+            request.setHeader(OPAQUE_ID_HEADER, OPAQUE_ID_PREFIX + sequence.incrementAndGet());
+        }
+        return operation;
+    }
+
+    /**
+     * @return the X-Opaque-Id of a request or null
+     */
+    public static String opaqueId(final HttpUriRequest request) {
+        Header header = request.getFirstHeader(OPAQUE_ID_HEADER);
+        return (header != null) ? header.getValue() : null;
+    }
+
+    /**
+     * <p>
+     * Enforce the deadline of an asynchronous request and clean up when it is abandoned. If there is no result when the
+     * deadline passes, the result is completed with a TimeoutException. If the result times out or is cancelled before
+     * the response arrives, the HTTP exchange is aborted and, for a search, the Elasticsearch task is cancelled.
+     * </p>
+     *
+     * @param result the future for the request result
+     * @param request the HTTP request (tagged by prepare())
+     * @param operation the operation class
+     * @param inFlight returns true if the response has not arrived (i.e., there is an HTTP exchange in flight)
+     * @param abort aborts the HTTP exchange
+     */
+    public static <T> void watch(final CompletableFuture<T> result, final HttpUriRequest request, final OperationClass operation,
+                                 final BooleanSupplier inFlight, final Runnable abort) {
+        final ScheduledFuture<?> deadline = deadlineTimer().schedule(() -> {
+            if (result.completeExceptionally( new TimeoutException(request.getMethod() + " " + HttpService.operationName(request) +
+                                                                   " timed out after " + operation.timeoutMillis() + " ms") )) {
+                deadlinesExceeded.increment();
+            }
+        }, operation.timeoutMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((value, ex) -> {
+            deadline.cancel(false);
+            final boolean timedOut = ex instanceof TimeoutException;
+            if ((timedOut || result.isCancelled()) && inFlight.getAsBoolean()) {
+                if (! timedOut) {
+                    abandoned.increment();
+                }
+                abort.run();
+                if (hasTask(request, operation)) {
+                    cancelTask( opaqueId(request) );
+                }
+            }
+        });
+    }
+
+    /**
+     * Count a blocking request that was aborted because it passed its deadline and cancel its Elasticsearch task.
+     */
+    protected static void deadlineExceeded(final HttpUriRequest request, final OperationClass operation) {
+        deadlinesExceeded.increment();
+        logger.warn(request.getMethod() + " " + HttpService.operationName(request) + " timed out after " + operation.timeoutMillis() + " ms");
+        if (hasTask(request, operation)) {
+            cancelTask( opaqueId(request) );
+        }
+    }
+
+    /**
+     * @return true if the request runs as a cancellable Elasticsearch task. The _tasks requests sent by this class are
+     * not cancelled, so a timed out task request does not start another one.
+     */
+    private static boolean hasTask(final HttpUriRequest request, final OperationClass operation) {
+        final String path = request.getURI().getPath();
+        return operation.isCancellable() && ! (path != null && path.contains("/_tasks"));
+    }
+
+    /**
+     * @param tasksJson the _tasks?detailed response
+     * @param opaqueId the X-Opaque-Id of the abandoned request
+     * @return the IDs (node:id) of the top level tasks that were started by the request
+     */
+    public static List<String> findTasks(final String tasksJson, final String opaqueId) throws IOException {
+        List<String> taskIds = new ArrayList<String>();
+        JsonNode nodes = mapper.readTree( tasksJson ).path("nodes");
+        for (JsonNode node : nodes) {
+            Iterator<Map.Entry<String, JsonNode>> tasks = node.path("tasks").fields();
+            while (tasks.hasNext()) {
+                Map.Entry<String, JsonNode> task = tasks.next();
+                JsonNode taskInfo = task.getValue();
+                if (opaqueId.equals( taskInfo.path("headers").path(OPAQUE_ID_HEADER).asText(null) ) &&
+                    taskInfo.path("cancellable").asBoolean(false) && ! taskInfo.has("parent_task_id")) {
+                    taskIds.add( task.getKey() );
+                }
+            }
+        }
+        return taskIds;
+    }
+
+    /**
+     * <p>
+     * Cancel the Elasticsearch tasks for an abandoned request. The task requests are sent with the AsyncHttpService,
+     * so no thread waits for them.
+     * </p>
+     *
+     * @param opaqueId the X-Opaque-Id of the request
+     */
+    public static void cancelTask(final String opaqueId) {
+        if (opaqueId != null && isEnabled()) {
+            AsyncHttpService.getDocument(null, null, SEARCH_TASKS).thenAccept(tasksJson -> {
+                try {
+                    if (tasksJson != null) {
+                        for (String taskId : findTasks(tasksJson, opaqueId)) {
+                            AsyncHttpService.postDocument(null, null, "_tasks/" + taskId + "/_cancel", "").thenAccept(response -> {
+                                tasksCancelled.increment();
+                                logger.info("Cancelled Elasticsearch task " + taskId + " (" + opaqueId + ")");
+                            });
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.error("Could not read the Elasticsearch tasks: " + e.getLocalizedMessage());
+                }
+            }).exceptionally(ex -> {
+                logger.error("Could not cancel the Elasticsearch task for " + opaqueId + ": " + ex.getLocalizedMessage());
+                return null;
+            });
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h4>
+ * TransportFactory
+ * </h4>
+ * <p>
+ * Return the Elasticsearch transport used by the services. The transport is selected with the system property
+ * booksearch.es.transport:
+ * </p>
+ * <ul>
+ * <li>http (the default): signed HTTP requests to the AWS Elasticsearch end-point (IElasticsearch.ES_URL)</li>
+ * <li>http2: signed HTTP/2 requests (Http2Transport). Concurrent requests to a node share one multiplexed connection,
+ * so this requires an end-point (or a proxy in front of Elasticsearch) that supports HTTP/2.</li>
+ * <li>memory: the in-process InMemoryTransport. All of the services share one in-memory instance, so an index
+ * that is created by one service can be searched by another.</li>
+ * </ul>
+ * <p>
+ * For example, the unit tests can be run without a network connection with:
+ * </p>
+ * <pre>
+ * mvn test -Doffline
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public final class TransportFactory implements IElasticsearch {
+    public final static String HTTP_TRANSPORT = "http";
+    public final static String HTTP2_TRANSPORT = "http2";
+    public final static String MEMORY_TRANSPORT = "memory";
+    private static Logger logger = LoggerFactory.getLogger( TransportFactory.class.getName() );
+
+    private static volatile IElasticsearchTransport httpTransport = null;
+    private static volatile IElasticsearchTransport http2Transport = null;
+    private static volatile IElasticsearchTransport memoryTransport = null;
+    private static IElasticsearchTransport defaultBase = null;
+    private static IElasticsearchTransport defaultTransport = null;
+
+    private TransportFactory() {}
+
+    /**
+     * @return the shared HTTP transport
+     */
+    public static IElasticsearchTransport httpTransport() {
+        if (httpTransport == null) {
+            synchronized (TransportFactory.class) {
+                if (httpTransport == null) {
+                    httpTransport = new HttpTransport();
+                }
+            }
+        }
+        return httpTransport;
+    }
+
+    /**
+     * @return the shared HTTP/2 transport
+     */
+    public static IElasticsearchTransport http2Transport() {
+        if (http2Transport == null) {
+            synchronized (TransportFactory.class) {
+                if (http2Transport == null) {
+                    http2Transport = new Http2Transport();
+                }
+            }
+        }
+        return http2Transport;
+    }
+
+    /**
+     * @return the shared in-memory transport
+     */
+    public static IElasticsearchTransport inMemoryTransport() {
+        if (memoryTransport == null) {
+            synchronized (TransportFactory.class) {
+                if (memoryTransport == null) {
+                    memoryTransport = new InMemoryTransport();
+                }
+            }
+        }
+        return memoryTransport;
+    }
+
+    /**
+     * <p>
+     * Add the optional request policies (e.g., hedged searches) to a transport. Each policy is a ForwardingTransport.
+     * The search batching is applied first, so that the other policies see each search and only the _msearch request
+     * is sent to Elasticsearch. The concurrency limit is applied next, so that each hedged request counts against the limit. The bulkheads
+     * are applied next, so that a request waiting for a bulkhead thread does not hold a concurrency permit. The
+     * priority policy is the outermost, so that batch requests wait on the caller's thread.
+     * </p>
+     *
+     * @param transport the HTTP, HTTP/2 or in-memory transport
+     * @return the transport with the enabled policies
+     */
+    protected static IElasticsearchTransport decorate(final IElasticsearchTransport transport) {
+        IElasticsearchTransport decorated = transport;
+        if (MultiSearchTransport.isEnabled()) {
+            decorated = new MultiSearchTransport( decorated );
+        }
+        if (ConcurrencyLimitTransport.isEnabled()) {
+            decorated = new ConcurrencyLimitTransport( decorated );
+        }
+        if (HedgingTransport.isEnabled()) {
+            decorated = new HedgingTransport( decorated );
+        }
+        if (Bulkhead.isEnabled()) {
+            decorated = new BulkheadTransport( decorated );
+        }
+        if (PriorityTransport.isEnabled()) {
+            decorated = new PriorityTransport( decorated );
+        }
+        return decorated;
+    }
+
+    /**
+     * @return the transport selected by the booksearch.es.transport system property, with the enabled policies.
+     */
+    public static synchronized IElasticsearchTransport defaultTransport() {
+        IElasticsearchTransport base = null;
+        final String transportName = System.getProperty("booksearch.es.transport", ES_TRANSPORT);
+        if (MEMORY_TRANSPORT.equalsIgnoreCase( transportName )) {
+            base = inMemoryTransport();
+        } else if (HTTP2_TRANSPORT.equalsIgnoreCase( transportName )) {
+            base = http2Transport();
+        } else {
+            if (! HTTP_TRANSPORT.equalsIgnoreCase( transportName )) {
+                logger.error("Unknown Elasticsearch transport " + transportName + ", using " + HTTP_TRANSPORT);
+            }
+            base = httpTransport();
+        }
+        if (defaultTransport == null || defaultBase != base) {
+            defaultTransport = decorate( base );
+            defaultBase = base;
+        }
+        return defaultTransport;
+    }
+}
@@ -94,6 +94,13 @@ span.errorSpan {
 		      <div style="padding-top: 1em;"></div>
 		   </div>
 		</div> <!-- row -->
+		<c:if test="${service_error != null && service_error.length() > 0}">
+		<div class="row">
+			<div class="col-md-12">
+				<span class="errorSpan">${service_error}</span>
+			</div>
+		</div>
+		</c:if>
 		<div class="row">
 			<div class="col-md-4">
 				<div class="accordion scroll" id="aggregateAccordion">
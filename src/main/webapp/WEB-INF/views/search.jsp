@@ -39,6 +39,15 @@
 		<div style="padding-top:1em;"></div>
 		<h2 align="center">Book Search: Search</h2>
 		<div style="padding-top:1em;"></div>
+		<c:if test="${service_error != null && service_error.length() > 0}">
+		<div class="row">
+				<div class="col-md-2"></div>
+				<div class="col-md-8">
+					<span class="errorSpan">${service_error}</span>
+				</div>
+				<div class="col-md-2"></div>
+			</div>
+		</c:if>
 		<c:if test="${fields.hasErrors()}">
 		<div class="row">
 				<div class="col-md-2"></div>
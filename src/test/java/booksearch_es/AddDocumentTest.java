@@ -19,7 +19,7 @@ import booksearch_es.json.Mapping;
 import booksearch_es.model.BookInfo;
 import booksearch_es.model.GenreEnum;
 import booksearch_es.service.ElasticsearchService;
-import booksearch_es.service.HttpService;
+import booksearch_es.service.TransportFactory;
 
 /**
  * <h4>
@@ -61,7 +61,7 @@ public class AddDocumentTest {
     public void setUp() throws Exception {
         if (! elasticService.indexExists(INDEX_NAME)) {
             final String bookInfoMapping = Mapping.bookInfoMapping(false);
-            String rslt = HttpService.putDocument(INDEX_NAME, type, suffix, bookInfoMapping);
+            String rslt = TransportFactory.defaultTransport().putDocument(INDEX_NAME, type, suffix, bookInfoMapping);
             if (rslt != null) {
                 if (JSONUtils.isAcknowledged(rslt)) {
                     System.out.println(this.getClass().getName() + ": " + INDEX_NAME + " index created");
@@ -81,7 +81,7 @@ public class AddDocumentTest {
      */
     @After
     public void tearDown() throws Exception {
-        String deleteIndexRslt = HttpService.deleteDocument(INDEX_NAME, type, suffix);
+        String deleteIndexRslt = TransportFactory.defaultTransport().deleteDocument(INDEX_NAME, type, suffix);
         if (deleteIndexRslt != null) {
             if (JSONUtils.isAcknowledged(deleteIndexRslt)) {
                 System.out.println(this.getClass().getName() + ": " +  "Test index " + INDEX_NAME + " successfully removed");
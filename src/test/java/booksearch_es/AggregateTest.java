@@ -8,24 +8,27 @@
  */
 package booksearch_es;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import booksearch_es.json.Facet;
 import booksearch_es.json.JSONUtils;
 import booksearch_es.json.JSONUtils.BucketAggregation;
 import booksearch_es.json.Mapping;
 import booksearch_es.model.BookInfo;
 import booksearch_es.service.BookSearchService;
 import booksearch_es.service.ElasticsearchService;
-import booksearch_es.service.HttpService;
+import booksearch_es.service.TransportFactory;
 
 public class AggregateTest {
     private final static String INDEX_NAME = "aggregate_test";
@@ -38,7 +41,7 @@ public class AggregateTest {
     public void setUp() throws Exception {
         final String bookInfoMapping = Mapping.bookInfoMapping(false);
 
-        String rslt = HttpService.putDocument(INDEX_NAME, type, suffix, bookInfoMapping);
+        String rslt = TransportFactory.defaultTransport().putDocument(INDEX_NAME, type, suffix, bookInfoMapping);
         if (rslt != null) {
             if (JSONUtils.isAcknowledged(rslt)) {
                 System.out.println(this.getClass().getName() + ": " + INDEX_NAME + " index created");
@@ -55,7 +58,7 @@ public class AggregateTest {
 
     @After
     public void tearDown() throws Exception {
-        String deleteIndexRslt = HttpService.deleteDocument(INDEX_NAME, type, suffix);
+        String deleteIndexRslt = TransportFactory.defaultTransport().deleteDocument(INDEX_NAME, type, suffix);
         if (deleteIndexRslt != null) {
             if (JSONUtils.isAcknowledged(deleteIndexRslt)) {
                 System.out.println(this.getClass().getName() + ": " +  "Test index " + INDEX_NAME + " successfully removed");
@@ -123,4 +126,40 @@ public class AggregateTest {
         assertTrue("The aggregate lists do not match", testPassed);
     }
 
+    /**
+     * The facets that are requested with one search have the same buckets as the single aggregations.
+     */
+    @Test
+    public void testFacetAggregation() {
+        BookSearchService service = new BookSearchService();
+        Facet genreFacet = new Facet("genres", "genre", 10000, Facet.Order.KEY_ASC);
+        Facet publisherFacet = new Facet("publishers", "publisher.keyword", 10000, Facet.Order.KEY_ASC);
+        Facet topPublisher = new Facet("top_publisher", "publisher.keyword", 1, Facet.Order.COUNT_DESC);
+        Map<String, List<BucketAggregation>> facets = service.facetAggregation(INDEX_NAME, Arrays.asList(genreFacet, publisherFacet, topPublisher));
+        assertEquals(Arrays.asList("genres", "publishers", "top_publisher"), new ArrayList<String>( facets.keySet() ));
+        assertBucketsEqual(service.bucketAggregation(INDEX_NAME, "genres", "genre"), facets.get("genres"));
+        List<BucketAggregation> publishers = service.bucketAggregation(INDEX_NAME, "publishers", "publisher.keyword");
+        assertBucketsEqual(publishers, facets.get("publishers"));
+        assertEquals(1, facets.get("top_publisher").size());
+        for (BucketAggregation publisher : publishers) {
+            assertTrue(publisher.doc_count <= facets.get("top_publisher").get(0).doc_count);
+        }
+        // The search result is read in one pass, skipping the hits and the other aggregations
+        String result = "{\"took\":1,\"hits\":{\"total\":2,\"hits\":[{\"_source\":{\"genre\":\"x\"}}]}," +
+                        "\"aggregations\":{\"other\":{\"buckets\":[{\"key\":\"y\",\"doc_count\":1}]}," +
+                        "\"years\":{\"doc_count_error_upper_bound\":0,\"buckets\":[{\"key\":1984,\"doc_count\":2}]}}}";
+        Map<String, List<BucketAggregation>> parsed = JSONUtils.extractBucketTermAggregations(Arrays.asList("years", "missing"), result);
+        assertEquals("1984", parsed.get("years").get(0).key);
+        assertEquals(2, parsed.get("years").get(0).doc_count);
+        assertTrue(parsed.get("missing").isEmpty());
+    }
+
+    private static void assertBucketsEqual(final List<BucketAggregation> expected, final List<BucketAggregation> buckets) {
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), buckets.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).key, buckets.get(i).key);
+            assertEquals(expected.get(i).doc_count, buckets.get(i).doc_count);
+        }
+    }
 }
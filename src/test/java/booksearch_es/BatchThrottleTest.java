@@ -0,0 +1,115 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import booksearch_es.json.Mapping;
+import booksearch_es.service.BatchThrottle;
+import booksearch_es.service.InMemoryTransport;
+import booksearch_es.service.PriorityTransport;
+import booksearch_es.service.RequestPriority;
+
+/**
+ * <h4>
+ * BatchThrottleTest
+ * </h4>
+ * <p>
+ * Test that the batch rate is halved when the interactive latency is above the target and recovers when the site
+ * is quiet, and that the PriorityTransport throttles the bulk requests and the requests in a batch scope.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class BatchThrottleTest {
+    private final static String INDEX_NAME = "batch_throttle_test";
+    private final static long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+    private final static long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static void interactive(final BatchThrottle throttle, final long latencyNanos, final int count) {
+        for (int i = 0; i < count; i++) {
+            throttle.onInteractiveStart();
+            throttle.onInteractiveComplete(latencyNanos);
+        }
+    }
+
+    @Test
+    public void testAdaptiveRate() {
+        AtomicLong clock = new AtomicLong(0);
+        // target 250 ms, 10 to 1 requests per second, a burst of 2, adjusted every second
+        BatchThrottle throttle = new BatchThrottle(250, 10.0, 1.0, 2, 1000, 4, 100, clock::get);
+        assertEquals(0, throttle.tryAcquire());
+        assertEquals(0, throttle.tryAcquire());
+        // The bucket is empty: the next token is 100 ms away at 10 requests per second
+        assertEquals(100, throttle.tryAcquire());
+        // Slow interactive requests halve the rate
+        interactive(throttle, SLOW, 50);
+        clock.set(1000);
+        throttle.tryAcquire();
+        assertEquals(5.0, throttle.getRate(), 0.001);
+        interactive(throttle, SLOW, 10);
+        clock.set(2000);
+        throttle.tryAcquire();
+        assertEquals(2.5, throttle.getRate(), 0.001);
+        // With no interactive requests in the period, the rate increases
+        clock.set(3000);
+        throttle.tryAcquire();
+        assertEquals(3.5, throttle.getRate(), 0.001);
+        // Fast interactive requests (once they are the 95th percentile) let the rate recover
+        interactive(throttle, FAST, 256);
+        clock.set(4000);
+        throttle.tryAcquire();
+        assertEquals(4.5, throttle.getRate(), 0.001);
+        assertEquals(2L, throttle.snapshot().get("rateDecreases").longValue());
+    }
+
+    @Test
+    public void testBatchRequests() throws Exception {
+        InMemoryTransport memory = new InMemoryTransport();
+        memory.putDocument(INDEX_NAME, null, null, Mapping.bookInfoMapping(false));
+        BatchThrottle throttle = new BatchThrottle(250, 1000.0, 1.0, 4, 1000, 4, 100);
+        PriorityTransport transport = new PriorityTransport(memory, throttle);
+        final String query = "{\"query\":{\"match_all\":{}}}";
+        transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", query);
+        transport.getDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", query).get(1, TimeUnit.SECONDS);
+        assertEquals(0L, throttle.snapshot().get("batchRequests").longValue());
+        assertEquals(0, throttle.getInteractiveInFlight());
+        transport.postDocument(INDEX_NAME, Mapping.TYPE_NAME, "_bulk", "");
+        RequestPriority.Scope batch = RequestPriority.batch();
+        try {
+            transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", query);
+        } finally {
+            batch.close();
+        }
+        assertEquals(RequestPriority.INTERACTIVE, RequestPriority.current());
+        assertEquals(2L, throttle.snapshot().get("batchRequests").longValue());
+        // A batch request yields to the interactive requests, for at most maxYieldMillis
+        for (int i = 0; i < 4; i++) {
+            throttle.onInteractiveStart();
+        }
+        final long start = System.nanoTime();
+        RequestPriority.Scope yieldingBatch = RequestPriority.batch();
+        try {
+            transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", query);
+        } finally {
+            yieldingBatch.close();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertEquals(1L, throttle.snapshot().get("yields").longValue());
+    }
+}
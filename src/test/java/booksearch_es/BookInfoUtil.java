@@ -10,8 +10,11 @@ package booksearch_es;
 
 import java.util.ArrayList;
 
+import booksearch_es.json.Mapping;
 import booksearch_es.model.BookInfo;
 import booksearch_es.model.GenreEnum;
+import booksearch_es.service.ElasticsearchService;
+import booksearch_es.service.IElasticsearchTransport;
 
 public final class BookInfoUtil {
 
@@ -187,4 +190,20 @@ public final class BookInfoUtil {
         bookList.add(testBook);                
         return bookList;
     }
+    
+    /**
+     * Create an index with the book mapping and add the books in buildBookList() to it.
+     * 
+     * @param transport the transport for the index (e.g., an InMemoryTransport)
+     * @param indexName the name of the index
+     * @return an ElasticsearchService that uses the transport
+     */
+    public static ElasticsearchService loadIndex(final IElasticsearchTransport transport, final String indexName) {
+        transport.putDocument(indexName, null, null, Mapping.bookInfoMapping(false));
+        ElasticsearchService elasticService = new ElasticsearchService(transport);
+        for (BookInfo book : buildBookList()) {
+            elasticService.addDocument(indexName, Mapping.TYPE_NAME, book);
+        }
+        return elasticService;
+    }
 }
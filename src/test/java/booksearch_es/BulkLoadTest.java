@@ -23,7 +23,7 @@ import booksearch_es.json.Mapping;
 import booksearch_es.model.BookInfo;
 import booksearch_es.service.BookSearchService;
 import booksearch_es.service.ElasticsearchService;
-import booksearch_es.service.HttpService;
+import booksearch_es.service.TransportFactory;
 
 /**
  * <h4>
@@ -51,7 +51,7 @@ public class BulkLoadTest {
     @Before
     public void setUp() throws Exception {
         final String bookInfoMapping = Mapping.bookInfoMapping(false);
-        String rslt = HttpService.putDocument(INDEX_NAME, type, suffix, bookInfoMapping);
+        String rslt = TransportFactory.defaultTransport().putDocument(INDEX_NAME, type, suffix, bookInfoMapping);
         if (rslt != null) {
             if (JSONUtils.isAcknowledged(rslt)) {
                 System.out.println(this.getClass().getName() + ": " + INDEX_NAME + " index created");
@@ -63,7 +63,7 @@ public class BulkLoadTest {
 
     @After
     public void tearDown() throws Exception {
-        String deleteIndexRslt = HttpService.deleteDocument(INDEX_NAME, type, suffix);
+        String deleteIndexRslt = TransportFactory.defaultTransport().deleteDocument(INDEX_NAME, type, suffix);
         if (deleteIndexRslt != null) {
             if (JSONUtils.isAcknowledged(deleteIndexRslt)) {
                 System.out.println(this.getClass().getName() + ": " +  "Test index " + INDEX_NAME + " successfully removed");
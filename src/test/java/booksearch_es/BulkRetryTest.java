@@ -0,0 +1,134 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import booksearch_es.json.Mapping;
+import booksearch_es.model.BookInfo;
+import booksearch_es.service.ElasticsearchService;
+import booksearch_es.service.InMemoryTransport;
+import booksearch_es.service.RetryPolicy;
+
+/**
+ * <h4>
+ * BulkRetryTest
+ * </h4>
+ * <p>
+ * Test that bulk load items that Elasticsearch rejects with status 429 (es_rejected_execution_exception) are sent
+ * again and that the retry delays follow the backoff policy.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class BulkRetryTest {
+    private final static String INDEX_NAME = "bulk_retry_test";
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * An in-memory transport that rejects the last item of the first bulk request.
+     */
+    private static class RejectingTransport extends InMemoryTransport {
+        final List<Integer> bulkItems = new ArrayList<Integer>();
+
+        @Override
+        public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+            String response = null;
+            if ("_bulk".equals(suffix)) {
+                String[] lines = jsonPayload.split("\n");
+                bulkItems.add(lines.length / 2);
+                if (bulkItems.size() == 1) {
+                    StringBuilder accepted = new StringBuilder();
+                    for (int i = 0; i < lines.length - 2; i++) {
+                        accepted.append(lines[i]).append("\n");
+                    }
+                    try {
+                        ObjectNode result = (ObjectNode)mapper.readTree( super.postDocument(index, type, suffix, accepted.toString()) );
+                        ObjectNode rejected = result.withArray("items").addObject().putObject("create");
+                        rejected.putObject("error").put("type", "es_rejected_execution_exception");
+                        rejected.put("status", 429);
+                        result.put("errors", true);
+                        response = mapper.writeValueAsString(result);
+                    } catch (IOException e) {
+                        response = null;
+                    }
+                } else {
+                    response = super.postDocument(index, type, suffix, jsonPayload);
+                }
+            } else {
+                response = super.postDocument(index, type, suffix, jsonPayload);
+            }
+            return response;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        System.setProperty("booksearch.retry.bulk.baseDelayMillis", "5");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("booksearch.retry.bulk.baseDelayMillis");
+    }
+
+    @Test
+    public void testRejectedItemsRetried() {
+        RejectingTransport transport = new RejectingTransport();
+        transport.putDocument(INDEX_NAME, null, null, Mapping.bookInfoMapping(false));
+        ElasticsearchService elasticService = new ElasticsearchService( transport );
+        List<Object> objList = new ArrayList<Object>( BookInfoUtil.gibsonBooks() );
+        long retries = RetryPolicy.snapshot().get("retries");
+        assertTrue("Bulk load with a rejected item failed", elasticService.bulkLoad(INDEX_NAME, Mapping.TYPE_NAME, objList));
+        assertEquals(2, transport.bulkItems.size());
+        assertEquals(Integer.valueOf( objList.size() ), transport.bulkItems.get(0));
+        assertEquals(Integer.valueOf(1), transport.bulkItems.get(1));
+        assertEquals(retries + 1, RetryPolicy.snapshot().get("retries").longValue());
+        String allBooks = transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", "{\"query\":{\"match_all\":{}}}");
+        assertTrue(allBooks.contains("\"total\":" + objList.size()));
+        for (Object obj : objList) {
+            assertTrue( allBooks.contains( ((BookInfo)obj).getTitle() ) );
+        }
+    }
+
+    @Test
+    public void testBackoffBudget() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 250, 10000);
+        for (int retry = 0; retry < 8; retry++) {
+            long ceiling = Math.min(250, 100L << retry);
+            for (int i = 0; i < 20; i++) {
+                long delay = policy.backoffMillis(retry);
+                assertTrue(delay >= 0 && delay <= ceiling);
+            }
+        }
+        RetryPolicy.Budget budget = policy.newBudget();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(budget.nextDelayMillis(0) >= 0);
+        }
+        assertEquals(-1, budget.nextDelayMillis(0));
+        // The retry would be sent after the maximum elapsed time
+        RetryPolicy shortPolicy = new RetryPolicy(3, 100, 250, 50);
+        assertEquals(-1, shortPolicy.newBudget().nextDelayMillis(1000));
+    }
+}
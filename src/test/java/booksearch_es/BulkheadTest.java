@@ -0,0 +1,127 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import booksearch_es.json.Mapping;
+import booksearch_es.service.Bulkhead;
+import booksearch_es.service.BulkheadTransport;
+import booksearch_es.service.ElasticsearchUnavailableException;
+import booksearch_es.service.IElasticsearch;
+import booksearch_es.service.InMemoryTransport;
+import booksearch_es.service.OperationClass;
+
+/**
+ * <h4>
+ * BulkheadTest
+ * </h4>
+ * <p>
+ * Test that a saturated aggregation bulkhead rejects the aggregations over its limit, while searches are still
+ * answered.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class BulkheadTest {
+    private final static String INDEX_NAME = "bulkhead_test";
+    private final static String QUERY = "{\"query\":{\"match_all\":{}}}";
+    private final static String AGGREGATION = "{\"size\":0,\"aggs\":{\"genres\":{\"terms\":{\"field\":\"genre\"}}}}";
+
+    /**
+     * An in-memory transport where the aggregations (POST _search) wait until they are released.
+     */
+    private static class SlowAggregations extends InMemoryTransport {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public CompletableFuture<String> postDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.postDocument(index, type, suffix, jsonPayload);
+            });
+        }
+    }
+
+    @Test
+    public void testSaturatedAggregations() throws Exception {
+        SlowAggregations stub = new SlowAggregations();
+        stub.putDocument(INDEX_NAME, null, null, Mapping.bookInfoMapping(false));
+        Map<OperationClass, Bulkhead> bulkheads = new EnumMap<OperationClass, Bulkhead>(OperationClass.class);
+        Bulkhead aggregations = new Bulkhead("test-aggregation", 1, 1, IElasticsearch.BULKHEAD_REJECT_ABORT);
+        Bulkhead searches = new Bulkhead("test-search", 2, 4, IElasticsearch.BULKHEAD_REJECT_ABORT);
+        bulkheads.put(OperationClass.AGGREGATION, aggregations);
+        bulkheads.put(OperationClass.SEARCH, searches);
+        BulkheadTransport transport = new BulkheadTransport(stub, bulkheads);
+        // One aggregation is in flight and one is waiting, so the third is rejected
+        CompletableFuture<String> first = transport.postDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", AGGREGATION);
+        CompletableFuture<String> second = transport.postDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", AGGREGATION);
+        CompletableFuture<String> third = transport.postDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", AGGREGATION);
+        try {
+            third.get(1, TimeUnit.SECONDS);
+            fail("The aggregation over the bulkhead limit should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ElasticsearchUnavailableException);
+            assertEquals(ElasticsearchUnavailableException.Reason.BULKHEAD_FULL, ((ElasticsearchUnavailableException)e.getCause()).getReason());
+        }
+        // The searches have their own bulkhead
+        assertNotNull( transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY) );
+        assertNotNull( transport.getDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY).get(1, TimeUnit.SECONDS) );
+        assertFalse(first.isDone());
+        assertEquals(1L, aggregations.snapshot().get("rejected").longValue());
+        assertEquals(0L, searches.snapshot().get("rejected").longValue());
+        stub.release.countDown();
+        assertNotNull( first.get(5, TimeUnit.SECONDS) );
+        assertNotNull( second.get(5, TimeUnit.SECONDS) );
+    }
+
+    @Test
+    public void testCallerRuns() {
+        Bulkhead bulk = new Bulkhead("test-bulk", 1, 1, IElasticsearch.BULKHEAD_REJECT_CALLER_RUNS);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread caller = Thread.currentThread();
+        // Fill the thread and the queue
+        CompletableFuture<String> running = bulk.callAsync(() -> CompletableFuture.supplyAsync(() -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        }));
+        CompletableFuture<String> queued = bulk.callAsync(() -> CompletableFuture.completedFuture("queued"));
+        // The bulkhead is full, so this request runs on the caller's thread
+        Boolean onCaller = bulk.call(() -> Thread.currentThread() == caller);
+        assertTrue(onCaller);
+        assertEquals(1L, bulk.snapshot().get("callerRuns").longValue());
+        release.countDown();
+        assertEquals("done", running.join());
+        assertEquals("queued", queued.join());
+    }
+}
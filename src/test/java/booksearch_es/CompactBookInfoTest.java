@@ -0,0 +1,178 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import booksearch_es.model.BookInfo;
+import booksearch_es.model.BookInfoComparator;
+import booksearch_es.model.CompactBookInfo;
+import booksearch_es.model.CompactBookList;
+import booksearch_es.model.GenreEnum;
+import booksearch_es.model.StringDictionary;
+import booksearch_es.service.BookSearchService;
+import booksearch_es.service.InMemoryTransport;
+
+/**
+ * <h4>
+ * CompactBookInfoTest
+ * </h4>
+ * <p>
+ * Test that the conversion between BookInfo and CompactBookInfo is lossless, that the repeated strings are shared
+ * that the CompactBookList behaves like a list of BookInfo objects and that the compact list of all of the books has
+ * the books that getBooks() returns.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class CompactBookInfoTest {
+    private static void assertSameFields(final BookInfo expected, final BookInfo info) {
+        assertEquals(expected, info);
+        assertEquals(expected.getAuthor_last_name(), info.getAuthor_last_name());
+    }
+
+    private static BookInfo roundTrip(final BookInfo info) {
+        return CompactBookInfo.fromBookInfo(info).toBookInfo();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (BookInfo book : BookInfoUtil.buildBookList()) {
+            book.setAuthor_last_name();
+            assertSameFields(book, roundTrip(book));
+            CompactBookInfo compact = CompactBookInfo.fromBookInfo(book);
+            assertEquals(GenreEnum.stringToEnum(book.getGenre()), compact.getGenreEnum());
+        }
+        BookInfo book = new BookInfo();
+        book.setTitle("The Difference Engine");
+        book.setAuthor(" William Gibson ");
+        book.setGenre("Steampunk");
+        book.setPublisher("");
+        // null fields stay null
+        BookInfo copy = roundTrip(book);
+        assertSameFields(book, copy);
+        assertNull(copy.getYear());
+        assertNull(copy.getPrice());
+        assertNull(copy.getAuthor_last_name());
+        assertEquals(GenreEnum.BAD_ENUM, CompactBookInfo.fromBookInfo(book).getGenreEnum());
+
+        // the year and price strings are kept as they were written
+        final String[] years = { "", "0", "1986", "0986", "19860", "-986", "198x" };
+        final String[] prices = { "", "16", "16.0", "16.00", "0.05", "00.05", ".95", "15.9500", "9999999.99", "10000000.00", "1x.95" };
+        for (String year : years) {
+            for (String price : prices) {
+                book.setYear(year);
+                book.setPrice(price);
+                assertSameFields(book, roundTrip(book));
+            }
+        }
+        book.setPrice("47.50");
+        assertEquals(4750, CompactBookInfo.fromBookInfo(book).getPriceCents());
+        book.setPrice("16");
+        assertEquals(-1, CompactBookInfo.fromBookInfo(book).getPriceCents());
+    }
+
+    @Test
+    public void testSharedStrings() {
+        BookInfo first = new BookInfo();
+        first.setAuthor( new String("Iain M. Banks") );
+        first.setPublisher( new String("Orbit Books") );
+        first.setGenre( new String("Science Fiction") );
+        BookInfo second = new BookInfo();
+        second.setAuthor( new String("Iain M. Banks") );
+        second.setPublisher( new String("Orbit Books") );
+        second.setGenre( new String("Science Fiction") );
+        CompactBookInfo compactFirst = CompactBookInfo.fromBookInfo(first);
+        CompactBookInfo compactSecond = CompactBookInfo.fromBookInfo(second);
+        assertSame(compactFirst.getAuthor(), compactSecond.getAuthor());
+        assertSame(compactFirst.getPublisher(), compactSecond.getPublisher());
+        assertSame(GenreEnum.SCIENCE_FICTION.getName(), compactFirst.getGenre());
+
+        StringDictionary dictionary = new StringDictionary(2);
+        assertEquals(0, dictionary.code("a"));
+        assertEquals(1, dictionary.code("b"));
+        assertEquals(0, dictionary.code( new String("a") ));
+        assertEquals(StringDictionary.NO_CODE, dictionary.code("c"));
+        final String c = new String("c");
+        assertSame(c, dictionary.canonical(c));
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    public void testCompactBookList() {
+        List<BookInfo> books = BookInfoUtil.buildBookList();
+        CompactBookList compactList = new CompactBookList(books);
+        assertEquals(books, compactList);
+        assertEquals(compactList, books);
+        // a copy of a CompactBookList shares the compact books
+        CompactBookList copy = new CompactBookList(compactList);
+        assertSame(compactList.getCompact(0), copy.getCompact(0));
+
+        List<BookInfo> sorted = new ArrayList<BookInfo>(books);
+        Collections.sort(sorted, new BookInfoComparator());
+        Collections.sort(copy, new BookInfoComparator());
+        assertEquals(sorted, copy);
+        assertEquals(books, compactList);
+
+        // get() returns a copy of the book: set() replaces the book
+        BookInfo changed = copy.get(0);
+        changed.setPrice("1.00");
+        assertEquals(sorted.get(0), copy.get(0));
+        copy.set(0, changed);
+        assertEquals("1.00", copy.get(0).getPrice());
+        copy.set(0, sorted.get(0));
+
+        BookInfo removed = copy.remove(0);
+        assertEquals(sorted.get(0), removed);
+        copy.add(0, removed);
+        assertEquals(sorted, copy);
+        copy.clear();
+        assertTrue(copy.isEmpty());
+    }
+
+    @Test
+    public void testCompactBooks() throws Exception {
+        final String indexName = "compact_book_test";
+        InMemoryTransport transport = new InMemoryTransport();
+        BookInfoUtil.loadIndex(transport, indexName);
+        BookSearchService searchService = new BookSearchService(transport);
+        List<BookInfo> books = searchService.getBooks(indexName);
+        List<CompactBookInfo> compactBooks = searchService.getCompactBooks(indexName);
+        List<CompactBookInfo> asyncBooks = searchService.getCompactBooksAsync(indexName).get();
+        assertEquals(BookInfoUtil.buildBookList().size(), compactBooks.size());
+        assertEquals(books.size(), asyncBooks.size());
+        for (int i = 0; i < books.size(); i++) {
+            assertSameFields(books.get(i), compactBooks.get(i).toBookInfo());
+            assertSameFields(books.get(i), asyncBooks.get(i).toBookInfo());
+            // the page templates read the same values from the compact book
+            assertEquals(books.get(i).getYear(), compactBooks.get(i).getYear());
+            assertEquals(books.get(i).getPrice(), compactBooks.get(i).getPrice());
+        }
+        // the list is read only and the year strings are shared
+        try {
+            compactBooks.remove(0);
+            fail("the compact book list can be changed");
+        } catch (UnsupportedOperationException e) {
+        }
+        assertSame(compactBooks.get(0).getYear(), asyncBooks.get(0).getYear());
+    }
+}
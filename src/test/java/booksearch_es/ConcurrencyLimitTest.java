@@ -0,0 +1,165 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import booksearch_es.json.Mapping;
+import booksearch_es.service.AdaptiveConcurrencyLimiter;
+import booksearch_es.service.CircuitBreaker;
+import booksearch_es.service.ConcurrencyLimitTransport;
+import booksearch_es.service.ElasticsearchUnavailableException;
+import booksearch_es.service.InMemoryTransport;
+
+/**
+ * <h4>
+ * ConcurrencyLimitTest
+ * </h4>
+ * <p>
+ * Test the adaptive concurrency limiter and the circuit breaker in the ConcurrencyLimitTransport. Requests
+ * that are over the limit, or that are sent while the breaker is open, must be rejected without being sent.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class ConcurrencyLimitTest {
+    private final static String INDEX_NAME = "limit_test";
+    private final static String QUERY = "{\"query\":{\"match_all\":{}}}";
+    private final static String UNAVAILABLE = "{\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"},\"status\":503}";
+
+    /**
+     * An in-memory transport where the asynchronous requests never complete and the blocking searches can be
+     * made to fail with a 503 error.
+     */
+    private static class StubTransport extends InMemoryTransport {
+        volatile boolean failing = false;
+        int searches = 0;
+
+        @Override
+        public String getDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+            searches++;
+            return failing ? UNAVAILABLE : super.getDocument(index, type, suffix, jsonPayload);
+        }
+
+        @Override
+        public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+            return new CompletableFuture<String>();
+        }
+    }
+
+    private StubTransport stubTransport() {
+        StubTransport stub = new StubTransport();
+        stub.putDocument(INDEX_NAME, null, null, Mapping.bookInfoMapping(false));
+        return stub;
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws InterruptedException {
+        StubTransport stub = stubTransport();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 2, 2.0);
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 50.0, 1000, 1);
+        ConcurrencyLimitTransport transport = new ConcurrencyLimitTransport(stub, limiter, breaker);
+        CompletableFuture<String> first = transport.getDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY);
+        CompletableFuture<String> second = transport.getDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY);
+        assertEquals(2, limiter.getInFlight());
+        CompletableFuture<String> third = transport.getDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY);
+        try {
+            third.get(1, TimeUnit.SECONDS);
+            fail("The request over the limit should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ElasticsearchUnavailableException);
+            assertEquals(ElasticsearchUnavailableException.Reason.CONCURRENCY_LIMIT, ((ElasticsearchUnavailableException)e.getCause()).getReason());
+        } catch (TimeoutException e) {
+            fail("The request over the limit should not wait");
+        }
+        try {
+            transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY);
+            fail("The blocking request over the limit should have been rejected");
+        } catch (ElasticsearchUnavailableException e) {
+            assertEquals(0, stub.searches);
+        }
+        // cancelling a request returns its permit
+        first.cancel(true);
+        second.complete("{\"hits\":{\"total\":0,\"hits\":[]}}");
+        assertEquals(0, limiter.getInFlight());
+        assertNotNull( transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY) );
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        StubTransport stub = stubTransport();
+        AtomicLong clock = new AtomicLong(0);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10, 2.0);
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 50.0, 1000, 1, clock::get);
+        ConcurrencyLimitTransport transport = new ConcurrencyLimitTransport(stub, limiter, breaker);
+        stub.failing = true;
+        for (int i = 0; i < 4; i++) {
+            assertEquals(UNAVAILABLE, transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue("Each failure should reduce the limit", limiter.getLimit() < 10);
+        try {
+            transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY);
+            fail("The breaker should reject the request");
+        } catch (ElasticsearchUnavailableException e) {
+            assertEquals(ElasticsearchUnavailableException.Reason.CIRCUIT_OPEN, e.getReason());
+            assertEquals(4, stub.searches);
+        }
+        // After the open period one trial request is sent. It succeeds, so the breaker closes.
+        clock.set(1000);
+        stub.failing = false;
+        assertNotNull( transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", QUERY) );
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testLimitFollowsLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 2.0);
+        final long fast = TimeUnit.MILLISECONDS.toNanos(5);
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < limiter.getLimit(); j++) {
+                limiter.tryAcquire();
+            }
+            while (limiter.getInFlight() > 0) {
+                limiter.onSuccess(fast);
+            }
+        }
+        int unloadedLimit = limiter.getLimit();
+        assertTrue("The limit should grow while the latency is low", unloadedLimit > 10);
+        // A sudden increase in latency (requests queued in Elasticsearch) reduces the limit
+        final long slow = TimeUnit.MILLISECONDS.toNanos(100);
+        int minLimit = unloadedLimit;
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < limiter.getLimit(); j++) {
+                limiter.tryAcquire();
+            }
+            while (limiter.getInFlight() > 0) {
+                limiter.onSuccess(slow);
+                minLimit = Math.min(minLimit, limiter.getLimit());
+            }
+        }
+        assertTrue("The limit should shrink when the latency goes up", minLimit < unloadedLimit / 2);
+    }
+}
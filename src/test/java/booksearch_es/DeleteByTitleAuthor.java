@@ -21,7 +21,7 @@ import booksearch_es.json.Mapping;
 import booksearch_es.model.BookInfo;
 import booksearch_es.service.BookSearchService;
 import booksearch_es.service.ElasticsearchService;
-import booksearch_es.service.HttpService;
+import booksearch_es.service.TransportFactory;
 
 public class DeleteByTitleAuthor {
     private final static String INDEX_NAME = "delete_by_title_author_test";
@@ -32,7 +32,7 @@ public class DeleteByTitleAuthor {
     public void setUp() throws Exception {
         final String bookInfoMapping = Mapping.bookInfoMapping(false);
 
-        String rslt = HttpService.putDocument(INDEX_NAME, type, suffix, bookInfoMapping);
+        String rslt = TransportFactory.defaultTransport().putDocument(INDEX_NAME, type, suffix, bookInfoMapping);
         if (rslt != null) {
             if (JSONUtils.isAcknowledged(rslt)) {
                 System.out.println(this.getClass().getName() + ": " + INDEX_NAME + " index created");
@@ -50,7 +50,7 @@ public class DeleteByTitleAuthor {
 
     @After
     public void tearDown() throws Exception {
-        String deleteIndexRslt = HttpService.deleteDocument(INDEX_NAME, type, suffix);
+        String deleteIndexRslt = TransportFactory.defaultTransport().deleteDocument(INDEX_NAME, type, suffix);
         if (deleteIndexRslt != null) {
             if (JSONUtils.isAcknowledged(deleteIndexRslt)) {
                 System.out.println(this.getClass().getName() + ": " +  "Test index " + INDEX_NAME + " successfully removed");
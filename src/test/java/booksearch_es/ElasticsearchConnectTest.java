@@ -18,8 +18,8 @@ import org.junit.Test;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import booksearch_es.json.JSONUtils;
-import booksearch_es.service.HttpService;
 import booksearch_es.service.IElasticsearch;
+import booksearch_es.service.TransportFactory;
 
 /**
  * <h4>
@@ -71,7 +71,7 @@ public class ElasticsearchConnectTest {
         final String index = null;
         final String type = null;
         final String suffix = null;
-        String responseStr = HttpService.getDocument(index, type, suffix);
+        String responseStr = TransportFactory.defaultTransport().getDocument(index, type, suffix);
         if (responseStr != null && responseStr.length() > 0) {
             try {
                 System.out.println(responseStr);
@@ -0,0 +1,101 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import booksearch_es.json.JSONUtils;
+import booksearch_es.json.Mapping;
+import booksearch_es.model.BookInfo;
+import booksearch_es.service.ElasticsearchService;
+import booksearch_es.service.HedgingTransport;
+import booksearch_es.service.InMemoryTransport;
+
+/**
+ * <h4>
+ * HedgingTransportTest
+ * </h4>
+ * <p>
+ * Test that a search that does not answer is hedged, that the hedge result is used and that the slow request
+ * is cancelled. The first search sent to the in-memory transport never completes.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class HedgingTransportTest {
+    private final static String INDEX_NAME = "hedging_test";
+
+    /**
+     * An in-memory transport where the first asynchronous search never completes.
+     */
+    private static class SlowFirstSearch extends InMemoryTransport {
+        final AtomicInteger searches = new AtomicInteger(0);
+        final List<CompletableFuture<String>> stalled = new ArrayList<CompletableFuture<String>>();
+
+        @Override
+        public CompletableFuture<String> getDocumentAsync(final String index, final String type, final String suffix, final String jsonPayload) {
+            CompletableFuture<String> response = null;
+            if (searches.getAndIncrement() == 0) {
+                response = new CompletableFuture<String>();
+                stalled.add(response);
+            } else {
+                response = super.getDocumentAsync(index, type, suffix, jsonPayload);
+            }
+            return response;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        System.setProperty("booksearch.hedge.initialDelayMillis", "20");
+        System.setProperty("booksearch.hedge.budgetPercent", "100");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("booksearch.hedge.initialDelayMillis");
+        System.clearProperty("booksearch.hedge.budgetPercent");
+    }
+
+    @Test
+    public void testHedgedSearch() {
+        SlowFirstSearch slowTransport = new SlowFirstSearch();
+        slowTransport.putDocument(INDEX_NAME, null, null, Mapping.bookInfoMapping(false));
+        ElasticsearchService elasticService = new ElasticsearchService( slowTransport );
+        for (BookInfo book : BookInfoUtil.gibsonBooks()) {
+            elasticService.addDocument(INDEX_NAME, Mapping.TYPE_NAME, book);
+        }
+        long hedgesSent = HedgingTransport.snapshot().get("hedgesSent");
+        long hedgesWon = HedgingTransport.snapshot().get("hedgesWon");
+        HedgingTransport transport = new HedgingTransport( slowTransport );
+        final String query = "{\"query\":{\"match\":{\"author\":\"gibson\"}}}";
+        List<BookInfo> books = new ArrayList<BookInfo>();
+        Integer total = transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", query,
+                                              parser -> JSONUtils.extractFromQueryResult(parser, books));
+        assertEquals(Integer.valueOf( BookInfoUtil.gibsonBooks().size() ), total);
+        assertEquals(BookInfoUtil.gibsonBooks().size(), books.size());
+        assertEquals(2, slowTransport.searches.get());
+        assertTrue("The slow search should have been cancelled", slowTransport.stalled.get(0).isCancelled());
+        assertEquals(hedgesSent + 1, HedgingTransport.snapshot().get("hedgesSent").longValue());
+        assertEquals(hedgesWon + 1, HedgingTransport.snapshot().get("hedgesWon").longValue());
+    }
+}
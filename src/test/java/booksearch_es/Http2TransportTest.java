@@ -0,0 +1,80 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import booksearch_es.service.Http2Service;
+import booksearch_es.service.Http2Transport;
+import booksearch_es.service.NodePool;
+
+/**
+ * <h4>
+ * Http2TransportTest
+ * </h4>
+ * <p>
+ * Test that concurrent requests sent by the Http2Transport are signed and share one HTTP/2 connection. The requests
+ * are sent to a LocalSearchServer.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class Http2TransportTest {
+    private final static String RESPONSE = "{\"took\":1,\"timed_out\":false,\"hits\":{\"total\":0,\"max_score\":null,\"hits\":[]}}";
+    private final static int REQUESTS = 32;
+
+    @Test
+    public void testMultiplexedSignedRequests() throws Exception {
+        try (LocalSearchServer server = new LocalSearchServer(RESPONSE, 50)) {
+            Http2Transport transport = new Http2Transport( new NodePool( Arrays.asList( server.getUrl() ) ) );
+            final long connections = Http2Service.snapshot().get("connections");
+            List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+            for (int i = 0; i < REQUESTS; i++) {
+                results.add( transport.getDocumentAsync("bookindex", "bookinfo", "_search", "{\"query\":{\"match_all\":{}}}") );
+            }
+            for (CompletableFuture<String> result : results) {
+                assertEquals(RESPONSE, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(REQUESTS, server.getRequests("HTTP/2.0"));
+            assertEquals(0, server.getRequests("HTTP/1.1"));
+            assertEquals(1, server.getConnections());
+            assertEquals(connections + 1, Http2Service.snapshot().get("connections").longValue());
+            String authorization = server.getAuthorization();
+            assertNotNull("The HTTP/2 requests were not signed", authorization);
+            assertTrue(authorization.startsWith("AWS4-HMAC-SHA256 Credential="));
+            // the body headers are signed when the request has them
+            assertTrue(authorization.matches(".*SignedHeaders=(content-encoding;)?(content-type;)?host;x-amz-date[,;].*"));
+            // A blocking request with a streaming response handler
+            Boolean timedOut = transport.postDocument("bookindex", "bookinfo", "_search", "{\"size\":0}", parser -> {
+                Boolean value = null;
+                while (parser.nextToken() != null) {
+                    if ("timed_out".equals(parser.getCurrentName()) && parser.currentToken().isBoolean()) {
+                        value = parser.getBooleanValue();
+                    }
+                }
+                return value;
+            });
+            assertEquals(Boolean.FALSE, timedOut);
+            assertEquals(1, server.getConnections());
+        }
+    }
+}
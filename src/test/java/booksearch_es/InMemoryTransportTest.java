@@ -0,0 +1,101 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import booksearch_es.json.JSONUtils;
+import booksearch_es.json.Mapping;
+import booksearch_es.model.BookInfo;
+import booksearch_es.service.ElasticsearchService;
+import booksearch_es.service.InMemoryTransport;
+
+/**
+ * <h4>
+ * InMemoryTransportTest
+ * </h4>
+ * <p>
+ * Check the in-memory Elasticsearch transport against the Elasticsearch behavior that the application depends on:
+ * sorting, paging, terms aggregations, bulk load conflicts and delete by query. This test does not use the network.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class InMemoryTransportTest {
+    private final static String INDEX_NAME = "in_memory_test";
+    private final static String SEARCH = "_search";
+    private InMemoryTransport transport;
+    private ElasticsearchService elasticService;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new InMemoryTransport();
+        elasticService = new ElasticsearchService( transport );
+        String rslt = transport.putDocument(INDEX_NAME, null, null, Mapping.bookInfoMapping(false));
+        assertTrue("Failed to create the index", JSONUtils.isAcknowledged(rslt));
+        List<Object> objList = new ArrayList<Object>( BookInfoUtil.buildBookList() );
+        assertTrue("Bulk load failed", elasticService.bulkLoad(INDEX_NAME, Mapping.TYPE_NAME, objList));
+    }
+
+    @Test
+    public void testIndexExists() {
+        assertEquals(200, transport.head(INDEX_NAME));
+        assertEquals(404, transport.head("no_such_index"));
+        String rslt = transport.putDocument(INDEX_NAME, null, null, Mapping.bookInfoMapping(false));
+        assertTrue("Creating an existing index should fail", rslt.contains("resource_already_exists_exception"));
+    }
+
+    @Test
+    public void testSortAndPage() throws Exception {
+        final String query = "{\"from\":1,\"size\":2,\"query\":{\"match\":{\"author\":\"gibson\"}},\"sort\":[{\"year\":{\"order\":\"desc\"}}]}";
+        String rslt = transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, SEARCH, query);
+        List<BookInfo> books = new ArrayList<BookInfo>();
+        int total = JSONUtils.extractFromQueryResult(rslt, books);
+        assertEquals(BookInfoUtil.gibsonBooks().size(), total);
+        assertEquals(2, books.size());
+        assertEquals("1986", books.get(0).getYear());
+        assertEquals("1984", books.get(1).getYear());
+    }
+
+    @Test
+    public void testTermsAggregation() throws Exception {
+        final String query = "{\"size\":0,\"aggs\":{\"genres\":{\"terms\":{\"field\":\"genre\",\"size\":1}}}}";
+        String rslt = transport.postDocument(INDEX_NAME, Mapping.TYPE_NAME, SEARCH, query);
+        JsonNode agg = JSONUtils.stringToJsonNode(rslt).path("aggregations").path("genres");
+        JsonNode buckets = agg.path("buckets");
+        assertEquals(1, buckets.size());
+        long otherCount = agg.path("sum_other_doc_count").asLong();
+        assertEquals(BookInfoUtil.buildBookList().size(), buckets.get(0).path("doc_count").asLong() + otherCount);
+        rslt = transport.postDocument(INDEX_NAME, Mapping.TYPE_NAME, SEARCH, "{\"size\":0,\"aggs\":{\"titles\":{\"terms\":{\"field\":\"title\"}}}}");
+        assertTrue("A terms aggregation on a text field should fail", rslt.contains("illegal_argument_exception"));
+    }
+
+    @Test
+    public void testBulkConflictAndDeleteByQuery() throws Exception {
+        List<Object> objList = new ArrayList<Object>( BookInfoUtil.gibsonBooks() );
+        assertTrue("Reloading existing books with create should fail", ! elasticService.bulkLoad(INDEX_NAME, Mapping.TYPE_NAME, objList));
+        final String deleteQuery = "{\"query\":{\"bool\":{\"filter\":[{\"match\":{\"author\":\"gibson\"}},{\"match\":{\"title\":\"neuromancer\"}}]}}}";
+        String rslt = transport.postDocument(INDEX_NAME, Mapping.TYPE_NAME, "_delete_by_query", deleteQuery);
+        assertEquals(1, JSONUtils.stringToJsonNode(rslt).path("deleted").asInt());
+        rslt = transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, SEARCH, "{\"query\":{\"match\":{\"author\":\"gibson\"}}}");
+        assertEquals(BookInfoUtil.gibsonBooks().size() - 1, JSONUtils.extractFromQueryResult(rslt, new ArrayList<BookInfo>()));
+    }
+}
@@ -0,0 +1,104 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import booksearch_es.json.JSONUtils;
+import booksearch_es.json.JSONUtils.BucketAggregation;
+import booksearch_es.json.Mapping;
+import booksearch_es.json.SearchQuery;
+import booksearch_es.model.BookInfo;
+import booksearch_es.service.InMemoryTransport;
+
+/**
+ * <h4>
+ * JSONUtilsTest
+ * </h4>
+ * <p>
+ * Test that the streaming search result extraction returns the same books, JSON objects and totals as the
+ * JSON tree of the result.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class JSONUtilsTest {
+    private final static String INDEX_NAME = "json_utils_test";
+
+    private static String searchResult(final int size) {
+        InMemoryTransport transport = new InMemoryTransport();
+        BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        String search = SearchQuery.builder().query("{\"match_all\":{}}").size(size)
+                .aggregation("publishers", "{\"terms\":{\"field\":\"publisher.keyword\"}}").build().toJson();
+        return transport.postDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", search);
+    }
+
+    @Test
+    public void testExtractFromQueryResult() throws IOException {
+        final int size = 5;
+        String result = searchResult(size);
+        JsonNode tree = JSONUtils.stringToJsonNode(result);
+        ObjectMapper mapper = new ObjectMapper();
+        List<BookInfo> expected = new ArrayList<BookInfo>();
+        for (JsonNode hit : tree.at("/hits/hits")) {
+            expected.add( mapper.convertValue(hit.get("_source"), BookInfo.class) );
+        }
+        assertEquals(size, expected.size());
+        List<BookInfo> bookList = new ArrayList<BookInfo>();
+        int total = JSONUtils.extractFromQueryResult(result, bookList);
+        assertEquals(BookInfoUtil.buildBookList().size(), total);
+        assertEquals(expected, bookList);
+
+        ArrayNode jsonArrayNode = JsonNodeFactory.instance.arrayNode();
+        assertEquals(total, JSONUtils.extractJSONObjFromQueryResult(result, jsonArrayNode));
+        assertEquals(size, jsonArrayNode.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(tree.at("/hits/hits/" + i + "/_source"), jsonArrayNode.get(i));
+        }
+
+        List<BucketAggregation> buckets = JSONUtils.extractBucketTermAggregationResult("publishers", result);
+        JsonNode treeBuckets = tree.at("/aggregations/publishers/buckets");
+        assertEquals(treeBuckets.size(), buckets.size());
+        for (int i = 0; i < buckets.size(); i++) {
+            assertEquals(treeBuckets.get(i).get("key").asText(), buckets.get(i).getKey());
+            assertEquals(treeBuckets.get(i).get("doc_count").asText(), buckets.get(i).getCount());
+        }
+    }
+
+    /**
+     * The hits can be read when hits.total is an object (Elasticsearch 7) and when the fields are in another order.
+     */
+    @Test
+    public void testHitsLayout() {
+        String result = "{\"hits\":{\"hits\":[{\"_id\":\"1\",\"_source\":{\"title\":\"Neuromancer\",\"author\":\"William Gibson\"}," +
+                        "\"sort\":[\"Gibson\",{\"x\":[1,2]}]},{\"_id\":\"2\"}],\"max_score\":null," +
+                        "\"total\":{\"value\":7,\"relation\":\"eq\"}},\"took\":1}";
+        List<BookInfo> bookList = new ArrayList<BookInfo>();
+        assertEquals(7, JSONUtils.extractFromQueryResult(result, bookList));
+        assertEquals(1, bookList.size());
+        assertEquals("Neuromancer", bookList.get(0).getTitle());
+        assertEquals("William Gibson", bookList.get(0).getAuthor());
+        assertEquals(0, JSONUtils.extractFromQueryResult("{\"took\":1,\"hits\":{\"total\":0,\"hits\":[]}}", bookList));
+        assertEquals(1, bookList.size());
+    }
+}
@@ -0,0 +1,151 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOSession;
+import org.apache.hc.core5.reactor.IOSessionListener;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+
+/**
+ * <h4>
+ * LocalSearchServer
+ * </h4>
+ * <p>
+ * A local HTTP server that answers every request with the same JSON response after a fixed delay (the simulated
+ * Elasticsearch service time). The server speaks HTTP/1.1 and HTTP/2 (h2c, with prior knowledge) on the same port,
+ * so it can be used to compare the HTTP/1.1 and the HTTP/2 transports. It counts the connections that are opened
+ * and the requests for each protocol version, and records the last Authorization header.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class LocalSearchServer implements AutoCloseable {
+    private final HttpAsyncServer server;
+    private final ScheduledExecutorService responseTimer;
+    private final AtomicInteger connections = new AtomicInteger(0);
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<String, LongAdder>();
+    private volatile String authorization = null;
+    private final String url;
+
+    /**
+     * Start the server on a free local port.
+     *
+     * @param responseJson the response body for every request
+     * @param delayMillis the delay before each response is sent
+     */
+    public LocalSearchServer(final String responseJson, final long delayMillis) throws Exception {
+        responseTimer = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "local-search-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy( HttpVersionPolicy.NEGOTIATE )
+                .setIOSessionListener( new IOSessionListener() {
+                    public void connected(IOSession session) { connections.incrementAndGet(); }
+                    public void startTls(IOSession session) {}
+                    public void inputReady(IOSession session) {}
+                    public void outputReady(IOSession session) {}
+                    public void timeout(IOSession session) {}
+                    public void exception(IOSession session, Exception ex) {}
+                    public void disconnected(IOSession session) {}
+                })
+                .register("*", new AsyncServerRequestHandler<Message<HttpRequest, byte[]>>() {
+                    @Override
+                    public AsyncRequestConsumer<Message<HttpRequest, byte[]>> prepare(HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+                        return new BasicRequestConsumer<byte[]>( entityDetails != null ? new BasicAsyncEntityConsumer() : null );
+                    }
+
+                    @Override
+                    public void handle(Message<HttpRequest, byte[]> message, ResponseTrigger responseTrigger, HttpContext context) {
+                        HttpRequest request = message.getHead();
+                        requests.computeIfAbsent(request.getVersion().format(), version -> new LongAdder()).increment();
+                        if (request.getFirstHeader("Authorization") != null) {
+                            authorization = request.getFirstHeader("Authorization").getValue();
+                        }
+                        responseTimer.schedule(() -> {
+                            try {
+                                responseTrigger.submitResponse(new BasicResponseProducer(200, responseJson, ContentType.APPLICATION_JSON), context);
+                            } catch (HttpException | IOException e) {
+                                // the client went away
+                            }
+                        }, delayMillis, TimeUnit.MILLISECONDS);
+                    }
+                })
+                .create();
+        server.start();
+        ListenerEndpoint endpoint = server.listen( new InetSocketAddress("127.0.0.1", 0), URIScheme.HTTP ).get();
+        url = "http://127.0.0.1:" + ((InetSocketAddress)endpoint.getAddress()).getPort();
+    }
+
+    /**
+     * @return the server URL (e.g., http://127.0.0.1:54321)
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the number of connections that clients opened
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @param version the protocol version (HTTP/1.1 or HTTP/2.0)
+     * @return the number of requests received with the protocol version
+     */
+    public long getRequests(final String version) {
+        LongAdder count = requests.get(version);
+        return (count != null) ? count.sum() : 0;
+    }
+
+    /**
+     * @return the Authorization header of the last request that had one
+     */
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    @Override
+    public void close() {
+        server.close( CloseMode.IMMEDIATE );
+        responseTimer.shutdownNow();
+    }
+}
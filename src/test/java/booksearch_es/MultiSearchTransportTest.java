@@ -0,0 +1,148 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import booksearch_es.json.JSONUtils;
+import booksearch_es.json.Mapping;
+import booksearch_es.json.SearchQuery;
+import booksearch_es.model.BookInfo;
+import booksearch_es.model.GenreEnum;
+import booksearch_es.service.BookSearchService;
+import booksearch_es.service.MultiSearchTransport;
+
+/**
+ * <h4>
+ * MultiSearchTransportTest
+ * </h4>
+ * <p>
+ * Test that searches that are sent at the same time are batched in one _msearch request and that each caller gets
+ * the response for its own search. A search that is rejected in the batch is sent again by itself.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class MultiSearchTransportTest {
+    private final static String INDEX_NAME = "multi_search_test";
+    private final static String WINDOW_PROPERTY = "booksearch.msearch.windowMillis";
+    private final static String MAX_BATCH_PROPERTY = "booksearch.msearch.maxBatch";
+    private final static int MAX_BATCH = 4;
+
+    /**
+     * A recording transport that can reject the first search in an _msearch.
+     */
+    private static class RejectingTransport extends RecordingTransport {
+        volatile boolean rejectFirst = false;
+
+        @Override
+        public String postDocument(final String index, final String type, final String suffix, final String jsonPayload) {
+            String response = super.postDocument(index, type, suffix, jsonPayload);
+            if (rejectFirst && suffix.equals("_msearch")) {
+                int first = response.indexOf("{", response.indexOf("\"responses\":["));
+                int second = response.indexOf(",{\"took\"", first);
+                response = response.substring(0, first) + "{\"error\":{\"type\":\"es_rejected_execution_exception\"},\"status\":429}" +
+                           response.substring(second);
+            }
+            return response;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        System.setProperty(WINDOW_PROPERTY, "60000");
+        System.setProperty(MAX_BATCH_PROPERTY, Integer.toString(MAX_BATCH));
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(WINDOW_PROPERTY);
+        System.clearProperty(MAX_BATCH_PROPERTY);
+    }
+
+    private static RejectingTransport loadBooks() {
+        RejectingTransport transport = new RejectingTransport();
+        BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        return transport;
+    }
+
+    private static List<String> searches() {
+        List<String> searches = new ArrayList<String>();
+        searches.add( SearchQuery.builder().query("{\"match\":{\"author\":\"gibson\"}}").build().toJson() );
+        searches.add( SearchQuery.builder().query("{\"match\":{\"title\":\"neuromancer\"}}").build().toJson() );
+        searches.add( SearchQuery.builder().query("{\"term\":{\"genre\":\"" + GenreEnum.SCIENCE_FICTION.getName() + "\"}}").size(100).build().toJson() );
+        searches.add( "{\"size\":0,\"aggs\":{\"publishers\":{\"terms\":{\"field\":\"publisher.keyword\"}}}}" );
+        return searches;
+    }
+
+    @Test
+    public void testBatchedSearches() throws Exception {
+        RejectingTransport transport = loadBooks();
+        MultiSearchTransport batching = new MultiSearchTransport(transport);
+        List<String> searches = searches();
+        List<CompletableFuture<String>> responses = new ArrayList<CompletableFuture<String>>();
+        transport.clearRequests();
+        for (String search : searches) {
+            responses.add( batching.postDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", search) );
+        }
+        // the batch is full, so it is sent without waiting for the window
+        assertEquals(1, transport.suffixes.size());
+        assertEquals("_msearch", transport.suffixes.get(0));
+        for (int i = 0; i < searches.size(); i++) {
+            String direct = transport.postDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", searches.get(i));
+            assertEquals(JSONUtils.stringToJsonNode(direct).get("hits"), JSONUtils.stringToJsonNode(responses.get(i).get()).get("hits"));
+        }
+        assertEquals(1, JSONUtils.stringToJsonNode( responses.get(1).get() ).at("/hits/total").asInt());
+        assertTrue(JSONUtils.stringToJsonNode( responses.get(3).get() ).at("/aggregations/publishers/buckets").size() > 0);
+
+        // a rejected search is sent again by itself
+        transport.rejectFirst = true;
+        transport.clearRequests();
+        responses.clear();
+        for (String search : searches) {
+            responses.add( batching.postDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, "_search", search) );
+        }
+        assertEquals("[_msearch, _search]", transport.suffixes.toString());
+        String direct = transport.postDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", searches.get(0));
+        assertEquals(JSONUtils.stringToJsonNode(direct).get("hits"), JSONUtils.stringToJsonNode(responses.get(0).get()).get("hits"));
+        assertTrue(JSONUtils.stringToJsonNode( responses.get(0).get() ).at("/hits/total").asInt() > 0);
+    }
+
+    /**
+     * A search that is alone when the window closes is sent as it is. The BookSearchService results are the same
+     * with the batching transport.
+     */
+    @Test
+    public void testWindow() {
+        System.setProperty(WINDOW_PROPERTY, "1");
+        RejectingTransport transport = loadBooks();
+        MultiSearchTransport batching = new MultiSearchTransport(transport);
+        transport.clearRequests();
+        List<BookInfo> books = new BookSearchService(batching).getBooks(INDEX_NAME);
+        assertEquals(BookInfoUtil.buildBookList().size(), books.size());
+        assertEquals(new BookSearchService(transport).getBooks(INDEX_NAME), books);
+        // a single search is not sent as an _msearch
+        transport.clearRequests();
+        String aggregation = batching.postDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", searches().get(3));
+        assertTrue(aggregation.contains("\"publishers\""));
+        assertEquals("[_search]", transport.suffixes.toString());
+    }
+}
@@ -0,0 +1,118 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import booksearch_es.service.NodePool;
+
+/**
+ * <h4>
+ * NodePoolTest
+ * </h4>
+ * <p>
+ * Test least-outstanding-requests node selection, dead node backoff and resurrection, and node discovery from
+ * a _nodes/http response.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class NodePoolTest {
+    private final static String NODE_1 = "http://es1:9200";
+    private final static String NODE_2 = "http://es2:9200";
+    private final static String NODE_3 = "http://es3:9200";
+
+    @Test
+    public void testLeastOutstanding() {
+        NodePool pool = new NodePool(Arrays.asList(NODE_1, NODE_2, NODE_3), 1000, 8000, () -> 0L);
+        NodePool.Node first = pool.acquire();
+        NodePool.Node second = pool.acquire();
+        NodePool.Node third = pool.acquire();
+        assertNotSame(first, second);
+        assertNotSame(first, third);
+        assertNotSame(second, third);
+        pool.release(second, true);
+        assertSame(second, pool.acquire());
+        for (NodePool.Node node : pool.getNodes()) {
+            assertEquals(1, node.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testDeadNodeResurrection() {
+        AtomicLong clock = new AtomicLong(0);
+        NodePool pool = new NodePool(Arrays.asList(NODE_1, NODE_2), 1000, 8000, clock::get);
+        NodePool.Node node1 = pool.getNodes().get(0);
+        NodePool.Node node2 = pool.getNodes().get(1);
+        pool.markDead(node1);
+        for (int i = 0; i < 5; i++) {
+            NodePool.Node node = pool.acquire();
+            assertSame(node2, node);
+            pool.release(node, true);
+        }
+        assertNull("There is no other live node", pool.acquireOther(node2));
+        // The dead time has passed, so node1 is tried again (node2 has an outstanding request).
+        // It fails, so the dead time doubles.
+        NodePool.Node held = pool.acquire();
+        assertSame(node2, held);
+        clock.set(1000);
+        NodePool.Node retried = pool.acquire();
+        assertSame(node1, retried);
+        pool.release(retried, false);
+        clock.set(2999);
+        NodePool.Node node = pool.acquire();
+        assertSame(node2, node);
+        pool.release(node, true);
+        pool.release(held, true);
+        // node1 is resurrected by a successful request
+        clock.set(3000);
+        pool.markDead(node2);
+        node = pool.acquire();
+        assertSame(node1, node);
+        pool.release(node, true);
+        assertTrue((Boolean)pool.snapshot().get(NODE_1).get("live"));
+        assertEquals(0, pool.snapshot().get(NODE_1).get("failures"));
+        // All of the nodes are dead: the node that will be resurrected first is used
+        pool.markDead(node1);
+        pool.markDead(node1);
+        assertSame(node2, pool.acquire());
+    }
+
+    @Test
+    public void testDiscovery() throws IOException {
+        final String nodesJson = "{\"_nodes\":{\"total\":3},\"cluster_name\":\"booksearch\",\"nodes\":{"
+                + "\"a1\":{\"name\":\"es1\",\"http\":{\"publish_address\":\"es1:9200\"}},"
+                + "\"b2\":{\"name\":\"es4\",\"http\":{\"publish_address\":\"es4/10.0.0.14:9200\"}},"
+                + "\"c3\":{\"name\":\"es5\",\"http\":{\"publish_address\":\"10.0.0.15:9200\"}}}}";
+        List<String> urls = NodePool.parseNodes(nodesJson, "http");
+        assertEquals(Arrays.asList(NODE_1, "http://10.0.0.14:9200", "http://10.0.0.15:9200"), urls);
+        NodePool pool = new NodePool(Arrays.asList(NODE_1 + "/", NODE_2), 1000, 8000, () -> 0L);
+        NodePool.Node seed = pool.getNodes().get(0);
+        pool.discover(nodesJson);
+        assertEquals(4, pool.getNodes().size());
+        assertSame("Existing nodes keep their state", seed, pool.getNodes().get(0));
+        assertEquals("http://es2:9200/bookindex/_search?size=0",
+                     NodePool.resolve(pool.getNodes().get(1), URI.create("https://search-booksearch.es.amazonaws.com/bookindex/_search?size=0")).toString());
+    }
+}
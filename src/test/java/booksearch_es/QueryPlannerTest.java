@@ -0,0 +1,144 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import booksearch_es.json.Mapping;
+import booksearch_es.json.QueryPlanner;
+import booksearch_es.json.QueryTemplate;
+import booksearch_es.json.SearchQuery;
+import booksearch_es.model.BookInfo;
+import booksearch_es.model.GenreEnum;
+import booksearch_es.service.BookSearchService;
+import booksearch_es.service.InMemoryTransport;
+
+/**
+ * <h4>
+ * QueryPlannerTest
+ * </h4>
+ * <p>
+ * Test that the query planner chooses the filter clause from the mapping field type, and that the planned filters
+ * return the same books as the match queries.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class QueryPlannerTest {
+    private final static String INDEX_NAME = "query_planner_test";
+
+    /**
+     * Run a query clause in the test index.
+     */
+    private static class QueryService extends BookSearchService {
+        QueryService(final InMemoryTransport transport) {
+            super(transport);
+        }
+
+        List<BookInfo> search(final String queryClause) {
+            return getQueryResult(INDEX_NAME, SearchQuery.builder().query(queryClause).build());
+        }
+    }
+
+    @Test
+    public void testPlan() {
+        Map<String, String> fieldTypes = Mapping.bookInfoFieldTypes();
+        assertEquals("keyword", fieldTypes.get("genre"));
+        assertEquals("text", fieldTypes.get("title"));
+        assertEquals("keyword", fieldTypes.get("title.keyword"));
+        assertEquals("float", fieldTypes.get("price"));
+        QueryPlanner planner = QueryPlanner.bookInfo();
+        assertEquals("{\"constant_score\":{\"filter\":{\"term\":{\"genre\":${genre}}}}}", planner.plan().equal("genre").source());
+        assertEquals("{\"constant_score\":{\"filter\":{\"bool\":{\"filter\":[{\"term\":{\"title.keyword\":${title}}}," +
+                     "{\"match\":{\"author\":${author}}},{\"range\":{\"year\":{\"gte\":${year_from},\"lte\":${year_to}}}}]}}}}",
+                     planner.plan().equal("title").words("author").range("year").source());
+        assertEquals("{\"match_all\":{}}", planner.plan().source());
+        QueryTemplate genres = planner.plan().anyOf("genre").compile();
+        assertEquals("{\"constant_score\":{\"filter\":{\"terms\":{\"genre\":[\"Fantasy\",\"Science Fiction\"]}}}}",
+                     genres.renderString( Arrays.asList("Fantasy", "Science Fiction") ));
+        // an exact author would be compared with the author terms, and a range of text compares the terms
+        try {
+            planner.plan().equal("author");
+            fail("author does not have a keyword sub-field");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            planner.plan().range("title");
+            fail("range on a text field");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            planner.plan().equal("isbn");
+            fail("isbn is not in the mapping");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testFilterResults() {
+        InMemoryTransport transport = new InMemoryTransport();
+        BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        List<BookInfo> bookList = BookInfoUtil.buildBookList();
+        QueryService searchService = new QueryService(transport);
+        QueryPlanner planner = QueryPlanner.bookInfo();
+        final String fiction = GenreEnum.FICTION.getName();
+        final String scienceFiction = GenreEnum.SCIENCE_FICTION.getName();
+        List<BookInfo> genreBooks = searchService.findBooksByGenre(INDEX_NAME, scienceFiction);
+        assertTrue(genreBooks.size() > 0);
+        assertEquals(genreBooks.size(), searchService.search("{\"match\":{\"genre\":\"" + scienceFiction + "\"}}").size());
+
+        int expected = 0;
+        int expectedRange = 0;
+        for (BookInfo book : bookList) {
+            if (book.getGenre().equals(fiction) || book.getGenre().equals(scienceFiction)) {
+                expected++;
+            }
+            int year = Integer.parseInt( book.getYear() );
+            if (year >= 1980 && year <= 2003) {
+                expectedRange++;
+            }
+        }
+        assertTrue(expectedRange > 0 && expectedRange < bookList.size());
+        assertEquals(expected, searchService.search( planner.plan().anyOf("genre").compile().renderString(Arrays.asList(fiction, scienceFiction)) ).size());
+        assertEquals(expectedRange, searchService.search( planner.plan().range("year").compile().renderString("1980", "2003") ).size());
+        for (BookInfo book : bookList) {
+            assertTrue(searchService.hasBookEntry(INDEX_NAME, book));
+        }
+    }
+
+    /**
+     * The duplicate book check matches the words of the title and the publisher, so a title or publisher that is
+     * written with a different case or spacing is found. The genre, year and price are exact.
+     */
+    @Test
+    public void testBookEntryWords() {
+        InMemoryTransport transport = new InMemoryTransport();
+        BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        QueryService searchService = new QueryService(transport);
+        BookInfo book = BookInfoUtil.buildBookInfo("neuromancer", "william gibson", GenreEnum.SCIENCE_FICTION, " ACE ", "1984", "14.77");
+        assertTrue(searchService.hasBookEntry(INDEX_NAME, book));
+        book.setTitle("Neuromancer");
+        book.setPublisher("ace");
+        assertTrue(searchService.hasBookEntry(INDEX_NAME, book));
+        book.setYear("1985");
+        assertFalse(searchService.hasBookEntry(INDEX_NAME, book));
+    }
+}
@@ -0,0 +1,90 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import booksearch_es.json.QueryTemplate;
+
+/**
+ * <h4>
+ * QueryTemplateTest
+ * </h4>
+ * <p>
+ * Test that a rendered query template is the same JSON that Jackson writes, for string values that must be escaped
+ * or encoded and for integer values.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class QueryTemplateTest {
+    private final static ObjectMapper mapper = new ObjectMapper();
+    private final static QueryTemplate TEMPLATE = QueryTemplate.compile("{\"from\":${from:int},\"query\":{\"match\":{${field}:${value}}}}");
+
+    private static String jacksonQuery(final long from, final String field, final String value) throws Exception {
+        ObjectNode query = mapper.createObjectNode();
+        query.put("from", from);
+        query.putObject("query").putObject("match").put(field, value);
+        return mapper.writeValueAsString(query);
+    }
+
+    @Test
+    public void testRender() throws Exception {
+        assertEquals(Arrays.asList("from", "field", "value"), TEMPLATE.getSlotNames());
+        final String[] values = { "Science Fiction", "Iain M. Banks \"Culture\"", "back\\slash", "tab\tnew\nline\r\u0001\u001f",
+                                  "Caf\u00e9 \u20ac", "\ud83d\udcda books", "" };
+        final long[] numbers = { 0, 7, -42, 10000, Long.MAX_VALUE, Long.MIN_VALUE };
+        for (String value : values) {
+            for (long number : numbers) {
+                final String expected = jacksonQuery(number, "title.keyword", value);
+                assertEquals(expected, TEMPLATE.renderString(number, "title.keyword", value));
+                assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), TEMPLATE.render(number, "title.keyword", value));
+            }
+        }
+        assertEquals("{\"from\":1,\"query\":{\"match\":{\"author\":null}}}", TEMPLATE.renderString(1, "author", null));
+        // the rendered query is valid JSON
+        assertEquals("\ud83d\udcda books", mapper.readTree( TEMPLATE.render(3, "title", "\ud83d\udcda books") ).at("/query/match/title").asText());
+    }
+
+    @Test
+    public void testSlotErrors() {
+        try {
+            TEMPLATE.render("not a number", "title", "x");
+            fail("A string value for an int slot should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            TEMPLATE.render(1, "title");
+            fail("A missing value should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            QueryTemplate.compile("{\"query\":${query");
+            fail("An unclosed slot should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals("{\"query\":{\"match_all\":{}}}", QueryTemplate.compile("{\"query\":{\"match_all\":{}}}").renderString());
+    }
+}
@@ -0,0 +1,77 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import booksearch_es.service.InMemoryTransport;
+
+/**
+ * <h4>
+ * RecordingTransport
+ * </h4>
+ * <p>
+ * An in-memory transport that records the suffix and the payload of each GET and POST request, for the tests that
+ * check what is sent to Elasticsearch.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class RecordingTransport extends InMemoryTransport {
+    final List<String> suffixes = new CopyOnWriteArrayList<String>();
+    final List<String> payloads = new CopyOnWriteArrayList<String>();
+
+    @Override
+    protected String execute(final String method, final String index, final String type, final String suffix, final String jsonPayload) {
+        if (method.equals("GET") || method.equals("POST")) {
+            synchronized (this) {
+                suffixes.add(suffix);
+                payloads.add(jsonPayload);
+            }
+        }
+        return super.execute(method, index, type, suffix, jsonPayload);
+    }
+
+    /**
+     * @return the suffixes without the URL parameters (e.g., _search for _search?request_cache=true)
+     */
+    List<String> endPoints() {
+        List<String> endPoints = new ArrayList<String>();
+        for (String suffix : suffixes) {
+            endPoints.add( (suffix != null && suffix.indexOf('?') >= 0) ? suffix.substring(0, suffix.indexOf('?')) : suffix );
+        }
+        return endPoints;
+    }
+
+    /**
+     * @return the suffix of the last request
+     */
+    String lastSuffix() {
+        return suffixes.get( suffixes.size() - 1 );
+    }
+
+    /**
+     * @return the payload of the last request
+     */
+    String lastPayload() {
+        return payloads.get( payloads.size() - 1 );
+    }
+
+    void clearRequests() {
+        synchronized (this) {
+            suffixes.clear();
+            payloads.clear();
+        }
+    }
+}
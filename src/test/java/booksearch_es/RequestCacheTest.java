@@ -0,0 +1,117 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import booksearch_es.json.Facet;
+import booksearch_es.json.JSONUtils;
+import booksearch_es.json.JSONUtils.BucketAggregation;
+import booksearch_es.json.Mapping;
+import booksearch_es.model.BookInfo;
+import booksearch_es.service.BookSearchService;
+import booksearch_es.service.ElasticsearchService;
+import booksearch_es.service.MultiSearchTransport;
+
+/**
+ * <h4>
+ * RequestCacheTest
+ * </h4>
+ * <p>
+ * Test that the aggregation searches are sent with request_cache=true and the preference key, that a repeated
+ * aggregation is answered from the request cache until the index changes, and that the request cache parameters
+ * are kept when the searches are batched in an _msearch.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class RequestCacheTest {
+    private final static String INDEX_NAME = "request_cache_test";
+    private final static List<Facet> FACETS = Arrays.asList(new Facet("genres", "genre", 100, Facet.Order.KEY_ASC),
+                                                            new Facet("publishers", "publisher.keyword", 100, Facet.Order.KEY_ASC));
+
+    @Test
+    public void testCachedFacets() {
+        RecordingTransport transport = new RecordingTransport();
+        ElasticsearchService elasticService = BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        BookSearchService searchService = new BookSearchService(transport);
+        Map<String, List<BucketAggregation>> facets = searchService.facetAggregation(INDEX_NAME, FACETS);
+        assertEquals("_search?filter_path=aggregations.*.buckets&request_cache=true&preference=booksearch_facets", transport.lastSuffix());
+        Map<String, Long> stats = elasticService.requestCacheStats(INDEX_NAME);
+        assertEquals(Long.valueOf(0), stats.get("hit_count"));
+        assertEquals(Long.valueOf(1), stats.get("miss_count"));
+        assertTrue(stats.get("memory_size_in_bytes") > 0);
+
+        Map<String, List<BucketAggregation>> cachedFacets = searchService.facetAggregation(INDEX_NAME, FACETS);
+        assertEquals(Long.valueOf(1), elasticService.requestCacheStats(INDEX_NAME).get("hit_count"));
+        assertEquals(facets.get("publishers").size(), cachedFacets.get("publishers").size());
+
+        // a change to the index invalidates the cache
+        BookInfo book = BookInfoUtil.buildBookList().get(0);
+        book.setPublisher("A New Publisher");
+        elasticService.addDocument(INDEX_NAME, Mapping.TYPE_NAME, book);
+        Map<String, List<BucketAggregation>> changedFacets = searchService.facetAggregation(INDEX_NAME, FACETS);
+        assertEquals(cachedFacets.get("publishers").size() + 1, changedFacets.get("publishers").size());
+        stats = elasticService.requestCacheStats(INDEX_NAME);
+        assertEquals(Long.valueOf(1), stats.get("hit_count"));
+        assertEquals(Long.valueOf(2), stats.get("miss_count"));
+        assertEquals(Long.valueOf(1), stats.get("evictions"));
+
+        // the request cache can be turned off
+        System.setProperty("booksearch.requestCache.enabled", "false");
+        try {
+            searchService.bucketAggregation(INDEX_NAME, "genres", "genre");
+            assertEquals("_search?filter_path=aggregations.*.buckets", transport.lastSuffix());
+        } finally {
+            System.clearProperty("booksearch.requestCache.enabled");
+        }
+    }
+
+    /**
+     * The request cache parameters are sent in the _msearch header lines.
+     */
+    @Test
+    public void testBatchedCachedSearches() throws Exception {
+        System.setProperty("booksearch.msearch.windowMillis", "60000");
+        System.setProperty("booksearch.msearch.maxBatch", "2");
+        try {
+            RecordingTransport transport = new RecordingTransport();
+            ElasticsearchService elasticService = BookInfoUtil.loadIndex(transport, INDEX_NAME);
+            MultiSearchTransport batching = new MultiSearchTransport(transport);
+            final String suffix = "_search?request_cache=true&preference=booksearch_facets";
+            final String aggregation = "{\"size\":0,\"aggs\":{\"genres\":" + FACETS.get(0).aggregation() + "}}";
+            CompletableFuture<String> first = batching.postDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, suffix, aggregation);
+            CompletableFuture<String> second = batching.postDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, suffix, aggregation);
+            assertEquals("_msearch", transport.lastSuffix());
+            assertTrue(transport.lastPayload().startsWith(
+                    "{\"index\":\"" + INDEX_NAME + "\",\"type\":\"" + Mapping.TYPE_NAME + "\",\"request_cache\":true,\"preference\":\"booksearch_facets\"}\n"));
+            assertEquals(JSONUtils.stringToJsonNode(first.get()).get("aggregations"), JSONUtils.stringToJsonNode(second.get()).get("aggregations"));
+            Map<String, Long> stats = elasticService.requestCacheStats(INDEX_NAME);
+            assertEquals(Long.valueOf(1), stats.get("hit_count"));
+            assertEquals(Long.valueOf(1), stats.get("miss_count"));
+            // an unknown URL parameter is not batched
+            batching.postDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search?timeout=1s", aggregation);
+            assertEquals("_search?timeout=1s", transport.lastSuffix());
+        } finally {
+            System.clearProperty("booksearch.msearch.windowMillis");
+            System.clearProperty("booksearch.msearch.maxBatch");
+        }
+    }
+}
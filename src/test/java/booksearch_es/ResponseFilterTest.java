@@ -0,0 +1,133 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import booksearch_es.json.JSONUtils;
+import booksearch_es.json.Mapping;
+import booksearch_es.json.SearchQuery;
+import booksearch_es.json.SearchTemplate;
+import booksearch_es.model.BookInfo;
+import booksearch_es.service.BookSearchService;
+import booksearch_es.service.InMemoryTransport;
+import booksearch_es.service.MultiSearchTransport;
+
+/**
+ * <h4>
+ * ResponseFilterTest
+ * </h4>
+ * <p>
+ * Test that the book searches only return the response paths (filter_path) and the _source fields that are read,
+ * that the trimmed responses return the same books and that they are smaller per hit than the full responses.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class ResponseFilterTest {
+    private final static String INDEX_NAME = "response_filter_test";
+    private final static String HITS_FILTER_PATH = "_search?filter_path=hits.total,hits.hits._source";
+
+    private static int bytesPerHit(final String response, final int hits) {
+        return response.getBytes(StandardCharsets.UTF_8).length / hits;
+    }
+
+    @Test
+    public void testFilteredSearch() throws Exception {
+        InMemoryTransport transport = new InMemoryTransport();
+        BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        final int size = BookInfoUtil.buildBookList().size();
+        SearchQuery query = SearchQuery.builder()
+                                       .query("{\"match_all\":{}}")
+                                       .source(SearchTemplate.BOOK_LIST_SOURCE)
+                                       .filterPath("hits.total", "hits.hits._source")
+                                       .size(size)
+                                       .build();
+        assertEquals(HITS_FILTER_PATH, query.getEndpoint());
+        assertEquals("_search", SearchQuery.builder().build().getEndpoint());
+        String full = transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search", "{\"query\":{\"match_all\":{}},\"size\":" + size + "}");
+        String trimmed = transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, query.getEndpoint(), query.toJson());
+        JsonNode trimmedTree = JSONUtils.stringToJsonNode(trimmed);
+        assertEquals(1, trimmedTree.size());
+        assertEquals(2, trimmedTree.get("hits").size());
+        for (JsonNode hit : trimmedTree.at("/hits/hits")) {
+            assertEquals(1, hit.size());
+            assertEquals(SearchTemplate.BOOK_LIST_SOURCE.length, hit.get("_source").size());
+            assertFalse(hit.get("_source").has("author_last_name"));
+        }
+        List<BookInfo> fullBooks = new ArrayList<BookInfo>();
+        List<BookInfo> trimmedBooks = new ArrayList<BookInfo>();
+        assertEquals(size, JSONUtils.extractFromQueryResult(full, fullBooks));
+        assertEquals(size, JSONUtils.extractFromQueryResult(trimmed, trimmedBooks));
+        assertEquals(fullBooks, trimmedBooks);
+        assertTrue(bytesPerHit(trimmed, size) * 3 < bytesPerHit(full, size) * 2);
+
+        // an aggregation search only returns the buckets
+        String buckets = transport.postDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search?filter_path=aggregations.*.buckets",
+                                                "{\"size\":0,\"aggs\":{\"genres\":{\"terms\":{\"field\":\"genre\"}}}}");
+        JsonNode bucketTree = JSONUtils.stringToJsonNode(buckets);
+        assertEquals(1, bucketTree.size());
+        assertEquals(1, bucketTree.at("/aggregations/genres").size());
+        assertTrue(bucketTree.at("/aggregations/genres/buckets").size() > 0);
+        // nothing is on the path
+        assertEquals("{}", transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, "_search?filter_path=nothing", "{}"));
+    }
+
+    /**
+     * The BookSearchService results are the same with the trimmed responses, and the searches with the same filter
+     * path are batched in one _msearch.
+     */
+    @Test
+    public void testBookSearches() throws Exception {
+        InMemoryTransport transport = new InMemoryTransport();
+        BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        BookSearchService searchService = new BookSearchService(transport);
+        List<BookInfo> books = searchService.getBooks(INDEX_NAME);
+        assertEquals(BookInfoUtil.buildBookList().size(), books.size());
+        assertTrue(books.containsAll(BookInfoUtil.buildBookList()));
+        for (BookInfo book : BookInfoUtil.buildBookList()) {
+            assertTrue(searchService.hasBookEntry(INDEX_NAME, book));
+        }
+
+        System.setProperty("booksearch.msearch.windowMillis", "60000");
+        System.setProperty("booksearch.msearch.maxBatch", "2");
+        try {
+            MultiSearchTransport batching = new MultiSearchTransport(transport);
+            final long batches = MultiSearchTransport.snapshot().get("batches");
+            final String search = "{\"query\":{\"match\":{\"author\":\"gibson\"}}}";
+            CompletableFuture<String> first = batching.getDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, HITS_FILTER_PATH, search);
+            CompletableFuture<String> second = batching.getDocumentAsync(INDEX_NAME, Mapping.TYPE_NAME, HITS_FILTER_PATH, search);
+            String direct = transport.getDocument(INDEX_NAME, Mapping.TYPE_NAME, HITS_FILTER_PATH, search);
+            JsonNode response = JSONUtils.stringToJsonNode( first.get() );
+            assertEquals(JSONUtils.stringToJsonNode(direct).get("hits"), response.get("hits"));
+            // the status of the _msearch response is kept
+            assertEquals(200, response.get("status").asInt());
+            assertFalse(response.has("took"));
+            assertEquals(first.get(), second.get());
+            assertEquals(batches + 1, MultiSearchTransport.snapshot().get("batches").longValue());
+        } finally {
+            System.clearProperty("booksearch.msearch.windowMillis");
+            System.clearProperty("booksearch.msearch.maxBatch");
+        }
+    }
+}
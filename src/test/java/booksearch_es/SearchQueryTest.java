@@ -0,0 +1,87 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import booksearch_es.json.SearchQuery;
+import booksearch_es.model.BookInfo;
+import booksearch_es.service.BookSearchService;
+import booksearch_es.service.InMemoryTransport;
+
+/**
+ * <h4>
+ * SearchQueryTest
+ * </h4>
+ * <p>
+ * Test the SearchQuery JSON, the page window and the pages of a search result that is larger than one page.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class SearchQueryTest {
+    private final static String INDEX_NAME = "search_query_test";
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testQueryJson() throws Exception {
+        SearchQuery query = SearchQuery.builder()
+                                       .query("{\"match\":{\"title\":\"Caf\u00e9\"}}")
+                                       .sort("author_last_name", true)
+                                       .sort("year", false)
+                                       .build();
+        assertEquals(-1, query.getFrom());
+        assertEquals("{\"query\":{\"match\":{\"title\":\"Caf\u00e9\"}},\"sort\":[{\"author_last_name\":{\"order\":\"asc\"}}," +
+                     "{\"year\":{\"order\":\"desc\"}}]}", query.toJson());
+        SearchQuery page = query.withPage(10000, 37);
+        assertEquals("{\"from\":10000,\"size\":37," + query.toJson().substring(1), page.toJson());
+        assertEquals("{\"from\":0,\"size\":0}", SearchQuery.builder().build().withPage(0, 0).toJson());
+
+        SearchQuery filtered = SearchQuery.builder()
+                                          .query("{\"match\":{\"title\":\"sun\"}}")
+                                          .filter("{\"term\":{\"genre\":\"Fantasy\"}}")
+                                          .filter("{\"range\":{\"year\":{\"gte\":1990}}}")
+                                          .source("title", "author")
+                                          .aggregation("genres", "{\"terms\":{\"field\":\"genre\"}}")
+                                          .size(0)
+                                          .build();
+        JsonNode tree = mapper.readTree( filtered.toJson() );
+        assertEquals(0, tree.get("size").asInt());
+        assertEquals("sun", tree.at("/query/bool/must/match/title").asText());
+        assertEquals(2, tree.at("/query/bool/filter").size());
+        assertEquals("author", tree.at("/_source/1").asText());
+        assertEquals("genre", tree.at("/aggs/genres/terms/field").asText());
+    }
+
+    /**
+     * A search that returns more than the first page (ten books) requests the other pages with the page window.
+     */
+    @Test
+    public void testPagedResult() {
+        InMemoryTransport transport = new InMemoryTransport();
+        BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        List<BookInfo> bookList = BookInfoUtil.buildBookList();
+        assertTrue(bookList.size() > 10);
+        BookSearchService searchService = new BookSearchService(transport);
+        List<BookInfo> books = searchService.getBooks(INDEX_NAME);
+        assertEquals(bookList.size(), books.size());
+        assertTrue(books.containsAll(bookList));
+    }
+}
@@ -0,0 +1,107 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import booksearch_es.json.SearchQuery;
+import booksearch_es.json.SearchTemplate;
+import booksearch_es.model.BookIndex;
+import booksearch_es.model.BookInfo;
+import booksearch_es.model.GenreEnum;
+import booksearch_es.service.BookSearchService;
+import booksearch_es.service.ElasticsearchService;
+import booksearch_es.service.InMemoryTransport;
+import booksearch_es.service.OperationClass;
+
+/**
+ * <h4>
+ * SearchTemplateTest
+ * </h4>
+ * <p>
+ * Test that the search templates are stored when the BookIndex is initialized, that a stored template with the same
+ * id is not replaced, that a changed template has a new id, and that the searches that are sent with the templates return the same books (including
+ * the pages after the first page) as the full queries.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class SearchTemplateTest {
+    private final static String INDEX_NAME = "search_template_test";
+    private final static String TEMPLATES_PROPERTY = "booksearch.searchTemplates.enabled";
+
+    @Test
+    public void testTemplateSearch() {
+        RecordingTransport transport = new RecordingTransport();
+        BookSearchService searchService = new BookSearchService(transport);
+        ElasticsearchService elasticService = new ElasticsearchService(transport);
+        BookIndex bookIndex = new BookIndex(transport);
+        for (SearchTemplate template : SearchTemplate.bookTemplates()) {
+            assertTrue(bookIndex.hasSearchTemplate(template));
+            assertEquals(template.getSource(), elasticService.getStoredScript(template.getId()));
+        }
+        BookInfoUtil.loadIndex(transport, INDEX_NAME);
+        final String genre = GenreEnum.SCIENCE_FICTION.getName();
+        List<BookInfo> templateBooks = searchService.findBooksByGenre(INDEX_NAME, genre);
+        List<BookInfo> allBooks = searchService.getBooks(INDEX_NAME);
+        List<BookInfo> titleAuthor = searchService.findBookByTitleAuthor(INDEX_NAME, "neuromancer", "gibson");
+        assertTrue(transport.endPoints().contains("_search/template"));
+        assertFalse(transport.endPoints().contains("_search"));
+        // The same searches with the full queries
+        System.setProperty(TEMPLATES_PROPERTY, "false");
+        try {
+            transport.clearRequests();
+            assertEquals(searchService.findBooksByGenre(INDEX_NAME, genre), templateBooks);
+            assertEquals(searchService.getBooks(INDEX_NAME), allBooks);
+            assertEquals(searchService.findBookByTitleAuthor(INDEX_NAME, "neuromancer", "gibson"), titleAuthor);
+            assertFalse(transport.endPoints().contains("_search/template"));
+        } finally {
+            System.clearProperty(TEMPLATES_PROPERTY);
+        }
+        // more than one page of results
+        assertEquals(BookInfoUtil.buildBookList().size(), allBooks.size());
+        assertTrue(allBooks.size() > 10);
+        assertEquals(1, titleAuthor.size());
+        SearchQuery query = SearchTemplate.GENRE.query().param("genre", genre).build();
+        assertTrue(SearchTemplate.GENRE.getId().matches("booksearch_genre_[0-9a-f]{8}"));
+        assertEquals("{\"id\":\"" + SearchTemplate.GENRE.getId() + "\",\"params\":{\"genre\":\"Science Fiction\",\"from\":10,\"size\":9}}",
+                     query.withPage(10, 9).toJson());
+        assertEquals(OperationClass.SEARCH, OperationClass.classify("POST", "/" + INDEX_NAME + "/" + query.getEndpoint()));
+    }
+
+    /**
+     * A template that is already stored under its id (the same source hash) is not replaced. A changed template has
+     * a new id.
+     */
+    @Test
+    public void testStoredTemplateIsKept() {
+        InMemoryTransport transport = new InMemoryTransport();
+        ElasticsearchService elasticService = new ElasticsearchService(transport);
+        final String tuned = "{\"query\":{\"match\":{\"genre\":{\"query\":\"{{genre}}\",\"operator\":\"and\"}}}}";
+        SearchTemplate tunedGenre = new SearchTemplate(SearchTemplate.GENRE.getName(), tuned);
+        assertTrue(elasticService.putStoredScript(SearchTemplate.GENRE.getId(), tunedGenre.scriptJson()));
+        BookIndex bookIndex = new BookIndex(transport);
+        assertTrue(bookIndex.hasSearchTemplate(SearchTemplate.GENRE));
+        assertEquals(tuned, elasticService.getStoredScript(SearchTemplate.GENRE.getId()));
+        // a changed template has a new id, so it is not replaced by the stored template
+        assertFalse(tunedGenre.getId().equals(SearchTemplate.GENRE.getId()));
+        assertEquals(SearchTemplate.GENRE.getId(), new SearchTemplate(SearchTemplate.GENRE.getName(), SearchTemplate.GENRE.getSource()).getId());
+        assertFalse(bookIndex.hasSearchTemplate(tunedGenre));
+        assertEquals(null, elasticService.getStoredScript(tunedGenre.getId()));
+    }
+}
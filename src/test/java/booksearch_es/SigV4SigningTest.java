@@ -0,0 +1,154 @@
+/** \file
+ * 
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Date;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.junit.Test;
+
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.http.AWSRequestSigningApacheInterceptor;
+
+import booksearch_es.service.HttpCompression;
+import booksearch_es.service.SigV4SigningInterceptor;
+
+/**
+ * <h4>
+ * SigV4SigningTest
+ * </h4>
+ * <p>
+ * Check that the SigV4SigningInterceptor builds the same signature as the AWSRequestSigningApacheInterceptor 
+ * (with the AWS4Signer), including a gzip request with Content-Encoding and Content-Type headers, and that it
+ * leaves a repeatable request entity in place. This test does not
+ * need an Elasticsearch connection.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ * 
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class SigV4SigningTest {
+    private final static String HOST = "search-booksearch-test.eu-central-1.es.amazonaws.com";
+    private final static String URL = "https://" + HOST + "/bookindex/bookinfo/_search?filter_path=hits.total,hits.hits._source&size=20";
+    private final static String QUERY = "{\"query\":{\"bool\":{\"filter\":{\"match\":{\"author\":\"gibson\"}}}}}";
+    private final static String SERVICE = "es";
+    private final static String REGION = "eu-central-1";
+    private final static String GZIP_PROPERTY = "booksearch.http.gzip";
+    private final static String GZIP_MIN_BYTES_PROPERTY = "booksearch.http.gzipMinBytes";
+    private final static Instant SIGN_TIME = Instant.parse("2018-07-11T10:15:30Z");
+    private final AWSStaticCredentialsProvider credentials = 
+            new AWSStaticCredentialsProvider( new BasicAWSCredentials("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY") );
+    
+    private HttpPost buildRequest() {
+        HttpPost post = new HttpPost( URL );
+        post.setEntity( new ByteArrayEntity( QUERY.getBytes(StandardCharsets.UTF_8) ) );
+        return post;
+    }
+    
+    private HttpContext buildContext() {
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, new HttpHost(HOST, -1, "https"));
+        return context;
+    }
+
+    @Test
+    public void testSameSignature() throws Exception {
+        AWS4Signer signer = new AWS4Signer();
+        signer.setServiceName( SERVICE );
+        signer.setRegionName( REGION );
+        signer.setOverrideDate( Date.from( SIGN_TIME ) );
+        AWSRequestSigningApacheInterceptor awsInterceptor = new AWSRequestSigningApacheInterceptor(SERVICE, signer, credentials);
+        HttpPost awsRequest = buildRequest();
+        awsInterceptor.process(awsRequest, buildContext());
+        
+        SigV4SigningInterceptor interceptor = new SigV4SigningInterceptor(SERVICE, REGION, credentials, Clock.fixed(SIGN_TIME, ZoneOffset.UTC));
+        HttpPost request = buildRequest();
+        HttpEntity entity = request.getEntity();
+        interceptor.process(request, buildContext());
+        
+        assertEquals(awsRequest.getFirstHeader("X-Amz-Date").getValue(), request.getFirstHeader("X-Amz-Date").getValue());
+        assertEquals(awsRequest.getFirstHeader("Authorization").getValue(), request.getFirstHeader("Authorization").getValue());
+        assertSame("The repeatable entity should not be replaced", entity, request.getEntity());
+        // A second request uses the cached signing key
+        HttpPost secondRequest = buildRequest();
+        interceptor.process(secondRequest, buildContext());
+        assertEquals(request.getFirstHeader("Authorization").getValue(), secondRequest.getFirstHeader("Authorization").getValue());
+    }
+
+    /**
+     * The Content-Encoding and Content-Type headers are signed, so a compressed body can't be sent with a changed
+     * encoding.
+     */
+    @Test
+    public void testBodyHeadersSigned() throws Exception {
+        AWS4Signer signer = new AWS4Signer();
+        signer.setServiceName( SERVICE );
+        signer.setRegionName( REGION );
+        signer.setOverrideDate( Date.from( SIGN_TIME ) );
+        AWSRequestSigningApacheInterceptor awsInterceptor = new AWSRequestSigningApacheInterceptor(SERVICE, signer, credentials);
+        HttpPost awsRequest = buildGzipRequest();
+        awsInterceptor.process(awsRequest, buildContext());
+
+        SigV4SigningInterceptor interceptor = new SigV4SigningInterceptor(SERVICE, REGION, credentials, Clock.fixed(SIGN_TIME, ZoneOffset.UTC));
+        HttpPost request = buildGzipRequest();
+        interceptor.process(request, buildContext());
+        final String authorization = request.getFirstHeader("Authorization").getValue();
+        assertEquals(awsRequest.getFirstHeader("Authorization").getValue(), authorization);
+        assertTrue(authorization.contains("SignedHeaders=content-encoding;content-type;host;x-amz-date,"));
+
+        // The HTTP client copies the entity headers into the request after the interceptor, so they are signed
+        HttpPost entityRequest = buildRequest();
+        entityRequest.setEntity( request.getEntity() );
+        interceptor.process(entityRequest, buildContext());
+        assertEquals(authorization, entityRequest.getFirstHeader("Authorization").getValue());
+
+        HttpPost plainRequest = buildRequest();
+        interceptor.process(plainRequest, buildContext());
+        assertTrue(plainRequest.getFirstHeader("Authorization").getValue().contains("SignedHeaders=host;x-amz-date,"));
+    }
+
+    /**
+     * A compressed request, with the entity headers copied into the request (as the HTTP client does)
+     */
+    private HttpPost buildGzipRequest() {
+        System.setProperty(GZIP_PROPERTY, "true");
+        System.setProperty(GZIP_MIN_BYTES_PROPERTY, "0");
+        try {
+            HttpPost post = new HttpPost( URL );
+            ByteArrayEntity entity = (ByteArrayEntity) HttpCompression.jsonEntity( QUERY, "search" );
+            entity.setContentType( "application/json" );
+            post.setEntity( entity );
+            post.setHeader( entity.getContentEncoding() );
+            post.setHeader( entity.getContentType() );
+            return post;
+        } finally {
+            System.clearProperty(GZIP_PROPERTY);
+            System.clearProperty(GZIP_MIN_BYTES_PROPERTY);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import booksearch_es.json.Mapping;
+import booksearch_es.model.BookInfo;
+import booksearch_es.service.BookSearchService;
+import booksearch_es.service.ElasticsearchService;
+import booksearch_es.service.InMemoryTransport;
+import booksearch_es.service.JsonResponseHandler;
+import booksearch_es.service.SingleFlight;
+
+/**
+ * <h4>
+ * SingleFlightTest
+ * </h4>
+ * <p>
+ * Test that identical genre searches that are in flight at the same time are sent to Elasticsearch once.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class SingleFlightTest {
+    private final static String INDEX_NAME = "single_flight_test";
+    private final static int CALLERS = 8;
+
+    /**
+     * An in-memory transport where a search waits until it is released.
+     */
+    private static class BlockingSearch extends InMemoryTransport {
+        final AtomicInteger searches = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public <T> T getDocument(final String index, final String type, final String suffix, final String jsonPayload, JsonResponseHandler<T> handler) {
+            if (suffix != null && suffix.startsWith("_search")) {
+                searches.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getDocument(index, type, suffix, jsonPayload, handler);
+        }
+    }
+
+    @Test
+    public void testCoalescedGenreSearch() throws Exception {
+        final BlockingSearch transport = new BlockingSearch();
+        transport.putDocument(INDEX_NAME, null, null, Mapping.bookInfoMapping(false));
+        ElasticsearchService elasticService = new ElasticsearchService( transport );
+        for (BookInfo book : BookInfoUtil.gibsonBooks()) {
+            elasticService.addDocument(INDEX_NAME, Mapping.TYPE_NAME, book);
+        }
+        final String genre = BookInfoUtil.gibsonBooks().get(0).getGenre();
+        final BookSearchService bookService = new BookSearchService( transport );
+        final long coalesced = SingleFlight.snapshot().get("coalesced");
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<List<BookInfo>>> results = new ArrayList<Future<List<BookInfo>>>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add( executor.submit(() -> bookService.findBooksByGenre(INDEX_NAME, genre)) );
+            }
+            // wait until the other callers are waiting for the first search
+            long deadline = System.currentTimeMillis() + 10000;
+            while (SingleFlight.snapshot().get("coalesced") < coalesced + CALLERS - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            transport.release.countDown();
+            List<BookInfo> first = results.get(0).get(10, TimeUnit.SECONDS);
+            assertTrue(first.size() > 0);
+            for (Future<List<BookInfo>> result : results) {
+                List<BookInfo> books = result.get(10, TimeUnit.SECONDS);
+                assertEquals(first.size(), books.size());
+                if (result != results.get(0)) {
+                    assertNotSame("Each caller should get its own list", first, books);
+                }
+            }
+            assertEquals(1, transport.searches.get());
+            assertEquals(coalesced + CALLERS - 1, SingleFlight.snapshot().get("coalesced").longValue());
+        } finally {
+            executor.shutdownNow();
+        }
+        // A later search is sent again
+        bookService.findBooksByGenre(INDEX_NAME, genre);
+        assertEquals(2, transport.searches.get());
+    }
+}
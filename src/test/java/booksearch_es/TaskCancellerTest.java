@@ -0,0 +1,90 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import booksearch_es.service.OperationClass;
+import booksearch_es.service.SingleFlight;
+import booksearch_es.service.TaskCanceller;
+
+/**
+ * <h4>
+ * TaskCancellerTest
+ * </h4>
+ * <p>
+ * Test the request classification, finding the Elasticsearch task for an abandoned search and the cancellation of a
+ * coalesced search when all of its callers cancel.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class TaskCancellerTest {
+    private final static String TASKS_JSON = "{\"nodes\":{\"n1\":{\"name\":\"n1\",\"tasks\":{" +
+            "\"n1:101\":{\"node\":\"n1\",\"id\":101,\"action\":\"indices:data/read/search\",\"cancellable\":true," +
+                     "\"headers\":{\"X-Opaque-Id\":\"booksearch-7\"}}," +
+            "\"n1:102\":{\"node\":\"n1\",\"id\":102,\"action\":\"indices:data/read/search[phase/query]\",\"cancellable\":true," +
+                     "\"parent_task_id\":\"n1:101\",\"headers\":{\"X-Opaque-Id\":\"booksearch-7\"}}," +
+            "\"n1:103\":{\"node\":\"n1\",\"id\":103,\"action\":\"indices:data/read/search\",\"cancellable\":true," +
+                     "\"headers\":{\"X-Opaque-Id\":\"booksearch-8\"}}}}}}";
+
+    @Test
+    public void testClassify() {
+        assertEquals(OperationClass.SEARCH, OperationClass.classify("GET", "/bookindex/bookinfo/_search"));
+        assertEquals(OperationClass.SEARCH, OperationClass.classify("HEAD", "/bookindex"));
+        assertEquals(OperationClass.SEARCH, OperationClass.classify("POST", "/_msearch"));
+        assertEquals(OperationClass.AGGREGATION, OperationClass.classify("POST", "/bookindex/bookinfo/_search"));
+        assertEquals(OperationClass.WRITE, OperationClass.classify("PUT", "/bookindex/bookinfo/1"));
+        assertEquals(OperationClass.WRITE, OperationClass.classify("POST", "/bookindex/_delete_by_query"));
+        assertEquals(OperationClass.BULK, OperationClass.classify("POST", "/_bulk"));
+        assertTrue(OperationClass.SEARCH.isCancellable());
+        assertFalse(OperationClass.BULK.isCancellable());
+    }
+
+    @Test
+    public void testFindTasks() throws Exception {
+        // Only the parent search task is cancelled; the shard task is cancelled with it
+        List<String> taskIds = TaskCanceller.findTasks(TASKS_JSON, "booksearch-7");
+        assertEquals(Arrays.asList("n1:101"), taskIds);
+        assertTrue(TaskCanceller.findTasks(TASKS_JSON, "booksearch-9").isEmpty());
+    }
+
+    @Test
+    public void testCoalescedCancellation() throws Exception {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final CompletableFuture<String> request = new CompletableFuture<String>();
+        CompletableFuture<String> first = singleFlight.executeAsync("q", () -> request);
+        CompletableFuture<String> second = singleFlight.executeAsync("q", () -> CompletableFuture.completedFuture("not sent"));
+        // One of the callers still waits, so the request is not cancelled
+        first.cancel(true);
+        assertFalse(request.isCancelled());
+        request.complete("result");
+        assertEquals("result", second.get(1, TimeUnit.SECONDS));
+
+        final CompletableFuture<String> abandoned = new CompletableFuture<String>();
+        CompletableFuture<String> third = singleFlight.executeAsync("r", () -> abandoned);
+        CompletableFuture<String> fourth = singleFlight.executeAsync("r", () -> CompletableFuture.completedFuture("not sent"));
+        third.cancel(true);
+        fourth.cancel(true);
+        assertTrue(abandoned.isCancelled());
+        assertEquals(0, singleFlight.size());
+    }
+}
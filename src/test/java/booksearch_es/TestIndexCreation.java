@@ -15,7 +15,7 @@ import org.junit.Test;
 
 import booksearch_es.json.JSONUtils;
 import booksearch_es.json.Mapping;
-import booksearch_es.service.HttpService;
+import booksearch_es.service.TransportFactory;
 
 public class TestIndexCreation {
     private final static String indexName = "test_index";
@@ -35,7 +35,7 @@ public class TestIndexCreation {
      */
     @After
     public void tearDown() throws Exception {
-        String deleteIndexRslt = HttpService.deleteDocument(indexName, type, suffix);
+        String deleteIndexRslt = TransportFactory.defaultTransport().deleteDocument(indexName, type, suffix);
         if (deleteIndexRslt != null) {
             if (JSONUtils.isAcknowledged(deleteIndexRslt)) {
                 System.out.println("Test index " + indexName + " successfully removed");
@@ -56,7 +56,7 @@ public class TestIndexCreation {
     @Test
     public void test() {
         final String bookInfoMapping = Mapping.bookInfoMapping(false);
-        String rslt = HttpService.putDocument(indexName, type, suffix, bookInfoMapping);
+        String rslt = TransportFactory.defaultTransport().putDocument(indexName, type, suffix, bookInfoMapping);
         if (rslt != null) {
             if (JSONUtils.isAcknowledged(rslt)) {
                 System.out.println(indexName + " index created");
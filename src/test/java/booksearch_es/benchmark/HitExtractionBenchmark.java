@@ -0,0 +1,125 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import booksearch_es.json.JSONUtils;
+import booksearch_es.model.BookInfo;
+
+/**
+ * <h4>
+ * HitExtractionBenchmark
+ * </h4>
+ * <p>
+ * Compare the cost of reading the BookInfo objects from a page of search hits with the streaming
+ * JSONUtils.extractFromQueryResult() and with the JSON tree extraction that JSONUtils used before: a new
+ * ObjectMapper builds a tree of the result and each _source tree is converted to a BookInfo. The tree extraction is
+ * copied here, so the comparison can be repeated. The GC profiler reports the bytes allocated per page
+ * (gc.alloc.rate.norm).
+ * </p>
+ * <pre>
+ * java -cp [test classpath] booksearch_es.benchmark.HitExtractionBenchmark
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitExtractionBenchmark {
+    private final static ObjectMapper sharedMapper = new ObjectMapper();
+
+    @Param({"10", "100"})
+    public int hitCount;
+
+    private String searchResult;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"took\":6,\"timed_out\":false,\"_shards\":{\"total\":5,\"successful\":5,\"skipped\":0,\"failed\":0},");
+        builder.append("\"hits\":{\"total\":").append(hitCount).append(",\"max_score\":0.2876821,\"hits\":[");
+        for (int i = 0; i < hitCount; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"_index\":\"bookindex\",\"_type\":\"bookinfo\",\"_id\":\"4e7f7c3f639a9e5d09de0755944").append(10000 + i)
+                   .append("\",\"_score\":0.2876821,\"_source\":{\"title\":\"Count Zero ").append(i)
+                   .append("\",\"author\":\"William Gibson\",\"author_last_name\":\"Gibson, William\",\"genre\":\"Science Fiction\",")
+                   .append("\"publisher\":\"HarperCollins Publishers\",\"year\":\"1986\",\"price\":\"47.50\"}}");
+        }
+        builder.append("]}}");
+        searchResult = builder.toString();
+    }
+
+    @Benchmark
+    public List<BookInfo> jsonTree() throws IOException {
+        List<BookInfo> bookList = new ArrayList<BookInfo>();
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode node = mapper.readTree( searchResult ).get("hits");
+        if (node != null) {
+            JsonNode objArray = node.get("hits");
+            if (objArray.isArray()) {
+                for (JsonNode bookInfoContainer : objArray) {
+                    JsonNode bookInfoJson = bookInfoContainer.get("_source");
+                    BookInfo info = sharedMapper.convertValue(bookInfoJson, BookInfo.class);
+                    if (info != null) {
+                        bookList.add(info);
+                    }
+                }
+            }
+        }
+        return bookList;
+    }
+
+    @Benchmark
+    public List<BookInfo> streaming() {
+        List<BookInfo> bookList = new ArrayList<BookInfo>();
+        JSONUtils.extractFromQueryResult( searchResult, bookList );
+        return bookList;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include( HitExtractionBenchmark.class.getSimpleName() )
+                .addProfiler( GCProfiler.class )
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,161 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.benchmark;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import booksearch_es.json.QueryTemplate;
+
+/**
+ * <h4>
+ * QueryTemplateBenchmark
+ * </h4>
+ * <p>
+ * Compare the cost of building the BookSearchService queries with a QueryTemplate and with the builders that
+ * BookSearchService used before the templates: a new ObjectMapper that serializes a tree of wrapper objects
+ * (the author filter query) and a javax.json JsonGenerator that writes to a StringWriter (the genre query). The
+ * earlier builders are copied here, so the comparison can be repeated. The GC profiler reports the bytes allocated
+ * per query (gc.alloc.rate.norm).
+ * </p>
+ * <p>
+ * The *Template benchmarks measure render(), which only allocates the query bytes. BookSearchService uses
+ * renderString() (the *TemplateString benchmarks), which also decodes the bytes to a String, because SearchQuery and
+ * the transport take String payloads.
+ * </p>
+ * <pre>
+ * java -cp [test classpath] booksearch_es.benchmark.QueryTemplateBenchmark
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryTemplateBenchmark {
+    private final static QueryTemplate AUTHOR_FILTER_TEMPLATE = QueryTemplate.compile(
+            "{\"query\":{\"bool\":{\"filter\":{\"match\":{\"author\":${author}}}}}}");
+    private final static QueryTemplate GENRE_TEMPLATE = QueryTemplate.compile(
+            "{\"query\":{\"match\":{\"genre\":${genre}}}," +
+            "\"sort\":[{\"author_last_name\":{\"order\":\"asc\"}},{\"title.keyword\":{\"order\":\"asc\"}}]}");
+
+    public String author = "Iain M. Banks";
+    public String genre = "Science Fiction";
+
+    // The wrapper classes that the author filter query was built from
+    static class Author {
+        final public String author;
+        Author(final String author) { this.author = author; }
+    }
+    static class MatchExp {
+        final public Object match;
+        MatchExp(final Object match) { this.match = match; }
+    }
+    static class FilterExp {
+        final public Object filter;
+        FilterExp(final Object filter) { this.filter = filter; }
+    }
+    static class BoolExp {
+        final public Object bool;
+        BoolExp(final Object bool) { this.bool = bool; }
+    }
+    static class Query {
+        final public Object query;
+        Query(final Object query) { this.query = query; }
+    }
+
+    @Benchmark
+    public String authorFilterObjectMapper() throws JsonProcessingException {
+        Query query = new Query(new BoolExp(new FilterExp(new MatchExp(new Author(author)))));
+        ObjectMapper mapper = new ObjectMapper();
+        return mapper.writeValueAsString(query);
+    }
+
+    @Benchmark
+    public byte[] authorFilterTemplate() {
+        return AUTHOR_FILTER_TEMPLATE.render(author);
+    }
+
+    @Benchmark
+    public String authorFilterTemplateString() {
+        return AUTHOR_FILTER_TEMPLATE.renderString(author);
+    }
+
+    @Benchmark
+    public String genreJsonGenerator() {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = Json.createGenerator(writer);
+        generator.writeStartObject();
+        generator.writeStartObject("query");
+        generator.writeStartObject("match");
+        generator.write("genre", genre );
+        generator.writeEnd();
+        generator.writeEnd();
+        generator.writeStartArray("sort");
+        generator.writeStartObject();
+        generator.writeStartObject("author_last_name");
+        generator.write("order", "asc");
+        generator.writeEnd();
+        generator.writeEnd();
+        generator.writeStartObject();
+        generator.writeStartObject("title.keyword");
+        generator.write("order", "asc");
+        generator.writeEnd();
+        generator.writeEnd();
+        generator.writeEnd();
+        generator.writeEnd();
+        generator.close();
+        return writer.toString();
+    }
+
+    @Benchmark
+    public byte[] genreTemplate() {
+        return GENRE_TEMPLATE.render(genre);
+    }
+
+    @Benchmark
+    public String genreTemplateString() {
+        return GENRE_TEMPLATE.renderString(genre);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include( QueryTemplateBenchmark.class.getSimpleName() )
+                .addProfiler( GCProfiler.class )
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,133 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.http.AWSRequestSigningApacheInterceptor;
+
+import booksearch_es.service.SigV4SigningInterceptor;
+
+/**
+ * <h4>
+ * SigningBenchmark
+ * </h4>
+ * <p>
+ * Compare the cost of signing an Elasticsearch search request with the AWSRequestSigningApacheInterceptor (and
+ * the AWS4Signer) and with the SigV4SigningInterceptor. The GC profiler reports the bytes allocated per request
+ * (gc.alloc.rate.norm).
+ * </p>
+ * <p>
+ * Both benchmarks build a new request for each operation, since the AWS interceptor replaces the request entity
+ * with a stream that can only be read once.
+ * </p>
+ * <pre>
+ * java -cp [test classpath] booksearch_es.benchmark.SigningBenchmark
+ * </pre>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningBenchmark {
+    private final static String HOST = "search-booksearch-test.eu-central-1.es.amazonaws.com";
+    private final static String URL = "https://" + HOST + "/bookindex/bookinfo/_search";
+    private final static String SERVICE = "es";
+    private final static String REGION = "eu-central-1";
+
+    @Param({"256", "16384"})
+    public int payloadSize;
+
+    private byte[] payload;
+    private HttpContext context;
+    private AWSRequestSigningApacheInterceptor awsInterceptor;
+    private SigV4SigningInterceptor sigV4Interceptor;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder("{\"query\":{\"bool\":{\"filter\":{\"match\":{\"author\":\"");
+        while (builder.length() < payloadSize - 8) {
+            builder.append("gibson ");
+        }
+        builder.append("\"}}}}}");
+        payload = builder.toString().getBytes(StandardCharsets.UTF_8);
+        context = new BasicHttpContext();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, new HttpHost(HOST, -1, "https"));
+        AWSStaticCredentialsProvider credentials =
+                new AWSStaticCredentialsProvider( new BasicAWSCredentials("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY") );
+        AWS4Signer signer = new AWS4Signer();
+        signer.setServiceName( SERVICE );
+        signer.setRegionName( REGION );
+        awsInterceptor = new AWSRequestSigningApacheInterceptor(SERVICE, signer, credentials);
+        sigV4Interceptor = new SigV4SigningInterceptor(SERVICE, REGION, credentials);
+    }
+
+    private HttpPost buildRequest() {
+        HttpPost post = new HttpPost( URL );
+        post.setHeader("Content-type", "application/json");
+        post.setEntity( new ByteArrayEntity( payload ) );
+        return post;
+    }
+
+    @Benchmark
+    public HttpPost awsRequestSigningInterceptor() throws Exception {
+        HttpPost request = buildRequest();
+        awsInterceptor.process(request, context);
+        return request;
+    }
+
+    @Benchmark
+    public HttpPost sigV4SigningInterceptor() throws Exception {
+        HttpPost request = buildRequest();
+        sigV4Interceptor.process(request, context);
+        return request;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include( SigningBenchmark.class.getSimpleName() )
+                .addProfiler( GCProfiler.class )
+                .build();
+        new Runner(options).run();
+    }
+}
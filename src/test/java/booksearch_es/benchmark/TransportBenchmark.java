@@ -0,0 +1,167 @@
+/** \file
+ *
+ * Oct 18, 2026
+ *
+ * Copyright Ian Kaplan 2018
+ *
+ * @author Ian Kaplan, www.bearcave.com, iank@bearcave.com
+ */
+package booksearch_es.benchmark;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.pool.PoolStats;
+
+import booksearch_es.LocalSearchServer;
+import booksearch_es.service.AsyncHttpService;
+import booksearch_es.service.Http2Service;
+import booksearch_es.service.Http2Transport;
+import booksearch_es.service.HttpTransport;
+import booksearch_es.service.IElasticsearchTransport;
+import booksearch_es.service.NodePool;
+
+/**
+ * <h4>
+ * TransportBenchmark
+ * </h4>
+ * <p>
+ * Compare the throughput and the number of connections of the HTTP/1.1 transport (HttpTransport, which sends the
+ * asynchronous requests through the AsyncHttpService connection pool) and the HTTP/2 transport (Http2Transport).
+ * Each run keeps a fixed number of searches in flight for a fixed time and reports the searches per second, the mean
+ * latency and the number of connections that were used.
+ * </p>
+ * <p>
+ * This is not a JMH benchmark: the cost being measured is in the network and the server, not in the JVM. By default
+ * the searches are sent to a LocalSearchServer, which answers after a fixed delay (the simulated Elasticsearch
+ * service time). With -Dbooksearch.benchmark.remote=true the searches are sent to the configured Elasticsearch
+ * nodes (booksearch.es.nodes), which must support HTTP/2 for the HTTP/2 run.
+ * </p>
+ * <pre>
+ * java -cp [test classpath] -Dbooksearch.benchmark.concurrency=64 -Dbooksearch.benchmark.seconds=10 booksearch_es.benchmark.TransportBenchmark
+ * </pre>
+ * <p>
+ * Other properties: booksearch.benchmark.delayMillis (the local server delay), booksearch.benchmark.index and
+ * booksearch.benchmark.query (the remote search). The HTTP/1.1 connections are limited by booksearch.http.maxPerRoute.
+ * </p>
+ * <p>
+ * Oct 18, 2026
+ * </p>
+ *
+ * @author Ian Kaplan, iank@bearcave.com
+ */
+public class TransportBenchmark {
+    private final static String RESPONSE = "{\"took\":2,\"timed_out\":false,\"hits\":{\"total\":1,\"max_score\":1.0,\"hits\":[{\"_index\":\"bookindex\",\"_type\":\"bookinfo\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"title\":\"Neuromancer\",\"author\":\"William Gibson\"}}]}}";
+
+    private final int concurrency;
+    private final long seconds;
+    private final String index;
+    private final String query;
+
+    private static class Result {
+        long searches;
+        long errors;
+        double searchesPerSecond;
+        double meanLatencyMillis;
+        long connections;
+    }
+
+    public TransportBenchmark(final int concurrency, final long seconds, final String index, final String query) {
+        this.concurrency = concurrency;
+        this.seconds = seconds;
+        this.index = index;
+        this.query = query;
+    }
+
+    /**
+     * Keep concurrency searches in flight for the given time.
+     */
+    private Result run(final IElasticsearchTransport transport, final long runSeconds) throws InterruptedException {
+        final Semaphore inFlight = new Semaphore( concurrency );
+        final LongAdder searches = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder latencyNanos = new LongAdder();
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos( runSeconds );
+        while (System.nanoTime() < end) {
+            inFlight.acquire();
+            final long sent = System.nanoTime();
+            CompletableFuture<String> search = transport.getDocumentAsync(index, null, "_search", query);
+            search.whenComplete((body, ex) -> {
+                if (ex != null || body == null) {
+                    errors.increment();
+                } else {
+                    searches.increment();
+                    latencyNanos.add( System.nanoTime() - sent );
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire( concurrency );
+        final double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        Result result = new Result();
+        result.searches = searches.sum();
+        result.errors = errors.sum();
+        result.searchesPerSecond = result.searches / elapsedSeconds;
+        result.meanLatencyMillis = (result.searches > 0) ? (latencyNanos.sum() / 1e6) / result.searches : 0;
+        return result;
+    }
+
+    private static void report(final String name, final Result result) {
+        System.out.println(String.format("%-9s %10d %8d %12.1f %12.2f %12d", name, result.searches, result.errors,
+                                         result.searchesPerSecond, result.meanLatencyMillis, result.connections));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int concurrency = Integer.getInteger("booksearch.benchmark.concurrency", 64);
+        final long seconds = Long.getLong("booksearch.benchmark.seconds", 10);
+        final long delayMillis = Long.getLong("booksearch.benchmark.delayMillis", 20);
+        final boolean remote = Boolean.getBoolean("booksearch.benchmark.remote");
+        final String index = System.getProperty("booksearch.benchmark.index", "bookindex");
+        final String query = System.getProperty("booksearch.benchmark.query", "{\"query\":{\"match\":{\"author\":\"gibson\"}}}");
+        LocalSearchServer server = null;
+        if (! remote) {
+            server = new LocalSearchServer(RESPONSE, delayMillis);
+            // The HTTP/1.1 transport sends requests to the default node pool
+            System.setProperty("booksearch.es.nodes", server.getUrl());
+        }
+        try {
+            TransportBenchmark benchmark = new TransportBenchmark(concurrency, seconds, index, query);
+            IElasticsearchTransport http1 = new HttpTransport();
+            IElasticsearchTransport http2 = new Http2Transport( NodePool.defaultPool() );
+            System.out.println("concurrency = " + concurrency + ", seconds = " + seconds +
+                               (remote ? ", nodes = " + NodePool.defaultPool().snapshot().keySet() : ", server delay = " + delayMillis + " ms"));
+            System.out.println(String.format("%-9s %10s %8s %12s %12s %12s", "transport", "searches", "errors", "searches/s", "mean ms", "connections"));
+
+            // Each run includes a warm up (connection setup, TLS and JIT). The connections opened by the warm up are counted.
+            int serverConnections = (server != null) ? server.getConnections() : 0;
+            benchmark.run(http1, 1);
+            Result http1Result = benchmark.run(http1, seconds);
+            PoolStats poolStats = AsyncHttpService.getPoolStats();
+            if (server != null) {
+                http1Result.connections = server.getConnections() - serverConnections;
+            } else if (poolStats != null) {
+                // the connections in the pool at the end of the run
+                http1Result.connections = poolStats.getLeased() + poolStats.getAvailable();
+            }
+            AsyncHttpService.shutdown();
+            report("HTTP/1.1", http1Result);
+
+            serverConnections = (server != null) ? server.getConnections() : 0;
+            final long http2Connections = Http2Service.snapshot().get("connections");
+            benchmark.run(http2, 1);
+            Result http2Result = benchmark.run(http2, seconds);
+            http2Result.connections = (server != null) ? server.getConnections() - serverConnections
+                                                       : Http2Service.snapshot().get("connections") - http2Connections;
+            report("HTTP/2", http2Result);
+        } finally {
+            AsyncHttpService.shutdown();
+            Http2Service.shutdown();
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+}